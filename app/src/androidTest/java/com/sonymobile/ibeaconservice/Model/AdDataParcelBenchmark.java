@@ -0,0 +1,193 @@
+package com.sonymobile.ibeaconservice.Model;
+
+import android.os.Parcel;
+import android.os.Parcelable;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.sonymobile.ibeaconservice.core.Model.BeaconFrame;
+import com.sonymobile.ibeaconservice.core.Model.BeaconFrameView;
+import com.sonymobile.ibeaconservice.core.Utils.IBeaconFrames;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Parcel size and marshal/unmarshal time of the compact AdData format against the old five
+ * array format, for single frames and for batches. Needs a device since Parcel is native;
+ * timings go to logcat under the class name.
+ */
+@RunWith(AndroidJUnit4.class)
+public class AdDataParcelBenchmark {
+    private static final String TAG = AdDataParcelBenchmark.class.getSimpleName();
+    private static final int BATCH_SIZE = 1000;
+    private static final int WARMUP_ROUNDS = 20;
+    private static final int ROUNDS = 50;
+
+    private AdData[] mCompact;
+    private LegacyAdData[] mLegacy;
+
+    /**
+     * The format AdData used before: five length prefixed arrays, five allocations on the
+     * parcel side alone to read.
+     */
+    static class LegacyAdData extends BeaconFrame implements Parcelable {
+        LegacyAdData(byte[] adData) {
+            super(adData);
+        }
+
+        private LegacyAdData(Parcel in) {
+            super(in.createByteArray(),
+                    in.createByteArray(),
+                    in.createByteArray(),
+                    in.createByteArray(),
+                    in.createByteArray());
+        }
+
+        static final Creator<LegacyAdData> CREATOR = new Creator<LegacyAdData>() {
+            @Override
+            public LegacyAdData createFromParcel(Parcel in) {
+                return new LegacyAdData(in);
+            }
+
+            @Override
+            public LegacyAdData[] newArray(int size) {
+                return new LegacyAdData[size];
+            }
+        };
+
+        @Override
+        public int describeContents() {
+            return 0;
+        }
+
+        @Override
+        public void writeToParcel(Parcel parcel, int i) {
+            parcel.writeByteArray(getUUIDBytes());
+            parcel.writeByteArray(getBatteryVoltageBytes());
+            parcel.writeByteArray(getMajorBytes());
+            parcel.writeByteArray(getMinorBytes());
+            parcel.writeByteArray(getSignalPowerBytes());
+        }
+    }
+
+    @Before
+    public void setUp() {
+        BeaconFrameView view = new BeaconFrameView();
+        byte[] frame = IBeaconFrames.createDefaultFrame();
+
+        mCompact = new AdData[BATCH_SIZE];
+        mLegacy = new LegacyAdData[BATCH_SIZE];
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            view.wrap(frame, 0).setMinor(i);
+            mCompact[i] = new AdData(frame);
+            mLegacy[i] = new LegacyAdData(frame);
+        }
+    }
+
+    @Test
+    public void singleFrameIsSmallerAndRoundTrips() {
+        Parcel compact = Parcel.obtain();
+        Parcel legacy = Parcel.obtain();
+
+        try {
+            mCompact[7].writeToParcel(compact, 0);
+            mLegacy[7].writeToParcel(legacy, 0);
+            Log.d(TAG, "single frame parcel: compact " + compact.dataSize() + " bytes, legacy "
+                    + legacy.dataSize() + " bytes");
+            assertTrue(compact.dataSize() < legacy.dataSize());
+
+            compact.setDataPosition(0);
+            AdData copy = AdData.CREATOR.createFromParcel(compact);
+            assertArrayEquals(mCompact[7].getManufacturerDataBytes(), copy.getManufacturerDataBytes());
+        } finally {
+            compact.recycle();
+            legacy.recycle();
+        }
+    }
+
+    @Test
+    public void batchIsSmallerAndRoundTrips() {
+        Parcel compact = Parcel.obtain();
+        Parcel typed = Parcel.obtain();
+        Parcel legacy = Parcel.obtain();
+
+        try {
+            AdData.writeArrayToParcel(compact, mCompact);
+            typed.writeTypedArray(mCompact, 0);
+            legacy.writeTypedArray(mLegacy, 0);
+            Log.d(TAG, BATCH_SIZE + " frame batch: blob " + compact.dataSize() + " bytes, typed array "
+                    + typed.dataSize() + " bytes, legacy typed array " + legacy.dataSize() + " bytes");
+            assertTrue(compact.dataSize() < typed.dataSize());
+            assertTrue(typed.dataSize() < legacy.dataSize());
+
+            compact.setDataPosition(0);
+            AdData[] copy = AdData.createArrayFromParcel(compact);
+            assertEquals(BATCH_SIZE, copy.length);
+            assertEquals(mCompact[BATCH_SIZE - 1].getMinorBytesString(), copy[BATCH_SIZE - 1].getMinorBytesString());
+        } finally {
+            compact.recycle();
+            typed.recycle();
+            legacy.recycle();
+        }
+    }
+
+    @Test
+    public void marshalTimes() {
+        for (int i = 0; i < WARMUP_ROUNDS; i++) {
+            timeBlob();
+            timeTyped(mCompact, AdData.CREATOR);
+            timeTyped(mLegacy, LegacyAdData.CREATOR);
+        }
+        long blob = 0;
+        long typed = 0;
+        long legacy = 0;
+
+        for (int i = 0; i < ROUNDS; i++) {
+            blob += timeBlob();
+            typed += timeTyped(mCompact, AdData.CREATOR);
+            legacy += timeTyped(mLegacy, LegacyAdData.CREATOR);
+        }
+        Log.d(TAG, "marshal+unmarshal per frame: blob " + blob / ROUNDS / BATCH_SIZE + " ns, typed array "
+                + typed / ROUNDS / BATCH_SIZE + " ns, legacy typed array " + legacy / ROUNDS / BATCH_SIZE + " ns");
+    }
+
+    private long timeBlob() {
+        Parcel parcel = Parcel.obtain();
+
+        try {
+            long start = System.nanoTime();
+            AdData.writeArrayToParcel(parcel, mCompact);
+            parcel.setDataPosition(0);
+            AdData[] copy = AdData.createArrayFromParcel(parcel);
+            long elapsed = System.nanoTime() - start;
+
+            assertEquals(BATCH_SIZE, copy.length);
+            return elapsed;
+        } finally {
+            parcel.recycle();
+        }
+    }
+
+    private <T extends Parcelable> long timeTyped(T[] batch, Parcelable.Creator<T> creator) {
+        Parcel parcel = Parcel.obtain();
+
+        try {
+            long start = System.nanoTime();
+            parcel.writeTypedArray(batch, 0);
+            parcel.setDataPosition(0);
+            T[] copy = parcel.createTypedArray(creator);
+            long elapsed = System.nanoTime() - start;
+
+            assertEquals(BATCH_SIZE, copy.length);
+            return elapsed;
+        } finally {
+            parcel.recycle();
+        }
+    }
+}
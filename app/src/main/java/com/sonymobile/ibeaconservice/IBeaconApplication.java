@@ -1,7 +1,68 @@
 package com.sonymobile.ibeaconservice;
 
 import android.app.Application;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+import android.util.Base64;
+import android.util.Log;
+
+import com.sonymobile.ibeaconservice.core.Storage.ProfileStore;
+import com.sonymobile.ibeaconservice.core.Utils.IBeaconFrames;
+
+import java.io.File;
+import java.io.IOException;
 
 public class IBeaconApplication extends Application {
+    private static final String TAG = IBeaconApplication.class.getName();
+    private static final String PROFILE_STORE_FILE = "profiles.db";
+    //imported fleets, kept apart so cold starts never map them
+    private static final String FLEET_STORE_FILE = "fleet.db";
+    //where the single frame used to live, Base64 in the default shared preferences
+    private static final String LEGACY_AD_DATA_KEY = "advertising_data";
+
+    public static final String DEFAULT_PROFILE_NAME = "default";
+
     public boolean mRunning = false;
+    private ProfileStore mProfileStore;
+    private ProfileStore mFleetStore;
+
+    /**
+     * Opened on first use; a frame left in shared preferences by older versions is moved into
+     * the store as the active profile. Does file I/O, keep it off the main thread.
+     */
+    public synchronized ProfileStore getProfileStore() throws IOException {
+        if (mProfileStore == null) {
+            mProfileStore = ProfileStore.open(new File(getFilesDir(), PROFILE_STORE_FILE));
+            migrateSharedPreferences(mProfileStore);
+        }
+        return mProfileStore;
+    }
+
+    /**
+     * Store for imported fleets, opened on the first import. Does file I/O, keep it off the
+     * main thread.
+     */
+    public synchronized ProfileStore getFleetStore() throws IOException {
+        if (mFleetStore == null) {
+            mFleetStore = ProfileStore.open(new File(getFilesDir(), FLEET_STORE_FILE));
+        }
+        return mFleetStore;
+    }
+
+    private void migrateSharedPreferences(ProfileStore store) throws IOException {
+        SharedPreferences preferences = PreferenceManager.getDefaultSharedPreferences(this);
+        String adDataString = preferences.getString(LEGACY_AD_DATA_KEY, null);
+
+        if (adDataString == null) {
+            return;
+        }
+        byte[] adBytes = Base64.decode(adDataString, Base64.DEFAULT);
+
+        if (IBeaconFrames.isIBeaconFrame(adBytes, 0) && store.findByName(DEFAULT_PROFILE_NAME) == ProfileStore.NO_PROFILE) {
+            store.setActiveId(store.append(DEFAULT_PROFILE_NAME, adBytes, 0));
+            Log.d(TAG, "migrated advertising data from shared preferences");
+        }
+        //only dropped once the store has it
+        preferences.edit().remove(LEGACY_AD_DATA_KEY).commit();
+    }
 }
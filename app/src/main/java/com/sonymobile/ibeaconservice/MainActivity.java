@@ -2,33 +2,43 @@ package com.sonymobile.ibeaconservice;
 
 import android.app.Application;
 import android.content.Intent;
-import android.content.SharedPreferences;
+import android.net.Uri;
 import android.os.Bundle;
-import android.preference.PreferenceManager;
 import android.support.v7.app.AppCompatActivity;
-import android.util.Base64;
+import android.util.Log;
 import android.view.View;
 import android.widget.Button;
+import android.widget.Toast;
 
 import com.sonymobile.ibeaconservice.Model.AdData;
 import com.sonymobile.ibeaconservice.Service.IBeaconService;
 import com.sonymobile.ibeaconservice.Utils.Constants;
 import com.sonymobile.ibeaconservice.Utils.IBeaconUtils;
+import com.sonymobile.ibeaconservice.core.Import.FleetImporter;
+import com.sonymobile.ibeaconservice.core.Storage.ProfileStore;
+import com.sonymobile.ibeaconservice.core.Utils.Clock;
+import com.sonymobile.ibeaconservice.core.Utils.IBeaconFrames;
 
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
 import java.nio.ByteBuffer;
 import java.util.Objects;
 
 import static com.sonymobile.ibeaconservice.Utils.Constants.Intents.SERVICE_OPEN_APP_INTENT;
 
 public class MainActivity extends AppCompatActivity {
+    private static final String TAG = MainActivity.class.getName();
+
     private Button mStartButton;
     private Button mStopButton;
     private Button mSettingsButton;
     private Button mQuitButton;
+    private Button mImportButton;
     private ByteBuffer mAdvertisingBytes;
 
-    static final String AD_DATA_KEY = "advertising_data";
-
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         Intent intent = getIntent();
@@ -39,6 +49,7 @@ public class MainActivity extends AppCompatActivity {
         mStopButton = findViewById(R.id.stop_button);
         mSettingsButton = findViewById(R.id.settings_button);
         mQuitButton = findViewById(R.id.quit);
+        mImportButton = findViewById(R.id.import_button);
 
         if (intent != null) {
             //app opened from service's notification bar
@@ -50,18 +61,13 @@ public class MainActivity extends AppCompatActivity {
                             .getByteArray(Constants.Extras.ADVERTISING_BYTES));
                 }
             } else {//normal start. Check if service is running..
-                byte[] adBytes = retrieveBytesFromSharedPreferences();
-
-                if (adBytes.length != 0) {
-                   mAdvertisingBytes = ByteBuffer.wrap(adBytes);
-                } else {
-                    mAdvertisingBytes = IBeaconUtils.createDefaultIBeaconAdvertisement();
-                }
                 if ( !((IBeaconApplication)getApplication()).mRunning ){
                     mStopButton.setEnabled(false);
-                } else {
-                    mStartButton.setEnabled(false);
                 }
+                //both need the active profile, enabled once it is loaded
+                mStartButton.setEnabled(false);
+                mSettingsButton.setEnabled(false);
+                loadActiveProfile();
             }
         }
 
@@ -92,6 +98,13 @@ public class MainActivity extends AppCompatActivity {
                 finish();
             }
         });
+
+        mImportButton.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View view) {
+                handleImportButtonClicked();
+            }
+        });
     }
 
     /**
@@ -113,12 +126,20 @@ public class MainActivity extends AppCompatActivity {
 
                     mAdvertisingBytes = ByteBuffer.wrap(ad.getManufacturerDataBytes());
 
-                    //save data to shared prefs getting preferences from a specified file
-                    saveBytesToSharedPreferences(ad.getManufacturerDataBytes());
+                    //save data as the active profile
+                    saveActiveProfile(ad.getManufacturerDataBytes());
 
-                    //stop advertising and start again with new data
-                    handleStopButtonClicked();
-                    handleStartButtonClicked();
+                    //swap the payload of the running beacon in place, no stop/start gap
+                    if (((IBeaconApplication)getApplication()).mRunning) {
+                        updateIBeaconService(mAdvertisingBytes.array());
+                    } else {
+                        handleStartButtonClicked();
+                    }
+                }
+                break;
+            case Constants.ActivityRequestCodes.IMPORT_ACTIVITY_REQUEST_CODE:
+                if (resultCode == RESULT_OK && data != null && data.getData() != null) {
+                    importFleet(data.getData());
                 }
                 break;
                 default:
@@ -134,6 +155,13 @@ public class MainActivity extends AppCompatActivity {
         startService(intent);
     }
 
+    void updateIBeaconService(byte[] advertisingDataBytes) {
+        Intent intent = new Intent(getApplicationContext(), IBeaconService.class);
+        intent.setAction(Constants.Intents.SERVICE_INTENT_UPDATE);
+        intent.putExtra(Constants.Extras.ADVERTISING_BYTES,advertisingDataBytes);
+        startService(intent);
+    }
+
     void handleStopButtonClicked() {
         mStopButton.setEnabled(false);
         mStartButton.setEnabled(true);
@@ -156,27 +184,146 @@ public class MainActivity extends AppCompatActivity {
         }
     }
 
-    void saveBytesToSharedPreferences(byte[] adDataBytes) {
-        SharedPreferences preferences =
-                PreferenceManager.getDefaultSharedPreferences(this);
-        SharedPreferences.Editor edit = preferences.edit();
-        String adDataString = Base64.encodeToString(adDataBytes, Base64.DEFAULT);
+    void handleImportButtonClicked() {
+        Intent pickIntent = new Intent(Intent.ACTION_OPEN_DOCUMENT);
 
-        edit.putString(AD_DATA_KEY, adDataString);
-        edit.apply();
+        pickIntent.addCategory(Intent.CATEGORY_OPENABLE);
+        pickIntent.setType("*/*");
+        startActivityForResult(pickIntent, Constants.ActivityRequestCodes.IMPORT_ACTIVITY_REQUEST_CODE);
     }
 
-    byte[] retrieveBytesFromSharedPreferences(){
-        String adDataString;
-        SharedPreferences preferences =
-                PreferenceManager.getDefaultSharedPreferences(this);
+    /**
+     * Stream a CSV or JSON lines fleet file into the fleet store, off the main thread.
+     * Every accepted row becomes a nameless profile, reached by its id.
+     */
+    void importFleet(final Uri uri) {
+        final IBeaconApplication application = (IBeaconApplication)getApplication();
+        mImportButton.setEnabled(false);
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                String message;
+
+                try (InputStream in = getContentResolver().openInputStream(uri);
+                     BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+                    final ProfileStore store = application.getFleetStore();
+                    FleetImporter importer = new FleetImporter(Clock.SYSTEM);
+                    //picked documents rarely have an extension, look at the content
+                    int format = FleetImporter.detectFormat(reader);
 
-        adDataString = preferences.getString(AD_DATA_KEY,"");
+                    try {
+                        importer.importFrom(reader, format, new FleetImporter.FrameSink() {
+                            @Override
+                            public void onFrames(byte[] frames, int count) throws IOException {
+                                //nameless, so the store's name index does not grow with the file,
+                                //and not forced, one sync at the end instead of one per batch
+                                store.appendAll(frames, count, false);
+                            }
 
-        if (adDataString != null) {
-            return Base64.decode(adDataString, 0);
-        } else {
-            return null;
+                            @Override
+                            public void onRejected(long line, byte validity) {
+                                //counted by the importer, reported once below
+                            }
+                        });
+                    } finally {
+                        store.sync();
+                    }
+                    message = getString(R.string.import_result_txt, importer.getAccepted(),
+                            importer.getRejected(), importer.getRowsPerSecond());
+                } catch (IOException | RuntimeException e) {
+                    message = getString(R.string.import_failed_txt, e.getMessage());
+                }
+                Log.d(TAG, message);
+                final String result = message;
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        mImportButton.setEnabled(true);
+                        Toast.makeText(getApplicationContext(), result, Toast.LENGTH_LONG).show();
+                    }
+                });
+            }
+        }).start();
+    }
+
+    /**
+     * Read the active profile off the main thread, opening the store may take a while.
+     */
+    void loadActiveProfile() {
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                final byte[] adBytes = retrieveActiveProfileBytes();
+
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (adBytes.length != 0) {
+                            mAdvertisingBytes = ByteBuffer.wrap(adBytes);
+                        } else {
+                            mAdvertisingBytes = IBeaconUtils.createDefaultIBeaconAdvertisement();
+                        }
+                        //stop is enabled while the service runs
+                        mStartButton.setEnabled(!mStopButton.isEnabled());
+                        mSettingsButton.setEnabled(true);
+                    }
+                });
+            }
+        }).start();
+    }
+
+    /**
+     * Store the frame as the active profile off the main thread.
+     */
+    void saveActiveProfile(final byte[] adDataBytes) {
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                saveActiveProfileBytes(adDataBytes);
+            }
+        }).start();
+    }
+
+    /**
+     * Store the frame as the active profile, creating the default profile the first time.
+     */
+    void saveActiveProfileBytes(byte[] adDataBytes) {
+        try {
+            ProfileStore store = ((IBeaconApplication)getApplication()).getProfileStore();
+
+            //saves run on their own threads, keep look up and write together
+            synchronized (store) {
+                int id = store.getActiveId();
+
+                if (id == ProfileStore.NO_PROFILE) {
+                    id = store.findByName(IBeaconApplication.DEFAULT_PROFILE_NAME);
+                }
+                if (id == ProfileStore.NO_PROFILE) {
+                    id = store.append(IBeaconApplication.DEFAULT_PROFILE_NAME, adDataBytes, 0);
+                } else {
+                    store.update(id, adDataBytes, 0);
+                }
+                store.setActiveId(id);
+            }
+        } catch (IOException e) {
+            Log.d(TAG, "could not save profile: " + e.getMessage());
+        }
+    }
+
+    /**
+     * @return the active profile's frame, empty if there is none
+     */
+    byte[] retrieveActiveProfileBytes() {
+        try {
+            ProfileStore store = ((IBeaconApplication)getApplication()).getProfileStore();
+            byte[] adBytes = new byte[IBeaconFrames.FRAME_LENGTH];
+
+            if (store.get(store.getActiveId(), adBytes, 0)) {
+                return adBytes;
+            }
+        } catch (IOException e) {
+            Log.d(TAG, "could not read profile: " + e.getMessage());
         }
+        return new byte[0];
     }
 }
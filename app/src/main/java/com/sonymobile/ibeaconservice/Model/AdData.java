@@ -1,38 +1,24 @@
 package com.sonymobile.ibeaconservice.Model;
 
+import android.os.BadParcelableException;
 import android.os.Parcel;
 import android.os.Parcelable;
-import android.util.Log;
 
-import java.io.ByteArrayOutputStream;
-import java.io.IOException;
+import com.sonymobile.ibeaconservice.core.Model.BeaconFrame;
+import com.sonymobile.ibeaconservice.core.Model.BeaconId;
+import com.sonymobile.ibeaconservice.core.Utils.IBeaconFrames;
 
 /**
  * Class representing the advertising data that we will send.
- * The data we can actually explicitly set is only 21 bytes long
- * (ProximityUUID battery, major byte minor byte, signal power)
+ * The frame handling itself lives in {@link BeaconFrame} in the beacon-core module,
+ * this class only adds the Android Parcelable plumbing so it can travel in intents.
  */
 
-public class AdData implements Parcelable {
-    private static final int UUID_BYTES_INDEX = 2;
-    private static final int BATTERY_VOLTAGE_INDEX = 16;
-    private static final int MAJOR_BYTE_INDEX = 18;
-    private static final int MINOR_BYTE_INDEX = 20;
-    private static final int SIGNAL_POWER_BYTES_INDEX = 22;
-
-    public static final int UUID_DATA_LENGTH = 14;
-    public static final int BATTERY_VOLTAGE_DATA_LENGTH = 2;
-    public static final int MAJOR_BYTES_LENGTH = 2;
-    public static final int MINOR_BYTES_LENGTH = 2;
-    private static final int SIGNAL_POWER_BYTES_LENGTH = 1;
-
-    private byte[] mUUIDbytes;
-    private byte[] mBatteryVoltage;
-    private byte[] mMajorBytes;
-    private byte[] mMinorBytes;
-    private byte[] mSignalPowerBytes;
-
-    private final String TAG = AdData.class.getName();
+public class AdData extends BeaconFrame implements Parcelable {
+    public static final int UUID_DATA_LENGTH = IBeaconFrames.UUID_DATA_LENGTH;
+    public static final int BATTERY_VOLTAGE_DATA_LENGTH = IBeaconFrames.BATTERY_VOLTAGE_DATA_LENGTH;
+    public static final int MAJOR_BYTES_LENGTH = IBeaconFrames.MAJOR_BYTES_LENGTH;
+    public static final int MINOR_BYTES_LENGTH = IBeaconFrames.MINOR_BYTES_LENGTH;
 
     public AdData() {
 
@@ -45,127 +31,35 @@ public class AdData implements Parcelable {
      * @param adData 23 bytes of ad data.
      */
     public AdData(byte[] adData) {
-        mUUIDbytes = new byte[UUID_DATA_LENGTH];
-        mBatteryVoltage = new byte[BATTERY_VOLTAGE_DATA_LENGTH];
-        mMajorBytes = new byte[MAJOR_BYTES_LENGTH];
-        mMinorBytes = new byte[MINOR_BYTES_LENGTH];
-        mSignalPowerBytes = new byte[SIGNAL_POWER_BYTES_LENGTH];
-
-        System.arraycopy(adData, UUID_BYTES_INDEX, mUUIDbytes, 0, UUID_DATA_LENGTH);
-        System.arraycopy(adData,BATTERY_VOLTAGE_INDEX, mBatteryVoltage, 0, BATTERY_VOLTAGE_DATA_LENGTH);
-        System.arraycopy(adData,MAJOR_BYTE_INDEX, mMajorBytes, 0, MAJOR_BYTES_LENGTH);
-        System.arraycopy(adData,MINOR_BYTE_INDEX, mMinorBytes, 0, MINOR_BYTES_LENGTH);
-        System.arraycopy(adData,SIGNAL_POWER_BYTES_INDEX, mSignalPowerBytes,0, SIGNAL_POWER_BYTES_LENGTH);
-    }
-
-    private static String convertValuesToHexString(byte[] bytes) {
-        StringBuilder builder = new StringBuilder();
-
-        for (byte aByte : bytes) {
-            builder.append(String.format("%02x", aByte));
-        }
-
-        return builder.toString();
-    }
-
-    private static byte[] convertStringToBytes(String string){
-        int len = string.length();
-        byte[] data = new byte[len/2];
-
-        for (int i = 0; i < len; i += 2) {
-            data[i / 2] = (byte) ((Character.digit(string.charAt(i), 16) << 4)
-                    + Character.digit(string.charAt(i+1), 16));
-        }
-        return data;
-    }
-
-    public String getUUIDString() {
-        return convertValuesToHexString(mUUIDbytes);
-    }
-
-    public String getBatteryVoltage() {
-        return convertValuesToHexString(mBatteryVoltage);
-    }
-
-    public String getMajorBytesString() {
-        return convertValuesToHexString(mMajorBytes);
-    }
-
-    public String getMinorBytesString() {
-        return convertValuesToHexString(mMinorBytes);
-    }
-
-    public String getSignalPowerBytesString() {
-        return convertValuesToHexString(mSignalPowerBytes);
-    }
-
-    public void setUUIDBytes(String proximityString) {
-        mUUIDbytes = convertStringToBytes(proximityString).clone();
-    }
-
-    public void setBatteryVoltageBytes(String batteryVoltage) {
-        mBatteryVoltage = convertStringToBytes(batteryVoltage).clone();
-    }
-
-    public void setMajorBytes(String majorBytes) {
-        mMajorBytes = convertStringToBytes(majorBytes).clone();
-    }
-
-    public void setMinorBytes(String minorBytes) {
-        mMinorBytes = convertStringToBytes(minorBytes).clone();
-    }
-
-    public void setSignalPowerBytes(String signalPowerBytes) {
-        mSignalPowerBytes = convertStringToBytes(signalPowerBytes).clone();
+        super(adData);
     }
 
     /**
-     * return the editable parts of the manufacturing data
-     *
-     * @return 21 bytes of manufacturing data corresponding to the
-     * members of this data type
+     * @param txPower calibrated TX power at 1m in dBm
      */
-    private byte[] getAdDataBytes() {
-        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-
-        try {
-            outputStream.write(this.mUUIDbytes);//14
-            outputStream.write(this.mBatteryVoltage);//2
-            outputStream.write(this.mMajorBytes);//2
-            outputStream.write(this.mMinorBytes);//2
-            outputStream.write(this.mSignalPowerBytes);//1
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-        return outputStream.toByteArray();
+    public AdData(BeaconId id, int txPower) {
+        super(id.toFrame(txPower));
     }
 
-    /**
-     * get the editable advertising bytes, add the header
-     * with Manufacturer data and length and the TX power footer
-     *
-     * @return 23 bytes (Header + Ad bytes + footer)
-     */
-    public byte[] getManufacturerDataBytes() {
-        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-        byte[] headerBytes = {(byte)0x02,(byte)0x15};
-
-        try {
-            outputStream.write(headerBytes);
-            outputStream.write(getAdDataBytes());
-        } catch (IOException e) {
-            Log.d(TAG,"Exception writing manufacturing data bytes to output stream");
-        }
-        return outputStream.toByteArray();
+    public BeaconId getBeaconId() {
+        return BeaconId.fromFrame(this);
     }
 
-
     /*
     Parcelable functionality.
+
+    Wire format: a single byte array holding a version byte followed by the 23 byte frame,
+    28 bytes on the parcel including the length prefix. Arrays of AdData go out as one blob,
+    the version byte followed by the frames back to back.
      */
+    public static final byte PARCEL_VERSION = 1;
+
+    private static final int VERSION_INDEX = 0;
+    private static final int FRAMES_INDEX = 1;
+
     @Override
     public int describeContents() {
-        return hashCode();
+        return 0;
     }
 
     /**
@@ -173,16 +67,16 @@ public class AdData implements Parcelable {
      * @param in parcel to construct AdData from
      */
     private AdData(Parcel in) {
-        mUUIDbytes = in.createByteArray();
-        mBatteryVoltage = in.createByteArray();
-        mMajorBytes = in.createByteArray();
-        mMinorBytes = in.createByteArray();
-        mSignalPowerBytes = in.createByteArray();
+        this(readBlob(in, 1), FRAMES_INDEX);
     }
 
     /**
-     *
+     * Wraps the unmarshalled blob, the frame is not copied out of it.
      */
+    private AdData(byte[] frames, int offset) {
+        super(frames, offset, false);
+    }
+
     public static final Creator<AdData> CREATOR = new Creator<AdData>() {
         @Override
         public AdData createFromParcel(Parcel in) {
@@ -197,22 +91,70 @@ public class AdData implements Parcelable {
 
     /**
      * Parcelable functionality for AdData object to allow us to send it as intent data.
-     * One alternative would be to use getAdDataBytes to serialise it into a byte array as
-     * this does more or less the same thing given that the object just consists of a load
-     * of byte arrays. The functionaliy is more suited to an object with lots of different
-     * data types.
-     * This was done as a learning exercise.
+     * The frame is written as one blob rather than field by field, so reading it back is a
+     * single array allocation on the parcel side, which the new object then wraps as is.
      *
      * @param parcel the parcel to be written to
      * @param i flags. Not used
      */
     @Override
     public void writeToParcel(Parcel parcel, int i) {
-        parcel.writeByteArray(mUUIDbytes);
-        parcel.writeByteArray(mBatteryVoltage);
-        parcel.writeByteArray(mMajorBytes);
-        parcel.writeByteArray(mMinorBytes);
-        parcel.writeByteArray(mSignalPowerBytes);
+        byte[] blob = new byte[FRAMES_INDEX + IBeaconFrames.FRAME_LENGTH];
+
+        blob[VERSION_INDEX] = PARCEL_VERSION;
+        writeTo(blob, FRAMES_INDEX);
+        parcel.writeByteArray(blob);
     }
-}
 
+    /**
+     * Batch counterpart of writeTypedArray: the whole array goes out as one blob instead of
+     * one parcelable with its own header per element. Null elements are not supported.
+     *
+     * @param parcel the parcel to be written to
+     * @param batch frames to write
+     */
+    public static void writeArrayToParcel(Parcel parcel, AdData[] batch) {
+        byte[] blob = new byte[FRAMES_INDEX + batch.length * IBeaconFrames.FRAME_LENGTH];
+
+        blob[VERSION_INDEX] = PARCEL_VERSION;
+        for (int i = 0; i < batch.length; i++) {
+            batch[i].writeTo(blob, FRAMES_INDEX + i * IBeaconFrames.FRAME_LENGTH);
+        }
+        parcel.writeByteArray(blob);
+    }
+
+    /**
+     * Read an array written with {@link #writeArrayToParcel(Parcel, AdData[])}. Every
+     * element wraps its part of the one blob read.
+     *
+     * @param in parcel to read from
+     * @return the frames, in the order they were written
+     */
+    public static AdData[] createArrayFromParcel(Parcel in) {
+        byte[] blob = readBlob(in, -1);
+        AdData[] batch = new AdData[(blob.length - FRAMES_INDEX) / IBeaconFrames.FRAME_LENGTH];
+
+        for (int i = 0; i < batch.length; i++) {
+            batch[i] = new AdData(blob, FRAMES_INDEX + i * IBeaconFrames.FRAME_LENGTH);
+        }
+        return batch;
+    }
+
+    /**
+     * @param frameCount frames expected in the blob, -1 for any number
+     */
+    private static byte[] readBlob(Parcel in, int frameCount) {
+        byte[] blob = in.createByteArray();
+
+        if (blob == null || blob.length < FRAMES_INDEX || blob[VERSION_INDEX] != PARCEL_VERSION) {
+            throw new BadParcelableException("Unsupported AdData parcel version");
+        }
+        int frames = blob.length - FRAMES_INDEX;
+
+        if (frames % IBeaconFrames.FRAME_LENGTH != 0
+                || (frameCount >= 0 && frames != frameCount * IBeaconFrames.FRAME_LENGTH)) {
+            throw new BadParcelableException("Bad AdData parcel length " + blob.length);
+        }
+        return blob;
+    }
+}
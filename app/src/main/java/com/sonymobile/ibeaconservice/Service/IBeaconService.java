@@ -4,46 +4,360 @@ import android.app.Notification;
 import android.app.NotificationChannel;
 import android.app.NotificationManager;
 import android.app.PendingIntent;
+import android.annotation.TargetApi;
 import android.app.Service;
+import android.bluetooth.BluetoothAdapter;
+import android.content.BroadcastReceiver;
+import android.content.Context;
 import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.Binder;
+import android.os.Build;
+import android.os.Handler;
 import android.os.IBinder;
+import android.os.Looper;
+import android.os.SharedMemory;
+import android.os.SystemClock;
 import android.support.v4.app.NotificationCompat;
+import android.system.ErrnoException;
+import android.util.Log;
 
 import com.sonymobile.ibeaconservice.IBeaconApplication;
 import com.sonymobile.ibeaconservice.MainActivity;
 import com.sonymobile.ibeaconservice.R;
 import com.sonymobile.ibeaconservice.Utils.Constants;
+import com.sonymobile.ibeaconservice.Utils.AndroidBeaconTransmitter;
+import com.sonymobile.ibeaconservice.Utils.BeaconScanner;
 import com.sonymobile.ibeaconservice.Utils.IBeaconUtils;
+import com.sonymobile.ibeaconservice.core.Advertising.AdvertisingSupervisor;
+import com.sonymobile.ibeaconservice.core.Advertising.BeaconTransmitter;
+import com.sonymobile.ibeaconservice.core.Advertising.MultiSetAdvertiser;
+import com.sonymobile.ibeaconservice.core.Advertising.RotationScheduler;
+import com.sonymobile.ibeaconservice.core.Aggregation.WindowedAggregator;
+import com.sonymobile.ibeaconservice.core.Control.ControlBatch;
+import com.sonymobile.ibeaconservice.core.Formats.BeaconFields;
+import com.sonymobile.ibeaconservice.core.Formats.FrameFormat;
+import com.sonymobile.ibeaconservice.core.Formats.FrameFormatRegistry;
+import com.sonymobile.ibeaconservice.core.Metrics.ActiveTimer;
+import com.sonymobile.ibeaconservice.core.Metrics.Counter;
+import com.sonymobile.ibeaconservice.core.Metrics.LatencyHistogram;
+import com.sonymobile.ibeaconservice.core.Metrics.MetricsRegistry;
+import com.sonymobile.ibeaconservice.core.Model.BeaconId;
+import com.sonymobile.ibeaconservice.core.Regions.RegionMonitor;
+import com.sonymobile.ibeaconservice.core.Scanning.ShardedSightingDispatcher;
+import com.sonymobile.ibeaconservice.core.Scanning.SightingPipeline;
+import com.sonymobile.ibeaconservice.core.Storage.SightingLog;
+import com.sonymobile.ibeaconservice.core.Tracking.BeaconStateTable;
+import com.sonymobile.ibeaconservice.core.Tracking.ProximityEngine;
+import com.sonymobile.ibeaconservice.core.Utils.Clock;
+import com.sonymobile.ibeaconservice.core.Utils.IBeaconFrames;
 
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.IOException;
+import java.io.PrintWriter;
 import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
 
 import static com.sonymobile.ibeaconservice.Utils.Constants.Intents.SERVICE_OPEN_APP_INTENT;
 
 public class IBeaconService extends Service {
     private static final String NOTIFICATION_CHANNEL_ID = "com.sonymobile.ibeacon.notification_id";
     private static final String CHANNEL_NAME = "iBeacon Service";
+    private static final String TAG = IBeaconService.class.getName();
+    private static final int MAX_ROTATION_FRAMES = 256;
+    private static final long DEFAULT_ROTATION_SLICE_MS = 1000;
+    private static final int MAX_TRACKED_BEACONS = 4096;
+    private static final long TRACKED_BEACON_MAX_AGE_S = 30;
+    private static final int MAX_REGIONS = 10000;
+    private static final int SIGHTING_WORKERS = 2;
+    private static final int SIGHTING_RING_CAPACITY = 4096;
+    private static final long REGION_TICK_MS = 500;
+    private static final long AGGREGATION_WINDOW_S = 60;
+    //time for a delivered batch to get through the pipeline after its report delay
+    private static final long AGGREGATION_LATENESS_MARGIN_MS = 2000;
+    private static final String SIGHTING_LOG_DIR = "sightings";
+    //32MB segments of 1M sightings, about three days at 100 sightings/s
+    private static final int SIGHTING_LOG_SEGMENTS = 24;
+
+    private static final Clock ELAPSED_REALTIME = new Clock() {
+        @Override
+        public long nanoTime() {
+            return SystemClock.elapsedRealtimeNanos();
+        }
+    };
+
+    //instruments are registered once here, recording through them never allocates
+    private final MetricsRegistry mMetrics = new MetricsRegistry(ELAPSED_REALTIME);
+    private final Counter mStartCommands = mMetrics.counter("service.start_commands");
+    private final Counter mStarts = mMetrics.counter("advertise.starts");
+    private final Counter mStartFailures = mMetrics.counter("advertise.start_failures");
+    private final Counter mUpdates = mMetrics.counter("advertise.updates");
+    private final Counter mStops = mMetrics.counter("advertise.stops");
+    private final Counter mRotations = mMetrics.counter("rotation.starts");
+    private final Counter mBatches = mMetrics.counter("control.batches");
+    private final Counter mBatchRecords = mMetrics.counter("control.records");
+    private final Counter mRejectedBatches = mMetrics.counter("control.rejected_batches");
+    private final Counter mRegionEnters = mMetrics.counter("regions.enters");
+    private final Counter mRegionExits = mMetrics.counter("regions.exits");
+    private final Counter mScanBatches = mMetrics.counter("scan.batches");
+    private final Counter mScanBatchRecords = mMetrics.counter("scan.batch_records");
+    private final LatencyHistogram mScanBatchProcessing = mMetrics.histogram("scan.batch_processing");
+    private final LatencyHistogram mStartLatency = mMetrics.histogram("advertise.start_latency");
+    private final LatencyHistogram mUpdateLatency = mMetrics.histogram("advertise.update_latency");
+    private final ActiveTimer mOnAir = mMetrics.timer("advertise.on_air");
+    //-1 unless a start we asked for is in flight, restarts by the supervisor are not timed
+    private long mStartRequestedAt = -1;
+    private final IBinder mBinder = new LocalBinder();
+
     private boolean mIsAdvertising;
     private ByteBuffer mAdvertisingBytes;
-    private IBeaconUtils mBeaconUtils;
+    //how the primary set puts mAdvertisingBytes on air, only control batches pick another
+    private int mAdvertisingFormatId = FrameFormat.IBEACON;
+    private BeaconTransmitter mTransmitter;
+    //sits between the service and the radio, restarts sets the stack drops or fails to start
+    private AdvertisingSupervisor mSupervisor;
+    private final BeaconTransmitter.Callback mPrimaryCallback = new BeaconTransmitter.Callback() {
+        @Override
+        public void onStarted(int setId) {
+            if (mStartRequestedAt >= 0) {
+                mStartLatency.record(ELAPSED_REALTIME.nanoTime() - mStartRequestedAt);
+                mStartRequestedAt = -1;
+            }
+            mOnAir.start();
+            Log.d(TAG, "advertising started");
+        }
+
+        @Override
+        public void onStartFailed(int setId, int errorCode) {
+            mStartRequestedAt = -1;
+            mStartFailures.increment();
+            Log.d(TAG, "advertising failed to start: " + errorCode);
+        }
+
+        @Override
+        public void onStopped(int setId) {
+            mOnAir.stop();
+            Log.d(TAG, "advertising stopped");
+        }
+
+        @Override
+        public void onUpdated(int setId, long latencyNanos) {
+            mUpdateLatency.record(latencyNanos);
+        }
+    };
+
+    //fleet: identities spread over as many advertising sets as the controller has, sets that
+    //carry more than one identity rotate on a single re-armed timer
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private MultiSetAdvertiser mFleetAdvertiser;
+    private boolean mIsRotating;
+    private final Runnable mRotationTick = new Runnable() {
+        @Override
+        public void run() {
+            scheduleRotationTick(mFleetAdvertiser.tick());
+        }
+    };
+    private final Runnable mRecoveryTick = new Runnable() {
+        @Override
+        public void run() {
+            scheduleRecoveryTick(mSupervisor.tick());
+        }
+    };
+    //receive side, audits the fleet around us
+    private final SightingPipeline mSightingPipeline = new SightingPipeline();
+    //ranging is the heavy part, it runs on workers each owning the beacons of its shard
+    private final ShardedSightingDispatcher mSightingDispatcher = new ShardedSightingDispatcher(
+            SIGHTING_WORKERS, SIGHTING_RING_CAPACITY, new ShardedSightingDispatcher.StageFactory() {
+                @Override
+                public SightingPipeline.Stage createStage(int shard) {
+                    return new ProximityEngine(MAX_TRACKED_BEACONS / SIGHTING_WORKERS,
+                            TimeUnit.SECONDS.toNanos(TRACKED_BEACON_MAX_AGE_S));
+                }
+            });
+    private final RegionMonitor mRegionMonitor = new RegionMonitor(ELAPSED_REALTIME, MAX_REGIONS,
+            TimeUnit.MILLISECONDS.toNanos(REGION_TICK_MS));
+    private final Runnable mRegionTick = new Runnable() {
+        @Override
+        public void run() {
+            scheduleRegionTick(mRegionMonitor.tick());
+        }
+    };
+    //per minute statistics for dashboards, windows close on sightings or on the tick once
+    //batched results of every profile have had time to arrive
+    private final WindowedAggregator mAggregator = WindowedAggregator.tumbling(
+            TimeUnit.SECONDS.toNanos(AGGREGATION_WINDOW_S),
+            TimeUnit.MILLISECONDS.toNanos(BeaconScanner.MAX_REPORT_DELAY_MS + AGGREGATION_LATENESS_MARGIN_MS),
+            BeaconId.UUID_AND_MAJOR);
+    private final Runnable mAggregationTick = new Runnable() {
+        @Override
+        public void run() {
+            scheduleAggregationTick(mAggregator.advanceTo(ELAPSED_REALTIME.nanoTime()));
+        }
+    };
+    private String mLastWindow = "none";
+    //last frame of every format the pipeline does not take sightings from
+    private final byte[][] mLastFrames = new byte[FrameFormatRegistry.MAX_FORMATS][];
+    private final int[] mLastFrameLengths = new int[FrameFormatRegistry.MAX_FORMATS];
+    //history of every sighting for later queries, null if it could not be opened
+    private SightingLog mSightingLog;
+    private BeaconScanner mScanner;
+    private boolean mScanRequested;
+
+    private final BroadcastReceiver mAdapterStateReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            int state = intent.getIntExtra(BluetoothAdapter.EXTRA_STATE, BluetoothAdapter.ERROR);
+
+            if (state == BluetoothAdapter.STATE_ON) {
+                Log.d(TAG, "bluetooth on, restoring advertising");
+                mSupervisor.setAdapterEnabled(true);
+                if (mScanRequested) {
+                    startScanner();
+                }
+            } else if (state == BluetoothAdapter.STATE_TURNING_OFF || state == BluetoothAdapter.STATE_OFF) {
+                mSupervisor.setAdapterEnabled(false);
+                stopScanner();
+            }
+        }
+    };
 
     @Override
     public void onCreate() {
         super.onCreate();
-        mBeaconUtils = new IBeaconUtils();
+        BluetoothAdapter adapter = BluetoothAdapter.getDefaultAdapter();
+
+        mSupervisor = new AdvertisingSupervisor(ELAPSED_REALTIME, createTransmitter(), new Random());
+        mSupervisor.setAdapterEnabled(adapter == null || adapter.isEnabled());
+        mSupervisor.setScheduleListener(new AdvertisingSupervisor.ScheduleListener() {
+            @Override
+            public void onScheduleChanged(long nextDeadlineNanos) {
+                scheduleRecoveryTick(nextDeadlineNanos);
+            }
+        });
+        registerReceiver(mAdapterStateReceiver, new IntentFilter(BluetoothAdapter.ACTION_STATE_CHANGED));
+        mTransmitter = mSupervisor;
+        //its workers only run while the scanner does
+        mSightingPipeline.addStage(mSightingDispatcher);
+        mRegionMonitor.setListener(new RegionMonitor.Listener() {
+            @Override
+            public void onEnter(int regionId, long timestampNanos) {
+                mRegionEnters.increment();
+                Log.d(TAG, "entered region " + regionId);
+            }
+
+            @Override
+            public void onExit(int regionId, long timestampNanos) {
+                mRegionExits.increment();
+                Log.d(TAG, "left region " + regionId);
+            }
+        });
+        mRegionMonitor.setScheduleListener(new RegionMonitor.ScheduleListener() {
+            @Override
+            public void onScheduleChanged(long nextDeadlineNanos) {
+                scheduleRegionTick(nextDeadlineNanos);
+            }
+        });
+        mSightingPipeline.addStage(mRegionMonitor);
+        mAggregator.setListener(new WindowedAggregator.Listener() {
+            @Override
+            public void onWindow(WindowedAggregator.Window window) {
+                StringBuilder line = new StringBuilder();
+
+                line.append("sightings=").append(window.getSightings())
+                        .append(" distinct_beacons=").append(window.getDistinctBeacons());
+                for (int i = 0; i < window.getGroupCount(); i++) {
+                    line.append("\n  major ").append(window.getGroupKey(i).getMajor())
+                            .append(": sightings=").append(window.getGroupSightings(i))
+                            .append(" rssi_p50=").append(window.getGroupRssiPercentile(i, 50))
+                            .append(" rssi_p90=").append(window.getGroupRssiPercentile(i, 90));
+                }
+                mLastWindow = line.toString();
+                Log.d(TAG, "window: " + mLastWindow);
+            }
+        });
+        mSightingPipeline.addStage(mAggregator);
+        try {
+            mSightingLog = SightingLog.open(new File(getFilesDir(), SIGHTING_LOG_DIR),
+                    SightingLog.DEFAULT_RECORDS_PER_SEGMENT, SIGHTING_LOG_SEGMENTS);
+            if (mSightingLog.getDiscardedSegments() > 0) {
+                Log.d(TAG, "sighting log discarded " + mSightingLog.getDiscardedSegments() + " damaged segments");
+            }
+            updateSightingLogTimeBase();
+            mSightingPipeline.addStage(mSightingLog);
+        } catch (IOException e) {
+            Log.d(TAG, "sighting log unavailable: " + e.getMessage());
+        }
+        mSightingPipeline.setFrameListener(new SightingPipeline.FrameListener() {
+            @Override
+            public void onFrame(FrameFormat format, byte[] record, int dataOffset, int dataLength, int rssi,
+                                long timestampNanos) {
+                //kept raw, decoded only when dumped
+                byte[] last = mLastFrames[format.getId()];
+
+                if (last == null) {
+                    last = mLastFrames[format.getId()] = new byte[format.getMaxDataLength()];
+                }
+                System.arraycopy(record, dataOffset, last, 0, dataLength);
+                mLastFrameLengths[format.getId()] = dataLength;
+            }
+        });
+        mScanner = new BeaconScanner(mSightingPipeline);
+        mScanner.setBatchListener(new BeaconScanner.BatchListener() {
+            @Override
+            public void onBatchProcessed(int records, int sightings, long processingNanos) {
+                mScanBatches.increment();
+                mScanBatchRecords.add(records);
+                mScanBatchProcessing.record(processingNanos);
+            }
+        });
+        mFleetAdvertiser = new MultiSetAdvertiser(ELAPSED_REALTIME, mTransmitter);
+        mFleetAdvertiser.setScheduleListener(new MultiSetAdvertiser.ScheduleListener() {
+            @Override
+            public void onScheduleChanged(long nextDeadlineNanos) {
+                scheduleRotationTick(nextDeadlineNanos);
+            }
+        });
     }
 
     @Override
     public int onStartCommand(Intent intent, int flags, int startId) {
+        mStartCommands.increment();
         if(intent.getAction() != null) {
             if (intent.getAction().equals(Constants.Intents.SERVICE_INTENT_FOREGROUND)) {
                 byte[] adBytes = intent.getByteArrayExtra(Constants.Extras.ADVERTISING_BYTES);
 
                 mAdvertisingBytes = ByteBuffer.wrap(adBytes);
+                mAdvertisingFormatId = FrameFormat.IBEACON;
 
                 //23 as a random id number. Who cares?
                 startForeground(23, createNotification());
                 startBroadcasting();
                 ((IBeaconApplication)getApplication()).mRunning = true;
+            } else if (intent.getAction().equals(Constants.Intents.SERVICE_INTENT_UPDATE)) {
+                byte[] adBytes = intent.getByteArrayExtra(Constants.Extras.ADVERTISING_BYTES);
+
+                mAdvertisingBytes = ByteBuffer.wrap(adBytes);
+                mAdvertisingFormatId = FrameFormat.IBEACON;
+                stopRotation();
+                updateBroadcasting();
+            } else if (intent.getAction().equals(Constants.Intents.SERVICE_INTENT_ROTATE)) {
+                byte[] frames = intent.getByteArrayExtra(Constants.Extras.ROTATION_FRAMES);
+                long sliceMs = intent.getLongExtra(Constants.Extras.ROTATION_SLICE_MS, DEFAULT_ROTATION_SLICE_MS);
+
+                startRotation(FrameFormat.IBEACON, frames, sliceMs);
+            } else if (intent.getAction().equals(Constants.Intents.SERVICE_INTENT_SCAN)) {
+                if (intent.hasExtra(Constants.Extras.SCAN_PROFILE)) {
+                    try {
+                        mScanner.setProfile(intent.getIntExtra(Constants.Extras.SCAN_PROFILE,
+                                BeaconScanner.PROFILE_BALANCED));
+                    } catch (IllegalArgumentException e) {
+                        Log.d(TAG, "ignoring scan profile: " + e.getMessage());
+                    }
+                }
+                setScanning(intent.getBooleanExtra(Constants.Extras.SCAN_ENABLED, true));
             }
         }
         return START_STICKY;
@@ -51,14 +365,189 @@ public class IBeaconService extends Service {
 
     @Override
     public void onDestroy() {
+        stopRotation();
         stopBroadcasting();
+        setScanning(false);
+        if (mSightingLog != null) {
+            mSightingPipeline.removeStage(mSightingLog);
+            try {
+                mSightingLog.close();
+            } catch (IOException e) {
+                Log.d(TAG, "closing sighting log: " + e.getMessage());
+            }
+        }
+        unregisterReceiver(mAdapterStateReceiver);
+        mHandler.removeCallbacks(mRecoveryTick);
+        mHandler.removeCallbacks(mRegionTick);
+        Log.d(TAG, "advertiser dropped " + mSupervisor.getDrops() + " times, "
+                + mSupervisor.getRetries() + " retries, " + mSupervisor.getRecoveries()
+                + " recoveries, mean recovery " + mSupervisor.getMeanRecoveryNanos() / 1_000_000
+                + " ms, max recovery " + mSupervisor.getMaxRecoveryNanos() / 1_000_000 + " ms");
         ((IBeaconApplication)getApplication()).mRunning = false;
         super.onDestroy();
     }
 
+    /**
+     * The only place the service touches the radio. Overridden to run the service logic
+     * against an in-memory transmitter.
+     */
+    protected BeaconTransmitter createTransmitter() {
+        return new AndroidBeaconTransmitter();
+    }
+
+    /**
+     * Handed to clients in this process that bind to the service.
+     */
+    public class LocalBinder extends Binder {
+        public MetricsRegistry getMetrics() {
+            return mMetrics;
+        }
+
+        /**
+         * Register regions here; call from the main thread, sightings are fed on it.
+         */
+        public RegionMonitor getRegionMonitor() {
+            return mRegionMonitor;
+        }
+
+        /**
+         * @return the sighting history, or null if it could not be opened
+         */
+        public SightingLog getSightingLog() {
+            return mSightingLog;
+        }
+    }
+
+    /**
+     * Remote control, see IBeaconControl.aidl. Calls arrive on binder threads: the batch is
+     * copied out of shared memory and checked there, then applied on the main thread where
+     * all other service state lives.
+     */
+    @TargetApi(Build.VERSION_CODES.O_MR1)
+    private class ControlBinder extends IBeaconControl.Stub {
+        @Override
+        public int applyBatch(SharedMemory batch) {
+            ByteBuffer mapped;
+
+            try {
+                mapped = batch.mapReadOnly();
+            } catch (ErrnoException e) {
+                throw new IllegalArgumentException("Cannot map batch: " + e.getMessage());
+            }
+            final ByteBuffer copy;
+            int records;
+
+            try {
+                //one copy per batch, the caller is free to rewrite the region once we return
+                copy = ByteBuffer.allocate(mapped.remaining());
+                copy.put(mapped).flip();
+                records = ControlBatch.validate(copy);
+            } catch (IllegalArgumentException e) {
+                mRejectedBatches.increment();
+                throw e;
+            } finally {
+                SharedMemory.unmap(mapped);
+            }
+            mHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    mBatchRecords.add(ControlBatch.apply(copy, mBatchHandler));
+                }
+            });
+            mBatches.increment();
+            return records;
+        }
+
+        @Override
+        public int getMaxAdvertisingSets() {
+            return mTransmitter.getMaxAdvertisingSets();
+        }
+    }
+
+    private final ControlBatch.Handler mBatchHandler = new ControlBatch.Handler() {
+        @Override
+        public void onAdvertise(ByteBuffer batch, int formatId, int frameOffset) {
+            mAdvertisingBytes = ByteBuffer.wrap(copyOut(batch, frameOffset, IBeaconFrames.FRAME_LENGTH));
+            mAdvertisingFormatId = formatId;
+            stopRotation();
+            updateBroadcasting();
+        }
+
+        @Override
+        public void onRotate(ByteBuffer batch, int formatId, int framesOffset, int frameCount, long sliceMillis) {
+            startRotation(formatId, copyOut(batch, framesOffset, frameCount * IBeaconFrames.FRAME_LENGTH), sliceMillis);
+        }
+
+        @Override
+        public void onParameters(int interval, int txPowerLevel) {
+            mTransmitter.setParameters(interval, txPowerLevel);
+        }
+
+        @Override
+        public void onStop() {
+            stopRotation();
+            stopBroadcasting();
+        }
+    };
+
+    private static byte[] copyOut(ByteBuffer batch, int offset, int length) {
+        byte[] bytes = new byte[length];
+        ByteBuffer source = batch.duplicate();
+
+        source.position(offset);
+        source.get(bytes);
+        return bytes;
+    }
+
     @Override
     public IBinder onBind(Intent intent) {
-        return null;
+        if (Constants.Intents.SERVICE_BIND_CONTROL.equals(intent.getAction())) {
+            if (Build.VERSION.SDK_INT < Build.VERSION_CODES.O_MR1) {
+                Log.d(TAG, "control interface needs SharedMemory, API 27");
+                return null;
+            }
+            return new ControlBinder();
+        }
+        return mBinder;
+    }
+
+    /**
+     * adb shell dumpsys activity service com.sonymobile.ibeaconservice/.Service.IBeaconService
+     */
+    @Override
+    protected void dump(FileDescriptor fd, PrintWriter writer, String[] args) {
+        writer.println("advertising: " + mIsAdvertising + ", rotating: " + mIsRotating);
+        mMetrics.dump(writer);
+        writer.println("scanning: " + mScanner.isScanning() + ", records=" + mSightingPipeline.getRecords()
+                + " sightings=" + mSightingPipeline.getSightings() + " ignored=" + mSightingPipeline.getIgnored());
+        writer.println("scan profile: " + mScanner.getProfile() + ", report delay " + mScanner.getReportDelayMillis()
+                + "ms, batches=" + mSightingPipeline.getBatches() + " last_batch=" + mSightingPipeline.getLastBatchSize()
+                + " max_batch=" + mSightingPipeline.getMaxBatchSize());
+        dumpFrames(writer);
+        writer.println("sighting workers: depth=" + mSightingDispatcher.getDepth()
+                + " drops=" + mSightingDispatcher.getDrops() + " processed=" + mSightingDispatcher.getProcessed());
+        //read across threads, the numbers may be slightly stale
+        for (int shard = 0; shard < mSightingDispatcher.getShardCount(); shard++) {
+            ProximityEngine engine = (ProximityEngine)mSightingDispatcher.getStage(shard);
+            BeaconStateTable states = engine.getStates();
+
+            writer.println("  shard " + shard + ": tracked beacons " + states.size() + "/" + states.getMaxSize()
+                    + " evictions=" + states.getEvictions()
+                    + " proximity_changes=" + engine.getProximityChanges());
+        }
+        writer.println("regions: " + mRegionMonitor.getInsideCount() + " of " + mRegionMonitor.getRegionCount()
+                + " entered");
+        writer.println("last window of " + AGGREGATION_WINDOW_S + "s: " + mLastWindow + ", late="
+                + mAggregator.getLateSightings());
+        if (mSightingLog != null) {
+            writer.println("sighting log: records=" + mSightingLog.size() + " segments="
+                    + mSightingLog.getSegmentCount() + " write_errors=" + mSightingLog.getWriteErrors());
+        }
+        writer.println("supervisor: drops=" + mSupervisor.getDrops() + " retries=" + mSupervisor.getRetries()
+                + " recoveries=" + mSupervisor.getRecoveries()
+                + " mean_recovery=" + mSupervisor.getMeanRecoveryNanos() / 1_000_000 + "ms"
+                + " max_recovery=" + mSupervisor.getMaxRecoveryNanos() / 1_000_000 + "ms");
+        writer.flush();
     }
 
     /**
@@ -96,17 +585,220 @@ public class IBeaconService extends Service {
     private void startBroadcasting() {
         if (!mIsAdvertising) {
             mIsAdvertising = true;
-            mBeaconUtils.startAdvertising(mAdvertisingBytes);
+            mStarts.increment();
+            mStartRequestedAt = ELAPSED_REALTIME.nanoTime();
+            mTransmitter.start(IBeaconUtils.PRIMARY_SET_ID, mAdvertisingFormatId, mAdvertisingBytes.array(), 0,
+                    mPrimaryCallback);
         } else {
-            System.out.println("towa already advertising!");
+            Log.d(TAG, "already advertising");
+        }
+    }
+
+    /**
+     * Swap the payload of the live advertising set. Only falls back to a full start if
+     * there is nothing running yet to update.
+     */
+    private void updateBroadcasting() {
+        if (!mIsAdvertising) {
+            startForeground(23, createNotification());
+            startBroadcasting();
+            ((IBeaconApplication)getApplication()).mRunning = true;
+            return;
+        }
+        mUpdates.increment();
+        if (!mTransmitter.update(IBeaconUtils.PRIMARY_SET_ID, mAdvertisingFormatId,
+                mAdvertisingBytes.array(), 0)) {
+            //set is still being started, nothing live to swap yet
+            mTransmitter.stop(IBeaconUtils.PRIMARY_SET_ID);
+            mStarts.increment();
+            mStartRequestedAt = ELAPSED_REALTIME.nanoTime();
+            mTransmitter.start(IBeaconUtils.PRIMARY_SET_ID, mAdvertisingFormatId, mAdvertisingBytes.array(), 0,
+                    mPrimaryCallback);
         }
+        //the notification's settings action carries the bytes, keep it current
+        NotificationManager manager = (NotificationManager) getSystemService(NOTIFICATION_SERVICE);
+
+        assert manager != null;
+        manager.notify(23, createNotification());
     }
 
     private void stopBroadcasting() {
         if (mIsAdvertising) {
-            mBeaconUtils.stopAdvertising();
+            mStops.increment();
+            mTransmitter.stop(IBeaconUtils.PRIMARY_SET_ID);
+            mIsAdvertising = false;
         } else {
-            System.out.println("towa trying to stop, no broadcast!");
+            Log.d(TAG, "trying to stop, no broadcast");
+        }
+    }
+
+    /**
+     * Advertise a fleet of identities, concurrently where the controller has enough
+     * advertising sets and time-multiplexed where it has not.
+     *
+     * @param formatId the {@link FrameFormat} every identity goes on air in
+     * @param frames 23 byte frames back to back
+     * @param sliceMs how long each identity is advertised for when sets are shared
+     */
+    private void startRotation(int formatId, byte[] frames, long sliceMs) {
+        int frameCount = Math.min(frames.length / IBeaconFrames.FRAME_LENGTH, MAX_ROTATION_FRAMES);
+
+        if (frameCount == 0) {
+            return;
+        }
+        stopRotation();
+        //the fleet takes over the primary set
+        if (mIsAdvertising) {
+            mTransmitter.stop(IBeaconUtils.PRIMARY_SET_ID);
+            mIsAdvertising = false;
+        }
+        mAdvertisingBytes = ByteBuffer.wrap(Arrays.copyOf(frames, IBeaconFrames.FRAME_LENGTH));
+        mAdvertisingFormatId = formatId;
+        startForeground(23, createNotification());
+        ((IBeaconApplication)getApplication()).mRunning = true;
+
+        mIsRotating = true;
+        mRotations.increment();
+        scheduleRotationTick(mFleetAdvertiser.start(formatId, Arrays.copyOf(frames, frameCount * IBeaconFrames.FRAME_LENGTH),
+                frameCount, TimeUnit.MILLISECONDS.toNanos(sliceMs)));
+        Log.d(TAG, "advertising " + frameCount + " identities over " + mFleetAdvertiser.getSetCount()
+                + " of " + mFleetAdvertiser.getCapacity() + " sets");
+    }
+
+    private void setScanning(boolean enabled) {
+        mScanRequested = enabled;
+        if (!enabled) {
+            stopScanner();
+            mHandler.removeCallbacks(mAggregationTick);
+            return;
+        }
+        //picks up wall clock changes made while not scanning
+        updateSightingLogTimeBase();
+        if (!startScanner()) {
+            Log.d(TAG, "bluetooth off, scanning once it is on");
+        }
+        scheduleAggregationTick(mAggregator.advanceTo(ELAPSED_REALTIME.nanoTime()));
+    }
+
+    /**
+     * Start the scanner and the sighting workers behind it.
+     *
+     * @return false if bluetooth is off, nothing is started then
+     */
+    private boolean startScanner() {
+        mSightingDispatcher.start();
+        if (mScanner.start()) {
+            return true;
+        }
+        stopSightingDispatcher();
+        return false;
+    }
+
+    /**
+     * Stop the scanner, then the sighting workers once they have drained what it delivered.
+     */
+    private void stopScanner() {
+        mScanner.stop();
+        stopSightingDispatcher();
+    }
+
+    private void stopSightingDispatcher() {
+        try {
+            mSightingDispatcher.stop();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void dumpFrames(PrintWriter writer) {
+        FrameFormatRegistry formats = mSightingPipeline.getFormats();
+        BeaconFields fields = new BeaconFields();
+
+        for (int id = 0; id < FrameFormatRegistry.MAX_FORMATS; id++) {
+            FrameFormat format = formats.get(id);
+
+            if (format == null || mLastFrames[id] == null) {
+                continue;
+            }
+            format.decode(mLastFrames[id], 0, mLastFrameLengths[id], fields);
+            String last;
+
+            switch (id) {
+                case FrameFormat.EDDYSTONE_URL:
+                    last = fields.getUrl();
+                    break;
+                case FrameFormat.EDDYSTONE_TLM:
+                    last = fields.getBatteryMillivolts() + "mV " + fields.getTemperature() + "C";
+                    break;
+                default:
+                    last = fields.getBeaconId().toString();
+                    break;
+            }
+            writer.println("  " + format.getName() + " frames=" + mSightingPipeline.getFrames(id) + " last=" + last);
+        }
+    }
+
+    private void updateSightingLogTimeBase() {
+        if (mSightingLog != null) {
+            mSightingLog.setTimeBaseOffsetNanos(TimeUnit.MILLISECONDS.toNanos(System.currentTimeMillis())
+                    - SystemClock.elapsedRealtimeNanos());
+        }
+    }
+
+    private void scheduleAggregationTick(long deadlineNanos) {
+        mHandler.removeCallbacks(mAggregationTick);
+        long delayNanos = deadlineNanos - ELAPSED_REALTIME.nanoTime();
+
+        mHandler.postDelayed(mAggregationTick, Math.max(0, (delayNanos + 999_999) / 1_000_000));
+    }
+
+    private void scheduleRotationTick(long deadlineNanos) {
+        mHandler.removeCallbacks(mRotationTick);
+        if (deadlineNanos == MultiSetAdvertiser.NO_DEADLINE) {
+            return;
+        }
+        long delayNanos = deadlineNanos - ELAPSED_REALTIME.nanoTime();
+
+        //round up, an early wake up would only be ignored by the scheduler and re-posted
+        mHandler.postDelayed(mRotationTick, Math.max(0, (delayNanos + 999_999) / 1_000_000));
+    }
+
+    private void scheduleRegionTick(long deadlineNanos) {
+        mHandler.removeCallbacks(mRegionTick);
+        if (deadlineNanos == RegionMonitor.NO_DEADLINE) {
+            return;
+        }
+        long delayNanos = deadlineNanos - ELAPSED_REALTIME.nanoTime();
+
+        mHandler.postDelayed(mRegionTick, Math.max(0, (delayNanos + 999_999) / 1_000_000));
+    }
+
+    private void scheduleRecoveryTick(long deadlineNanos) {
+        mHandler.removeCallbacks(mRecoveryTick);
+        if (deadlineNanos == AdvertisingSupervisor.NO_DEADLINE) {
+            return;
+        }
+        long delayNanos = deadlineNanos - ELAPSED_REALTIME.nanoTime();
+
+        mHandler.postDelayed(mRecoveryTick, Math.max(0, (delayNanos + 999_999) / 1_000_000));
+    }
+
+    private void stopRotation() {
+        if (!mIsRotating) {
+            return;
+        }
+        mIsRotating = false;
+        mHandler.removeCallbacks(mRotationTick);
+        for (int set = 0; set < mFleetAdvertiser.getSetCount(); set++) {
+            RotationScheduler scheduler = mFleetAdvertiser.getScheduler(set);
+
+            if (scheduler != null) {
+                Log.d(TAG, "set " + set + " rotated " + scheduler.getTicks() + " slots, mean jitter "
+                        + scheduler.getMeanJitterNanos() / 1000 + " us, max jitter "
+                        + scheduler.getMaxJitterNanos() / 1000 + " us, missed " + scheduler.getMissedSlots());
+                scheduler.resetStats();
+            }
         }
+        mFleetAdvertiser.stop();
     }
-}
\ No newline at end of file
+}
@@ -11,6 +11,7 @@ import android.widget.Toast;
 
 import com.sonymobile.ibeaconservice.Model.AdData;
 import com.sonymobile.ibeaconservice.Utils.Constants;
+import com.sonymobile.ibeaconservice.core.Utils.FrameValidator;
 
 import java.nio.ByteBuffer;
 
@@ -41,7 +42,7 @@ public class SettingsActivity extends Activity {
             public void onClick(View v) {
                 byte validity = checkDataValidity();
 
-                if (validity == 0x0f) {
+                if (validity == FrameValidator.ALL_VALID) {
                     Intent returnIntent = new Intent();
                     AdData adData = extractDataFromForm();
 
@@ -51,18 +52,21 @@ public class SettingsActivity extends Activity {
                 } else {
                     String message = getResources().getString(R.string.not_enough_data_txt);
 
-                    if ((validity & 0x01) == 0) {
+                    if ((validity & FrameValidator.UUID_VALID) == 0) {
                         message += getResources().getString(R.string.UUID_txt);
                     }
-                    if ((validity & 0x02) == 0) {
+                    if ((validity & FrameValidator.BATTERY_VOLTAGE_VALID) == 0) {
                         message += getResources().getString(R.string.voltage_txt);
                     }
-                    if ((validity & 0x04) == 0) {
+                    if ((validity & FrameValidator.MAJOR_VALID) == 0) {
                         message += getResources().getString(R.string.major_byte_txt);
                     }
-                    if ((validity & 0x08) == 0) {
+                    if ((validity & FrameValidator.MINOR_VALID) == 0) {
                         message += getResources().getString(R.string.minor_byte_txt);
                     }
+                    if ((validity & FrameValidator.SIGNAL_POWER_VALID) == 0) {
+                        message += getResources().getString(R.string.signal_power_txt);
+                    }
                     Toast.makeText(getApplicationContext(), message, Toast.LENGTH_LONG).show();
                 }
             }
@@ -114,24 +118,13 @@ public class SettingsActivity extends Activity {
      * @return flags showing which parameters are valid
      */
     byte checkDataValidity() {
-        byte result = (byte)0x00;
         EditText editUUID = findViewById(R.id.editUUID);
         EditText editBatteryVoltage = findViewById(R.id.editBatteryVoltage);
         EditText editMajor = findViewById(R.id.editMajor);
         EditText editMinor = findViewById(R.id.editMinor);
+        EditText editSignalPower = findViewById(R.id.editSignalPower);
 
-        if (editUUID.getText().length() == AdData.UUID_DATA_LENGTH * 2) {
-            result |= 1;
-        }
-        if (editBatteryVoltage.getText().length() == AdData.BATTERY_VOLTAGE_DATA_LENGTH * 2) {
-            result |= 1 << 1;
-        }
-        if (editMajor.getText().length() == AdData.MAJOR_BYTES_LENGTH * 2) {
-            result |= 1 << 2;
-        }
-        if (editMinor.getText().length() == AdData.MINOR_BYTES_LENGTH * 2) {
-            result |= 1 << 3;
-        }
-        return result;
+        return FrameValidator.checkDataValidity(editUUID.getText(), editBatteryVoltage.getText(),
+                editMajor.getText(), editMinor.getText(), editSignalPower.getText());
     }
 }
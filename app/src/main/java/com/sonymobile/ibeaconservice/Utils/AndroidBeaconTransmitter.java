@@ -0,0 +1,53 @@
+package com.sonymobile.ibeaconservice.Utils;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+
+import com.sonymobile.ibeaconservice.core.Advertising.BeaconTransmitter;
+
+/**
+ * Production {@link BeaconTransmitter}: the Bluetooth LE advertising sets managed by
+ * {@link IBeaconUtils}. Everything above this only sees the interface, so it can be driven by
+ * the in-memory transmitter from beacon-core off-device.
+ */
+@TargetApi(Build.VERSION_CODES.O)
+public class AndroidBeaconTransmitter implements BeaconTransmitter {
+    private final IBeaconUtils mBeaconUtils;
+
+    public AndroidBeaconTransmitter() {
+        mBeaconUtils = new IBeaconUtils();
+    }
+
+    @Override
+    public int getMaxAdvertisingSets() {
+        return mBeaconUtils.getMaxAdvertisingSets();
+    }
+
+    @Override
+    public void start(int setId, int formatId, byte[] frames, int frameIndex, Callback callback) {
+        mBeaconUtils.startSet(setId, formatId, frames, frameIndex, callback);
+    }
+
+    @Override
+    public boolean update(int setId, int formatId, byte[] frames, int frameIndex) {
+        return mBeaconUtils.updateSet(setId, formatId, frames, frameIndex);
+    }
+
+    @Override
+    public void stop(int setId) {
+        mBeaconUtils.stopSet(setId);
+    }
+
+    @Override
+    public void setParameters(int interval, int txPowerLevel) {
+        mBeaconUtils.setParameters(IBeaconUtils.createAdvertisingParameters(interval, txPowerLevel));
+    }
+
+    /**
+     * @return the wrapped advertiser, for what the interface does not cover (parameter
+     * changes, update latency)
+     */
+    public IBeaconUtils getBeaconUtils() {
+        return mBeaconUtils;
+    }
+}
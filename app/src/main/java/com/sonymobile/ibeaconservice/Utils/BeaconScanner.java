@@ -0,0 +1,263 @@
+package com.sonymobile.ibeaconservice.Utils;
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.le.BluetoothLeScanner;
+import android.bluetooth.le.ScanCallback;
+import android.bluetooth.le.ScanFilter;
+import android.bluetooth.le.ScanRecord;
+import android.bluetooth.le.ScanResult;
+import android.bluetooth.le.ScanSettings;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.sonymobile.ibeaconservice.core.Formats.BeaconFields;
+import com.sonymobile.ibeaconservice.core.Formats.FrameFormat;
+import com.sonymobile.ibeaconservice.core.Formats.FrameFormatRegistry;
+import com.sonymobile.ibeaconservice.core.Scanning.ScanRecords;
+import com.sonymobile.ibeaconservice.core.Scanning.SightingPipeline;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Receive side: scans for beacons with BluetoothLeScanner and feeds the raw scan records to
+ * a {@link SightingPipeline}. The controller already filters on every format the pipeline's
+ * registry knows, e.g. Apple's manufacturer id with the 0x02 0x15 prefix for iBeacons, the
+ * pipeline parses the bytes in place. Results arrive on the main thread.
+ *
+ * Except in the low latency profile the controller queues matches and reports them in bulk
+ * (ScanSettings report delay), so the application processor wakes once per batch instead of
+ * once per advertisement. A batch goes to the pipeline in one pass through preallocated
+ * parallel arrays. Profiles can be switched while scanning.
+ */
+public class BeaconScanner {
+    private static final String TAG = BeaconScanner.class.getName();
+
+    /** Every advertisement reported as it is received */
+    public static final int PROFILE_LOW_LATENCY = 0;
+    /** Balanced duty cycle, reported once a second */
+    public static final int PROFILE_BALANCED = 1;
+    /** Lowest duty cycle, reported every ten seconds */
+    public static final int PROFILE_LOW_POWER = 2;
+
+    private static final int[] PROFILE_SCAN_MODES = {ScanSettings.SCAN_MODE_LOW_LATENCY,
+            ScanSettings.SCAN_MODE_BALANCED, ScanSettings.SCAN_MODE_LOW_POWER};
+    /** Longest a sighting is held back before it is reported, with any profile */
+    public static final long MAX_REPORT_DELAY_MS = 10000;
+
+    private static final long[] PROFILE_REPORT_DELAYS_MS = {0, 1000, MAX_REPORT_DELAY_MS};
+    private static final int INITIAL_BATCH_CAPACITY = 64;
+
+    /**
+     * Told after every delivery has been through the pipeline, on the main thread.
+     */
+    public interface BatchListener {
+        void onBatchProcessed(int records, int sightings, long processingNanos);
+    }
+
+    private final BluetoothAdapter mBluetoothAdapter;
+    private final SightingPipeline mPipeline;
+    private BluetoothLeScanner mBluetoothLeScanner;
+    private boolean mScanning;
+    private int mLastErrorCode;
+    private int mProfile = PROFILE_BALANCED;
+    private long mReportDelayMillis;
+    private BatchListener mBatchListener;
+
+    //reused for every delivery, grown if the controller ever hands over more
+    private byte[][] mBatchRecords = new byte[INITIAL_BATCH_CAPACITY][];
+    private int[] mBatchRssi = new int[INITIAL_BATCH_CAPACITY];
+    private long[] mBatchTimestamps = new long[INITIAL_BATCH_CAPACITY];
+
+    private final ScanCallback mScanCallback = new ScanCallback() {
+        @Override
+        public void onScanResult(int callbackType, ScanResult result) {
+            fill(0, result);
+            process(1);
+        }
+
+        @Override
+        public void onBatchScanResults(List<ScanResult> results) {
+            int size = results.size();
+
+            if (size > mBatchRecords.length) {
+                int capacity = Math.max(size, mBatchRecords.length * 2);
+
+                mBatchRecords = new byte[capacity][];
+                mBatchRssi = new int[capacity];
+                mBatchTimestamps = new long[capacity];
+            }
+            for (int i = 0; i < size; i++) {
+                fill(i, results.get(i));
+            }
+            process(size);
+        }
+
+        @Override
+        public void onScanFailed(int errorCode) {
+            Log.d(TAG, "scan failed: " + errorCode);
+            mLastErrorCode = errorCode;
+            mScanning = false;
+        }
+    };
+
+    public BeaconScanner(SightingPipeline pipeline) {
+        mBluetoothAdapter = BluetoothAdapter.getDefaultAdapter();
+        mPipeline = pipeline;
+    }
+
+    /**
+     * One filter per registered format: its company id or service UUID with the bytes that
+     * tell it apart, e.g. 0x02 0x15 after Apple's id for iBeacons or the frame type after
+     * 0xFEAA for Eddystone. AltBeacons carry their maker's company id, only the default one
+     * is matched.
+     */
+    public static List<ScanFilter> createFilters(FrameFormatRegistry formats) {
+        BeaconFields defaults = new BeaconFields();
+        List<ScanFilter> filters = new ArrayList<>();
+
+        for (int id = 0; id < FrameFormatRegistry.MAX_FORMATS; id++) {
+            FrameFormat format = formats.get(id);
+
+            if (format == null) {
+                continue;
+            }
+            byte[] prefix = format.getFilterPrefix();
+            byte[] mask = new byte[prefix.length];
+            ScanFilter.Builder builder = new ScanFilter.Builder();
+
+            Arrays.fill(mask, (byte) 0xff);
+            if (format.getAdType() == ScanRecords.AD_TYPE_SERVICE_DATA_16) {
+                builder.setServiceData(IBeaconUtils.createServiceUuid(format.getAssignedNumber(defaults)),
+                        prefix, mask);
+            } else {
+                builder.setManufacturerData(format.getAssignedNumber(defaults), prefix, mask);
+            }
+            filters.add(builder.build());
+        }
+        return filters;
+    }
+
+    /**
+     * @param reportDelayMillis 0 to have every match reported as it comes
+     */
+    public static ScanSettings createScanSettings(int profile, long reportDelayMillis) {
+        return new ScanSettings.Builder()
+                .setScanMode(PROFILE_SCAN_MODES[profile])
+                .setCallbackType(ScanSettings.CALLBACK_TYPE_ALL_MATCHES)
+                .setReportDelay(reportDelayMillis)
+                .build();
+    }
+
+    public void setBatchListener(BatchListener listener) {
+        mBatchListener = listener;
+    }
+
+    /**
+     * Switch profile, restarting a running scan with the new settings. Results the
+     * controller holds for the old one are delivered first.
+     *
+     * @param profile one of the PROFILE_* constants
+     */
+    public void setProfile(int profile) {
+        if (profile < PROFILE_LOW_LATENCY || profile > PROFILE_LOW_POWER) {
+            throw new IllegalArgumentException("profile " + profile);
+        }
+        if (profile == mProfile) {
+            return;
+        }
+        mProfile = profile;
+        if (mScanning) {
+            stop();
+            start();
+        }
+    }
+
+    public int getProfile() {
+        return mProfile;
+    }
+
+    /**
+     * @return report delay in use; 0 if not scanning in bulk, which is also the case when the
+     * controller cannot batch
+     */
+    public long getReportDelayMillis() {
+        return mReportDelayMillis;
+    }
+
+    /**
+     * @return false if Bluetooth is off; start again once it is on
+     */
+    public boolean start() {
+        if (mScanning) {
+            return true;
+        }
+        if (mBluetoothLeScanner == null) {
+            mBluetoothLeScanner = mBluetoothAdapter.getBluetoothLeScanner();
+        }
+        if (mBluetoothLeScanner == null) {
+            return false;
+        }
+        //without offloaded batching a report delay would only make the stack buffer for us
+        mReportDelayMillis = mBluetoothAdapter.isOffloadedScanBatchingSupported()
+                ? PROFILE_REPORT_DELAYS_MS[mProfile] : 0;
+        try {
+            mBluetoothLeScanner.startScan(createFilters(mPipeline.getFormats()),
+                    createScanSettings(mProfile, mReportDelayMillis), mScanCallback);
+        } catch (IllegalStateException e) {
+            Log.d(TAG, "scan not started: " + e.getMessage());
+            return false;
+        }
+        mScanning = true;
+        return true;
+    }
+
+    public void stop() {
+        if (!mScanning) {
+            return;
+        }
+        mScanning = false;
+        try {
+            if (mReportDelayMillis > 0) {
+                mBluetoothLeScanner.flushPendingScanResults(mScanCallback);
+            }
+            mBluetoothLeScanner.stopScan(mScanCallback);
+        } catch (IllegalStateException e) {
+            //adapter went off, the scan is gone already
+            Log.d(TAG, "scan not stopped: " + e.getMessage());
+        }
+    }
+
+    public boolean isScanning() {
+        return mScanning;
+    }
+
+    /**
+     * @return last ScanCallback.SCAN_FAILED_* code, 0 if none
+     */
+    public int getLastErrorCode() {
+        return mLastErrorCode;
+    }
+
+    private void fill(int index, ScanResult result) {
+        ScanRecord scanRecord = result.getScanRecord();
+
+        //the raw bytes the ScanRecord was parsed from, not a copy
+        mBatchRecords[index] = scanRecord == null ? null : scanRecord.getBytes();
+        mBatchRssi[index] = result.getRssi();
+        mBatchTimestamps[index] = result.getTimestampNanos();
+    }
+
+    private void process(int size) {
+        long start = SystemClock.elapsedRealtimeNanos();
+        int sightings = mPipeline.onScanRecords(mBatchRecords, mBatchRssi, mBatchTimestamps, size);
+        long processingNanos = SystemClock.elapsedRealtimeNanos() - start;
+
+        //do not keep the stack's buffers alive until the next delivery
+        Arrays.fill(mBatchRecords, 0, size, null);
+        if (mBatchListener != null) {
+            mBatchListener.onBatchProcessed(size, sightings, processingNanos);
+        }
+    }
+}
@@ -4,14 +4,27 @@ public class Constants {
 
     public class Intents {
         public static final String SERVICE_INTENT_FOREGROUND = "foreground";
+        public static final String SERVICE_INTENT_UPDATE = "update";
+        public static final String SERVICE_INTENT_ROTATE = "rotate";
+        public static final String SERVICE_INTENT_SCAN = "scan";
         public static final String SERVICE_OPEN_APP_INTENT = "com.sonymobile.ibeacon.action.open";
+        //bind action for the IBeaconControl interface
+        public static final String SERVICE_BIND_CONTROL = "com.sonymobile.ibeacon.action.CONTROL";
     }
 
     public class ActivityRequestCodes {
         public static final int SETTINGS_ACTIVITY_REQUEST_CODE = 1;
+        public static final int IMPORT_ACTIVITY_REQUEST_CODE = 2;
     }
 
     public class Extras {
         public static final String ADVERTISING_BYTES = "advertising";
+        //23 byte frames back to back, one per identity to rotate through
+        public static final String ROTATION_FRAMES = "rotation_frames";
+        public static final String ROTATION_SLICE_MS = "rotation_slice_ms";
+        //boolean, start (default) or stop scanning for other beacons
+        public static final String SCAN_ENABLED = "scan_enabled";
+        //int, one of the BeaconScanner.PROFILE_* constants, switchable while scanning
+        public static final String SCAN_PROFILE = "scan_profile";
     }
 }
@@ -3,48 +3,82 @@ package com.sonymobile.ibeaconservice.Utils;
 import android.annotation.TargetApi;
 
 import android.bluetooth.BluetoothAdapter;
-import android.bluetooth.le.AdvertiseCallback;
 import android.bluetooth.le.AdvertiseData;
-import android.bluetooth.le.AdvertiseSettings;
+import android.bluetooth.le.AdvertisingSet;
+import android.bluetooth.le.AdvertisingSetCallback;
+import android.bluetooth.le.AdvertisingSetParameters;
 import android.bluetooth.le.BluetoothLeAdvertiser;
 import android.os.Build;
+import android.os.ParcelUuid;
+import android.os.SystemClock;
+import android.util.Log;
+import android.util.SparseArray;
+
+import com.sonymobile.ibeaconservice.core.Advertising.BeaconTransmitter;
+import com.sonymobile.ibeaconservice.core.Formats.BeaconFields;
+import com.sonymobile.ibeaconservice.core.Formats.FrameFormat;
+import com.sonymobile.ibeaconservice.core.Formats.FrameFormatRegistry;
+import com.sonymobile.ibeaconservice.core.Formats.IBeaconFormat;
+import com.sonymobile.ibeaconservice.core.Scanning.ScanRecords;
+import com.sonymobile.ibeaconservice.core.Utils.IBeaconFrames;
 
 import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.UUID;
 
+/**
+ * Advertises beacon frames through {@link AdvertisingSet}s. Every set has its own callback
+ * and lifecycle, so several can run at once; the single beacon started from the UI is simply
+ * {@link #PRIMARY_SET_ID}. The service talks to this through {@link AndroidBeaconTransmitter}.
+ *
+ * Once a set is running its payload and parameters are swapped in place, so a settings change
+ * no longer needs a stop/start cycle and the beacon does not go silent in between.
+ *
+ * Frames go on air as the format of their set encodes them: the fields are read off the
+ * iBeacon layout frame and patched over the template of the {@link FrameFormatRegistry}
+ * format, so a set never carries a malformed header. The single beacon from the UI is always
+ * an iBeacon, {@link IBeaconFormat}.
+ */
 @TargetApi(Build.VERSION_CODES.O)
 public class IBeaconUtils {
-    private static BluetoothLeAdvertiser mBluetoothLeAdvertiser;
-    private AdvertiseCallback mAdvertiseCallback;
+    private static final String TAG = IBeaconUtils.class.getName();
+
+    public static final int PRIMARY_SET_ID = 0;
+
+    //The stack has no public query for the number of advertising instances. These are
+    //conservative guesses; MultiSetAdvertiser lowers them when the controller refuses a set
+    //with ADVERTISE_FAILED_TOO_MANY_ADVERTISERS.
+    private static final int MULTI_ADVERTISEMENT_SETS = 4;
+    private static final int EXTENDED_ADVERTISING_SETS = 8;
+
+    private static final FrameFormat IBEACON = new IBeaconFormat();
+    //Bluetooth base UUID with the 16 bit service UUID in bits 96-111
+    private static final long BASE_UUID_LEAST_SIGNIFICANT_BITS = 0x800000805f9b34fbL;
 
-    private static final int MANUFACTURER_ID = 0x004c;
+    private final FrameFormatRegistry mFormats = FrameFormatRegistry.createDefault();
+    private final BluetoothAdapter mBluetoothAdapter;
+    private BluetoothLeAdvertiser mBluetoothLeAdvertiser;
+    private final SparseArray<SetHandle> mSets = new SparseArray<>();
+    private AdvertisingSetParameters mParameters = createAdvertisingParameters();
+
+    //fields of the frame being encoded, reused for every frame
+    private final BeaconFields mFrameFields = new BeaconFields();
 
     public IBeaconUtils() {
-        mBluetoothLeAdvertiser = BluetoothAdapter.getDefaultAdapter().getBluetoothLeAdvertiser();
-
-        mAdvertiseCallback = new AdvertiseCallback() {
-            @Override
-            public void onStartSuccess(AdvertiseSettings settingsInEffect) {
-                super.onStartSuccess(settingsInEffect);
-            }
-
-            @Override
-            public void onStartFailure(int errorCode) {
-                super.onStartFailure(errorCode);
-
-                switch(errorCode){
-                    case AdvertiseCallback.ADVERTISE_FAILED_ALREADY_STARTED:
-                        mBluetoothLeAdvertiser.stopAdvertising(this);
-                        break;
-                    case ADVERTISE_FAILED_DATA_TOO_LARGE:
-                        //Toast.makeText(mActivity, "Failed. Advertising data too large. Try again", Toast.LENGTH_SHORT).show();
-                        break;
-                    default:
-                        System.out.println("towa on start failure: " + errorCode);
-                        break;
-                }
-            }
+        mBluetoothAdapter = BluetoothAdapter.getDefaultAdapter();
+    }
 
-        };
+    /**
+     * The adapter only hands out an advertiser while it is on, so fetch it on demand rather
+     * than once at construction.
+     *
+     * @return the advertiser, null if Bluetooth is off
+     */
+    private BluetoothLeAdvertiser getAdvertiser() {
+        if (mBluetoothLeAdvertiser == null) {
+            mBluetoothLeAdvertiser = mBluetoothAdapter.getBluetoothLeAdvertiser();
+        }
+        return mBluetoothLeAdvertiser;
     }
 
     /**
@@ -62,65 +96,366 @@ public class IBeaconUtils {
         //Byte 4 is ff denoting manufacturer specific data
         //Byte 5 & 6 are the Manufacturer id (0x004C)
         //So, actual byte positions below are offset by 9
-        ByteBuffer adData = ByteBuffer.allocate(23);
-
-        adData.put( 0,(byte)0x02);//iBeacon product ID
-        adData.put( 1,(byte)0x15);//0x15 data length (21)
-        adData.put( 2,(byte)0xd3);//start proximity UUID
-        adData.put( 3,(byte)0xcb);
-        adData.put( 4,(byte)0xd6);
-        adData.put( 5,(byte)0xaa);
-        adData.put( 6,(byte)0xaa);
-        adData.put( 7,(byte)0xaa);
-        adData.put( 8,(byte)0xaa);
-        adData.put( 9,(byte)0xaa);
-        adData.put(10,(byte)0xaa);
-        adData.put(11,(byte)0xaa);
-        adData.put(12,(byte)0xaa);
-        adData.put(13,(byte)0xaa);
-        adData.put(14,(byte)0xaa);
-        adData.put(15,(byte)0x1f);//end proximity UUID
-        adData.put(16,(byte)0xee);//Batt voltage 1
-        adData.put(17,(byte)0xee);//Batt voltage 2
-        adData.put(18,(byte)0xfe);// major 1
-        adData.put(19,(byte)0xef);// major 2
-        adData.put(20,(byte)0xaf);//minor 1
-        adData.put(21,(byte)0xfa);//minor 2
-        adData.put(22,(byte)0xc5); //signal power (-58? in two's complement)
-
-        return adData.duplicate();
-    }
-
-    private static AdvertiseData setAdvertiseData(ByteBuffer adData) {
+        //The frame layout itself is shared with the JVM side in beacon-core.
+        return ByteBuffer.wrap(IBeaconFrames.createDefaultFrame());
+    }
+
+    private AdvertiseData setAdvertiseData(ByteBuffer adData) {
+        return createAdvertiseData(IBEACON, adData.array(), adData.arrayOffset());
+    }
+
+    private AdvertiseData createAdvertiseData(FrameFormat format, byte[] frames, int offset) {
+        IBEACON.decode(frames, offset, IBeaconFrames.FRAME_LENGTH, mFrameFields);
+        return createAdvertiseData(format, mFrameFields);
+    }
+
+    /**
+     * @throws IllegalArgumentException if no format has the id
+     */
+    private FrameFormat getFormat(int formatId) {
+        FrameFormat format = mFormats.get(formatId);
+
+        if (format == null) {
+            throw new IllegalArgumentException("Unknown format " + formatId);
+        }
+        return format;
+    }
+
+    /**
+     * @param data frame data as the format encodes it, after the company id or service UUID
+     */
+    private static AdvertiseData createAdvertiseData(FrameFormat format, int assignedNumber, byte[] data) {
         //android gives us no control over the initial bytes.
-        //(flag length, flags, manufacturer data, payload length, 0xff)
-        //so in effect we are only setting from byte 8 onwards
+        //(flag length, flags, structure length, type, company id or service UUID)
+        //so in effect we are only setting the frame data
         AdvertiseData.Builder advertiseDataBuilder = new AdvertiseData.Builder();
 
         advertiseDataBuilder.setIncludeTxPowerLevel(false);
         advertiseDataBuilder.setIncludeDeviceName(false);
-        advertiseDataBuilder.addManufacturerData(MANUFACTURER_ID, adData.array());
+        if (format.getAdType() == ScanRecords.AD_TYPE_SERVICE_DATA_16) {
+            ParcelUuid service = createServiceUuid(assignedNumber);
 
+            //Eddystone scanners also look for the service in the UUID list
+            advertiseDataBuilder.addServiceUuid(service);
+            advertiseDataBuilder.addServiceData(service, data);
+        } else {
+            advertiseDataBuilder.addManufacturerData(assignedNumber, data);
+        }
         return advertiseDataBuilder.build();
     }
 
-    private static AdvertiseSettings setAdvertiseSettings() {
-        AdvertiseSettings.Builder mBuilder = new AdvertiseSettings.Builder();
+    /**
+     * @return the full UUID of a 16 bit service UUID
+     */
+    static ParcelUuid createServiceUuid(int serviceUuid) {
+        return new ParcelUuid(new UUID(((long)serviceUuid << 32) | 0x1000L, BASE_UUID_LEAST_SIGNIFICANT_BITS));
+    }
+
+    /**
+     * Encode a frame of any registered format.
+     */
+    private static AdvertiseData createAdvertiseData(FrameFormat format, BeaconFields fields) {
+        //AdvertiseData keeps the array, so each one gets its own
+        byte[] data = new byte[format.getMaxDataLength()];
+        int length = format.encode(fields, data, 0);
+
+        return createAdvertiseData(format, format.getAssignedNumber(fields),
+                length == data.length ? data : Arrays.copyOf(data, length));
+    }
+
+    /**
+     * Legacy (4.x style) advertising so that existing iBeacon scanners see us, with the same
+     * ~1000ms interval and medium TX power the old AdvertiseSettings used.
+     */
+    public static AdvertisingSetParameters createAdvertisingParameters() {
+        //1000 ms interval
+        return createAdvertisingParameters(AdvertisingSetParameters.INTERVAL_HIGH,
+                AdvertisingSetParameters.TX_POWER_MEDIUM);
+    }
+
+    public static AdvertisingSetParameters createAdvertisingParameters(int interval, int txPowerLevel) {
+        AdvertisingSetParameters.Builder mBuilder = new AdvertisingSetParameters.Builder();
 
-        mBuilder.setAdvertiseMode(AdvertiseSettings.ADVERTISE_MODE_LOW_POWER);//1000 ms interval
+        mBuilder.setLegacyMode(true);
         mBuilder.setConnectable(true);
-        mBuilder.setTxPowerLevel(AdvertiseSettings.ADVERTISE_TX_POWER_MEDIUM);
+        mBuilder.setScannable(true);
+        mBuilder.setInterval(interval);
+        mBuilder.setTxPowerLevel(txPowerLevel);
         return mBuilder.build();
     }
 
+    /**
+     * Parameters for every set: running sets are updated in place, later starts use them too.
+     */
+    public void setParameters(AdvertisingSetParameters parameters) {
+        mParameters = parameters;
+        for (int i = 0; i < mSets.size(); i++) {
+            mSets.valueAt(i).updateParameters(parameters);
+        }
+    }
+
     public void startAdvertising(ByteBuffer adData) {
-        AdvertiseSettings mAdvertiseSettings = setAdvertiseSettings();
-        AdvertiseData mAdvertiseData = setAdvertiseData(adData);
-        mBluetoothLeAdvertiser.startAdvertising(mAdvertiseSettings, mAdvertiseData, mAdvertiseCallback);
+        startSet(new SetHandle(PRIMARY_SET_ID, null), setAdvertiseData(adData));
+    }
+
+    /**
+     * Swap the payload of the running primary set without stopping it.
+     *
+     * @param adData the new 23 bytes of manufacturer data
+     * @return false if there is no running set to update, the caller should start advertising instead
+     */
+    public boolean updateAdvertisingData(ByteBuffer adData) {
+        SetHandle handle = mSets.get(PRIMARY_SET_ID);
+
+        return handle != null && handle.update(setAdvertiseData(adData));
+    }
+
+    /**
+     * Change interval/TX power of the running primary set. The stack only accepts new
+     * parameters while the set is disabled, so this briefly disables it; the set itself (and
+     * its payload) stays allocated, which is much quicker than a full stop/start.
+     *
+     * @return false if there is no running set to update
+     */
+    public boolean updateAdvertisingParameters(AdvertisingSetParameters parameters) {
+        SetHandle handle = mSets.get(PRIMARY_SET_ID);
+
+        return handle != null && handle.updateParameters(parameters);
     }
 
     public void stopAdvertising() {
-        mBluetoothLeAdvertiser.stopAdvertising(mAdvertiseCallback);
+        stopSet(PRIMARY_SET_ID);
     }
-}
 
+    public boolean isAdvertising() {
+        SetHandle handle = mSets.get(PRIMARY_SET_ID);
+
+        return handle != null && handle.mAdvertisingSet != null;
+    }
+
+    /*
+    Set level functionality, used to run several sets at once.
+     */
+    public int getMaxAdvertisingSets() {
+        if (!mBluetoothAdapter.isMultipleAdvertisementSupported()) {
+            return 1;
+        }
+        if (mBluetoothAdapter.isLeExtendedAdvertisingSupported()) {
+            return EXTENDED_ADVERTISING_SETS;
+        }
+        return MULTI_ADVERTISEMENT_SETS;
+    }
+
+    /**
+     * @param formatId the {@link FrameFormat} the frame goes on air in
+     * @throws IllegalArgumentException if the format is unknown or cannot carry the frame
+     */
+    public void startSet(int setId, int formatId, byte[] frames, int frameIndex,
+                         BeaconTransmitter.Callback callback) {
+        FrameFormat format = getFormat(formatId);
+        //a new handle, so a restarted set does not see data cached for the last buffer
+        SetHandle handle = new SetHandle(setId, callback);
+
+        startSet(handle, handle.getAdvertiseData(format, frames, frameIndex));
+    }
+
+    /**
+     * @throws IllegalArgumentException if the format is unknown or cannot carry the frame
+     */
+    public boolean updateSet(int setId, int formatId, byte[] frames, int frameIndex) {
+        SetHandle handle = mSets.get(setId);
+
+        return handle != null && handle.update(handle.getAdvertiseData(getFormat(formatId), frames, frameIndex));
+    }
+
+    public void stopSet(int setId) {
+        SetHandle handle = mSets.get(setId);
+        BluetoothLeAdvertiser advertiser = getAdvertiser();
+
+        if (handle == null) {
+            return;
+        }
+        mSets.remove(setId);
+        if (advertiser != null) {
+            try {
+                advertiser.stopAdvertisingSet(handle);
+            } catch (IllegalStateException e) {
+                //adapter went off, the stack has dropped the set already
+                Log.d(TAG, "set " + setId + " not stopped: " + e.getMessage());
+            }
+        }
+    }
+
+    private void startSet(SetHandle handle, AdvertiseData advertiseData) {
+        int setId = handle.mSetId;
+        BeaconTransmitter.Callback callback = handle.mCallback;
+
+        if (mSets.get(setId) != null) {
+            if (callback != null) {
+                callback.onStartFailed(setId, BeaconTransmitter.ADVERTISE_FAILED_ALREADY_STARTED);
+            }
+            return;
+        }
+        BluetoothLeAdvertiser advertiser = getAdvertiser();
+
+        if (advertiser == null) {
+            if (callback != null) {
+                callback.onStartFailed(setId, BeaconTransmitter.ADVERTISE_FAILED_INTERNAL_ERROR);
+            }
+            return;
+        }
+        mSets.put(setId, handle);
+        try {
+            advertiser.startAdvertisingSet(mParameters, advertiseData,
+                    null, null, null, handle);
+        } catch (IllegalStateException e) {
+            //adapter turned off under us
+            mSets.remove(setId);
+            Log.d(TAG, "set " + setId + " not started: " + e.getMessage());
+            if (callback != null) {
+                callback.onStartFailed(setId, BeaconTransmitter.ADVERTISE_FAILED_INTERNAL_ERROR);
+            }
+        }
+    }
+
+    /**
+     * One advertising set: its own stack callback, live AdvertisingSet and lifecycle listener.
+     */
+    private class SetHandle extends AdvertisingSetCallback {
+        private final int mSetId;
+        private final BeaconTransmitter.Callback mCallback;
+        private AdvertisingSet mAdvertisingSet;
+        private AdvertisingSetParameters mPendingParameters;
+        //when the update in flight was handed to the stack, read on the callback thread
+        private volatile long mUpdateRequestedNanos;
+        //advertise data per frame of the buffer this set rotates through, so coming back to an
+        //identity does not rebuild it; dropped when the buffer or the format changes
+        private byte[] mCachedFrames;
+        private int mCachedFormatId;
+        private final SparseArray<AdvertiseData> mCachedAdvertiseData = new SparseArray<>();
+
+        SetHandle(int setId, BeaconTransmitter.Callback callback) {
+            mSetId = setId;
+            mCallback = callback;
+        }
+
+        /**
+         * @param frames not changed in place while the set advertises from it, a new buffer
+         * is passed instead
+         */
+        AdvertiseData getAdvertiseData(FrameFormat format, byte[] frames, int frameIndex) {
+            if (mCachedFrames != frames || mCachedFormatId != format.getId()) {
+                mCachedFrames = frames;
+                mCachedFormatId = format.getId();
+                mCachedAdvertiseData.clear();
+            }
+            AdvertiseData advertiseData = mCachedAdvertiseData.get(frameIndex);
+
+            if (advertiseData == null) {
+                advertiseData = createAdvertiseData(format, frames, frameIndex * IBeaconFrames.FRAME_LENGTH);
+                mCachedAdvertiseData.put(frameIndex, advertiseData);
+            }
+            return advertiseData;
+        }
+
+        boolean update(AdvertiseData advertiseData) {
+            AdvertisingSet advertisingSet = mAdvertisingSet;
+
+            if (advertisingSet == null) {
+                return false;
+            }
+            mUpdateRequestedNanos = SystemClock.elapsedRealtimeNanos();
+            advertisingSet.setAdvertisingData(advertiseData);
+            return true;
+        }
+
+        boolean updateParameters(AdvertisingSetParameters parameters) {
+            AdvertisingSet advertisingSet = mAdvertisingSet;
+
+            if (advertisingSet == null) {
+                return false;
+            }
+            mUpdateRequestedNanos = SystemClock.elapsedRealtimeNanos();
+            mPendingParameters = parameters;
+            advertisingSet.enableAdvertising(false, 0, 0);
+            return true;
+        }
+
+        @Override
+        public void onAdvertisingSetStarted(AdvertisingSet advertisingSet, int txPower, int status) {
+            super.onAdvertisingSetStarted(advertisingSet, txPower, status);
+
+            if (status == ADVERTISE_SUCCESS) {
+                mAdvertisingSet = advertisingSet;
+                if (mCallback != null) {
+                    mCallback.onStarted(mSetId);
+                }
+                return;
+            }
+
+            switch (status) {
+                case ADVERTISE_FAILED_ALREADY_STARTED:
+                    getAdvertiser().stopAdvertisingSet(this);
+                    break;
+                case ADVERTISE_FAILED_DATA_TOO_LARGE:
+                    Log.d(TAG, "Failed. Advertising data too large");
+                    break;
+                default:
+                    Log.d(TAG, "set " + mSetId + " on start failure: " + status);
+                    break;
+            }
+            if (mSets.get(mSetId) == this) {
+                mSets.remove(mSetId);
+            }
+            if (mCallback != null) {
+                mCallback.onStartFailed(mSetId, status);
+            }
+        }
+
+        @Override
+        public void onAdvertisingSetStopped(AdvertisingSet advertisingSet) {
+            super.onAdvertisingSetStopped(advertisingSet);
+            mAdvertisingSet = null;
+            if (mCallback != null) {
+                mCallback.onStopped(mSetId);
+            }
+        }
+
+        @Override
+        public void onAdvertisingDataSet(AdvertisingSet advertisingSet, int status) {
+            super.onAdvertisingDataSet(advertisingSet, status);
+            onUpdateApplied("data", status);
+        }
+
+        @Override
+        public void onAdvertisingEnabled(AdvertisingSet advertisingSet, boolean enable, int status) {
+            super.onAdvertisingEnabled(advertisingSet, enable, status);
+
+            //parameters can only be changed while the set is disabled, see updateParameters
+            if (!enable && mPendingParameters != null) {
+                advertisingSet.setAdvertisingParameters(mPendingParameters);
+                mPendingParameters = null;
+            }
+        }
+
+        @Override
+        public void onAdvertisingParametersUpdated(AdvertisingSet advertisingSet, int txPower, int status) {
+            super.onAdvertisingParametersUpdated(advertisingSet, txPower, status);
+            advertisingSet.enableAdvertising(true, 0, 0);
+            onUpdateApplied("parameters", status);
+        }
+
+        private void onUpdateApplied(String what, int status) {
+            if (status != ADVERTISE_SUCCESS) {
+                Log.d(TAG, "set " + mSetId + " " + what + " update failed: " + status);
+                return;
+            }
+            long latencyNanos = SystemClock.elapsedRealtimeNanos() - mUpdateRequestedNanos;
+
+            Log.d(TAG, "set " + mSetId + " " + what + " updated in " + latencyNanos / 1000 + " us");
+            if (mCallback != null) {
+                mCallback.onUpdated(mSetId, latencyNanos);
+            }
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package com.sonymobile.ibeaconservice.benchmark;
+
+import com.sonymobile.ibeaconservice.core.Model.BeaconFrame;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decode (AdData(byte[])) and encode (getManufacturerDataBytes()) of whole batches of frames.
+ * Scores are per batch; divide by batchSize for a per-frame figure.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "-Xmx2g"})
+@State(Scope.Benchmark)
+public class AdDataBenchmark {
+
+    @Param({"1", "100", "10000", "1000000"})
+    public int batchSize;
+
+    private byte[][] mFrames;
+    private BeaconFrame[] mDecoded;
+
+    @Setup
+    public void setUp() {
+        mFrames = BenchmarkFrames.createFrames(batchSize);
+        mDecoded = new BeaconFrame[batchSize];
+
+        for (int i = 0; i < batchSize; i++) {
+            mDecoded[i] = new BeaconFrame(mFrames[i]);
+        }
+    }
+
+    @Benchmark
+    public void decode(Blackhole blackhole) {
+        for (byte[] frame : mFrames) {
+            blackhole.consume(new BeaconFrame(frame));
+        }
+    }
+
+    @Benchmark
+    public void encode(Blackhole blackhole) {
+        for (BeaconFrame frame : mDecoded) {
+            blackhole.consume(frame.getManufacturerDataBytes());
+        }
+    }
+}
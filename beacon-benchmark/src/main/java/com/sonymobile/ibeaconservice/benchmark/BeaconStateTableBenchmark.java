@@ -0,0 +1,91 @@
+package com.sonymobile.ibeaconservice.benchmark;
+
+import com.sonymobile.ibeaconservice.core.Scanning.ScanRecords;
+import com.sonymobile.ibeaconservice.core.Tracking.BeaconStateTable;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One sighting per beacon of a packed batch of scan records, into the primitive table and,
+ * for comparison, into a HashMap keyed on the hex strings the UI model would give.
+ * Expect gc.alloc.rate.norm of zero for the table once it is warm.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "-Xmx2g"})
+@State(Scope.Benchmark)
+public class BeaconStateTableBenchmark {
+
+    @Param({"1", "100", "10000", "1000000"})
+    public int batchSize;
+
+    private byte[] mRecords;
+    private String[] mHexKeys;
+    private BeaconStateTable mTable;
+    private Map<String, int[]> mMap;
+    private long mNow;
+
+    @Setup
+    public void setUp() {
+        byte[][] frames = BenchmarkFrames.createFrames(batchSize);
+        String[] hex = BenchmarkFrames.toHexStrings(frames);
+
+        mRecords = new byte[batchSize * ScanRecords.IBEACON_RECORD_LENGTH];
+        mHexKeys = new String[batchSize];
+        for (int i = 0; i < batchSize; i++) {
+            ScanRecords.writeIBeaconRecord(mRecords, i * ScanRecords.IBEACON_RECORD_LENGTH, frames[i], 0);
+            mHexKeys[i] = hex[i].substring(4, 44);
+        }
+        mTable = new BeaconStateTable(batchSize, TimeUnit.SECONDS.toNanos(10));
+        mMap = new HashMap<>();
+    }
+
+    @Benchmark
+    public int primitiveTable() {
+        long now = ++mNow;
+
+        for (int i = 0; i < batchSize; i++) {
+            int offset = i * ScanRecords.IBEACON_RECORD_LENGTH;
+
+            mTable.onSighting(mRecords, ScanRecords.findIBeaconFrame(mRecords, offset,
+                    ScanRecords.IBEACON_RECORD_LENGTH), -60 - (i & 15), now);
+        }
+        return mTable.size();
+    }
+
+    @Benchmark
+    public int stringKeyedMap() {
+        long now = ++mNow;
+
+        for (int i = 0; i < batchSize; i++) {
+            //what a naive tracker pays per sighting: a key string and a state object
+            String key = new String(mHexKeys[i].toCharArray());
+            int[] state = mMap.get(key);
+
+            if (state == null) {
+                state = new int[3];
+                mMap.put(key, state);
+            }
+            state[0] = -60 - (i & 15);
+            state[1] = (int)now;
+            state[2]++;
+        }
+        return mMap.size();
+    }
+}
@@ -0,0 +1,75 @@
+package com.sonymobile.ibeaconservice.benchmark;
+
+import com.sonymobile.ibeaconservice.core.Utils.HexCodec;
+import com.sonymobile.ibeaconservice.core.Utils.IBeaconFrames;
+
+import java.util.Random;
+
+/**
+ * Deterministic input data shared by the benchmarks, so runs before and after
+ * an optimisation are measured against the same frames.
+ */
+final class BenchmarkFrames {
+    static final long SEED = 0x1BEAC0DL;
+
+    private BenchmarkFrames() {
+    }
+
+    /**
+     * @return count distinct 23 byte frames with a valid iBeacon header
+     */
+    static byte[][] createFrames(int count) {
+        Random random = new Random(SEED);
+        byte[][] frames = new byte[count][];
+
+        for (int i = 0; i < count; i++) {
+            byte[] frame = IBeaconFrames.createDefaultFrame();
+            byte[] payload = new byte[IBeaconFrames.FRAME_LENGTH - IBeaconFrames.UUID_BYTES_INDEX];
+
+            random.nextBytes(payload);
+            System.arraycopy(payload, 0, frame, IBeaconFrames.UUID_BYTES_INDEX, payload.length);
+            frames[i] = frame;
+        }
+        return frames;
+    }
+
+    /**
+     * @return the frames as lower case hex strings, as a provisioning import would hold them
+     */
+    static String[] toHexStrings(byte[][] frames) {
+        String[] strings = new String[frames.length];
+
+        for (int i = 0; i < frames.length; i++) {
+            strings[i] = HexCodec.convertValuesToHexString(frames[i]);
+        }
+        return strings;
+    }
+
+    /**
+     * @return the frames as an import file, one row of hex fields per frame
+     */
+    static String toImportText(byte[][] frames, boolean jsonLines) {
+        String[] hexFrames = toHexStrings(frames);
+        StringBuilder text = new StringBuilder(frames.length * (jsonLines ? 120 : 50));
+
+        for (String hex : hexFrames) {
+            String uuid = hex.substring(IBeaconFrames.UUID_BYTES_INDEX * 2, IBeaconFrames.BATTERY_VOLTAGE_INDEX * 2);
+            String battery = hex.substring(IBeaconFrames.BATTERY_VOLTAGE_INDEX * 2, IBeaconFrames.MAJOR_BYTE_INDEX * 2);
+            String major = hex.substring(IBeaconFrames.MAJOR_BYTE_INDEX * 2, IBeaconFrames.MINOR_BYTE_INDEX * 2);
+            String minor = hex.substring(IBeaconFrames.MINOR_BYTE_INDEX * 2, IBeaconFrames.SIGNAL_POWER_BYTES_INDEX * 2);
+            String txPower = hex.substring(IBeaconFrames.SIGNAL_POWER_BYTES_INDEX * 2);
+
+            if (jsonLines) {
+                text.append("{\"uuid\":\"").append(uuid)
+                        .append("\",\"battery\":\"").append(battery)
+                        .append("\",\"major\":\"").append(major)
+                        .append("\",\"minor\":\"").append(minor)
+                        .append("\",\"txPower\":\"").append(txPower).append("\"}\n");
+            } else {
+                text.append(uuid).append(',').append(battery).append(',').append(major).append(',')
+                        .append(minor).append(',').append(txPower).append('\n');
+            }
+        }
+        return text.toString();
+    }
+}
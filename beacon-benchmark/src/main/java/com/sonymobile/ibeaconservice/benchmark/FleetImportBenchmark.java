@@ -0,0 +1,73 @@
+package com.sonymobile.ibeaconservice.benchmark;
+
+import com.sonymobile.ibeaconservice.core.Import.FleetImporter;
+import com.sonymobile.ibeaconservice.core.Utils.Clock;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Streaming import of a fleet file into frames. Scores are per file; rows/sec is
+ * batchSize / score. The gc profiler's alloc rate shows what is left per row besides the
+ * StringReader.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "-Xmx2g"})
+@State(Scope.Benchmark)
+public class FleetImportBenchmark {
+
+    @Param({"1", "100", "10000", "1000000"})
+    public int batchSize;
+
+    @Param({"csv", "jsonl"})
+    public String format;
+
+    private String mText;
+    private int mFormat;
+    private FleetImporter mImporter;
+    private Blackhole mBlackhole;
+
+    private final FleetImporter.FrameSink mSink = new FleetImporter.FrameSink() {
+        @Override
+        public void onFrames(byte[] frames, int count) {
+            mBlackhole.consume(frames);
+        }
+
+        @Override
+        public void onRejected(long line, byte validity) {
+            throw new IllegalStateException("Benchmark row " + line + " rejected");
+        }
+    };
+
+    @Setup
+    public void setUp(Blackhole blackhole) {
+        boolean jsonLines = format.equals("jsonl");
+
+        mText = BenchmarkFrames.toImportText(BenchmarkFrames.createFrames(batchSize), jsonLines);
+        mFormat = jsonLines ? FleetImporter.FORMAT_JSON_LINES : FleetImporter.FORMAT_CSV;
+        mImporter = new FleetImporter(Clock.SYSTEM);
+        mBlackhole = blackhole;
+    }
+
+    @Benchmark
+    public long importFleet() throws IOException {
+        return mImporter.importFrom(new StringReader(mText), mFormat, mSink);
+    }
+}
@@ -0,0 +1,93 @@
+package com.sonymobile.ibeaconservice.benchmark;
+
+import com.sonymobile.ibeaconservice.core.Formats.AltBeaconFormat;
+import com.sonymobile.ibeaconservice.core.Formats.BeaconFields;
+import com.sonymobile.ibeaconservice.core.Formats.FrameFormat;
+import com.sonymobile.ibeaconservice.core.Formats.FrameFormatRegistry;
+import com.sonymobile.ibeaconservice.core.Model.BeaconId;
+import com.sonymobile.ibeaconservice.core.Scanning.ScanRecords;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Format detection (FrameFormatRegistry.find()) over scan records mixing every default format,
+ * and template encoding (FrameFormat.encode()) of the same mix.
+ * Scores are per batch; divide by batchSize for a per-record figure.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "-Xmx2g"})
+@State(Scope.Benchmark)
+public class FrameFormatBenchmark {
+    private static final int[] FORMATS = {
+            FrameFormat.IBEACON, FrameFormat.ALTBEACON, FrameFormat.EDDYSTONE_UID,
+            FrameFormat.EDDYSTONE_URL, FrameFormat.EDDYSTONE_TLM
+    };
+    //flags structure, then the largest frame with its header
+    private static final int RECORD_LENGTH = 3 + 4 + AltBeaconFormat.DATA_LENGTH;
+
+    @Param({"1", "100", "10000", "1000000"})
+    public int batchSize;
+
+    private FrameFormatRegistry mRegistry;
+    private byte[][] mRecords;
+    private FrameFormat[] mFormats;
+    private BeaconFields[] mFields;
+    private byte[] mEncoded;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(BenchmarkFrames.SEED);
+        byte[][] frames = BenchmarkFrames.createFrames(batchSize);
+
+        mRegistry = FrameFormatRegistry.createDefault();
+        mRecords = new byte[batchSize][RECORD_LENGTH];
+        mFormats = new FrameFormat[batchSize];
+        mFields = new BeaconFields[batchSize];
+        mEncoded = new byte[RECORD_LENGTH];
+        for (int i = 0; i < batchSize; i++) {
+            BeaconFields fields = new BeaconFields().setBeaconId(BeaconId.fromFrame(frames[i], 0))
+                    .setUrl("https://sony.com/b" + i % 1000)
+                    .setBatteryMillivolts(3000).setTemperature(21.5)
+                    .setAdvertisingCount(i).setUptimeTenths(10L * i);
+            FrameFormat format = mRegistry.get(FORMATS[random.nextInt(FORMATS.length)]);
+
+            mRecords[i][0] = 2;
+            mRecords[i][1] = ScanRecords.AD_TYPE_FLAGS;
+            mRecords[i][2] = ScanRecords.FLAGS_LE_GENERAL;
+            format.writeStructure(fields, mRecords[i], 3);
+            mFormats[i] = format;
+            mFields[i] = fields;
+        }
+    }
+
+    @Benchmark
+    public void find(Blackhole blackhole) {
+        for (byte[] record : mRecords) {
+            blackhole.consume(mRegistry.find(record, 0, record.length));
+        }
+    }
+
+    @Benchmark
+    public void encode(Blackhole blackhole) {
+        for (int i = 0; i < batchSize; i++) {
+            blackhole.consume(mFormats[i].encode(mFields[i], mEncoded, 0));
+        }
+    }
+}
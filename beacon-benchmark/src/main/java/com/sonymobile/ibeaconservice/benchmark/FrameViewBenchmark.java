@@ -0,0 +1,67 @@
+package com.sonymobile.ibeaconservice.benchmark;
+
+import com.sonymobile.ibeaconservice.core.Model.BeaconFrameView;
+import com.sonymobile.ibeaconservice.core.Utils.IBeaconFrames;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The flyweight counterpart of {@link AdDataBenchmark}: one view walking a packed buffer
+ * of frames, reading (scan parsing) or patching (bulk provisioning) them in place.
+ * Expect gc.alloc.rate.norm of zero.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "-Xmx2g"})
+@State(Scope.Benchmark)
+public class FrameViewBenchmark {
+
+    @Param({"1", "100", "10000", "1000000"})
+    public int batchSize;
+
+    private byte[] mPackedFrames;
+    private final BeaconFrameView mView = new BeaconFrameView();
+
+    @Setup
+    public void setUp() {
+        byte[][] frames = BenchmarkFrames.createFrames(batchSize);
+
+        mPackedFrames = new byte[batchSize * IBeaconFrames.FRAME_LENGTH];
+        for (int i = 0; i < batchSize; i++) {
+            System.arraycopy(frames[i], 0, mPackedFrames, i * IBeaconFrames.FRAME_LENGTH, IBeaconFrames.FRAME_LENGTH);
+        }
+    }
+
+    @Benchmark
+    public long read() {
+        long checksum = 0;
+
+        for (int i = 0; i < batchSize; i++) {
+            mView.wrapFrame(mPackedFrames, i);
+            checksum += mView.getMajor() + mView.getMinor() + mView.getTxPower() + mView.getBatteryVoltage();
+        }
+        return checksum;
+    }
+
+    @Benchmark
+    public byte[] write() {
+        for (int i = 0; i < batchSize; i++) {
+            mView.wrapFrame(mPackedFrames, i).writeHeader().setMajor(i >>> 16).setMinor(i).setTxPower(-59);
+        }
+        return mPackedFrames;
+    }
+}
@@ -0,0 +1,94 @@
+package com.sonymobile.ibeaconservice.benchmark;
+
+import com.sonymobile.ibeaconservice.core.Utils.HexCodec;
+import com.sonymobile.ibeaconservice.core.Utils.IBeaconFrames;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hex conversion of whole 23 byte frames in both directions, the shape of a provisioning import.
+ * Scores are per batch; divide by batchSize for a per-frame figure.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "-Xmx2g"})
+@State(Scope.Benchmark)
+public class HexCodecBenchmark {
+
+    @Param({"1", "100", "10000", "1000000"})
+    public int batchSize;
+
+    private byte[][] mFrames;
+    private String[] mHexFrames;
+    private char[] mCharBuffer;
+    private byte[] mByteBuffer;
+
+    @Setup
+    public void setUp() {
+        mFrames = BenchmarkFrames.createFrames(batchSize);
+        mHexFrames = BenchmarkFrames.toHexStrings(mFrames);
+        mCharBuffer = new char[batchSize * IBeaconFrames.FRAME_LENGTH * 2];
+        mByteBuffer = new byte[batchSize * IBeaconFrames.FRAME_LENGTH];
+    }
+
+    @Benchmark
+    public void convertValuesToHexString(Blackhole blackhole) {
+        for (byte[] frame : mFrames) {
+            blackhole.consume(HexCodec.convertValuesToHexString(frame));
+        }
+    }
+
+    @Benchmark
+    public void convertStringToBytes(Blackhole blackhole) {
+        for (String hexFrame : mHexFrames) {
+            blackhole.consume(HexCodec.convertStringToBytes(hexFrame));
+        }
+    }
+
+    @Benchmark
+    public char[] encodeIntoBuffer() {
+        int offset = 0;
+
+        for (byte[] frame : mFrames) {
+            offset += HexCodec.encode(frame, 0, frame.length, mCharBuffer, offset);
+        }
+        return mCharBuffer;
+    }
+
+    @Benchmark
+    public byte[] decodeIntoBuffer() {
+        int offset = 0;
+
+        for (String hexFrame : mHexFrames) {
+            offset += HexCodec.decode(hexFrame, 0, hexFrame.length(), mByteBuffer, offset);
+        }
+        return mByteBuffer;
+    }
+
+    @Benchmark
+    public char[] encodeAll() {
+        HexCodec.encodeAll(mFrames, mCharBuffer, 0);
+        return mCharBuffer;
+    }
+
+    @Benchmark
+    public byte[] decodeAll() {
+        HexCodec.decodeAll(mHexFrames, mByteBuffer, 0);
+        return mByteBuffer;
+    }
+}
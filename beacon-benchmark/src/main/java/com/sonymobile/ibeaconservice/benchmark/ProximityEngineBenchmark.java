@@ -0,0 +1,69 @@
+package com.sonymobile.ibeaconservice.benchmark;
+
+import com.sonymobile.ibeaconservice.core.Tracking.ProximityEngine;
+import com.sonymobile.ibeaconservice.core.Tracking.SightingBatch;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * batchSize sightings spread over up to 10000 beacons, pushed through the filter, path loss
+ * and hysteresis in batches of {@link ProximityEngine#DEFAULT_BATCH_SIZE}.
+ * The target is 100k sightings/s on one core: us/op divided by batchSize must stay under 10.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "-Xmx2g"})
+@State(Scope.Benchmark)
+public class ProximityEngineBenchmark {
+    private static final int MAX_BEACONS = 10000;
+
+    @Param({"1", "100", "10000", "1000000"})
+    public int batchSize;
+
+    private SightingBatch[] mBatches;
+    private ProximityEngine mEngine;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(BenchmarkFrames.SEED);
+        int beacons = Math.min(batchSize, MAX_BEACONS);
+        int batchCount = (batchSize + ProximityEngine.DEFAULT_BATCH_SIZE - 1) / ProximityEngine.DEFAULT_BATCH_SIZE;
+
+        mBatches = new SightingBatch[batchCount];
+        for (int i = 0; i < batchSize; i++) {
+            int b = i / ProximityEngine.DEFAULT_BATCH_SIZE;
+            int beacon = random.nextInt(beacons);
+
+            if (mBatches[b] == null) {
+                mBatches[b] = new SightingBatch(ProximityEngine.DEFAULT_BATCH_SIZE);
+            }
+            mBatches[b].add(BenchmarkFrames.SEED, beacon, beacon, -40 - random.nextInt(50), -59, i);
+        }
+        mEngine = new ProximityEngine(beacons, TimeUnit.HOURS.toNanos(1));
+    }
+
+    @Benchmark
+    public int process() {
+        int changes = 0;
+
+        for (SightingBatch batch : mBatches) {
+            changes += mEngine.process(batch);
+        }
+        return changes;
+    }
+}
@@ -0,0 +1,90 @@
+package com.sonymobile.ibeaconservice.benchmark;
+
+import com.sonymobile.ibeaconservice.core.Regions.RegionMonitor;
+import com.sonymobile.ibeaconservice.core.Utils.Clock;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 10000 regions (1000 UUIDs, 3000 UUID+major, 6000 exact) fed batchSize sightings at the
+ * spacing of a 50k sightings/s stream, with the timer wheel ticked every 100ms of feed time.
+ * A 50k/s feed is sustained while us/op divided by batchSize stays under 20.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "-Xmx2g"})
+@State(Scope.Benchmark)
+public class RegionMonitorBenchmark {
+    private static final int UUIDS = 1000;
+    private static final int MAJORS_PER_UUID = 3;
+    private static final int MINORS_PER_MAJOR = 2;
+    private static final long SIGHTING_SPACING_NANOS = TimeUnit.SECONDS.toNanos(1) / 50000;
+    private static final long TICK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    @Param({"1", "100", "10000", "1000000"})
+    public int batchSize;
+
+    private long[] mUuidHi;
+    private int[] mMajorMinor;
+    private long mNow;
+    private long mNextTick;
+    private RegionMonitor mMonitor;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(BenchmarkFrames.SEED);
+
+        mMonitor = new RegionMonitor(new Clock() {
+            @Override
+            public long nanoTime() {
+                return mNow;
+            }
+        }, UUIDS * (1 + MAJORS_PER_UUID + MAJORS_PER_UUID * MINORS_PER_MAJOR), TICK_NANOS);
+        for (int u = 0; u < UUIDS; u++) {
+            mMonitor.addRegion(u, u, RegionMonitor.ANY, RegionMonitor.ANY, TimeUnit.SECONDS.toNanos(1));
+            for (int major = 0; major < MAJORS_PER_UUID; major++) {
+                mMonitor.addRegion(u, u, major, RegionMonitor.ANY, TimeUnit.SECONDS.toNanos(1));
+                for (int minor = 0; minor < MINORS_PER_MAJOR; minor++) {
+                    mMonitor.addRegion(u, u, major, minor, TimeUnit.SECONDS.toNanos(1));
+                }
+            }
+        }
+        //some sightings hit no region at all, as in a venue with foreign beacons
+        mUuidHi = new long[batchSize];
+        mMajorMinor = new int[batchSize];
+        for (int i = 0; i < batchSize; i++) {
+            mUuidHi[i] = random.nextInt(UUIDS + UUIDS / 4);
+            mMajorMinor[i] = (random.nextInt(MAJORS_PER_UUID + 1) << 16) | random.nextInt(MINORS_PER_MAJOR + 1);
+        }
+    }
+
+    @Benchmark
+    public int feed() {
+        int matches = 0;
+
+        for (int i = 0; i < batchSize; i++) {
+            mNow += SIGHTING_SPACING_NANOS;
+            matches += mMonitor.onSighting(mUuidHi[i], mUuidHi[i], mMajorMinor[i], mNow);
+            if (mNow >= mNextTick) {
+                mMonitor.tick();
+                mNextTick = mNow + TICK_NANOS;
+            }
+        }
+        return matches;
+    }
+}
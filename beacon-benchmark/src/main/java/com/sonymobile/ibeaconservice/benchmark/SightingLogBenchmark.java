@@ -0,0 +1,76 @@
+package com.sonymobile.ibeaconservice.benchmark;
+
+import com.sonymobile.ibeaconservice.core.Model.BeaconId;
+import com.sonymobile.ibeaconservice.core.Storage.SightingLog;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Appends batchSize sightings per op to a log in a temporary directory. Retention keeps a
+ * few segments, so rollover, forcing and deleting are part of the score; records/sec is
+ * batchSize / score. Query latency over a large log is in {@link SightingLogQueryBenchmark}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "-Xmx2g"})
+@State(Scope.Benchmark)
+public class SightingLogBenchmark {
+    private static final int MAX_SEGMENTS = 4;
+    //a 50k sightings/s stream
+    private static final long SIGHTING_SPACING_NANOS = TimeUnit.SECONDS.toNanos(1) / 50000;
+
+    @Param({"1", "100", "10000", "1000000"})
+    public int batchSize;
+
+    private File mDirectory;
+    private SightingLog mLog;
+    private BeaconId[] mIds;
+    private long mNow;
+
+    @Setup
+    public void setUp() throws IOException {
+        byte[][] frames = BenchmarkFrames.createFrames(batchSize);
+
+        mDirectory = Files.createTempDirectory("sighting-log").toFile();
+        mLog = SightingLog.open(mDirectory, SightingLog.DEFAULT_RECORDS_PER_SEGMENT, MAX_SEGMENTS);
+        mIds = new BeaconId[batchSize];
+        for (int i = 0; i < batchSize; i++) {
+            mIds[i] = BeaconId.fromFrame(frames[i], 0);
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        mLog.close();
+        SightingLogQueryBenchmark.delete(mDirectory);
+    }
+
+    @Benchmark
+    public long append() throws IOException {
+        for (int i = 0; i < batchSize; i++) {
+            BeaconId id = mIds[i];
+
+            mLog.append(id.getUuidMostSignificantBits(), id.getUuidLeastSignificantBits(), id.getMajorMinor(),
+                    -40 - i % 50, -59, mNow += SIGHTING_SPACING_NANOS);
+        }
+        return mNow;
+    }
+}
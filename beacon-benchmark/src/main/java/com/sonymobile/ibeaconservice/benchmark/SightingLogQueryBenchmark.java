@@ -0,0 +1,127 @@
+package com.sonymobile.ibeaconservice.benchmark;
+
+import com.sonymobile.ibeaconservice.core.Model.BeaconId;
+import com.sonymobile.ibeaconservice.core.Storage.SightingLog;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time range queries against a log of records sightings (100M by default, 3.2GB of disk),
+ * written as a 50k sightings/s stream from 10000 beacons. Each op asks for one major's
+ * sightings in a window of windowMillis at a random point of the log, so the score is what
+ * the sparse time index leaves to scan, not the log size.
+ *
+ * Writing the log takes far longer than measuring it, so it is built once per records value
+ * in a fixture directory under java.io.tmpdir and reused by later runs and window values.
+ * Delete the directory to get the disk space back.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "-Xmx2g"})
+@State(Scope.Benchmark)
+public class SightingLogQueryBenchmark {
+    private static final int BEACONS = 10000;
+    private static final long SIGHTING_SPACING_NANOS = TimeUnit.SECONDS.toNanos(1) / 50000;
+    private static final BeaconId MAJOR_MASK = new BeaconId(0, 0, 0xffff0000);
+    //bump when the generated content changes, so old fixtures are not reused
+    private static final int FIXTURE_VERSION = 1;
+
+    //a moment, a second, a minute, ten minutes of sightings: 50 to 30M records
+    @Param({"1", "1000", "60000", "600000"})
+    public long windowMillis;
+
+    @Param({"100000000"})
+    public long records;
+
+    private final Random mRandom = new Random(BenchmarkFrames.SEED);
+    private File mDirectory;
+    private SightingLog mLog;
+    private BeaconId[] mIds;
+    private int mMatches;
+
+    private final SightingLog.Visitor mVisitor = new SightingLog.Visitor() {
+        @Override
+        public void onRecord(long uuidHi, long uuidLo, int majorMinor, int rssi, int txPower, long timestampNanos) {
+            mMatches += rssi;
+        }
+    };
+
+    @Setup
+    public void setUp() throws IOException {
+        byte[][] frames = BenchmarkFrames.createFrames(BEACONS);
+        int segments = (int)((records + SightingLog.DEFAULT_RECORDS_PER_SEGMENT - 1)
+                / SightingLog.DEFAULT_RECORDS_PER_SEGMENT);
+
+        mIds = new BeaconId[BEACONS];
+        for (int i = 0; i < BEACONS; i++) {
+            mIds[i] = BeaconId.fromFrame(frames[i], 0);
+        }
+        mDirectory = new File(System.getProperty("java.io.tmpdir"),
+                "sighting-log-fixture-v" + FIXTURE_VERSION + "-" + records);
+        mLog = SightingLog.open(mDirectory, SightingLog.DEFAULT_RECORDS_PER_SEGMENT, segments);
+        if (mLog.size() == records) {
+            return;
+        }
+        //missing, or left half written by an interrupted run
+        mLog.close();
+        delete(mDirectory);
+        mLog = SightingLog.open(mDirectory, SightingLog.DEFAULT_RECORDS_PER_SEGMENT, segments);
+        //its own generator, so the content does not depend on which run built it
+        Random random = new Random(BenchmarkFrames.SEED);
+
+        for (long i = 0; i < records; i++) {
+            BeaconId id = mIds[random.nextInt(BEACONS)];
+
+            mLog.append(id.getUuidMostSignificantBits(), id.getUuidLeastSignificantBits(), id.getMajorMinor(),
+                    -40 - (int)(i % 50), -59, i * SIGHTING_SPACING_NANOS);
+        }
+        mLog.sync();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        //the fixture stays for the next run
+        mLog.close();
+    }
+
+    @Benchmark
+    public int query() {
+        long windowNanos = TimeUnit.MILLISECONDS.toNanos(windowMillis);
+        long logNanos = records * SIGHTING_SPACING_NANOS;
+        long from = (long)(mRandom.nextDouble() * Math.max(1, logNanos - windowNanos));
+
+        mMatches = 0;
+        mLog.query(from, from + windowNanos - 1, mIds[mRandom.nextInt(BEACONS)], MAJOR_MASK, mVisitor);
+        return mMatches;
+    }
+
+    static void delete(File directory) throws IOException {
+        File[] files = directory.listFiles();
+
+        if (files != null) {
+            for (File file : files) {
+                Files.delete(file.toPath());
+            }
+        }
+        Files.delete(directory.toPath());
+    }
+}
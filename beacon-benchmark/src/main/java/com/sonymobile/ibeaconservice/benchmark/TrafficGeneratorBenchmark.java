@@ -0,0 +1,67 @@
+package com.sonymobile.ibeaconservice.benchmark;
+
+import com.sonymobile.ibeaconservice.core.Scanning.ScanRecords;
+import com.sonymobile.ibeaconservice.core.Scanning.SightingPipeline;
+import com.sonymobile.ibeaconservice.core.Scanning.TrafficGenerator;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Synthetic traffic from a 5000 beacon fleet with 5% packet loss: generating batchSize
+ * records alone, and generating them into a pipeline with no stages, which adds the record
+ * parsing. records/sec is batchSize / score; a load test can push the pipeline as fast as
+ * the second score allows.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "-Xmx2g"})
+@State(Scope.Benchmark)
+public class TrafficGeneratorBenchmark {
+    private static final int FLEET = 5000;
+    private static final int DELIVERY = 1000;
+
+    @Param({"1", "100", "10000", "1000000"})
+    public int batchSize;
+
+    private TrafficGenerator mGenerator;
+    private SightingPipeline mPipeline;
+    private byte[] mRecord;
+
+    @Setup
+    public void setUp() {
+        mGenerator = new TrafficGenerator(BenchmarkFrames.SEED, FLEET);
+        mGenerator.setPacketLoss(0.05);
+        mPipeline = new SightingPipeline();
+        mRecord = new byte[ScanRecords.IBEACON_RECORD_LENGTH];
+    }
+
+    @Benchmark
+    public int generate() {
+        int rssi = 0;
+
+        for (int i = 0; i < batchSize; i++) {
+            mGenerator.next(mRecord, 0);
+            rssi += mGenerator.getLastRssi();
+        }
+        return rssi;
+    }
+
+    @Benchmark
+    public long generateIntoPipeline() {
+        return mGenerator.drive(mPipeline, batchSize, Math.min(batchSize, DELIVERY));
+    }
+}
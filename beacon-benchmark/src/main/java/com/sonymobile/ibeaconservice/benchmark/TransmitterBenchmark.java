@@ -0,0 +1,83 @@
+package com.sonymobile.ibeaconservice.benchmark;
+
+import com.sonymobile.ibeaconservice.core.Advertising.BeaconTransmitter;
+import com.sonymobile.ibeaconservice.core.Advertising.InMemoryBeaconTransmitter;
+import com.sonymobile.ibeaconservice.core.Advertising.MultiSetAdvertiser;
+import com.sonymobile.ibeaconservice.core.Utils.Clock;
+import com.sonymobile.ibeaconservice.core.Utils.IBeaconFrames;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The service's fleet advertising logic on top of {@link InMemoryBeaconTransmitter}: slot switch
+ * throughput of a time-multiplexed fleet, and the cost of bringing a fleet back after the stack
+ * dropped every set (with a share of restarts failing).
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TransmitterBenchmark {
+    private static final long SLICE_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    @Param({"1", "50", "1000"})
+    public int fleetSize;
+
+    @Param({"1", "4"})
+    public int hardwareSets;
+
+    private final ManualClock mClock = new ManualClock();
+    private InMemoryBeaconTransmitter mTransmitter;
+    private MultiSetAdvertiser mAdvertiser;
+    private byte[] mFrames;
+
+    @Setup
+    public void setUp() {
+        byte[][] frames = BenchmarkFrames.createFrames(fleetSize);
+
+        mFrames = new byte[fleetSize * IBeaconFrames.FRAME_LENGTH];
+        for (int i = 0; i < fleetSize; i++) {
+            System.arraycopy(frames[i], 0, mFrames, i * IBeaconFrames.FRAME_LENGTH, IBeaconFrames.FRAME_LENGTH);
+        }
+        mTransmitter = new InMemoryBeaconTransmitter(mClock, hardwareSets, hardwareSets);
+        mAdvertiser = new MultiSetAdvertiser(mClock, mTransmitter);
+        mAdvertiser.start(mFrames, fleetSize, SLICE_NANOS);
+    }
+
+    @Benchmark
+    public long slotSwitch() {
+        mClock.mNow += SLICE_NANOS;
+        return mAdvertiser.tick();
+    }
+
+    @Benchmark
+    public int recoverFromStackReset() {
+        mTransmitter.simulateStackReset();
+        mTransmitter.failNextStarts(1, BeaconTransmitter.ADVERTISE_FAILED_INTERNAL_ERROR);
+        mAdvertiser.start(mFrames, fleetSize, SLICE_NANOS);
+        return mTransmitter.getRunningCount();
+    }
+
+    private static class ManualClock implements Clock {
+        long mNow;
+
+        @Override
+        public long nanoTime() {
+            return mNow;
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package com.sonymobile.ibeaconservice.benchmark;
+
+import com.sonymobile.ibeaconservice.core.Aggregation.WindowedAggregator;
+import com.sonymobile.ibeaconservice.core.Model.BeaconId;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * batchSize sightings of up to 10000 beacons in 50 UUID+major groups, at the spacing of a
+ * 50k sightings/s stream, into one minute windows sliding every 10 seconds. Pane merges
+ * happen inside the score, so it is the sustained cost per sighting.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "-Xmx2g"})
+@State(Scope.Benchmark)
+public class WindowedAggregatorBenchmark {
+    private static final int GROUPS = 50;
+    private static final int BEACONS_PER_GROUP = 200;
+    private static final long SIGHTING_SPACING_NANOS = TimeUnit.SECONDS.toNanos(1) / 50000;
+
+    @Param({"1", "100", "10000", "1000000"})
+    public int batchSize;
+
+    private int[] mMajorMinor;
+    private int[] mRssi;
+    private long mNow;
+    private WindowedAggregator mAggregator;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(BenchmarkFrames.SEED);
+
+        mAggregator = WindowedAggregator.sliding(TimeUnit.MINUTES.toNanos(1), TimeUnit.SECONDS.toNanos(10),
+                BeaconId.UUID_AND_MAJOR);
+        mMajorMinor = new int[batchSize];
+        mRssi = new int[batchSize];
+        for (int i = 0; i < batchSize; i++) {
+            mMajorMinor[i] = (random.nextInt(GROUPS) << 16) | random.nextInt(BEACONS_PER_GROUP);
+            mRssi[i] = -40 - random.nextInt(60);
+        }
+    }
+
+    @Benchmark
+    public long feed() {
+        for (int i = 0; i < batchSize; i++) {
+            mNow += SIGHTING_SPACING_NANOS;
+            mAggregator.onSighting(0x1beac0dL, 0x1beac0dL, mMajorMinor[i], mRssi[i], mNow);
+        }
+        return mAggregator.getWindows();
+    }
+}
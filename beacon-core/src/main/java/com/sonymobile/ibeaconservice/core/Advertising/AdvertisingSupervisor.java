@@ -0,0 +1,400 @@
+package com.sonymobile.ibeaconservice.core.Advertising;
+
+import com.sonymobile.ibeaconservice.core.Utils.Clock;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Self healing {@link BeaconTransmitter}: wraps another transmitter and keeps every set the
+ * caller asked for on air. Start failures and sets the stack drops on its own are retried with
+ * jittered exponential backoff; while the Bluetooth adapter is off nothing is retried and every
+ * set comes back as soon as it is on again.
+ *
+ * The supervisor hides transient trouble from its caller: a retried failure or an unexpected
+ * drop is not reported, only the eventual onStarted. Permanent errors (data too large, feature
+ * unsupported) and ADVERTISE_FAILED_TOO_MANY_ADVERTISERS are passed straight through, the
+ * latter so that {@link MultiSetAdvertiser} can re-plan around the real capacity. Updates made
+ * while a set is down are remembered and go out with the restart.
+ *
+ * For every error code it counts failures, and for every recovery it records the time from
+ * the set going down to it being back on air.
+ *
+ * Like the schedulers it owns no thread: the driver calls {@link #tick()} at the deadline it
+ * returns and re-arms its timer when the {@link ScheduleListener} reports a new one. Calls and
+ * callbacks must all happen on the driving thread.
+ */
+public class AdvertisingSupervisor implements BeaconTransmitter {
+    public static final long NO_DEADLINE = Long.MAX_VALUE;
+
+    public static final long DEFAULT_INITIAL_BACKOFF_NANOS = 500_000_000L;
+    public static final long DEFAULT_MAX_BACKOFF_NANOS = 60_000_000_000L;
+
+    /** error codes above this share the last failure counter */
+    public static final int MAX_TRACKED_ERROR_CODE = 15;
+
+    /**
+     * Told when a retry got scheduled outside of {@link #tick()}.
+     */
+    public interface ScheduleListener {
+        void onScheduleChanged(long nextDeadlineNanos);
+    }
+
+    private final Clock mClock;
+    private final BeaconTransmitter mTransmitter;
+    private final Random mRandom;
+    private final Callback mSetCallback = new SetCallback();
+    private ScheduleListener mScheduleListener;
+
+    private long mInitialBackoffNanos = DEFAULT_INITIAL_BACKOFF_NANOS;
+    private long mMaxBackoffNanos = DEFAULT_MAX_BACKOFF_NANOS;
+    private boolean mAdapterEnabled = true;
+
+    //desired state per set id
+    private boolean[] mWanted = new boolean[0];
+    private boolean[] mUp = new boolean[0];
+    private boolean[] mStarting = new boolean[0];
+    private int[] mFormatIds = new int[0];
+    private byte[][] mFrames = new byte[0][];
+    private int[] mFrameIndex = new int[0];
+    private Callback[] mCallbacks = new Callback[0];
+    private int[] mAttempts = new int[0];
+    private long[] mRetryAt = new long[0];
+    private long[] mDownSince = new long[0];
+
+    private final long[] mFailureCounts = new long[MAX_TRACKED_ERROR_CODE + 1];
+    private long mDrops;
+    private long mRetries;
+    private long mRecoveries;
+    private long mRecoveryNanosSum;
+    private long mMaxRecoveryNanos;
+    private long mLastRecoveryNanos = -1;
+
+    /**
+     * @param random source of backoff jitter, seed it for reproducible tests
+     */
+    public AdvertisingSupervisor(Clock clock, BeaconTransmitter transmitter, Random random) {
+        mClock = clock;
+        mTransmitter = transmitter;
+        mRandom = random;
+    }
+
+    public void setScheduleListener(ScheduleListener scheduleListener) {
+        mScheduleListener = scheduleListener;
+    }
+
+    public void setBackoff(long initialBackoffNanos, long maxBackoffNanos) {
+        if (initialBackoffNanos <= 0 || maxBackoffNanos < initialBackoffNanos) {
+            throw new IllegalArgumentException("Bad backoff " + initialBackoffNanos + ".." + maxBackoffNanos);
+        }
+        mInitialBackoffNanos = initialBackoffNanos;
+        mMaxBackoffNanos = maxBackoffNanos;
+    }
+
+    @Override
+    public int getMaxAdvertisingSets() {
+        return mTransmitter.getMaxAdvertisingSets();
+    }
+
+    @Override
+    public void start(int setId, int formatId, byte[] frames, int frameIndex, Callback callback) {
+        ensureCapacity(setId);
+        mWanted[setId] = true;
+        mFormatIds[setId] = formatId;
+        mFrames[setId] = frames;
+        mFrameIndex[setId] = frameIndex;
+        mCallbacks[setId] = callback;
+        mAttempts[setId] = 0;
+        mRetryAt[setId] = NO_DEADLINE;
+        mDownSince[setId] = -1;
+        if (mAdapterEnabled) {
+            startNow(setId);
+        } else {
+            markDown(setId);
+        }
+    }
+
+    @Override
+    public boolean update(int setId, int formatId, byte[] frames, int frameIndex) {
+        if (setId >= mWanted.length || !mWanted[setId]) {
+            return false;
+        }
+        mFormatIds[setId] = formatId;
+        mFrames[setId] = frames;
+        mFrameIndex[setId] = frameIndex;
+        if (mUp[setId] && !mTransmitter.update(setId, formatId, frames, frameIndex)) {
+            //the set went away under us without a callback yet, bring it back
+            mUp[setId] = false;
+            mDrops++;
+            markDown(setId);
+            scheduleRetry(setId);
+        }
+        return true;
+    }
+
+    @Override
+    public void stop(int setId) {
+        if (setId >= mWanted.length || !mWanted[setId]) {
+            return;
+        }
+        mWanted[setId] = false;
+        mRetryAt[setId] = NO_DEADLINE;
+        if (mUp[setId] || mStarting[setId]) {
+            mUp[setId] = false;
+            mStarting[setId] = false;
+            mTransmitter.stop(setId);
+        }
+        Callback callback = mCallbacks[setId];
+        mCallbacks[setId] = null;
+        mFrames[setId] = null;
+        if (callback != null) {
+            callback.onStopped(setId);
+        }
+    }
+
+    @Override
+    public void setParameters(int interval, int txPowerLevel) {
+        //the wrapped transmitter keeps them for restarts too
+        mTransmitter.setParameters(interval, txPowerLevel);
+    }
+
+    /**
+     * Feed Bluetooth adapter state changes in. Turning off parks every set, turning on
+     * restarts them all straight away.
+     */
+    public void setAdapterEnabled(boolean enabled) {
+        if (enabled == mAdapterEnabled) {
+            return;
+        }
+        mAdapterEnabled = enabled;
+        for (int setId = 0; setId < mWanted.length; setId++) {
+            if (!mWanted[setId]) {
+                continue;
+            }
+            if (enabled) {
+                mAttempts[setId] = 0;
+                mRetryAt[setId] = mClock.nanoTime();
+            } else {
+                if (mUp[setId] || mStarting[setId]) {
+                    if (mUp[setId]) {
+                        mDrops++;
+                    }
+                    mUp[setId] = false;
+                    mStarting[setId] = false;
+                    mTransmitter.stop(setId);
+                }
+                markDown(setId);
+                mRetryAt[setId] = NO_DEADLINE;
+            }
+        }
+        notifyScheduleChanged();
+    }
+
+    public boolean isAdapterEnabled() {
+        return mAdapterEnabled;
+    }
+
+    /**
+     * Retry every set whose backoff has elapsed.
+     *
+     * @return clock time of the next retry, or {@link #NO_DEADLINE}
+     */
+    public long tick() {
+        long now = mClock.nanoTime();
+
+        for (int setId = 0; setId < mWanted.length; setId++) {
+            if (mWanted[setId] && !mUp[setId] && !mStarting[setId] && mRetryAt[setId] <= now) {
+                mRetryAt[setId] = NO_DEADLINE;
+                mRetries++;
+                startNow(setId);
+            }
+        }
+        return nextDeadline();
+    }
+
+    public boolean isUp(int setId) {
+        return setId < mUp.length && mUp[setId];
+    }
+
+    public long getFailureCount(int errorCode) {
+        return mFailureCounts[Math.min(Math.max(errorCode, 0), MAX_TRACKED_ERROR_CODE)];
+    }
+
+    /**
+     * @return times a running set went off air without being asked to
+     */
+    public long getDrops() {
+        return mDrops;
+    }
+
+    public long getRetries() {
+        return mRetries;
+    }
+
+    public long getRecoveries() {
+        return mRecoveries;
+    }
+
+    public long getMeanRecoveryNanos() {
+        return mRecoveries == 0 ? 0 : mRecoveryNanosSum / mRecoveries;
+    }
+
+    public long getMaxRecoveryNanos() {
+        return mMaxRecoveryNanos;
+    }
+
+    /**
+     * @return time to recover of the most recent recovery, -1 if there has been none
+     */
+    public long getLastRecoveryNanos() {
+        return mLastRecoveryNanos;
+    }
+
+    private void startNow(int setId) {
+        mStarting[setId] = true;
+        mTransmitter.start(setId, mFormatIds[setId], mFrames[setId], mFrameIndex[setId], mSetCallback);
+    }
+
+    private void markDown(int setId) {
+        if (mDownSince[setId] < 0) {
+            mDownSince[setId] = mClock.nanoTime();
+        }
+    }
+
+    private void scheduleRetry(int setId) {
+        if (!mAdapterEnabled) {
+            return;
+        }
+        long backoff = mInitialBackoffNanos << Math.min(mAttempts[setId], 30);
+        if (backoff <= 0 || backoff > mMaxBackoffNanos) {
+            backoff = mMaxBackoffNanos;
+        }
+        //equal jitter: somewhere in the upper half, so retries of many sets spread out
+        long half = backoff / 2;
+        long jittered = half + (long)(mRandom.nextDouble() * (backoff - half));
+
+        mAttempts[setId]++;
+        mRetryAt[setId] = mClock.nanoTime() + jittered;
+        notifyScheduleChanged();
+    }
+
+    private void notifyScheduleChanged() {
+        if (mScheduleListener != null) {
+            mScheduleListener.onScheduleChanged(nextDeadline());
+        }
+    }
+
+    private long nextDeadline() {
+        long next = NO_DEADLINE;
+
+        for (int setId = 0; setId < mWanted.length; setId++) {
+            if (mWanted[setId] && mRetryAt[setId] < next) {
+                next = mRetryAt[setId];
+            }
+        }
+        return next;
+    }
+
+    private static boolean isPermanent(int errorCode) {
+        return errorCode == ADVERTISE_FAILED_DATA_TOO_LARGE
+                || errorCode == ADVERTISE_FAILED_FEATURE_UNSUPPORTED
+                || errorCode == ADVERTISE_FAILED_TOO_MANY_ADVERTISERS;
+    }
+
+    private void ensureCapacity(int setId) {
+        if (setId < mWanted.length) {
+            return;
+        }
+        int oldLength = mWanted.length;
+        int length = Math.max(setId + 1, oldLength * 2);
+
+        mWanted = Arrays.copyOf(mWanted, length);
+        mUp = Arrays.copyOf(mUp, length);
+        mStarting = Arrays.copyOf(mStarting, length);
+        mFormatIds = Arrays.copyOf(mFormatIds, length);
+        mFrames = Arrays.copyOf(mFrames, length);
+        mFrameIndex = Arrays.copyOf(mFrameIndex, length);
+        mCallbacks = Arrays.copyOf(mCallbacks, length);
+        mAttempts = Arrays.copyOf(mAttempts, length);
+        mRetryAt = Arrays.copyOf(mRetryAt, length);
+        mDownSince = Arrays.copyOf(mDownSince, length);
+        for (int i = oldLength; i < length; i++) {
+            mRetryAt[i] = NO_DEADLINE;
+            mDownSince[i] = -1;
+        }
+    }
+
+    /**
+     * Callback handed to the wrapped transmitter for every set.
+     */
+    private class SetCallback implements Callback {
+        @Override
+        public void onStarted(int setId) {
+            if (!mWanted[setId] || !mStarting[setId]) {
+                //stopped while the start was in flight
+                if (!mWanted[setId]) {
+                    mTransmitter.stop(setId);
+                }
+                return;
+            }
+            mStarting[setId] = false;
+            mUp[setId] = true;
+            mAttempts[setId] = 0;
+            if (mDownSince[setId] >= 0) {
+                long recovery = mClock.nanoTime() - mDownSince[setId];
+
+                mDownSince[setId] = -1;
+                mRecoveries++;
+                mRecoveryNanosSum += recovery;
+                mLastRecoveryNanos = recovery;
+                if (recovery > mMaxRecoveryNanos) {
+                    mMaxRecoveryNanos = recovery;
+                }
+            }
+            mCallbacks[setId].onStarted(setId);
+        }
+
+        @Override
+        public void onStartFailed(int setId, int errorCode) {
+            mFailureCounts[Math.min(Math.max(errorCode, 0), MAX_TRACKED_ERROR_CODE)]++;
+            if (!mWanted[setId] || !mStarting[setId]) {
+                return;
+            }
+            mStarting[setId] = false;
+
+            if (isPermanent(errorCode)) {
+                Callback callback = mCallbacks[setId];
+
+                mWanted[setId] = false;
+                mDownSince[setId] = -1;
+                callback.onStartFailed(setId, errorCode);
+                return;
+            }
+            if (errorCode == ADVERTISE_FAILED_ALREADY_STARTED) {
+                //a stale set is holding the slot, clear it before trying again
+                mTransmitter.stop(setId);
+            }
+            markDown(setId);
+            scheduleRetry(setId);
+        }
+
+        @Override
+        public void onStopped(int setId) {
+            if (!mWanted[setId] || !mUp[setId]) {
+                //the stop we asked for, or a set already written off
+                return;
+            }
+            mUp[setId] = false;
+            mDrops++;
+            markDown(setId);
+            scheduleRetry(setId);
+        }
+
+        @Override
+        public void onUpdated(int setId, long latencyNanos) {
+            if (mWanted[setId] && mUp[setId]) {
+                mCallbacks[setId].onUpdated(setId, latencyNanos);
+            }
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package com.sonymobile.ibeaconservice.core.Advertising;
+
+import com.sonymobile.ibeaconservice.core.Formats.FrameFormat;
+
+/**
+ * Anything that can put beacon frames on air: a number of independent advertising sets, each
+ * started, updated and stopped on its own, reporting its lifecycle asynchronously through its
+ * own callback. On the device this is backed by the Bluetooth stack; on the JVM by
+ * {@link InMemoryBeaconTransmitter}.
+ *
+ * Frames are passed as a packed buffer of 23 byte frames plus the index of the frame to use.
+ * The buffer is not changed in place while a set advertises from it; a new fleet comes in a
+ * new buffer. Implementations may therefore cache what they build per set and frame index,
+ * as long as they drop it when the set is started again or given another buffer.
+ *
+ * A frame is an identity in iBeacon layout; the format id, one of the {@link FrameFormat}
+ * ids, says how it goes on air. UUID, major, minor and TX power are read off the frame and
+ * encoded in that format, so the same fleet can be advertised as Eddystone-UID or AltBeacon.
+ */
+public interface BeaconTransmitter {
+    //same values as android.bluetooth.le.AdvertiseCallback
+    int ADVERTISE_FAILED_DATA_TOO_LARGE = 1;
+    int ADVERTISE_FAILED_TOO_MANY_ADVERTISERS = 2;
+    int ADVERTISE_FAILED_ALREADY_STARTED = 3;
+    int ADVERTISE_FAILED_INTERNAL_ERROR = 4;
+    int ADVERTISE_FAILED_FEATURE_UNSUPPORTED = 5;
+
+    //same values as android.bluetooth.le.AdvertisingSetParameters, intervals in 0.625 ms units
+    int INTERVAL_LOW = 160;
+    int INTERVAL_MEDIUM = 400;
+    int INTERVAL_HIGH = 1600;
+    int TX_POWER_ULTRA_LOW = -21;
+    int TX_POWER_LOW = -15;
+    int TX_POWER_MEDIUM = -7;
+    int TX_POWER_HIGH = 1;
+    //the ranges the framework accepts, it throws on anything outside them
+    int INTERVAL_MIN = 160;
+    int INTERVAL_MAX = 16777215;
+    int TX_POWER_MIN = -127;
+    int TX_POWER_MAX = 1;
+
+    /**
+     * Lifecycle of one advertising set.
+     */
+    interface Callback {
+        void onStarted(int setId);
+
+        void onStartFailed(int setId, int errorCode);
+
+        /**
+         * The set went off air, either because it was stopped or because the stack dropped it.
+         */
+        void onStopped(int setId);
+
+        /**
+         * A payload or parameters update was applied to the running set.
+         *
+         * @param latencyNanos from handing the update over until it was applied
+         */
+        void onUpdated(int setId, long latencyNanos);
+    }
+
+    /**
+     * @return how many sets the hardware claims to run concurrently. This is a best guess,
+     * a start may still fail with {@link #ADVERTISE_FAILED_TOO_MANY_ADVERTISERS}
+     */
+    int getMaxAdvertisingSets();
+
+    /**
+     * Request a set to start; the outcome arrives through callback.
+     *
+     * @throws IllegalArgumentException if the format is unknown or cannot carry the frame
+     */
+    void start(int setId, int formatId, byte[] frames, int frameIndex, Callback callback);
+
+    /**
+     * Swap the payload of a running set in place, possibly to another format.
+     *
+     * @return false if the set is not running, the caller has to start it instead
+     * @throws IllegalArgumentException if the format is unknown or cannot carry the frame
+     */
+    boolean update(int setId, int formatId, byte[] frames, int frameIndex);
+
+    void stop(int setId);
+
+    /**
+     * Advertising interval and TX power for all sets: applied to the running ones and used
+     * for every set started afterwards.
+     *
+     * @param interval in 0.625 ms units, see {@link #INTERVAL_HIGH}
+     * @param txPowerLevel in dBm, see {@link #TX_POWER_MEDIUM}
+     */
+    void setParameters(int interval, int txPowerLevel);
+}
@@ -0,0 +1,426 @@
+package com.sonymobile.ibeaconservice.core.Advertising;
+
+import com.sonymobile.ibeaconservice.core.Formats.BeaconFields;
+import com.sonymobile.ibeaconservice.core.Formats.FrameFormat;
+import com.sonymobile.ibeaconservice.core.Formats.FrameFormatRegistry;
+import com.sonymobile.ibeaconservice.core.Utils.Clock;
+import com.sonymobile.ibeaconservice.core.Utils.IBeaconFrames;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * {@link BeaconTransmitter} without a radio, for load and recovery testing on the JVM.
+ *
+ * Start outcomes, applied updates and stack drops are queued as events and delivered after a configurable
+ * latency by {@link #deliverDue()}, which the test or benchmark calls from its driving thread;
+ * with zero latency and {@link #setSynchronous(boolean)} they are delivered inline instead.
+ * Failures can be injected deterministically ({@link #failNextStarts(int, int)}), randomly
+ * from a seed ({@link #setStartFailureRate(double, int, long)}), or by claiming more sets
+ * than there is "hardware" for, which yields ADVERTISE_FAILED_TOO_MANY_ADVERTISERS the way
+ * real controllers do. {@link #simulateStackReset()} drops every running set as a Bluetooth
+ * stack restart would. Frames are encoded in the set's format only when
+ * {@link #getCurrentData(int)} asks for them, so load runs pay nothing for it.
+ *
+ * Not thread safe.
+ */
+public class InMemoryBeaconTransmitter implements BeaconTransmitter {
+    private static final int EVENT_STARTED = 0;
+    private static final int EVENT_START_FAILED = 1;
+    private static final int EVENT_STOPPED = 2;
+    private static final int EVENT_UPDATED = 3;
+
+    private final Clock mClock;
+    private final FrameFormatRegistry mFormats = FrameFormatRegistry.createDefault();
+    private final BeaconFields mFields = new BeaconFields();
+    //room for the data of any legacy advertising frame
+    private final byte[] mScratch = new byte[64];
+    private final int mClaimedSets;
+    private int mHardwareSets;
+
+    //per set id
+    private final boolean[] mRunning;
+    private final boolean[] mStarting;
+    private final int[] mFormatIds;
+    private final byte[][] mFrames;
+    private final int[] mFrameIndex;
+    private final Callback[] mCallbacks;
+
+    private int mInterval = INTERVAL_HIGH;
+    private int mTxPowerLevel = TX_POWER_MEDIUM;
+
+    private long mStartLatencyNanos;
+    private boolean mSynchronous = true;
+
+    private int mFailNextStarts;
+    private int mFailNextStartsErrorCode;
+    private double mStartFailureRate;
+    private int mStartFailureErrorCode;
+    private Random mRandom;
+
+    //pending events, a growable FIFO ordered by due time since latency is constant
+    private Callback[] mEventCallbacks = new Callback[16];
+    private int[] mEventSetIds = new int[16];
+    private int[] mEventTypes = new int[16];
+    private int[] mEventCodes = new int[16];
+    private long[] mEventDue = new long[16];
+    private int mEventHead;
+    private int mEventCount;
+
+    private long mStarts;
+    private long mUpdates;
+    private long mStops;
+    private long mFailures;
+
+    /**
+     * @param claimedSets what {@link #getMaxAdvertisingSets()} reports
+     * @param hardwareSets how many sets can really run at once
+     */
+    public InMemoryBeaconTransmitter(Clock clock, int claimedSets, int hardwareSets) {
+        mClock = clock;
+        mClaimedSets = claimedSets;
+        mHardwareSets = hardwareSets;
+
+        int maxSets = Math.max(claimedSets, hardwareSets) + 1;
+        mRunning = new boolean[maxSets];
+        mStarting = new boolean[maxSets];
+        mFormatIds = new int[maxSets];
+        mFrames = new byte[maxSets][];
+        mFrameIndex = new int[maxSets];
+        mCallbacks = new Callback[maxSets];
+        Arrays.fill(mFrameIndex, -1);
+    }
+
+    public void setStartLatencyNanos(long startLatencyNanos) {
+        mStartLatencyNanos = startLatencyNanos;
+    }
+
+    /**
+     * @param synchronous deliver zero latency events from inside the call that caused them
+     */
+    public void setSynchronous(boolean synchronous) {
+        mSynchronous = synchronous;
+    }
+
+    public void setHardwareSets(int hardwareSets) {
+        mHardwareSets = hardwareSets;
+    }
+
+    /**
+     * Fail the next count starts with errorCode.
+     */
+    public void failNextStarts(int count, int errorCode) {
+        mFailNextStarts = count;
+        mFailNextStartsErrorCode = errorCode;
+    }
+
+    /**
+     * Fail each start with the given probability, reproducibly for a given seed.
+     */
+    public void setStartFailureRate(double rate, int errorCode, long seed) {
+        mStartFailureRate = rate;
+        mStartFailureErrorCode = errorCode;
+        mRandom = new Random(seed);
+    }
+
+    @Override
+    public int getMaxAdvertisingSets() {
+        return mClaimedSets;
+    }
+
+    @Override
+    public void start(int setId, int formatId, byte[] frames, int frameIndex, Callback callback) {
+        checkFormat(formatId, frames, frameIndex);
+        mStarts++;
+        if (mRunning[setId] || mStarting[setId]) {
+            failStart(setId, callback, ADVERTISE_FAILED_ALREADY_STARTED);
+            return;
+        }
+        if (mFailNextStarts > 0) {
+            mFailNextStarts--;
+            failStart(setId, callback, mFailNextStartsErrorCode);
+            return;
+        }
+        if (mRandom != null && mRandom.nextDouble() < mStartFailureRate) {
+            failStart(setId, callback, mStartFailureErrorCode);
+            return;
+        }
+        if (getRunningCount() + getStartingCount() >= mHardwareSets) {
+            failStart(setId, callback, ADVERTISE_FAILED_TOO_MANY_ADVERTISERS);
+            return;
+        }
+        mStarting[setId] = true;
+        mFormatIds[setId] = formatId;
+        mFrames[setId] = frames;
+        mFrameIndex[setId] = frameIndex;
+        mCallbacks[setId] = callback;
+        post(callback, setId, EVENT_STARTED, 0);
+    }
+
+    @Override
+    public boolean update(int setId, int formatId, byte[] frames, int frameIndex) {
+        if (!mRunning[setId]) {
+            return false;
+        }
+        if (formatId != mFormatIds[setId]) {
+            checkFormat(formatId, frames, frameIndex);
+        }
+        mUpdates++;
+        mFormatIds[setId] = formatId;
+        mFrames[setId] = frames;
+        mFrameIndex[setId] = frameIndex;
+        post(mCallbacks[setId], setId, EVENT_UPDATED, 0);
+        return true;
+    }
+
+    @Override
+    public void stop(int setId) {
+        if (!mRunning[setId] && !mStarting[setId]) {
+            return;
+        }
+        mStops++;
+        boolean wasRunning = mRunning[setId];
+        mRunning[setId] = false;
+        mStarting[setId] = false;
+        mFrameIndex[setId] = -1;
+        if (wasRunning) {
+            post(mCallbacks[setId], setId, EVENT_STOPPED, 0);
+        }
+    }
+
+    /**
+     * Drop every running set, the way a Bluetooth stack restart does. Callbacks get
+     * onStopped without having asked for it.
+     */
+    public void simulateStackReset() {
+        for (int setId = 0; setId < mRunning.length; setId++) {
+            if (mRunning[setId] || mStarting[setId]) {
+                boolean wasRunning = mRunning[setId];
+                mRunning[setId] = false;
+                mStarting[setId] = false;
+                mFrameIndex[setId] = -1;
+                if (wasRunning) {
+                    post(mCallbacks[setId], setId, EVENT_STOPPED, 0);
+                } else {
+                    post(mCallbacks[setId], setId, EVENT_START_FAILED, ADVERTISE_FAILED_INTERNAL_ERROR);
+                }
+            }
+        }
+    }
+
+    /**
+     * Deliver every queued callback whose latency has elapsed.
+     *
+     * @return number of callbacks delivered
+     */
+    public int deliverDue() {
+        long now = mClock.nanoTime();
+        int delivered = 0;
+
+        while (mEventCount > 0 && mEventDue[mEventHead] <= now) {
+            Callback callback = mEventCallbacks[mEventHead];
+            int setId = mEventSetIds[mEventHead];
+            int type = mEventTypes[mEventHead];
+            int code = mEventCodes[mEventHead];
+
+            mEventCallbacks[mEventHead] = null;
+            mEventHead = (mEventHead + 1) % mEventDue.length;
+            mEventCount--;
+            dispatch(callback, setId, type, code);
+            delivered++;
+        }
+        return delivered;
+    }
+
+    /**
+     * @return clock time the next queued callback is due, Long.MAX_VALUE if none
+     */
+    public long getNextEventDue() {
+        return mEventCount == 0 ? Long.MAX_VALUE : mEventDue[mEventHead];
+    }
+
+    public boolean isRunning(int setId) {
+        return mRunning[setId];
+    }
+
+    /**
+     * @return index of the frame the set is on air with, -1 if it is not
+     */
+    public int getCurrentFrameIndex(int setId) {
+        return mRunning[setId] ? mFrameIndex[setId] : -1;
+    }
+
+    /**
+     * @return id of the format the set is on air in, -1 if it is not
+     */
+    public int getCurrentFormatId(int setId) {
+        return mRunning[setId] ? mFormatIds[setId] : -1;
+    }
+
+    /**
+     * @return the set's frame data as its format encodes it, after the company id or service
+     * UUID, null if the set is not running
+     */
+    public byte[] getCurrentData(int setId) {
+        if (!mRunning[setId]) {
+            return null;
+        }
+        FrameFormat format = mFormats.get(mFormatIds[setId]);
+        byte[] data = new byte[format.getMaxDataLength()];
+
+        decodeFrame(mFrames[setId], mFrameIndex[setId]);
+        return Arrays.copyOf(data, format.encode(mFields, data, 0));
+    }
+
+    public int getRunningCount() {
+        int running = 0;
+
+        for (boolean setRunning : mRunning) {
+            if (setRunning) {
+                running++;
+            }
+        }
+        return running;
+    }
+
+    @Override
+    public void setParameters(int interval, int txPowerLevel) {
+        mInterval = interval;
+        mTxPowerLevel = txPowerLevel;
+        for (int setId = 0; setId < mRunning.length; setId++) {
+            if (mRunning[setId]) {
+                post(mCallbacks[setId], setId, EVENT_UPDATED, 0);
+            }
+        }
+    }
+
+    public int getInterval() {
+        return mInterval;
+    }
+
+    public int getTxPowerLevel() {
+        return mTxPowerLevel;
+    }
+
+    public long getStarts() {
+        return mStarts;
+    }
+
+    public long getUpdates() {
+        return mUpdates;
+    }
+
+    public long getStops() {
+        return mStops;
+    }
+
+    public long getFailures() {
+        return mFailures;
+    }
+
+    private int getStartingCount() {
+        int starting = 0;
+
+        for (boolean setStarting : mStarting) {
+            if (setStarting) {
+                starting++;
+            }
+        }
+        return starting;
+    }
+
+    /**
+     * Encode a frame when a set starts or changes format, as the stack would, so a format
+     * that cannot carry the frames fails right there. Updates within a format go unchecked.
+     */
+    private void checkFormat(int formatId, byte[] frames, int frameIndex) {
+        FrameFormat format = mFormats.get(formatId);
+
+        if (format == null) {
+            throw new IllegalArgumentException("Unknown format " + formatId);
+        }
+        decodeFrame(frames, frameIndex);
+        format.encode(mFields, mScratch, 0);
+    }
+
+    private void decodeFrame(byte[] frames, int frameIndex) {
+        mFormats.get(FrameFormat.IBEACON).decode(frames, frameIndex * IBeaconFrames.FRAME_LENGTH,
+                IBeaconFrames.FRAME_LENGTH, mFields);
+    }
+
+    private void failStart(int setId, Callback callback, int errorCode) {
+        mFailures++;
+        post(callback, setId, EVENT_START_FAILED, errorCode);
+    }
+
+    private void post(Callback callback, int setId, int type, int code) {
+        if (mSynchronous && mStartLatencyNanos == 0) {
+            dispatch(callback, setId, type, code);
+            return;
+        }
+        if (mEventCount == mEventDue.length) {
+            growEvents();
+        }
+        int tail = (mEventHead + mEventCount) % mEventDue.length;
+
+        mEventCallbacks[tail] = callback;
+        mEventSetIds[tail] = setId;
+        mEventTypes[tail] = type;
+        mEventCodes[tail] = code;
+        mEventDue[tail] = mClock.nanoTime() + mStartLatencyNanos;
+        mEventCount++;
+    }
+
+    private void dispatch(Callback callback, int setId, int type, int code) {
+        switch (type) {
+            case EVENT_STARTED:
+                //stopped or reset while the start was in flight
+                if (!mStarting[setId]) {
+                    return;
+                }
+                mStarting[setId] = false;
+                mRunning[setId] = true;
+                callback.onStarted(setId);
+                break;
+            case EVENT_START_FAILED:
+                callback.onStartFailed(setId, code);
+                break;
+            case EVENT_STOPPED:
+                callback.onStopped(setId);
+                break;
+            case EVENT_UPDATED:
+                //stopped or reset before the update landed
+                if (!mRunning[setId]) {
+                    return;
+                }
+                callback.onUpdated(setId, mStartLatencyNanos);
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void growEvents() {
+        int capacity = mEventDue.length * 2;
+        Callback[] callbacks = new Callback[capacity];
+        int[] setIds = new int[capacity];
+        int[] types = new int[capacity];
+        int[] codes = new int[capacity];
+        long[] due = new long[capacity];
+
+        for (int i = 0; i < mEventCount; i++) {
+            int from = (mEventHead + i) % mEventDue.length;
+            callbacks[i] = mEventCallbacks[from];
+            setIds[i] = mEventSetIds[from];
+            types[i] = mEventTypes[from];
+            codes[i] = mEventCodes[from];
+            due[i] = mEventDue[from];
+        }
+        mEventCallbacks = callbacks;
+        mEventSetIds = setIds;
+        mEventTypes = types;
+        mEventCodes = codes;
+        mEventDue = due;
+        mEventHead = 0;
+    }
+}
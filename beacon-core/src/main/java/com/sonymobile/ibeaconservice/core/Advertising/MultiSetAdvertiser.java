@@ -0,0 +1,304 @@
+package com.sonymobile.ibeaconservice.core.Advertising;
+
+import com.sonymobile.ibeaconservice.core.Formats.FrameFormat;
+import com.sonymobile.ibeaconservice.core.Utils.Clock;
+import com.sonymobile.ibeaconservice.core.Utils.IBeaconFrames;
+
+import java.util.Arrays;
+
+/**
+ * Advertises a fleet of identities over as many concurrent advertising sets as the controller
+ * supports. With enough sets every identity gets its own; otherwise identities are spread
+ * round robin over the available sets and each set time-multiplexes its share through a
+ * {@link RotationScheduler}.
+ *
+ * The capacity starts at {@link BeaconTransmitter#getMaxAdvertisingSets()}. If the controller
+ * refuses a set with ADVERTISE_FAILED_TOO_MANY_ADVERTISERS the capacity is lowered to the number
+ * of sets that did start and the fleet is re-planned, so the real limit is discovered at runtime.
+ *
+ * Like the rotation scheduler this owns no thread: the driver calls {@link #tick()} at the
+ * deadline it returns, and re-arms its timer when the {@link ScheduleListener} reports a new
+ * one. Transmitter callbacks must arrive on the driving thread.
+ */
+public class MultiSetAdvertiser implements BeaconTransmitter.Callback {
+    public static final int STATE_IDLE = 0;
+    public static final int STATE_STARTING = 1;
+    public static final int STATE_RUNNING = 2;
+    public static final int STATE_FAILED = 3;
+
+    /** Returned when nothing rotates and no tick is needed */
+    public static final long NO_DEADLINE = Long.MAX_VALUE;
+
+    /**
+     * Told when the next tick deadline moved outside of {@link #tick()}: a set came up and
+     * started rotating, or a capacity change forced a new plan. The driver re-arms its timer.
+     */
+    public interface ScheduleListener {
+        void onScheduleChanged(long nextDeadlineNanos);
+    }
+
+    private final Clock mClock;
+    private final BeaconTransmitter mTransmitter;
+    private ScheduleListener mScheduleListener;
+
+    private int mCapacity;
+    private int mFormatId;
+    private byte[] mFrames;
+    private int mFrameCount;
+    private long mTimeSliceNanos;
+
+    //per set, indexed by set id
+    private int mSetCount;
+    private int mPlanGeneration;
+    private int[] mSetState = new int[0];
+    private int[] mSetLastError = new int[0];
+    private RotationScheduler[] mSchedulers = new RotationScheduler[0];
+    private SetSlotAdvertiser[] mSlotAdvertisers = new SetSlotAdvertiser[0];
+    private long[] mDeadlines = new long[0];
+    //for multiplexed sets: local rotation slot -> index of the frame in mFrames
+    private int[][] mSlotToFrame = new int[0][];
+
+    public MultiSetAdvertiser(Clock clock, BeaconTransmitter transmitter) {
+        mClock = clock;
+        mTransmitter = transmitter;
+        mCapacity = Math.max(1, transmitter.getMaxAdvertisingSets());
+    }
+
+    public void setScheduleListener(ScheduleListener scheduleListener) {
+        mScheduleListener = scheduleListener;
+    }
+
+    /**
+     * Start advertising frameCount identities as iBeacons.
+     *
+     * @see #start(int, byte[], int, long)
+     */
+    public long start(byte[] frames, int frameCount, long timeSliceNanos) {
+        return start(FrameFormat.IBEACON, frames, frameCount, timeSliceNanos);
+    }
+
+    /**
+     * Start advertising frameCount identities.
+     *
+     * @param formatId the {@link FrameFormat} every identity goes on air in
+     * @param frames 23 byte frames back to back. Not copied, must not change while advertising
+     * @param timeSliceNanos time each identity gets when sets have to be shared
+     * @return clock time of the first {@link #tick()}, or {@link #NO_DEADLINE}
+     */
+    public long start(int formatId, byte[] frames, int frameCount, long timeSliceNanos) {
+        if (frameCount <= 0 || frames.length < frameCount * IBeaconFrames.FRAME_LENGTH) {
+            throw new IllegalArgumentException("Need at least one whole frame, got " + frameCount);
+        }
+        stop();
+        mFormatId = formatId;
+        mFrames = frames;
+        mFrameCount = frameCount;
+        mTimeSliceNanos = timeSliceNanos;
+        return plan();
+    }
+
+    /**
+     * Advance every multiplexed set whose slot is due.
+     *
+     * @return clock time of the next tick, or {@link #NO_DEADLINE}
+     */
+    public long tick() {
+        long now = mClock.nanoTime();
+
+        for (int set = 0; set < mSetCount; set++) {
+            if (mSchedulers[set] != null && mSetState[set] == STATE_RUNNING && mDeadlines[set] <= now) {
+                mDeadlines[set] = mSchedulers[set].tick();
+            }
+        }
+        return nextDeadline();
+    }
+
+    public void stop() {
+        for (int set = 0; set < mSetCount; set++) {
+            if (mSetState[set] == STATE_STARTING || mSetState[set] == STATE_RUNNING) {
+                mTransmitter.stop(set);
+            }
+            if (mSchedulers[set] != null) {
+                mSchedulers[set].stop();
+            }
+            mSetState[set] = STATE_IDLE;
+        }
+        mSetCount = 0;
+    }
+
+    public boolean isMultiplexing() {
+        return mFrameCount > mSetCount && mSetCount > 0;
+    }
+
+    public int getCapacity() {
+        return mCapacity;
+    }
+
+    public int getSetCount() {
+        return mSetCount;
+    }
+
+    public int getSetState(int setId) {
+        return mSetState[setId];
+    }
+
+    public int getSetLastError(int setId) {
+        return mSetLastError[setId];
+    }
+
+    /**
+     * @return the rotation driving a multiplexed set (for its jitter stats), null if the set
+     * carries a single identity
+     */
+    public RotationScheduler getScheduler(int setId) {
+        return mSchedulers[setId];
+    }
+
+    @Override
+    public void onStarted(int setId) {
+        if (setId >= mSetCount || mSetState[setId] != STATE_STARTING) {
+            return;
+        }
+        mSetState[setId] = STATE_RUNNING;
+        if (mSchedulers[setId] != null) {
+            //slot 0 is what the set was just started with
+            mSlotAdvertisers[setId].mSkipNext = true;
+            mDeadlines[setId] = mSchedulers[setId].start();
+            notifyScheduleChanged();
+        }
+    }
+
+    @Override
+    public void onStartFailed(int setId, int errorCode) {
+        if (setId >= mSetCount || mSetState[setId] != STATE_STARTING) {
+            return;
+        }
+        mSetState[setId] = STATE_FAILED;
+        mSetLastError[setId] = errorCode;
+
+        if (errorCode == BeaconTransmitter.ADVERTISE_FAILED_TOO_MANY_ADVERTISERS) {
+            //sets are requested in id order, so those before this one are what the hardware took
+            int started = 0;
+            for (int set = 0; set < setId; set++) {
+                if (mSetState[set] == STATE_RUNNING || mSetState[set] == STATE_STARTING) {
+                    started++;
+                }
+            }
+            if (started >= 1 && started < mCapacity) {
+                mCapacity = started;
+                byte[] frames = mFrames;
+                int frameCount = mFrameCount;
+                stop();
+                mFrames = frames;
+                mFrameCount = frameCount;
+                plan();
+                notifyScheduleChanged();
+            }
+        }
+    }
+
+    @Override
+    public void onStopped(int setId) {
+        if (setId < mSetCount && mSetState[setId] == STATE_RUNNING) {
+            mSetState[setId] = STATE_IDLE;
+            if (mSchedulers[setId] != null) {
+                mSchedulers[setId].stop();
+            }
+        }
+    }
+
+    @Override
+    public void onUpdated(int setId, long latencyNanos) {
+        //rotation runs on its own deadlines, it does not wait for updates to land
+    }
+
+    private long plan() {
+        int setCount = Math.min(mCapacity, mFrameCount);
+
+        ensureSetArrays(setCount);
+        mSetCount = setCount;
+
+        for (int set = 0; set < setCount; set++) {
+            //identities set, set + setCount, set + 2 * setCount ... share this set
+            int share = (mFrameCount - set + setCount - 1) / setCount;
+
+            if (share > 1) {
+                RotationScheduler scheduler = mSchedulers[set];
+                if (scheduler == null || scheduler.getCapacity() < share) {
+                    mSlotAdvertisers[set] = new SetSlotAdvertiser(set);
+                    scheduler = new RotationScheduler(mClock, mSlotAdvertisers[set], share);
+                    mSchedulers[set] = scheduler;
+                    mSlotToFrame[set] = new int[share];
+                }
+                scheduler.clear();
+                scheduler.setTimeSliceNanos(mTimeSliceNanos);
+                for (int slot = 0; slot < share; slot++) {
+                    int frameIndex = set + slot * setCount;
+                    mSlotToFrame[set][slot] = frameIndex;
+                    scheduler.addFrame(mFrames, frameIndex * IBeaconFrames.FRAME_LENGTH);
+                }
+            } else {
+                mSchedulers[set] = null;
+            }
+            mDeadlines[set] = NO_DEADLINE;
+            mSetState[set] = STATE_STARTING;
+            mSetLastError[set] = 0;
+        }
+        //a synchronous TOO_MANY_ADVERTISERS re-plans from inside startSet, stop this round then
+        int generation = ++mPlanGeneration;
+        for (int set = 0; set < setCount && generation == mPlanGeneration; set++) {
+            mTransmitter.start(set, mFormatId, mFrames, set, this);
+        }
+        return nextDeadline();
+    }
+
+    private void notifyScheduleChanged() {
+        if (mScheduleListener != null) {
+            mScheduleListener.onScheduleChanged(nextDeadline());
+        }
+    }
+
+    private long nextDeadline() {
+        long next = NO_DEADLINE;
+
+        for (int set = 0; set < mSetCount; set++) {
+            if (mSetState[set] == STATE_RUNNING && mDeadlines[set] < next) {
+                next = mDeadlines[set];
+            }
+        }
+        return next;
+    }
+
+    private void ensureSetArrays(int setCount) {
+        if (mSetState.length >= setCount) {
+            return;
+        }
+        mSetState = Arrays.copyOf(mSetState, setCount);
+        mSetLastError = Arrays.copyOf(mSetLastError, setCount);
+        mSchedulers = Arrays.copyOf(mSchedulers, setCount);
+        mSlotAdvertisers = Arrays.copyOf(mSlotAdvertisers, setCount);
+        mDeadlines = Arrays.copyOf(mDeadlines, setCount);
+        mSlotToFrame = Arrays.copyOf(mSlotToFrame, setCount);
+    }
+
+    /**
+     * Forwards a set's rotation slots to the transmitter, translated back to fleet frame indices.
+     */
+    private class SetSlotAdvertiser implements RotationScheduler.SlotAdvertiser {
+        private final int mSetId;
+        private boolean mSkipNext;
+
+        SetSlotAdvertiser(int setId) {
+            mSetId = setId;
+        }
+
+        @Override
+        public void advertiseSlot(int slot, byte[] ring, int offset) {
+            if (mSkipNext) {
+                mSkipNext = false;
+                return;
+            }
+            mTransmitter.update(mSetId, mFormatId, mFrames, mSlotToFrame[mSetId][slot]);
+        }
+    }
+}
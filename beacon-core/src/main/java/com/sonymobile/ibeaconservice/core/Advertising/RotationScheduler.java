@@ -0,0 +1,201 @@
+package com.sonymobile.ibeaconservice.core.Advertising;
+
+import com.sonymobile.ibeaconservice.core.Utils.Clock;
+import com.sonymobile.ibeaconservice.core.Utils.IBeaconFrames;
+
+/**
+ * Cycles one advertiser through a ring of prebuilt frames so that a single device can emulate
+ * a fleet of beacon identities, each getting a fixed time slice.
+ *
+ * The scheduler owns no thread. Whoever drives it (a Handler on the device, a test) calls
+ * {@link #start()} once and then {@link #tick()} whenever the returned deadline is reached,
+ * re-arming a single timer with the next deadline. Deadlines are computed from the schedule,
+ * not from when the tick actually ran, so late ticks do not accumulate drift; a tick later than
+ * a whole slice skips the missed slots. Ticks do not allocate.
+ *
+ * Slot jitter (actual tick time minus the slot's scheduled start) is tracked so the achieved
+ * timing can be reported. Not thread safe: drive it from one thread.
+ */
+public class RotationScheduler {
+
+    /**
+     * Receives the frame of the slot that just started.
+     */
+    public interface SlotAdvertiser {
+        /**
+         * @param slot index of the frame in the ring
+         * @param ring buffer holding all frames back to back
+         * @param offset position of this slot's frame in ring
+         */
+        void advertiseSlot(int slot, byte[] ring, int offset);
+    }
+
+    private final Clock mClock;
+    private final SlotAdvertiser mAdvertiser;
+    private final byte[] mRing;
+    private final int mCapacity;
+
+    private int mSize;
+    private int mCurrentSlot;
+    private long mTimeSliceNanos;
+    private long mNextDeadlineNanos;
+    private boolean mRunning;
+
+    private long mTicks;
+    private long mJitterSumNanos;
+    private long mMaxJitterNanos;
+    private long mMissedSlots;
+
+    /**
+     * @param capacity maximum number of identities in the ring
+     */
+    public RotationScheduler(Clock clock, SlotAdvertiser advertiser, int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+        }
+        mClock = clock;
+        mAdvertiser = advertiser;
+        mCapacity = capacity;
+        mRing = new byte[capacity * IBeaconFrames.FRAME_LENGTH];
+    }
+
+    /**
+     * Replace the ring contents with frameCount frames packed back to back in frames.
+     * Must not be called while running.
+     */
+    public void setFrames(byte[] frames, int frameCount) {
+        checkStopped();
+        if (frameCount > mCapacity || frames.length < frameCount * IBeaconFrames.FRAME_LENGTH) {
+            throw new IllegalArgumentException("Cannot load " + frameCount + " frames into a ring of " + mCapacity);
+        }
+        System.arraycopy(frames, 0, mRing, 0, frameCount * IBeaconFrames.FRAME_LENGTH);
+        mSize = frameCount;
+    }
+
+    /**
+     * Append one frame to the ring. Must not be called while running.
+     *
+     * @return the slot the frame was stored in
+     */
+    public int addFrame(byte[] frame, int offset) {
+        checkStopped();
+        if (mSize == mCapacity) {
+            throw new IllegalStateException("Ring is full: " + mCapacity);
+        }
+        System.arraycopy(frame, offset, mRing, mSize * IBeaconFrames.FRAME_LENGTH, IBeaconFrames.FRAME_LENGTH);
+        return mSize++;
+    }
+
+    /**
+     * Empty the ring. Must not be called while running.
+     */
+    public void clear() {
+        checkStopped();
+        mSize = 0;
+    }
+
+    public void setTimeSliceNanos(long timeSliceNanos) {
+        if (timeSliceNanos <= 0) {
+            throw new IllegalArgumentException("Time slice must be positive: " + timeSliceNanos);
+        }
+        mTimeSliceNanos = timeSliceNanos;
+    }
+
+    /**
+     * Advertise slot 0 and start the schedule.
+     *
+     * @return clock time at which {@link #tick()} should next be called
+     */
+    public long start() {
+        if (mSize == 0 || mTimeSliceNanos == 0) {
+            throw new IllegalStateException("Need frames and a time slice before starting");
+        }
+        mRunning = true;
+        mCurrentSlot = 0;
+        mNextDeadlineNanos = mClock.nanoTime() + mTimeSliceNanos;
+        mAdvertiser.advertiseSlot(0, mRing, 0);
+        return mNextDeadlineNanos;
+    }
+
+    /**
+     * Advance to the slot due now.
+     *
+     * @return clock time at which this should next be called
+     */
+    public long tick() {
+        if (!mRunning) {
+            throw new IllegalStateException("Not running");
+        }
+        long now = mClock.nanoTime();
+        long lateness = now - mNextDeadlineNanos;
+
+        if (lateness < 0) {
+            //early wake up, nothing due yet
+            return mNextDeadlineNanos;
+        }
+
+        long skipped = lateness / mTimeSliceNanos;
+        long jitter = lateness - skipped * mTimeSliceNanos;
+
+        mTicks++;
+        mMissedSlots += skipped;
+        mJitterSumNanos += jitter;
+        if (jitter > mMaxJitterNanos) {
+            mMaxJitterNanos = jitter;
+        }
+
+        mCurrentSlot = (int)((mCurrentSlot + 1 + skipped) % mSize);
+        mNextDeadlineNanos += (skipped + 1) * mTimeSliceNanos;
+        mAdvertiser.advertiseSlot(mCurrentSlot, mRing, mCurrentSlot * IBeaconFrames.FRAME_LENGTH);
+        return mNextDeadlineNanos;
+    }
+
+    public void stop() {
+        mRunning = false;
+    }
+
+    public boolean isRunning() {
+        return mRunning;
+    }
+
+    public int getCapacity() {
+        return mCapacity;
+    }
+
+    public int getSize() {
+        return mSize;
+    }
+
+    public int getCurrentSlot() {
+        return mCurrentSlot;
+    }
+
+    public long getTicks() {
+        return mTicks;
+    }
+
+    public long getMeanJitterNanos() {
+        return mTicks == 0 ? 0 : mJitterSumNanos / mTicks;
+    }
+
+    public long getMaxJitterNanos() {
+        return mMaxJitterNanos;
+    }
+
+    public long getMissedSlots() {
+        return mMissedSlots;
+    }
+
+    public void resetStats() {
+        mTicks = 0;
+        mJitterSumNanos = 0;
+        mMaxJitterNanos = 0;
+        mMissedSlots = 0;
+    }
+
+    private void checkStopped() {
+        if (mRunning) {
+            throw new IllegalStateException("Stop the rotation before changing its frames");
+        }
+    }
+}
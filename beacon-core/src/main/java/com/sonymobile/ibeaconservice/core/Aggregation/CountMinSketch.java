@@ -0,0 +1,79 @@
+package com.sonymobile.ibeaconservice.core.Aggregation;
+
+import java.util.Arrays;
+
+/**
+ * Per item counts in fixed memory: depth rows of width counters, an item adds one to a
+ * counter per row and its estimate is the smallest of them. Estimates never undercount and
+ * overcount by at most e / width of the total with probability 1 - e^-depth.
+ *
+ * Items are added by a well mixed 64 bit hash; the rows' counters are derived from its two
+ * halves (Kirsch-Mitzenmacher), so no second hash is computed.
+ */
+public final class CountMinSketch {
+    private final int mDepth;
+    private final int mMask;
+    private final int[] mCounters;
+    private long mTotal;
+
+    /**
+     * @param width counters per row, a power of two
+     */
+    public CountMinSketch(int depth, int width) {
+        if (depth < 1 || depth > 16) {
+            throw new IllegalArgumentException("depth " + depth);
+        }
+        if (width < 1 || Integer.bitCount(width) != 1 || (long) depth * width > (1 << 24)) {
+            throw new IllegalArgumentException("width " + width);
+        }
+        mDepth = depth;
+        mMask = width - 1;
+        mCounters = new int[depth * width];
+    }
+
+    public void add(long hash) {
+        int h1 = (int)hash;
+        int h2 = (int)(hash >>> 32);
+        int width = mMask + 1;
+
+        for (int row = 0; row < mDepth; row++) {
+            mCounters[row * width + ((h1 + row * h2) & mMask)]++;
+        }
+        mTotal++;
+    }
+
+    public int estimate(long hash) {
+        int h1 = (int)hash;
+        int h2 = (int)(hash >>> 32);
+        int width = mMask + 1;
+        int estimate = Integer.MAX_VALUE;
+
+        for (int row = 0; row < mDepth; row++) {
+            estimate = Math.min(estimate, mCounters[row * width + ((h1 + row * h2) & mMask)]);
+        }
+        return estimate;
+    }
+
+    public long getTotal() {
+        return mTotal;
+    }
+
+    public void merge(CountMinSketch other) {
+        if (other.mDepth != mDepth || other.mMask != mMask) {
+            throw new IllegalArgumentException("sketch shapes differ");
+        }
+        int[] counters = other.mCounters;
+
+        for (int i = 0; i < mCounters.length; i++) {
+            mCounters[i] += counters[i];
+        }
+        mTotal += other.mTotal;
+    }
+
+    public void clear() {
+        if (mTotal != 0) {
+            Arrays.fill(mCounters, 0);
+            mTotal = 0;
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package com.sonymobile.ibeaconservice.core.Aggregation;
+
+import java.util.Arrays;
+
+/**
+ * Distinct count estimate in 2^precision one byte registers, whatever the number of items.
+ * Items are added by a well mixed 64 bit hash such as
+ * {@link com.sonymobile.ibeaconservice.core.Model.BeaconId#hash64(long, long, int)}: the top
+ * precision bits pick a register, which keeps the longest run of leading zeros seen in the
+ * rest. The standard error is 1.04 / sqrt(2^precision), 1.6% at the default precision.
+ *
+ * Sketches of the same precision merge by taking the larger register, so a window's count
+ * is the merge of its panes'.
+ */
+public final class HyperLogLog {
+    public static final int MIN_PRECISION = 4;
+    public static final int MAX_PRECISION = 16;
+    public static final int DEFAULT_PRECISION = 12;
+
+    private final int mPrecision;
+    private final byte[] mRegisters;
+    private final double mAlphaMM;
+
+    public HyperLogLog(int precision) {
+        if (precision < MIN_PRECISION || precision > MAX_PRECISION) {
+            throw new IllegalArgumentException("precision " + precision);
+        }
+        int m = 1 << precision;
+        double alpha;
+
+        switch (precision) {
+            case 4:
+                alpha = 0.673;
+                break;
+            case 5:
+                alpha = 0.697;
+                break;
+            case 6:
+                alpha = 0.709;
+                break;
+            default:
+                alpha = 0.7213 / (1 + 1.079 / m);
+                break;
+        }
+        mPrecision = precision;
+        mRegisters = new byte[m];
+        mAlphaMM = alpha * m * m;
+    }
+
+    public void add(long hash) {
+        int index = (int)(hash >>> (64 - mPrecision));
+        //the low marker bit caps the rank when the remaining bits are all zero
+        int rank = Long.numberOfLeadingZeros((hash << mPrecision) | (1L << (mPrecision - 1))) + 1;
+
+        if (rank > mRegisters[index]) {
+            mRegisters[index] = (byte)rank;
+        }
+    }
+
+    /**
+     * @return estimated number of distinct hashes added since the last clear
+     */
+    public long estimate() {
+        double sum = 0;
+        int zeros = 0;
+
+        for (byte register : mRegisters) {
+            sum += Double.longBitsToDouble((1023L - register) << 52);
+            if (register == 0) {
+                zeros++;
+            }
+        }
+        double estimate = mAlphaMM / sum;
+        int m = mRegisters.length;
+
+        //small cardinalities, where empty registers say more than the harmonic mean
+        if (estimate <= 2.5 * m && zeros > 0) {
+            estimate = m * Math.log((double)m / zeros);
+        }
+        return Math.round(estimate);
+    }
+
+    /**
+     * Fold other into this sketch, as if its items had been added here.
+     */
+    public void merge(HyperLogLog other) {
+        if (other.mPrecision != mPrecision) {
+            throw new IllegalArgumentException("precision " + other.mPrecision + " != " + mPrecision);
+        }
+        byte[] registers = other.mRegisters;
+
+        for (int i = 0; i < mRegisters.length; i++) {
+            if (registers[i] > mRegisters[i]) {
+                mRegisters[i] = registers[i];
+            }
+        }
+    }
+
+    public void clear() {
+        Arrays.fill(mRegisters, (byte)0);
+    }
+
+    public int getPrecision() {
+        return mPrecision;
+    }
+
+    /**
+     * @return relative standard error of {@link #estimate()}
+     */
+    public double getStandardError() {
+        return 1.04 / Math.sqrt(mRegisters.length);
+    }
+}
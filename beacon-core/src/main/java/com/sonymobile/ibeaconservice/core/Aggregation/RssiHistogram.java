@@ -0,0 +1,65 @@
+package com.sonymobile.ibeaconservice.core.Aggregation;
+
+import java.util.Arrays;
+
+/**
+ * RSSI distribution with one counter per dBm. RSSI is reported as a signed byte, so the
+ * whole domain fits 256 counters: percentiles are exact and the memory is fixed however
+ * many samples are recorded. Histograms merge by adding counters.
+ */
+public final class RssiHistogram {
+    public static final int MIN_RSSI = -128;
+    public static final int MAX_RSSI = 127;
+
+    private final int[] mCounts = new int[MAX_RSSI - MIN_RSSI + 1];
+    private long mCount;
+
+    /**
+     * @param rssi dBm, clamped to the byte range
+     */
+    public void record(int rssi) {
+        mCounts[Math.max(MIN_RSSI, Math.min(MAX_RSSI, rssi)) - MIN_RSSI]++;
+        mCount++;
+    }
+
+    public long getCount() {
+        return mCount;
+    }
+
+    /**
+     * @param percentile 0..100
+     * @return smallest RSSI at or below which that share of the samples lies, MIN_RSSI
+     * without samples
+     */
+    public int getPercentile(double percentile) {
+        if (mCount == 0) {
+            return MIN_RSSI;
+        }
+        long rank = Math.max(1, (long) Math.ceil(mCount * percentile / 100.0));
+        long seen = 0;
+
+        for (int i = 0; i < mCounts.length; i++) {
+            seen += mCounts[i];
+            if (seen >= rank) {
+                return i + MIN_RSSI;
+            }
+        }
+        return MAX_RSSI;
+    }
+
+    public void merge(RssiHistogram other) {
+        int[] counts = other.mCounts;
+
+        for (int i = 0; i < mCounts.length; i++) {
+            mCounts[i] += counts[i];
+        }
+        mCount += other.mCount;
+    }
+
+    public void clear() {
+        if (mCount != 0) {
+            Arrays.fill(mCounts, 0);
+            mCount = 0;
+        }
+    }
+}
@@ -0,0 +1,446 @@
+package com.sonymobile.ibeaconservice.core.Aggregation;
+
+import com.sonymobile.ibeaconservice.core.Model.BeaconFrameView;
+import com.sonymobile.ibeaconservice.core.Model.BeaconId;
+import com.sonymobile.ibeaconservice.core.Scanning.SightingPipeline;
+
+import java.util.Arrays;
+
+/**
+ * Incremental statistics over the sighting stream, per window of time: sightings, distinct
+ * beacons ({@link HyperLogLog}), sightings per beacon ({@link CountMinSketch}) and RSSI
+ * percentiles per group of beacons ({@link RssiHistogram}), a group being the beacons that
+ * share a key under the group mask, e.g. UUID and major like a region.
+ *
+ * Windows are made of panes one slide long: a tumbling window is a single pane, a sliding
+ * window of length L moving by S is L / S panes. Sightings update their pane only; when a
+ * pane closes the window ending with it is merged from its panes and handed to the listener.
+ * Every pane, group and sketch is allocated up front, so memory stays the same no matter how
+ * many sightings go through. Groups past the maximum are counted together as other, and a
+ * group's slot is reused once no pane holds a sighting of it.
+ *
+ * Windows follow the sightings' timestamps. A pane closes once the newest timestamp seen, or
+ * the time given to {@link #advanceTo(long)} when the stream is quiet, is the allowed lateness
+ * past its end; batched scan results arrive up to their report delay after they were seen,
+ * so that delay is the lateness to allow. Sightings for a pane that has already closed are
+ * counted as late and dropped. Feed and advance from one thread.
+ */
+public class WindowedAggregator implements SightingPipeline.Stage {
+    public static final int MAX_PANES = 120;
+    public static final int DEFAULT_MAX_GROUPS = 64;
+    public static final int SKETCH_DEPTH = 4;
+    public static final int SKETCH_WIDTH = 1024;
+
+    /**
+     * Receives every window as its last pane closes.
+     */
+    public interface Listener {
+        /**
+         * @param window only valid during the call, it is reused for the next window
+         */
+        void onWindow(Window window);
+    }
+
+    private static final int NO_GROUP = -1;
+
+    private final long mSlideNanos;
+    private final long mAllowedLatenessNanos;
+    private final int mWindowPanes;
+    private final BeaconId mGroupMask;
+    private final Pane[] mPanes;
+    private final BeaconFrameView mView = new BeaconFrameView();
+
+    //group keys by slot, an open addressing index over them and the free slots
+    private final long[] mGroupUuidHi;
+    private final long[] mGroupUuidLo;
+    private final int[] mGroupMajorMinor;
+    private final int[] mGroupIndex;
+    private final int[] mFreeGroups;
+    private int mFreeGroupCount;
+    private final int mOtherGroup;
+
+    private final Window mWindow;
+    private Listener mListener;
+    private boolean mStarted;
+    //oldest pane still open, the panes after it up to the lateness are open too
+    private long mOpenPane;
+    private long mLate;
+    private long mWindows;
+
+    /**
+     * @param windowNanos length of a window, a multiple of slideNanos
+     * @param slideNanos how far consecutive windows are apart, equal to windowNanos for
+     * tumbling windows
+     * @param groupMask bits of the beacon key that make up its group
+     */
+    public WindowedAggregator(long windowNanos, long slideNanos, int maxGroups, BeaconId groupMask) {
+        this(windowNanos, slideNanos, 0, maxGroups, groupMask);
+    }
+
+    /**
+     * @param allowedLatenessNanos how long after a pane's end sightings for it are still taken
+     */
+    public WindowedAggregator(long windowNanos, long slideNanos, long allowedLatenessNanos, int maxGroups,
+                              BeaconId groupMask) {
+        if (slideNanos <= 0 || windowNanos < slideNanos || windowNanos % slideNanos != 0
+                || windowNanos / slideNanos > MAX_PANES) {
+            throw new IllegalArgumentException("window " + windowNanos + ", slide " + slideNanos);
+        }
+        if (allowedLatenessNanos < 0 || allowedLatenessNanos > MAX_PANES * slideNanos) {
+            throw new IllegalArgumentException("allowedLateness " + allowedLatenessNanos);
+        }
+        if (maxGroups < 1 || maxGroups > (1 << 16)) {
+            throw new IllegalArgumentException("maxGroups " + maxGroups);
+        }
+        //the window's panes plus the ones open past it while waiting for late sightings
+        int panes = (int)(windowNanos / slideNanos + (allowedLatenessNanos + slideNanos - 1) / slideNanos);
+
+        mSlideNanos = slideNanos;
+        mAllowedLatenessNanos = allowedLatenessNanos;
+        mWindowPanes = (int)(windowNanos / slideNanos);
+        mGroupMask = groupMask;
+        mPanes = new Pane[panes];
+        for (int i = 0; i < panes; i++) {
+            mPanes[i] = new Pane(maxGroups + 1);
+        }
+        mGroupUuidHi = new long[maxGroups];
+        mGroupUuidLo = new long[maxGroups];
+        mGroupMajorMinor = new int[maxGroups];
+        mGroupIndex = new int[Integer.highestOneBit(maxGroups) << 2];
+        Arrays.fill(mGroupIndex, NO_GROUP);
+        mFreeGroups = new int[maxGroups];
+        for (int i = 0; i < maxGroups; i++) {
+            mFreeGroups[i] = maxGroups - 1 - i;
+        }
+        mFreeGroupCount = maxGroups;
+        mOtherGroup = maxGroups;
+        mWindow = new Window(maxGroups + 1);
+    }
+
+    public static WindowedAggregator tumbling(long windowNanos, BeaconId groupMask) {
+        return new WindowedAggregator(windowNanos, windowNanos, DEFAULT_MAX_GROUPS, groupMask);
+    }
+
+    public static WindowedAggregator tumbling(long windowNanos, long allowedLatenessNanos, BeaconId groupMask) {
+        return new WindowedAggregator(windowNanos, windowNanos, allowedLatenessNanos, DEFAULT_MAX_GROUPS, groupMask);
+    }
+
+    public static WindowedAggregator sliding(long windowNanos, long slideNanos, BeaconId groupMask) {
+        return new WindowedAggregator(windowNanos, slideNanos, DEFAULT_MAX_GROUPS, groupMask);
+    }
+
+    public void setListener(Listener listener) {
+        mListener = listener;
+    }
+
+    @Override
+    public void onSighting(byte[] record, int frameOffset, int rssi, long timestampNanos) {
+        mView.wrap(record, frameOffset);
+        onSighting(mView.getProximityUuidMostSignificantBits(), mView.getProximityUuidLeastSignificantBits(),
+                mView.getMajorMinor(), rssi, timestampNanos);
+    }
+
+    public void onSighting(long uuidHi, long uuidLo, int majorMinor, int rssi, long timestampNanos) {
+        long pane = Math.floorDiv(timestampNanos, mSlideNanos);
+
+        advanceTo(timestampNanos);
+        if (pane < mOpenPane) {
+            mLate++;
+            return;
+        }
+        Pane current = mPanes[paneSlot(pane)];
+        long hash = BeaconId.hash64(uuidHi, uuidLo, majorMinor);
+
+        current.mSightings++;
+        current.mDistinct.add(hash);
+        current.mPerBeacon.add(hash);
+        current.mGroupRssi[findOrAddGroup(uuidHi, uuidLo, majorMinor)].record(rssi);
+    }
+
+    /**
+     * Close every pane that ends at or before nowNanos less the allowed lateness, for when no
+     * sighting does it.
+     *
+     * @return when the oldest open pane closes
+     */
+    public long advanceTo(long nowNanos) {
+        long pane = Math.floorDiv(nowNanos - mAllowedLatenessNanos, mSlideNanos);
+
+        if (!mStarted) {
+            mStarted = true;
+            mOpenPane = pane;
+        } else if (pane > mOpenPane) {
+            closePanes(pane);
+        }
+        return (mOpenPane + 1) * mSlideNanos + mAllowedLatenessNanos;
+    }
+
+    private void closePanes(long pane) {
+        //once every pane has been emitted every further window would be empty
+        long last = Math.min(pane, mOpenPane + mPanes.length);
+
+        for (long closing = mOpenPane; closing < last; closing++) {
+            emit(closing);
+            //the window's oldest pane, the slot of the next pane to open
+            clearPane(mPanes[paneSlot(closing - mWindowPanes + 1)]);
+        }
+        if (pane > last) {
+            for (Pane stale : mPanes) {
+                clearPane(stale);
+            }
+        }
+        mOpenPane = pane;
+        releaseEmptyGroups();
+    }
+
+    private void emit(long pane) {
+        Window window = mWindow;
+
+        window.mStartNanos = (pane - mWindowPanes + 1) * mSlideNanos;
+        window.mEndNanos = (pane + 1) * mSlideNanos;
+        window.mSightings = 0;
+        window.mDistinct.clear();
+        window.mPerBeacon.clear();
+        window.mGroupCount = 0;
+        for (RssiHistogram histogram : window.mGroupRssi) {
+            histogram.clear();
+        }
+        for (long windowPane = pane - mWindowPanes + 1; windowPane <= pane; windowPane++) {
+            Pane source = mPanes[paneSlot(windowPane)];
+
+            if (source.mSightings == 0) {
+                continue;
+            }
+            window.mSightings += source.mSightings;
+            window.mDistinct.merge(source.mDistinct);
+            window.mPerBeacon.merge(source.mPerBeacon);
+            for (int group = 0; group < source.mGroupRssi.length; group++) {
+                if (source.mGroupRssi[group].getCount() > 0) {
+                    window.mGroupRssi[group].merge(source.mGroupRssi[group]);
+                }
+            }
+        }
+        for (int group = 0; group < mOtherGroup; group++) {
+            if (window.mGroupRssi[group].getCount() > 0) {
+                window.mGroups[window.mGroupCount++] = group;
+            }
+        }
+        window.mDistinctEstimate = window.mDistinct.estimate();
+        mWindows++;
+        if (mListener != null) {
+            mListener.onWindow(window);
+        }
+    }
+
+    private static void clearPane(Pane pane) {
+        if (pane.mSightings == 0) {
+            return;
+        }
+        pane.mSightings = 0;
+        pane.mDistinct.clear();
+        pane.mPerBeacon.clear();
+        for (RssiHistogram histogram : pane.mGroupRssi) {
+            histogram.clear();
+        }
+    }
+
+    private int paneSlot(long pane) {
+        return (int)Math.floorMod(pane, (long) mPanes.length);
+    }
+
+    private int findOrAddGroup(long uuidHi, long uuidLo, int majorMinor) {
+        long keyHi = uuidHi & mGroupMask.getUuidMostSignificantBits();
+        long keyLo = uuidLo & mGroupMask.getUuidLeastSignificantBits();
+        int keyMajorMinor = majorMinor & mGroupMask.getMajorMinor();
+        int mask = mGroupIndex.length - 1;
+        int i = BeaconId.hash(keyHi, keyLo, keyMajorMinor) & mask;
+
+        while (mGroupIndex[i] != NO_GROUP) {
+            int group = mGroupIndex[i];
+
+            if (mGroupUuidHi[group] == keyHi && mGroupUuidLo[group] == keyLo
+                    && mGroupMajorMinor[group] == keyMajorMinor) {
+                return group;
+            }
+            i = (i + 1) & mask;
+        }
+        if (mFreeGroupCount == 0) {
+            return mOtherGroup;
+        }
+        int group = mFreeGroups[--mFreeGroupCount];
+
+        mGroupUuidHi[group] = keyHi;
+        mGroupUuidLo[group] = keyLo;
+        mGroupMajorMinor[group] = keyMajorMinor;
+        mGroupIndex[i] = group;
+        return group;
+    }
+
+    private void releaseEmptyGroups() {
+        int mask = mGroupIndex.length - 1;
+
+        for (int i = 0; i <= mask; i++) {
+            int group = mGroupIndex[i];
+
+            if (group == NO_GROUP || hasSightings(group)) {
+                continue;
+            }
+            mGroupIndex[i] = NO_GROUP;
+            mFreeGroups[mFreeGroupCount++] = group;
+            //backward shift the entries after the hole
+            int hole = i;
+
+            for (int j = (i + 1) & mask; mGroupIndex[j] != NO_GROUP; j = (j + 1) & mask) {
+                int moved = mGroupIndex[j];
+                int home = BeaconId.hash(mGroupUuidHi[moved], mGroupUuidLo[moved], mGroupMajorMinor[moved]) & mask;
+
+                if (((j - home) & mask) >= ((j - hole) & mask)) {
+                    mGroupIndex[hole] = moved;
+                    mGroupIndex[j] = NO_GROUP;
+                    hole = j;
+                }
+            }
+            //the slot may now hold an entry not yet looked at
+            i--;
+        }
+    }
+
+    private boolean hasSightings(int group) {
+        for (Pane pane : mPanes) {
+            if (pane.mGroupRssi[group].getCount() > 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return sightings dropped because their pane had already closed
+     */
+    public long getLateSightings() {
+        return mLate;
+    }
+
+    public long getWindows() {
+        return mWindows;
+    }
+
+    /**
+     * @return panes per window
+     */
+    public int getPaneCount() {
+        return mWindowPanes;
+    }
+
+    public long getAllowedLatenessNanos() {
+        return mAllowedLatenessNanos;
+    }
+
+    /**
+     * @return groups holding sightings in any open pane
+     */
+    public int getGroupCount() {
+        return mGroupUuidHi.length - mFreeGroupCount;
+    }
+
+    private static final class Pane {
+        long mSightings;
+        final HyperLogLog mDistinct = new HyperLogLog(HyperLogLog.DEFAULT_PRECISION);
+        final CountMinSketch mPerBeacon = new CountMinSketch(SKETCH_DEPTH, SKETCH_WIDTH);
+        final RssiHistogram[] mGroupRssi;
+
+        Pane(int groups) {
+            mGroupRssi = new RssiHistogram[groups];
+            for (int i = 0; i < groups; i++) {
+                mGroupRssi[i] = new RssiHistogram();
+            }
+        }
+    }
+
+    /**
+     * Statistics of one window, merged from its panes.
+     */
+    public final class Window {
+        long mStartNanos;
+        long mEndNanos;
+        long mSightings;
+        long mDistinctEstimate;
+        final HyperLogLog mDistinct = new HyperLogLog(HyperLogLog.DEFAULT_PRECISION);
+        final CountMinSketch mPerBeacon = new CountMinSketch(SKETCH_DEPTH, SKETCH_WIDTH);
+        final RssiHistogram[] mGroupRssi;
+        //slots of the groups seen in the window
+        final int[] mGroups;
+        int mGroupCount;
+
+        Window(int groups) {
+            mGroupRssi = new RssiHistogram[groups];
+            for (int i = 0; i < groups; i++) {
+                mGroupRssi[i] = new RssiHistogram();
+            }
+            mGroups = new int[groups];
+        }
+
+        public long getStartNanos() {
+            return mStartNanos;
+        }
+
+        /**
+         * @return exclusive end
+         */
+        public long getEndNanos() {
+            return mEndNanos;
+        }
+
+        public long getSightings() {
+            return mSightings;
+        }
+
+        /**
+         * @return estimated distinct beacons, within a few percent
+         */
+        public long getDistinctBeacons() {
+            return mDistinctEstimate;
+        }
+
+        /**
+         * @return estimated sightings of one beacon, never less than the true count
+         */
+        public int getSightings(long uuidHi, long uuidLo, int majorMinor) {
+            return mPerBeacon.estimate(BeaconId.hash64(uuidHi, uuidLo, majorMinor));
+        }
+
+        /**
+         * @return groups with sightings in the window, not counting other
+         */
+        public int getGroupCount() {
+            return mGroupCount;
+        }
+
+        /**
+         * @return key of the index-th group, the beacon key under the group mask
+         */
+        public BeaconId getGroupKey(int index) {
+            int group = mGroups[index];
+
+            return new BeaconId(mGroupUuidHi[group], mGroupUuidLo[group], mGroupMajorMinor[group]);
+        }
+
+        public long getGroupSightings(int index) {
+            return mGroupRssi[mGroups[index]].getCount();
+        }
+
+        /**
+         * @param percentile 0..100
+         */
+        public int getGroupRssiPercentile(int index, double percentile) {
+            return mGroupRssi[mGroups[index]].getPercentile(percentile);
+        }
+
+        /**
+         * @return sightings of groups that found every group slot taken
+         */
+        public long getOtherSightings() {
+            return mGroupRssi[mOtherGroup].getCount();
+        }
+    }
+}
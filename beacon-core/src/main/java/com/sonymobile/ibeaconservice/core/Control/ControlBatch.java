@@ -0,0 +1,257 @@
+package com.sonymobile.ibeaconservice.core.Control;
+
+import com.sonymobile.ibeaconservice.core.Advertising.BeaconTransmitter;
+import com.sonymobile.ibeaconservice.core.Formats.BeaconFields;
+import com.sonymobile.ibeaconservice.core.Formats.FrameFormat;
+import com.sonymobile.ibeaconservice.core.Formats.FrameFormatRegistry;
+import com.sonymobile.ibeaconservice.core.Utils.IBeaconFrames;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Wire format of a control batch: a whole reconfiguration of the beacon written into one
+ * shared memory region instead of one Intent per change. Big endian throughout.
+ *
+ * header, 16 bytes
+ *   int magic 'IBCB', byte version, 3 bytes reserved, int record count, int payload length
+ * records back to back, each
+ *   byte type, byte format, 2 bytes reserved, int body length, body
+ *
+ * The format byte is the {@link FrameFormat} id ADVERTISE and ROTATE frames go on air in, 0
+ * (iBeacon) for the other records and for writers that predate it.
+ *
+ * Record bodies:
+ *   ADVERTISE  one 23 byte frame for the primary set
+ *   ROTATE     long slice in ms followed by 23 byte frames, the count follows from the length
+ *   PARAMETERS int interval, int TX power level, within the ranges of {@link BeaconTransmitter}
+ *   STOP       empty
+ *
+ * Records of unknown types are skipped so newer writers can add them. Records are applied in
+ * order. Use {@link ControlBatchWriter} to build a batch.
+ */
+public final class ControlBatch {
+    public static final int MAGIC = 0x49424342;
+    public static final byte VERSION = 1;
+
+    public static final int HEADER_LENGTH = 16;
+    public static final int RECORD_HEADER_LENGTH = 8;
+
+    public static final byte RECORD_ADVERTISE = 1;
+    public static final byte RECORD_ROTATE = 2;
+    public static final byte RECORD_PARAMETERS = 3;
+    public static final byte RECORD_STOP = 4;
+
+    static final int MAGIC_INDEX = 0;
+    static final int VERSION_INDEX = 4;
+    static final int RECORD_COUNT_INDEX = 8;
+    static final int PAYLOAD_LENGTH_INDEX = 12;
+    static final int RECORD_FORMAT_INDEX = 1;
+
+    static final int ROTATE_SLICE_LENGTH = 8;
+    static final int PARAMETERS_LENGTH = 8;
+
+    /**
+     * Receives the records of a batch. Frame offsets point into the buffer passed along, which
+     * is only valid for the duration of the call.
+     */
+    public interface Handler {
+        void onAdvertise(ByteBuffer batch, int formatId, int frameOffset);
+
+        void onRotate(ByteBuffer batch, int formatId, int framesOffset, int frameCount, long sliceMillis);
+
+        void onParameters(int interval, int txPowerLevel);
+
+        void onStop();
+    }
+
+    private ControlBatch() {
+    }
+
+    public static int sizeOfAdvertise() {
+        return RECORD_HEADER_LENGTH + IBeaconFrames.FRAME_LENGTH;
+    }
+
+    public static int sizeOfRotate(int frameCount) {
+        return RECORD_HEADER_LENGTH + ROTATE_SLICE_LENGTH + frameCount * IBeaconFrames.FRAME_LENGTH;
+    }
+
+    public static int sizeOfParameters() {
+        return RECORD_HEADER_LENGTH + PARAMETERS_LENGTH;
+    }
+
+    public static int sizeOfStop() {
+        return RECORD_HEADER_LENGTH;
+    }
+
+    /**
+     * Check a whole batch without applying any of it, so a malformed batch is rejected before
+     * anything changes.
+     *
+     * @param batch the batch from its position on, position and limit are left alone
+     * @return number of records
+     * @throws IllegalArgumentException if the batch is malformed
+     */
+    public static int validate(ByteBuffer batch) {
+        return walk(batch.duplicate().order(ByteOrder.BIG_ENDIAN), null);
+    }
+
+    /**
+     * Validate the batch, then hand its records to the handler in order.
+     *
+     * @return number of records, including skipped unknown ones
+     * @throws IllegalArgumentException if the batch is malformed, nothing is applied then
+     */
+    public static int apply(ByteBuffer batch, Handler handler) {
+        ByteBuffer view = batch.duplicate().order(ByteOrder.BIG_ENDIAN);
+
+        walk(view, null);
+        return walk(view, handler);
+    }
+
+    private static int walk(ByteBuffer batch, Handler handler) {
+        int start = batch.position();
+        FrameCheck frameCheck = new FrameCheck();
+
+        if (batch.remaining() < HEADER_LENGTH) {
+            throw new IllegalArgumentException("Batch shorter than its header: " + batch.remaining());
+        }
+        if (batch.getInt(start + MAGIC_INDEX) != MAGIC) {
+            throw new IllegalArgumentException("Not a control batch");
+        }
+        if (batch.get(start + VERSION_INDEX) != VERSION) {
+            throw new IllegalArgumentException("Unsupported batch version " + batch.get(start + VERSION_INDEX));
+        }
+        int recordCount = batch.getInt(start + RECORD_COUNT_INDEX);
+        int payloadLength = batch.getInt(start + PAYLOAD_LENGTH_INDEX);
+
+        if (recordCount < 0 || payloadLength < 0 || payloadLength > batch.remaining() - HEADER_LENGTH) {
+            throw new IllegalArgumentException("Bad batch header: " + recordCount + " records, "
+                    + payloadLength + " bytes");
+        }
+        int end = start + HEADER_LENGTH + payloadLength;
+        int offset = start + HEADER_LENGTH;
+
+        for (int record = 0; record < recordCount; record++) {
+            if (end - offset < RECORD_HEADER_LENGTH) {
+                throw new IllegalArgumentException("Record " + record + " runs past the batch");
+            }
+            byte type = batch.get(offset);
+            int formatId = batch.get(offset + RECORD_FORMAT_INDEX) & 0xff;
+            int length = batch.getInt(offset + 4);
+            int body = offset + RECORD_HEADER_LENGTH;
+
+            if (length < 0 || length > end - body) {
+                throw new IllegalArgumentException("Record " + record + " runs past the batch");
+            }
+            switch (type) {
+                case RECORD_ADVERTISE:
+                    checkLength(record, length == IBeaconFrames.FRAME_LENGTH);
+                    frameCheck.check(batch, record, formatId, body, 1);
+                    if (handler != null) {
+                        handler.onAdvertise(batch, formatId, body);
+                    }
+                    break;
+                case RECORD_ROTATE: {
+                    int framesLength = length - ROTATE_SLICE_LENGTH;
+
+                    checkLength(record, framesLength > 0 && framesLength % IBeaconFrames.FRAME_LENGTH == 0);
+                    long sliceMillis = batch.getLong(body);
+                    int frameCount = framesLength / IBeaconFrames.FRAME_LENGTH;
+
+                    if (sliceMillis <= 0) {
+                        throw new IllegalArgumentException("Record " + record + " has slice " + sliceMillis);
+                    }
+                    frameCheck.check(batch, record, formatId, body + ROTATE_SLICE_LENGTH, frameCount);
+                    if (handler != null) {
+                        handler.onRotate(batch, formatId, body + ROTATE_SLICE_LENGTH, frameCount, sliceMillis);
+                    }
+                    break;
+                }
+                case RECORD_PARAMETERS: {
+                    checkLength(record, length == PARAMETERS_LENGTH);
+                    int interval = batch.getInt(body);
+                    int txPowerLevel = batch.getInt(body + 4);
+
+                    //out of range values would only fail later, on the main thread
+                    if (interval < BeaconTransmitter.INTERVAL_MIN || interval > BeaconTransmitter.INTERVAL_MAX) {
+                        throw new IllegalArgumentException("Record " + record + " has interval " + interval);
+                    }
+                    if (txPowerLevel < BeaconTransmitter.TX_POWER_MIN
+                            || txPowerLevel > BeaconTransmitter.TX_POWER_MAX) {
+                        throw new IllegalArgumentException("Record " + record + " has TX power level "
+                                + txPowerLevel);
+                    }
+                    if (handler != null) {
+                        handler.onParameters(interval, txPowerLevel);
+                    }
+                    break;
+                }
+                case RECORD_STOP:
+                    checkLength(record, length == 0);
+                    if (handler != null) {
+                        handler.onStop();
+                    }
+                    break;
+                default:
+                    //newer record type, skip it
+                    break;
+            }
+            offset = body + length;
+        }
+        return recordCount;
+    }
+
+    private static void checkLength(int record, boolean valid) {
+        if (!valid) {
+            throw new IllegalArgumentException("Record " + record + " has a bad length");
+        }
+    }
+
+    /**
+     * Checks frames and the format they are to go on air in, with the scratch space to encode
+     * them once so a format that cannot carry a frame fails the batch up front.
+     */
+    private static final class FrameCheck {
+        private static final FrameFormatRegistry FORMATS = FrameFormatRegistry.createDefault();
+
+        private final byte[] mFrame = new byte[IBeaconFrames.FRAME_LENGTH];
+        private final BeaconFields mFields = new BeaconFields();
+        private byte[] mData;
+
+        void check(ByteBuffer batch, int record, int formatId, int offset, int frameCount) {
+            FrameFormat format = FORMATS.get(formatId);
+
+            if (format == null) {
+                throw new IllegalArgumentException("Record " + record + " has unknown format " + formatId);
+            }
+            if (mData == null || mData.length < format.getMaxDataLength()) {
+                mData = new byte[format.getMaxDataLength()];
+            }
+            FrameFormat iBeacon = FORMATS.get(FrameFormat.IBEACON);
+
+            for (int frame = 0; frame < frameCount; frame++) {
+                int at = offset + frame * IBeaconFrames.FRAME_LENGTH;
+
+                if (batch.get(at + IBeaconFrames.PRODUCT_ID_INDEX) != IBeaconFrames.PRODUCT_ID
+                        || batch.get(at + IBeaconFrames.DATA_LENGTH_INDEX) != IBeaconFrames.DATA_LENGTH) {
+                    throw new IllegalArgumentException("Record " + record + " frame " + frame
+                            + " is not an iBeacon frame");
+                }
+                if (formatId == FrameFormat.IBEACON) {
+                    continue;
+                }
+                for (int i = 0; i < mFrame.length; i++) {
+                    mFrame[i] = batch.get(at + i);
+                }
+                iBeacon.decode(mFrame, 0, mFrame.length, mFields);
+                try {
+                    format.encode(mFields, mData, 0);
+                } catch (IllegalArgumentException e) {
+                    throw new IllegalArgumentException("Record " + record + " frame " + frame
+                            + " cannot be sent as " + format + ": " + e.getMessage());
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package com.sonymobile.ibeaconservice.core.Control;
+
+import com.sonymobile.ibeaconservice.core.Formats.FrameFormat;
+import com.sonymobile.ibeaconservice.core.Utils.IBeaconFrames;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Builds a {@link ControlBatch} in a buffer, typically one mapped from shared memory. Size the
+ * buffer with the ControlBatch.sizeOf helpers plus {@link ControlBatch#HEADER_LENGTH}; running
+ * out of room throws BufferOverflowException.
+ */
+public class ControlBatchWriter {
+    private final ByteBuffer mBuffer;
+    private final int mStart;
+    private int mRecordCount;
+
+    /**
+     * @param buffer written from its current position on, switched to big endian
+     */
+    public ControlBatchWriter(ByteBuffer buffer) {
+        mBuffer = buffer.order(ByteOrder.BIG_ENDIAN);
+        mStart = buffer.position();
+        mBuffer.putInt(ControlBatch.MAGIC)
+                .put(ControlBatch.VERSION)
+                .put((byte) 0)
+                .putShort((short) 0)
+                .putInt(0)
+                .putInt(0);
+    }
+
+    /**
+     * Advertise a single frame on the primary set as an iBeacon, ending any rotation.
+     */
+    public ControlBatchWriter advertise(byte[] frame, int offset) {
+        return advertise(FrameFormat.IBEACON, frame, offset);
+    }
+
+    /**
+     * Advertise a single frame on the primary set, ending any rotation.
+     *
+     * @param formatId the {@link FrameFormat} the frame goes on air in
+     */
+    public ControlBatchWriter advertise(int formatId, byte[] frame, int offset) {
+        putRecordHeader(ControlBatch.RECORD_ADVERTISE, formatId, IBeaconFrames.FRAME_LENGTH);
+        mBuffer.put(frame, offset, IBeaconFrames.FRAME_LENGTH);
+        return this;
+    }
+
+    /**
+     * Advertise a fleet of identities as iBeacons.
+     *
+     * @param frames 23 byte frames back to back
+     */
+    public ControlBatchWriter rotate(byte[] frames, int frameCount, long sliceMillis) {
+        return rotate(FrameFormat.IBEACON, frames, frameCount, sliceMillis);
+    }
+
+    /**
+     * Advertise a fleet of identities.
+     *
+     * @param formatId the {@link FrameFormat} every identity goes on air in
+     * @param frames 23 byte frames back to back
+     */
+    public ControlBatchWriter rotate(int formatId, byte[] frames, int frameCount, long sliceMillis) {
+        putRecordHeader(ControlBatch.RECORD_ROTATE, formatId,
+                ControlBatch.ROTATE_SLICE_LENGTH + frameCount * IBeaconFrames.FRAME_LENGTH);
+        mBuffer.putLong(sliceMillis);
+        mBuffer.put(frames, 0, frameCount * IBeaconFrames.FRAME_LENGTH);
+        return this;
+    }
+
+    public ControlBatchWriter parameters(int interval, int txPowerLevel) {
+        putRecordHeader(ControlBatch.RECORD_PARAMETERS, 0, ControlBatch.PARAMETERS_LENGTH);
+        mBuffer.putInt(interval).putInt(txPowerLevel);
+        return this;
+    }
+
+    public ControlBatchWriter stop() {
+        putRecordHeader(ControlBatch.RECORD_STOP, 0, 0);
+        return this;
+    }
+
+    private void putRecordHeader(byte type, int formatId, int length) {
+        mBuffer.put(type).put((byte) formatId).putShort((short) 0).putInt(length);
+        mRecordCount++;
+    }
+
+    /**
+     * Fill in the header. The buffer is left positioned after the batch.
+     *
+     * @return size of the batch in bytes
+     */
+    public int finish() {
+        int length = mBuffer.position() - mStart;
+
+        mBuffer.putInt(mStart + ControlBatch.RECORD_COUNT_INDEX, mRecordCount);
+        mBuffer.putInt(mStart + ControlBatch.PAYLOAD_LENGTH_INDEX, length - ControlBatch.HEADER_LENGTH);
+        return length;
+    }
+}
@@ -0,0 +1,61 @@
+package com.sonymobile.ibeaconservice.core.Formats;
+
+import com.sonymobile.ibeaconservice.core.Scanning.ScanRecords;
+
+/**
+ * AltBeacon: beacon code 0xBEAC, a 20 byte beacon id (16 byte id1, 2 byte id2, 2 byte id3),
+ * reference RSSI at 1m and a manufacturer reserved byte, under the beacon maker's company
+ * id. id1, id2 and id3 map to UUID, major and minor.
+ */
+public final class AltBeaconFormat extends FrameFormat {
+    public static final int BEACON_CODE = 0xbeac;
+    public static final int DATA_LENGTH = 24;
+
+    private static final int ID1_INDEX = 2;
+    private static final int ID2_INDEX = 18;
+    private static final int ID3_INDEX = 20;
+    private static final int REFERENCE_RSSI_INDEX = 22;
+    private static final int RESERVED_INDEX = 23;
+
+    public AltBeaconFormat() {
+        super(ALTBEACON, "AltBeacon", ScanRecords.AD_TYPE_MANUFACTURER_SPECIFIC, 0, BEACON_CODE,
+                createTemplate(), DATA_LENGTH);
+    }
+
+    private static byte[] createTemplate() {
+        byte[] template = new byte[DATA_LENGTH];
+
+        writeShort(template, 0, BEACON_CODE);
+        return template;
+    }
+
+    @Override
+    public int getAssignedNumber(BeaconFields fields) {
+        return fields.getCompanyId();
+    }
+
+    @Override
+    protected int patch(BeaconFields fields, byte[] dst, int offset) {
+        writeLong(dst, offset + ID1_INDEX, fields.getUuidMostSignificantBits());
+        writeLong(dst, offset + ID1_INDEX + 8, fields.getUuidLeastSignificantBits());
+        writeShort(dst, offset + ID2_INDEX, fields.getMajor());
+        writeShort(dst, offset + ID3_INDEX, fields.getMinor());
+        dst[offset + REFERENCE_RSSI_INDEX] = (byte)fields.getTxPower();
+        dst[offset + RESERVED_INDEX] = (byte)fields.getReserved();
+        return DATA_LENGTH;
+    }
+
+    @Override
+    public boolean accepts(int assignedNumber, byte[] data, int offset, int length) {
+        return length == DATA_LENGTH;
+    }
+
+    @Override
+    public void decode(byte[] data, int offset, int length, BeaconFields fields) {
+        fields.setUuid(readLong(data, offset + ID1_INDEX), readLong(data, offset + ID1_INDEX + 8))
+                .setMajor(readUnsignedShort(data, offset + ID2_INDEX))
+                .setMinor(readUnsignedShort(data, offset + ID3_INDEX))
+                .setTxPower(data[offset + REFERENCE_RSSI_INDEX])
+                .setReserved(data[offset + RESERVED_INDEX] & 0xff);
+    }
+}
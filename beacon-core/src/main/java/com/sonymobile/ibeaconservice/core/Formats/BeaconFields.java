@@ -0,0 +1,227 @@
+package com.sonymobile.ibeaconservice.core.Formats;
+
+import com.sonymobile.ibeaconservice.core.Model.BeaconId;
+
+/**
+ * The variable fields of a frame of any {@link FrameFormat}, the side of a frame that is
+ * not in its template. Each format reads and writes the fields it has and ignores the
+ * rest, so one instance can be reused to encode or decode any number of frames.
+ *
+ * The 16 byte id is the iBeacon proximity UUID, the AltBeacon id1 and the Eddystone-UID
+ * namespace (first 10 bytes) and instance (last 6); major and minor are also AltBeacon id2
+ * and id3. TX power is kept as measured at 1m, Eddystone's 0m value is derived from it.
+ */
+public final class BeaconFields {
+    /**
+     * Radius Networks, the company AltBeacons are advertised under unless set otherwise.
+     */
+    public static final int DEFAULT_ALTBEACON_COMPANY_ID = 0x0118;
+    /**
+     * Loss over the first meter that links TX power at 0m and at 1m.
+     */
+    public static final int ZERO_TO_ONE_METER_LOSS_DB = 41;
+    /**
+     * 8.8 fixed point value of a temperature the beacon does not measure.
+     */
+    public static final int TEMPERATURE_NOT_SUPPORTED = -0x8000;
+
+    private long mUuidHi;
+    private long mUuidLo;
+    private int mMajor;
+    private int mMinor;
+    private int mTxPower;
+    private int mCompanyId = DEFAULT_ALTBEACON_COMPANY_ID;
+    private int mReserved;
+    private final byte[] mUrl = new byte[EddystoneUrlFormat.MAX_URL_BYTES];
+    private int mUrlLength;
+    private int mBatteryMillivolts;
+    private int mTemperature = TEMPERATURE_NOT_SUPPORTED;
+    private long mAdvertisingCount;
+    private long mUptimeTenths;
+
+    public long getUuidMostSignificantBits() {
+        return mUuidHi;
+    }
+
+    public long getUuidLeastSignificantBits() {
+        return mUuidLo;
+    }
+
+    public BeaconFields setUuid(long uuidHi, long uuidLo) {
+        mUuidHi = uuidHi;
+        mUuidLo = uuidLo;
+        return this;
+    }
+
+    /**
+     * Take UUID, major and minor from an id.
+     */
+    public BeaconFields setBeaconId(BeaconId id) {
+        return setUuid(id.getUuidMostSignificantBits(), id.getUuidLeastSignificantBits())
+                .setMajor(id.getMajor()).setMinor(id.getMinor());
+    }
+
+    public BeaconId getBeaconId() {
+        return new BeaconId(mUuidHi, mUuidLo, (mMajor << 16) | mMinor);
+    }
+
+    public int getMajor() {
+        return mMajor;
+    }
+
+    public BeaconFields setMajor(int major) {
+        mMajor = checkUnsignedShort(major, "major");
+        return this;
+    }
+
+    public int getMinor() {
+        return mMinor;
+    }
+
+    public BeaconFields setMinor(int minor) {
+        mMinor = checkUnsignedShort(minor, "minor");
+        return this;
+    }
+
+    /**
+     * @return calibrated TX power at 1m in dBm
+     */
+    public int getTxPower() {
+        return mTxPower;
+    }
+
+    public BeaconFields setTxPower(int txPower) {
+        if (txPower < -128 || txPower > 127) {
+            throw new IllegalArgumentException("txPower " + txPower);
+        }
+        mTxPower = txPower;
+        return this;
+    }
+
+    public int getTxPowerAtZeroMeters() {
+        return Math.min(127, mTxPower + ZERO_TO_ONE_METER_LOSS_DB);
+    }
+
+    public BeaconFields setTxPowerAtZeroMeters(int txPower) {
+        return setTxPower(Math.max(-128, txPower - ZERO_TO_ONE_METER_LOSS_DB));
+    }
+
+    public int getCompanyId() {
+        return mCompanyId;
+    }
+
+    public BeaconFields setCompanyId(int companyId) {
+        mCompanyId = checkUnsignedShort(companyId, "companyId");
+        return this;
+    }
+
+    /**
+     * @return AltBeacon manufacturer reserved byte
+     */
+    public int getReserved() {
+        return mReserved;
+    }
+
+    public BeaconFields setReserved(int reserved) {
+        mReserved = reserved & 0xff;
+        return this;
+    }
+
+    /**
+     * Compress and keep a URL for Eddystone-URL frames, once, not per frame.
+     *
+     * @throws IllegalArgumentException if the URL cannot be encoded
+     */
+    public BeaconFields setUrl(String url) {
+        mUrlLength = EddystoneUrlFormat.encodeUrl(url, mUrl, 0);
+        return this;
+    }
+
+    /**
+     * @return the URL, null if none was set
+     */
+    public String getUrl() {
+        return mUrlLength == 0 ? null : EddystoneUrlFormat.decodeUrl(mUrl, 0, mUrlLength);
+    }
+
+    BeaconFields setEncodedUrl(byte[] src, int offset, int length) {
+        System.arraycopy(src, offset, mUrl, 0, length);
+        mUrlLength = length;
+        return this;
+    }
+
+    int getEncodedUrlLength() {
+        return mUrlLength;
+    }
+
+    void getEncodedUrl(byte[] dst, int offset) {
+        System.arraycopy(mUrl, 0, dst, offset, mUrlLength);
+    }
+
+    public int getBatteryMillivolts() {
+        return mBatteryMillivolts;
+    }
+
+    public BeaconFields setBatteryMillivolts(int batteryMillivolts) {
+        mBatteryMillivolts = checkUnsignedShort(batteryMillivolts, "batteryMillivolts");
+        return this;
+    }
+
+    /**
+     * @return temperature in 1/256 degrees Celsius, or {@link #TEMPERATURE_NOT_SUPPORTED}
+     */
+    public int getTemperatureFixedPoint() {
+        return mTemperature;
+    }
+
+    public BeaconFields setTemperatureFixedPoint(int temperature) {
+        if (temperature < Short.MIN_VALUE || temperature > Short.MAX_VALUE) {
+            throw new IllegalArgumentException("temperature " + temperature);
+        }
+        mTemperature = temperature;
+        return this;
+    }
+
+    public BeaconFields setTemperature(double celsius) {
+        return setTemperatureFixedPoint((int)Math.round(celsius * 256));
+    }
+
+    public double getTemperature() {
+        return mTemperature / 256.0;
+    }
+
+    public long getAdvertisingCount() {
+        return mAdvertisingCount;
+    }
+
+    public BeaconFields setAdvertisingCount(long advertisingCount) {
+        mAdvertisingCount = checkUnsignedInt(advertisingCount, "advertisingCount");
+        return this;
+    }
+
+    /**
+     * @return time since the beacon booted in tenths of a second
+     */
+    public long getUptimeTenths() {
+        return mUptimeTenths;
+    }
+
+    public BeaconFields setUptimeTenths(long uptimeTenths) {
+        mUptimeTenths = checkUnsignedInt(uptimeTenths, "uptimeTenths");
+        return this;
+    }
+
+    private static int checkUnsignedShort(int value, String name) {
+        if ((value & ~0xffff) != 0) {
+            throw new IllegalArgumentException(name + " " + value);
+        }
+        return value;
+    }
+
+    private static long checkUnsignedInt(long value, String name) {
+        if ((value & ~0xffffffffL) != 0) {
+            throw new IllegalArgumentException(name + " " + value);
+        }
+        return value;
+    }
+}
@@ -0,0 +1,60 @@
+package com.sonymobile.ibeaconservice.core.Formats;
+
+import com.sonymobile.ibeaconservice.core.Scanning.ScanRecords;
+
+/**
+ * Eddystone-TLM, unencrypted: frame type 0x20, version 0, battery millivolts, temperature
+ * in 8.8 fixed point Celsius, advertising PDU count and time since boot in tenths of a
+ * second. Telemetry only, it carries no beacon id.
+ */
+public final class EddystoneTlmFormat extends FrameFormat {
+    public static final int FRAME_TYPE = 0x20;
+    public static final int VERSION = 0x00;
+    public static final int DATA_LENGTH = 14;
+
+    private static final int VERSION_INDEX = 1;
+    private static final int BATTERY_INDEX = 2;
+    private static final int TEMPERATURE_INDEX = 4;
+    private static final int ADVERTISING_COUNT_INDEX = 6;
+    private static final int UPTIME_INDEX = 10;
+
+    public EddystoneTlmFormat() {
+        super(EDDYSTONE_TLM, "Eddystone-TLM", ScanRecords.AD_TYPE_SERVICE_DATA_16, EDDYSTONE_SERVICE_UUID,
+                FRAME_TYPE, createTemplate(), DATA_LENGTH);
+    }
+
+    private static byte[] createTemplate() {
+        byte[] template = new byte[DATA_LENGTH];
+
+        template[0] = (byte)FRAME_TYPE;
+        template[VERSION_INDEX] = VERSION;
+        return template;
+    }
+
+    @Override
+    public int getAssignedNumber(BeaconFields fields) {
+        return EDDYSTONE_SERVICE_UUID;
+    }
+
+    @Override
+    protected int patch(BeaconFields fields, byte[] dst, int offset) {
+        writeShort(dst, offset + BATTERY_INDEX, fields.getBatteryMillivolts());
+        writeShort(dst, offset + TEMPERATURE_INDEX, fields.getTemperatureFixedPoint());
+        writeInt(dst, offset + ADVERTISING_COUNT_INDEX, (int)fields.getAdvertisingCount());
+        writeInt(dst, offset + UPTIME_INDEX, (int)fields.getUptimeTenths());
+        return DATA_LENGTH;
+    }
+
+    @Override
+    public boolean accepts(int assignedNumber, byte[] data, int offset, int length) {
+        return length == DATA_LENGTH && data[offset + VERSION_INDEX] == VERSION;
+    }
+
+    @Override
+    public void decode(byte[] data, int offset, int length, BeaconFields fields) {
+        fields.setBatteryMillivolts(readUnsignedShort(data, offset + BATTERY_INDEX))
+                .setTemperatureFixedPoint((short)readUnsignedShort(data, offset + TEMPERATURE_INDEX))
+                .setAdvertisingCount(readInt(data, offset + ADVERTISING_COUNT_INDEX) & 0xffffffffL)
+                .setUptimeTenths(readInt(data, offset + UPTIME_INDEX) & 0xffffffffL);
+    }
+}
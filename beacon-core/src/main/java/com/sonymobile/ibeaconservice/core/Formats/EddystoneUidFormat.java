@@ -0,0 +1,53 @@
+package com.sonymobile.ibeaconservice.core.Formats;
+
+import com.sonymobile.ibeaconservice.core.Scanning.ScanRecords;
+
+/**
+ * Eddystone-UID: frame type 0x00, TX power at 0m, 10 byte namespace and 6 byte instance,
+ * two reserved bytes. Namespace and instance together map to the 16 byte UUID.
+ */
+public final class EddystoneUidFormat extends FrameFormat {
+    public static final int FRAME_TYPE = 0x00;
+    public static final int DATA_LENGTH = 20;
+    //some beacons leave out the reserved bytes
+    private static final int SHORT_DATA_LENGTH = 18;
+
+    private static final int TX_POWER_INDEX = 1;
+    private static final int ID_INDEX = 2;
+
+    public EddystoneUidFormat() {
+        super(EDDYSTONE_UID, "Eddystone-UID", ScanRecords.AD_TYPE_SERVICE_DATA_16, EDDYSTONE_SERVICE_UUID,
+                FRAME_TYPE, createTemplate(), DATA_LENGTH);
+    }
+
+    private static byte[] createTemplate() {
+        byte[] template = new byte[DATA_LENGTH];
+
+        template[0] = FRAME_TYPE;
+        return template;
+    }
+
+    @Override
+    public int getAssignedNumber(BeaconFields fields) {
+        return EDDYSTONE_SERVICE_UUID;
+    }
+
+    @Override
+    protected int patch(BeaconFields fields, byte[] dst, int offset) {
+        dst[offset + TX_POWER_INDEX] = (byte)fields.getTxPowerAtZeroMeters();
+        writeLong(dst, offset + ID_INDEX, fields.getUuidMostSignificantBits());
+        writeLong(dst, offset + ID_INDEX + 8, fields.getUuidLeastSignificantBits());
+        return DATA_LENGTH;
+    }
+
+    @Override
+    public boolean accepts(int assignedNumber, byte[] data, int offset, int length) {
+        return length == DATA_LENGTH || length == SHORT_DATA_LENGTH;
+    }
+
+    @Override
+    public void decode(byte[] data, int offset, int length, BeaconFields fields) {
+        fields.setTxPowerAtZeroMeters(data[offset + TX_POWER_INDEX])
+                .setUuid(readLong(data, offset + ID_INDEX), readLong(data, offset + ID_INDEX + 8));
+    }
+}
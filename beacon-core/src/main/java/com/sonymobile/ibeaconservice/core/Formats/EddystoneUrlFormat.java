@@ -0,0 +1,128 @@
+package com.sonymobile.ibeaconservice.core.Formats;
+
+import com.sonymobile.ibeaconservice.core.Scanning.ScanRecords;
+
+/**
+ * Eddystone-URL: frame type 0x10, TX power at 0m, then the URL compressed to at most 18
+ * bytes, a scheme prefix byte and the rest with common domain endings as single bytes. The
+ * only format here of variable length.
+ */
+public final class EddystoneUrlFormat extends FrameFormat {
+    public static final int FRAME_TYPE = 0x10;
+    public static final int MAX_URL_BYTES = 18;
+
+    private static final int TX_POWER_INDEX = 1;
+    private static final int URL_INDEX = 2;
+    private static final int HEADER_LENGTH = 2;
+
+    private static final String[] SCHEMES = {"http://www.", "https://www.", "http://", "https://"};
+    private static final String[] EXPANSIONS = {".com/", ".org/", ".edu/", ".net/", ".info/", ".biz/", ".gov/",
+            ".com", ".org", ".edu", ".net", ".info", ".biz", ".gov"};
+
+    public EddystoneUrlFormat() {
+        super(EDDYSTONE_URL, "Eddystone-URL", ScanRecords.AD_TYPE_SERVICE_DATA_16, EDDYSTONE_SERVICE_UUID,
+                FRAME_TYPE, createTemplate(), HEADER_LENGTH + MAX_URL_BYTES);
+    }
+
+    private static byte[] createTemplate() {
+        return new byte[] {FRAME_TYPE, 0};
+    }
+
+    @Override
+    public int getAssignedNumber(BeaconFields fields) {
+        return EDDYSTONE_SERVICE_UUID;
+    }
+
+    @Override
+    protected int patch(BeaconFields fields, byte[] dst, int offset) {
+        int urlLength = fields.getEncodedUrlLength();
+
+        if (urlLength == 0) {
+            throw new IllegalArgumentException("No URL set");
+        }
+        dst[offset + TX_POWER_INDEX] = (byte)fields.getTxPowerAtZeroMeters();
+        fields.getEncodedUrl(dst, offset + URL_INDEX);
+        return HEADER_LENGTH + urlLength;
+    }
+
+    @Override
+    public boolean accepts(int assignedNumber, byte[] data, int offset, int length) {
+        return length > HEADER_LENGTH && length <= HEADER_LENGTH + MAX_URL_BYTES
+                && (data[offset + URL_INDEX] & 0xff) < SCHEMES.length;
+    }
+
+    @Override
+    public void decode(byte[] data, int offset, int length, BeaconFields fields) {
+        fields.setTxPowerAtZeroMeters(data[offset + TX_POWER_INDEX])
+                .setEncodedUrl(data, offset + URL_INDEX, length - HEADER_LENGTH);
+    }
+
+    /**
+     * @param dst room for {@link #MAX_URL_BYTES} from offset
+     * @return bytes written
+     * @throws IllegalArgumentException if the URL has no http(s) scheme, holds characters the
+     * encoding cannot carry or is too long once compressed
+     */
+    public static int encodeUrl(String url, byte[] dst, int offset) {
+        int scheme = 0;
+
+        while (scheme < SCHEMES.length && !url.startsWith(SCHEMES[scheme])) {
+            scheme++;
+        }
+        if (scheme == SCHEMES.length) {
+            throw new IllegalArgumentException("Unsupported scheme: " + url);
+        }
+        int at = offset;
+        int position = SCHEMES[scheme].length();
+
+        dst[at++] = (byte)scheme;
+        while (position < url.length()) {
+            if (at - offset == MAX_URL_BYTES) {
+                throw new IllegalArgumentException("URL too long: " + url);
+            }
+            int expansion = 0;
+
+            while (expansion < EXPANSIONS.length && !url.startsWith(EXPANSIONS[expansion], position)) {
+                expansion++;
+            }
+            if (expansion < EXPANSIONS.length) {
+                dst[at++] = (byte)expansion;
+                position += EXPANSIONS[expansion].length();
+                continue;
+            }
+            char c = url.charAt(position++);
+
+            //the byte values of the expansions and anything not printable are not allowed
+            if (c <= 0x20 || c >= 0x7f) {
+                throw new IllegalArgumentException("Unsupported character in " + url);
+            }
+            dst[at++] = (byte)c;
+        }
+        return at - offset;
+    }
+
+    /**
+     * @throws IllegalArgumentException if the bytes are not a valid encoded URL
+     */
+    public static String decodeUrl(byte[] src, int offset, int length) {
+        int scheme = length > 0 ? src[offset] & 0xff : SCHEMES.length;
+
+        if (scheme >= SCHEMES.length) {
+            throw new IllegalArgumentException("Unsupported scheme " + scheme);
+        }
+        StringBuilder url = new StringBuilder(SCHEMES[scheme]);
+
+        for (int i = 1; i < length; i++) {
+            int b = src[offset + i] & 0xff;
+
+            if (b < EXPANSIONS.length) {
+                url.append(EXPANSIONS[b]);
+            } else if (b > 0x20 && b < 0x7f) {
+                url.append((char)b);
+            } else {
+                throw new IllegalArgumentException("Unsupported byte " + b);
+            }
+        }
+        return url.toString();
+    }
+}
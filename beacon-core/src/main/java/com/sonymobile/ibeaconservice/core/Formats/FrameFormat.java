@@ -0,0 +1,187 @@
+package com.sonymobile.ibeaconservice.core.Formats;
+
+import com.sonymobile.ibeaconservice.core.Scanning.ScanRecords;
+
+/**
+ * One beacon frame format: where it lives in the advertising data, the static bytes every
+ * frame of it starts with and how the variable fields are laid over them.
+ *
+ * A format's data is what follows the 16 bit company id of a manufacturer specific
+ * structure or the 16 bit service UUID of a service data structure, which is what Android's
+ * AdvertiseData takes and what a scanner sees after the structure header. The template, the
+ * data with all variable fields zero, is built once per format; encoding a frame copies it
+ * and patches in the fields, nothing else.
+ *
+ * Each format also gives the registry its dispatch key, the structure type plus the bytes
+ * that tell it apart from other formats of that type, so detecting the format of a structure
+ * is one table lookup. Multi byte fields are big endian unless a format says otherwise.
+ */
+public abstract class FrameFormat {
+    public static final int IBEACON = 0;
+    public static final int ALTBEACON = 1;
+    public static final int EDDYSTONE_UID = 2;
+    public static final int EDDYSTONE_URL = 3;
+    public static final int EDDYSTONE_TLM = 4;
+
+    public static final int EDDYSTONE_SERVICE_UUID = 0xfeaa;
+
+    private final int mId;
+    private final String mName;
+    private final int mAdType;
+    private final int mDispatchKey;
+    private final byte[] mFilterPrefix;
+    private final byte[] mTemplate;
+    private final int mMaxDataLength;
+
+    /**
+     * @param discriminator for manufacturer data the two bytes after the company id, for
+     * service data the byte after the service UUID
+     * @param template data of a frame with every variable field zero
+     * @param maxDataLength longest data a frame can have, the template's length unless the
+     * format has a variable length part
+     */
+    protected FrameFormat(int id, String name, int adType, int serviceUuid, int discriminator, byte[] template,
+                          int maxDataLength) {
+        if (id < 0 || id >= FrameFormatRegistry.MAX_FORMATS) {
+            throw new IllegalArgumentException("id " + id);
+        }
+        mId = id;
+        mName = name;
+        mAdType = adType;
+        mDispatchKey = dispatchKey(adType, serviceUuid, discriminator);
+        mFilterPrefix = adType == ScanRecords.AD_TYPE_MANUFACTURER_SPECIFIC
+                ? new byte[] {(byte)(discriminator >>> 8), (byte)discriminator}
+                : new byte[] {(byte)discriminator};
+        mTemplate = template;
+        mMaxDataLength = maxDataLength;
+    }
+
+    /**
+     * Manufacturer data leaves the company out of the key: the AltBeacon company is the
+     * beacon maker's, and formats check their company in {@link #accepts}.
+     */
+    static int dispatchKey(int adType, int serviceUuid, int discriminator) {
+        if (adType == ScanRecords.AD_TYPE_MANUFACTURER_SPECIFIC) {
+            return (adType << 24) | (discriminator & 0xffff);
+        }
+        return (adType << 24) | ((serviceUuid & 0xffff) << 8) | (discriminator & 0xff);
+    }
+
+    public int getId() {
+        return mId;
+    }
+
+    public String getName() {
+        return mName;
+    }
+
+    /**
+     * @return {@link ScanRecords#AD_TYPE_MANUFACTURER_SPECIFIC} or
+     * {@link ScanRecords#AD_TYPE_SERVICE_DATA_16}
+     */
+    public int getAdType() {
+        return mAdType;
+    }
+
+    int getDispatchKey() {
+        return mDispatchKey;
+    }
+
+    /**
+     * @return the discriminator as it starts the data, for hardware scan filters to match on.
+     * Do not modify.
+     */
+    public byte[] getFilterPrefix() {
+        return mFilterPrefix;
+    }
+
+    public int getMaxDataLength() {
+        return mMaxDataLength;
+    }
+
+    /**
+     * @return the company id or service UUID the frame's structure carries
+     */
+    public abstract int getAssignedNumber(BeaconFields fields);
+
+    /**
+     * Write the frame's data: the template, then the fields over it.
+     *
+     * @param dst room for {@link #getMaxDataLength()} bytes from offset
+     * @return data length
+     * @throws IllegalArgumentException if a field does not fit the format
+     */
+    public final int encode(BeaconFields fields, byte[] dst, int offset) {
+        System.arraycopy(mTemplate, 0, dst, offset, mTemplate.length);
+        return patch(fields, dst, offset);
+    }
+
+    /**
+     * Write a whole AD structure, length and type first, as a scanner would receive it.
+     *
+     * @param dst room for {@link #getMaxDataLength()} + 4 bytes from offset
+     * @return bytes written
+     */
+    public int writeStructure(BeaconFields fields, byte[] dst, int offset) {
+        int assignedNumber = getAssignedNumber(fields);
+        int length = encode(fields, dst, offset + 4);
+
+        dst[offset] = (byte)(length + 3);
+        dst[offset + 1] = (byte)mAdType;
+        //company ids and service UUIDs are little endian on air
+        dst[offset + 2] = (byte)assignedNumber;
+        dst[offset + 3] = (byte)(assignedNumber >>> 8);
+        return length + 4;
+    }
+
+    /**
+     * Patch the variable fields over the template already copied to dst.
+     *
+     * @return data length
+     */
+    protected abstract int patch(BeaconFields fields, byte[] dst, int offset);
+
+    /**
+     * @param data holds length bytes of frame data from offset, already matched on the
+     * dispatch key
+     * @return true if the data is a well formed frame of this format
+     */
+    public abstract boolean accepts(int assignedNumber, byte[] data, int offset, int length);
+
+    /**
+     * Read the variable fields of accepted data into fields, leaving the others as they are.
+     */
+    public abstract void decode(byte[] data, int offset, int length, BeaconFields fields);
+
+    static void writeShort(byte[] dst, int offset, int value) {
+        dst[offset] = (byte)(value >>> 8);
+        dst[offset + 1] = (byte)value;
+    }
+
+    static void writeInt(byte[] dst, int offset, int value) {
+        writeShort(dst, offset, value >>> 16);
+        writeShort(dst, offset + 2, value);
+    }
+
+    static void writeLong(byte[] dst, int offset, long value) {
+        writeInt(dst, offset, (int)(value >>> 32));
+        writeInt(dst, offset + 4, (int)value);
+    }
+
+    static int readUnsignedShort(byte[] src, int offset) {
+        return ((src[offset] & 0xff) << 8) | (src[offset + 1] & 0xff);
+    }
+
+    static int readInt(byte[] src, int offset) {
+        return (readUnsignedShort(src, offset) << 16) | readUnsignedShort(src, offset + 2);
+    }
+
+    static long readLong(byte[] src, int offset) {
+        return ((long)readInt(src, offset) << 32) | (readInt(src, offset + 4) & 0xffffffffL);
+    }
+
+    @Override
+    public String toString() {
+        return mName;
+    }
+}
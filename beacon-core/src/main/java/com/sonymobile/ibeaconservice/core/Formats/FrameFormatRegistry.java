@@ -0,0 +1,162 @@
+package com.sonymobile.ibeaconservice.core.Formats;
+
+import com.sonymobile.ibeaconservice.core.Scanning.ScanRecords;
+
+/**
+ * The frame formats known to the advertising and scanning sides, by id and by dispatch key.
+ *
+ * Detection builds a key from the first bytes of an AD structure, its type plus the bytes
+ * after the company id or service UUID, and looks it up in one small open addressing table;
+ * only the format found is asked to accept the structure. Adding a format is registering
+ * it, nothing that parses records changes. Register everything before sharing the registry;
+ * lookups are then safe from any thread.
+ */
+public final class FrameFormatRegistry {
+    public static final int MAX_FORMATS = 32;
+    public static final int NOT_FOUND = -1;
+
+    private static final int TABLE_SIZE = 64;
+    private static final int TABLE_SHIFT = 32 - Integer.numberOfTrailingZeros(TABLE_SIZE);
+    //manufacturer data: length, type, company id and the two discriminator bytes
+    private static final int MANUFACTURER_HEADER = 6;
+    //service data: length, type, service UUID and the frame type byte
+    private static final int SERVICE_HEADER = 5;
+
+    private final int[] mKeys = new int[TABLE_SIZE];
+    private final FrameFormat[] mTable = new FrameFormat[TABLE_SIZE];
+    private final FrameFormat[] mById = new FrameFormat[MAX_FORMATS];
+    private int mCount;
+
+    /**
+     * @return a registry of iBeacon, AltBeacon and Eddystone UID, URL and TLM
+     */
+    public static FrameFormatRegistry createDefault() {
+        FrameFormatRegistry registry = new FrameFormatRegistry();
+
+        registry.register(new IBeaconFormat());
+        registry.register(new AltBeaconFormat());
+        registry.register(new EddystoneUidFormat());
+        registry.register(new EddystoneUrlFormat());
+        registry.register(new EddystoneTlmFormat());
+        return registry;
+    }
+
+    /**
+     * @throws IllegalArgumentException if the format's id or dispatch key is taken
+     */
+    public void register(FrameFormat format) {
+        int key = format.getDispatchKey();
+
+        if (mById[format.getId()] != null) {
+            throw new IllegalArgumentException("Format id " + format.getId() + " taken by " + mById[format.getId()]);
+        }
+        if (mCount == TABLE_SIZE / 2) {
+            throw new IllegalArgumentException("Too many formats");
+        }
+        int slot = slotOf(key);
+
+        while (mTable[slot] != null) {
+            if (mKeys[slot] == key) {
+                throw new IllegalArgumentException(format + " clashes with " + mTable[slot]);
+            }
+            slot = (slot + 1) & (TABLE_SIZE - 1);
+        }
+        mKeys[slot] = key;
+        mTable[slot] = format;
+        mById[format.getId()] = format;
+        mCount++;
+    }
+
+    /**
+     * @return the format, null if none has the id
+     */
+    public FrameFormat get(int id) {
+        return id >= 0 && id < MAX_FORMATS ? mById[id] : null;
+    }
+
+    /**
+     * @param structureOffset index of an AD structure's length byte, the structure must lie
+     * within the buffer
+     * @return the format of the structure, null if it is none of the registered ones
+     */
+    public FrameFormat detect(byte[] record, int structureOffset) {
+        int adLength = record[structureOffset] & 0xff;
+        int type = record[structureOffset + 1] & 0xff;
+        int key;
+
+        if (type == ScanRecords.AD_TYPE_MANUFACTURER_SPECIFIC && adLength + 1 >= MANUFACTURER_HEADER) {
+            key = FrameFormat.dispatchKey(type, 0, ((record[structureOffset + 4] & 0xff) << 8)
+                    | (record[structureOffset + 5] & 0xff));
+        } else if (type == ScanRecords.AD_TYPE_SERVICE_DATA_16 && adLength + 1 >= SERVICE_HEADER) {
+            key = FrameFormat.dispatchKey(type, readAssignedNumber(record, structureOffset),
+                    record[structureOffset + 4]);
+        } else {
+            return null;
+        }
+        for (int slot = slotOf(key); mTable[slot] != null; slot = (slot + 1) & (TABLE_SIZE - 1)) {
+            if (mKeys[slot] == key) {
+                FrameFormat format = mTable[slot];
+
+                return format.accepts(readAssignedNumber(record, structureOffset), record, structureOffset + 4,
+                        adLength - 3) ? format : null;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Walk a raw scan record for the first frame of a registered format, the counterpart of
+     * {@link ScanRecords#findIBeaconFrame(byte[], int, int)} for every format.
+     *
+     * @return the match, to be taken apart with {@link #getFormatId(int)},
+     * {@link #getDataOffset(int)} and {@link #getDataLength(byte[], int)}, or {@link #NOT_FOUND}
+     */
+    public int find(byte[] record, int offset, int length) {
+        int end = Math.min(record.length, offset + length);
+        int at = offset;
+
+        while (at < end) {
+            int adLength = record[at] & 0xff;
+
+            if (adLength == 0) {
+                break;
+            }
+            int next = at + 1 + adLength;
+
+            if (next > end) {
+                //truncated structure, nothing after it can be trusted
+                break;
+            }
+            FrameFormat format = detect(record, at);
+
+            if (format != null) {
+                return (at << 8) | format.getId();
+            }
+            at = next;
+        }
+        return NOT_FOUND;
+    }
+
+    public static int getFormatId(int match) {
+        return match & 0xff;
+    }
+
+    /**
+     * @return index of the frame data, just after the company id or service UUID
+     */
+    public static int getDataOffset(int match) {
+        return (match >>> 8) + 4;
+    }
+
+    public static int getDataLength(byte[] record, int match) {
+        return (record[match >>> 8] & 0xff) - 3;
+    }
+
+    private static int readAssignedNumber(byte[] record, int structureOffset) {
+        return (record[structureOffset + 2] & 0xff) | ((record[structureOffset + 3] & 0xff) << 8);
+    }
+
+    private static int slotOf(int key) {
+        return (key * 0x9e3779b9) >>> TABLE_SHIFT;
+    }
+}
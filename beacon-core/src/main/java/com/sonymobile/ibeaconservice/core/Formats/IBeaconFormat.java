@@ -0,0 +1,54 @@
+package com.sonymobile.ibeaconservice.core.Formats;
+
+import com.sonymobile.ibeaconservice.core.Scanning.ScanRecords;
+import com.sonymobile.ibeaconservice.core.Utils.IBeaconFrames;
+
+/**
+ * Apple iBeacon: the 23 byte frame of {@link IBeaconFrames} under company id 0x004C. The
+ * 16 byte proximity UUID spans the frame's UUID and battery bytes.
+ */
+public final class IBeaconFormat extends FrameFormat {
+    private static final int UUID_INDEX = IBeaconFrames.UUID_BYTES_INDEX;
+
+    public IBeaconFormat() {
+        super(IBEACON, "iBeacon", ScanRecords.AD_TYPE_MANUFACTURER_SPECIFIC, 0,
+                (IBeaconFrames.PRODUCT_ID << 8) | IBeaconFrames.DATA_LENGTH, createTemplate(),
+                IBeaconFrames.FRAME_LENGTH);
+    }
+
+    private static byte[] createTemplate() {
+        byte[] template = new byte[IBeaconFrames.FRAME_LENGTH];
+
+        template[IBeaconFrames.PRODUCT_ID_INDEX] = IBeaconFrames.PRODUCT_ID;
+        template[IBeaconFrames.DATA_LENGTH_INDEX] = IBeaconFrames.DATA_LENGTH;
+        return template;
+    }
+
+    @Override
+    public int getAssignedNumber(BeaconFields fields) {
+        return IBeaconFrames.MANUFACTURER_ID;
+    }
+
+    @Override
+    protected int patch(BeaconFields fields, byte[] dst, int offset) {
+        writeLong(dst, offset + UUID_INDEX, fields.getUuidMostSignificantBits());
+        writeLong(dst, offset + UUID_INDEX + 8, fields.getUuidLeastSignificantBits());
+        writeShort(dst, offset + IBeaconFrames.MAJOR_BYTE_INDEX, fields.getMajor());
+        writeShort(dst, offset + IBeaconFrames.MINOR_BYTE_INDEX, fields.getMinor());
+        dst[offset + IBeaconFrames.SIGNAL_POWER_BYTES_INDEX] = (byte)fields.getTxPower();
+        return IBeaconFrames.FRAME_LENGTH;
+    }
+
+    @Override
+    public boolean accepts(int assignedNumber, byte[] data, int offset, int length) {
+        return assignedNumber == IBeaconFrames.MANUFACTURER_ID && length == IBeaconFrames.FRAME_LENGTH;
+    }
+
+    @Override
+    public void decode(byte[] data, int offset, int length, BeaconFields fields) {
+        fields.setUuid(readLong(data, offset + UUID_INDEX), readLong(data, offset + UUID_INDEX + 8))
+                .setMajor(readUnsignedShort(data, offset + IBeaconFrames.MAJOR_BYTE_INDEX))
+                .setMinor(readUnsignedShort(data, offset + IBeaconFrames.MINOR_BYTE_INDEX))
+                .setTxPower(data[offset + IBeaconFrames.SIGNAL_POWER_BYTES_INDEX]);
+    }
+}
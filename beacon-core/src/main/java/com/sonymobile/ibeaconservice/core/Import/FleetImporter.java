@@ -0,0 +1,454 @@
+package com.sonymobile.ibeaconservice.core.Import;
+
+import com.sonymobile.ibeaconservice.core.Utils.Clock;
+import com.sonymobile.ibeaconservice.core.Utils.FrameValidator;
+import com.sonymobile.ibeaconservice.core.Utils.HexCodec;
+import com.sonymobile.ibeaconservice.core.Utils.IBeaconFrames;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Streaming import of beacon definitions, one per line, as CSV or JSON lines. Fields are the
+ * same hex strings the settings screen takes and are validated by the same rules
+ * ({@link FrameValidator}).
+ *
+ * CSV: uuid,battery,major,minor,txPower, an optional first line starting with "uuid" is
+ * taken as a header. JSON lines: one flat object per line with the string members uuid,
+ * battery, major, minor and txPower; other members are ignored.
+ *
+ * Valid rows are decoded straight into a batch of 23 byte frames which is handed to the
+ * sink whenever it fills up; invalid rows are reported with the validity flags of the row.
+ * Memory use is fixed by the read, line and batch buffers whatever the size of the input,
+ * nothing is allocated per row. Lines longer than {@link #MAX_LINE_LENGTH} are rejected.
+ *
+ * Not thread safe, an importer can be reused for one import after another.
+ */
+public class FleetImporter {
+    public static final int FORMAT_CSV = 0;
+    public static final int FORMAT_JSON_LINES = 1;
+
+    public static final int MAX_LINE_LENGTH = 1024;
+    public static final int DEFAULT_BATCH_FRAMES = 1024;
+
+    /** validity reported for lines that are not even well formed */
+    public static final byte MALFORMED = 0;
+
+    private static final int READ_BUFFER_LENGTH = 16 * 1024;
+
+    private static final int FIELD_UUID = 0;
+    private static final int FIELD_BATTERY = 1;
+    private static final int FIELD_MAJOR = 2;
+    private static final int FIELD_MINOR = 3;
+    private static final int FIELD_SIGNAL_POWER = 4;
+    private static final int FIELD_COUNT = 5;
+
+    private static final char[][] JSON_KEYS = {
+            "uuid".toCharArray(),
+            "battery".toCharArray(),
+            "major".toCharArray(),
+            "minor".toCharArray(),
+            "txPower".toCharArray()
+    };
+    private static final char[] CSV_HEADER = "uuid".toCharArray();
+
+    /**
+     * Receives the import.
+     */
+    public interface FrameSink {
+        /**
+         * @param frames count frames back to back, the buffer is reused once this returns
+         */
+        void onFrames(byte[] frames, int count) throws IOException;
+
+        /**
+         * @param line 1 based line number
+         * @param validity {@link FrameValidator} flags of the row, {@link #MALFORMED} if the
+         * line could not be split into fields
+         */
+        void onRejected(long line, byte validity);
+    }
+
+    private final Clock mClock;
+    private final char[] mReadBuffer = new char[READ_BUFFER_LENGTH];
+    private final char[] mLine = new char[MAX_LINE_LENGTH];
+    private final int[] mFieldStart = new int[FIELD_COUNT];
+    private final int[] mFieldLength = new int[FIELD_COUNT];
+    private final byte[] mBatch;
+    private final int mBatchFrames;
+    private int mBatchCount;
+
+    private long mLines;
+    //set once the first non-blank line is seen, that one may be the CSV header
+    private boolean mPastHeader;
+    private long mAccepted;
+    private long mRejected;
+    private long mElapsedNanos;
+
+    public FleetImporter(Clock clock) {
+        this(clock, DEFAULT_BATCH_FRAMES);
+    }
+
+    /**
+     * @param batchFrames how many frames are collected before they go to the sink
+     */
+    public FleetImporter(Clock clock, int batchFrames) {
+        if (batchFrames <= 0) {
+            throw new IllegalArgumentException("Bad batch size " + batchFrames);
+        }
+        mClock = clock;
+        mBatchFrames = batchFrames;
+        mBatch = new byte[batchFrames * IBeaconFrames.FRAME_LENGTH];
+    }
+
+    /**
+     * Tell the formats apart by content: a JSON line starts with '{', anything else is taken
+     * as CSV. Documents picked through a content URI often have no file extension to go by.
+     *
+     * @param reader must support mark, it is reset to where it was
+     * @return {@link #FORMAT_CSV} or {@link #FORMAT_JSON_LINES}
+     */
+    public static int detectFormat(Reader reader) throws IOException {
+        if (!reader.markSupported()) {
+            throw new IllegalArgumentException("Reader does not support mark");
+        }
+        reader.mark(MAX_LINE_LENGTH);
+        try {
+            for (int i = 0; i < MAX_LINE_LENGTH; i++) {
+                int c = reader.read();
+
+                if (c == -1) {
+                    break;
+                }
+                if (c == '{') {
+                    return FORMAT_JSON_LINES;
+                }
+                //blank lines and a byte order mark may come first
+                if (!Character.isWhitespace(c) && c != '\uFEFF') {
+                    return FORMAT_CSV;
+                }
+            }
+            return FORMAT_CSV;
+        } finally {
+            reader.reset();
+        }
+    }
+
+    /**
+     * Import everything the reader has to offer. The reader is not closed.
+     *
+     * @param format {@link #FORMAT_CSV} or {@link #FORMAT_JSON_LINES}
+     * @return number of frames handed to the sink
+     */
+    public long importFrom(Reader reader, int format, FrameSink sink) throws IOException {
+        if (format != FORMAT_CSV && format != FORMAT_JSON_LINES) {
+            throw new IllegalArgumentException("Unknown format " + format);
+        }
+        long start = mClock.nanoTime();
+        int lineLength = 0;
+        boolean overflow = false;
+        int read;
+
+        mLines = 0;
+        mPastHeader = false;
+        mAccepted = 0;
+        mRejected = 0;
+        mBatchCount = 0;
+        boolean first = true;
+
+        while ((read = reader.read(mReadBuffer, 0, mReadBuffer.length)) != -1) {
+            //a byte order mark is not part of the first line
+            int from = first && read > 0 && mReadBuffer[0] == '\uFEFF' ? 1 : 0;
+
+            first &= read == 0;
+            for (int i = from; i < read; i++) {
+                char c = mReadBuffer[i];
+
+                if (c == '\n') {
+                    endLine(lineLength, overflow, format, sink);
+                    lineLength = 0;
+                    overflow = false;
+                } else if (lineLength < MAX_LINE_LENGTH) {
+                    mLine[lineLength++] = c;
+                } else {
+                    overflow = true;
+                }
+            }
+        }
+        if (lineLength > 0 || overflow) {
+            endLine(lineLength, overflow, format, sink);
+        }
+        flush(sink);
+        mElapsedNanos = mClock.nanoTime() - start;
+        return mAccepted;
+    }
+
+    private void endLine(int length, boolean overflow, int format, FrameSink sink) throws IOException {
+        mLines++;
+        if (length > 0 && mLine[length - 1] == '\r') {
+            length--;
+        }
+        if (overflow) {
+            reject(MALFORMED, sink);
+            return;
+        }
+        int first = skipSpace(0, length);
+
+        if (first == length) {
+            //blank line
+            return;
+        }
+        Arrays.fill(mFieldStart, -1);
+        Arrays.fill(mFieldLength, 0);
+
+        boolean header = !mPastHeader;
+        boolean parsed;
+
+        mPastHeader = true;
+        if (format == FORMAT_CSV) {
+            if (header && startsWith(first, length, CSV_HEADER)) {
+                return;
+            }
+            parsed = splitCsv(first, length);
+        } else {
+            parsed = splitJson(first, length);
+        }
+        if (!parsed) {
+            reject(MALFORMED, sink);
+            return;
+        }
+        byte validity = validate();
+
+        if (validity != FrameValidator.ALL_VALID) {
+            reject(validity, sink);
+            return;
+        }
+        encode();
+        mAccepted++;
+        if (mBatchCount == mBatchFrames) {
+            flush(sink);
+        }
+    }
+
+    private void reject(byte validity, FrameSink sink) {
+        mRejected++;
+        sink.onRejected(mLines, validity);
+    }
+
+    private boolean splitCsv(int from, int end) {
+        int field = 0;
+        int fieldStart = from;
+
+        for (int i = from; i <= end; i++) {
+            if (i == end || mLine[i] == ',') {
+                if (field == FIELD_COUNT) {
+                    return false;
+                }
+                setField(field++, fieldStart, i);
+                fieldStart = i + 1;
+            }
+        }
+        return field == FIELD_COUNT;
+    }
+
+    /**
+     * Flat objects only: string members are picked up, numbers, booleans and null are
+     * skipped, anything nested or escaped makes the line malformed.
+     */
+    private boolean splitJson(int from, int end) {
+        int i = from;
+
+        if (mLine[i++] != '{') {
+            return false;
+        }
+        i = skipSpace(i, end);
+        if (i < end && mLine[i] == '}') {
+            return skipSpace(i + 1, end) == end;
+        }
+        while (i < end) {
+            int keyStart = i + 1;
+            int keyEnd = endOfString(i, end);
+
+            if (keyEnd < 0) {
+                return false;
+            }
+            i = skipSpace(keyEnd + 1, end);
+            if (i == end || mLine[i] != ':') {
+                return false;
+            }
+            i = skipSpace(i + 1, end);
+            if (i == end) {
+                return false;
+            }
+            if (mLine[i] == '"') {
+                int valueEnd = endOfString(i, end);
+
+                if (valueEnd < 0) {
+                    return false;
+                }
+                int field = jsonField(keyStart, keyEnd);
+
+                if (field >= 0) {
+                    mFieldStart[field] = i + 1;
+                    mFieldLength[field] = valueEnd - i - 1;
+                }
+                i = valueEnd + 1;
+            } else {
+                while (i < end && mLine[i] != ',' && mLine[i] != '}') {
+                    char c = mLine[i++];
+
+                    if (c == '{' || c == '[' || c == '"') {
+                        return false;
+                    }
+                }
+            }
+            i = skipSpace(i, end);
+            if (i == end) {
+                return false;
+            }
+            if (mLine[i] == '}') {
+                return skipSpace(i + 1, end) == end;
+            }
+            if (mLine[i] != ',') {
+                return false;
+            }
+            i = skipSpace(i + 1, end);
+        }
+        return false;
+    }
+
+    /**
+     * @param quote index of the opening quote
+     * @return index of the closing quote, -1 if there is none or the string has escapes
+     */
+    private int endOfString(int quote, int end) {
+        if (quote >= end || mLine[quote] != '"') {
+            return -1;
+        }
+        for (int i = quote + 1; i < end; i++) {
+            if (mLine[i] == '"') {
+                return i;
+            }
+            if (mLine[i] == '\\') {
+                return -1;
+            }
+        }
+        return -1;
+    }
+
+    private int jsonField(int keyStart, int keyEnd) {
+        for (int field = 0; field < FIELD_COUNT; field++) {
+            char[] key = JSON_KEYS[field];
+
+            if (key.length == keyEnd - keyStart && startsWith(keyStart, keyEnd, key)) {
+                return field;
+            }
+        }
+        return -1;
+    }
+
+    private boolean startsWith(int from, int end, char[] prefix) {
+        if (end - from < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (mLine[from + i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void setField(int field, int from, int end) {
+        from = skipSpace(from, end);
+        while (end > from && Character.isWhitespace(mLine[end - 1])) {
+            end--;
+        }
+        mFieldStart[field] = from;
+        mFieldLength[field] = end - from;
+    }
+
+    private int skipSpace(int from, int end) {
+        while (from < end && Character.isWhitespace(mLine[from])) {
+            from++;
+        }
+        return from;
+    }
+
+    private byte validate() {
+        byte validity = 0;
+
+        if (isValid(FIELD_UUID, IBeaconFrames.UUID_DATA_LENGTH)) {
+            validity |= FrameValidator.UUID_VALID;
+        }
+        if (isValid(FIELD_BATTERY, IBeaconFrames.BATTERY_VOLTAGE_DATA_LENGTH)) {
+            validity |= FrameValidator.BATTERY_VOLTAGE_VALID;
+        }
+        if (isValid(FIELD_MAJOR, IBeaconFrames.MAJOR_BYTES_LENGTH)) {
+            validity |= FrameValidator.MAJOR_VALID;
+        }
+        if (isValid(FIELD_MINOR, IBeaconFrames.MINOR_BYTES_LENGTH)) {
+            validity |= FrameValidator.MINOR_VALID;
+        }
+        if (isValid(FIELD_SIGNAL_POWER, IBeaconFrames.SIGNAL_POWER_BYTES_LENGTH)) {
+            validity |= FrameValidator.SIGNAL_POWER_VALID;
+        }
+        return validity;
+    }
+
+    private boolean isValid(int field, int byteLength) {
+        return mFieldStart[field] >= 0
+                && FrameValidator.isValidField(mLine, mFieldStart[field], mFieldLength[field], byteLength);
+    }
+
+    private void encode() {
+        int frame = mBatchCount++ * IBeaconFrames.FRAME_LENGTH;
+
+        mBatch[frame + IBeaconFrames.PRODUCT_ID_INDEX] = IBeaconFrames.PRODUCT_ID;
+        mBatch[frame + IBeaconFrames.DATA_LENGTH_INDEX] = IBeaconFrames.DATA_LENGTH;
+        decodeField(FIELD_UUID, frame + IBeaconFrames.UUID_BYTES_INDEX);
+        decodeField(FIELD_BATTERY, frame + IBeaconFrames.BATTERY_VOLTAGE_INDEX);
+        decodeField(FIELD_MAJOR, frame + IBeaconFrames.MAJOR_BYTE_INDEX);
+        decodeField(FIELD_MINOR, frame + IBeaconFrames.MINOR_BYTE_INDEX);
+        decodeField(FIELD_SIGNAL_POWER, frame + IBeaconFrames.SIGNAL_POWER_BYTES_INDEX);
+    }
+
+    private void decodeField(int field, int dstOffset) {
+        HexCodec.decode(mLine, mFieldStart[field], mFieldLength[field], mBatch, dstOffset);
+    }
+
+    private void flush(FrameSink sink) throws IOException {
+        if (mBatchCount > 0) {
+            sink.onFrames(mBatch, mBatchCount);
+            mBatchCount = 0;
+        }
+    }
+
+    /**
+     * @return lines read in the last import, blank lines and the header included
+     */
+    public long getLines() {
+        return mLines;
+    }
+
+    public long getAccepted() {
+        return mAccepted;
+    }
+
+    public long getRejected() {
+        return mRejected;
+    }
+
+    public long getElapsedNanos() {
+        return mElapsedNanos;
+    }
+
+    /**
+     * @return accepted plus rejected rows per second of the last import
+     */
+    public long getRowsPerSecond() {
+        return mElapsedNanos <= 0 ? 0 : (mAccepted + mRejected) * TimeUnit.SECONDS.toNanos(1) / mElapsedNanos;
+    }
+}
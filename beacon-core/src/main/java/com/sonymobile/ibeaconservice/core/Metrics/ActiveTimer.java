@@ -0,0 +1,74 @@
+package com.sonymobile.ibeaconservice.core.Metrics;
+
+import com.sonymobile.ibeaconservice.core.Utils.Clock;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Accumulates how long something has been active, e.g. the service being on air. Starting
+ * an active timer or stopping an idle one is a no-op.
+ */
+public final class ActiveTimer {
+    private static final long IDLE = Long.MIN_VALUE;
+
+    private final String mName;
+    private final Clock mClock;
+    private final AtomicLong mActiveSince = new AtomicLong(IDLE);
+    private final AtomicLong mTotalNanos = new AtomicLong();
+    private final AtomicLong mActivations = new AtomicLong();
+
+    ActiveTimer(String name, Clock clock) {
+        mName = name;
+        mClock = clock;
+    }
+
+    public String getName() {
+        return mName;
+    }
+
+    public void start() {
+        if (mActiveSince.compareAndSet(IDLE, mClock.nanoTime())) {
+            mActivations.incrementAndGet();
+        }
+    }
+
+    public void stop() {
+        long since = mActiveSince.getAndSet(IDLE);
+
+        if (since != IDLE) {
+            mTotalNanos.addAndGet(mClock.nanoTime() - since);
+        }
+    }
+
+    public boolean isActive() {
+        return mActiveSince.get() != IDLE;
+    }
+
+    /**
+     * @return time active in the current stretch, 0 while idle
+     */
+    public long getCurrentNanos() {
+        long since = mActiveSince.get();
+
+        return since == IDLE ? 0 : mClock.nanoTime() - since;
+    }
+
+    /**
+     * @return time active over all stretches including the current one
+     */
+    public long getTotalNanos() {
+        return mTotalNanos.get() + getCurrentNanos();
+    }
+
+    public long getActivations() {
+        return mActivations.get();
+    }
+
+    void reset() {
+        mTotalNanos.set(0);
+        mActivations.set(0);
+        if (mActiveSince.get() != IDLE) {
+            mActiveSince.set(mClock.nanoTime());
+        }
+    }
+}
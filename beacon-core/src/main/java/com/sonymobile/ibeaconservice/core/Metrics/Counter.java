@@ -0,0 +1,36 @@
+package com.sonymobile.ibeaconservice.core.Metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Monotonic event counter. Lock free and allocation free, safe to bump from callbacks on
+ * any thread.
+ */
+public final class Counter {
+    private final String mName;
+    private final AtomicLong mCount = new AtomicLong();
+
+    Counter(String name) {
+        mName = name;
+    }
+
+    public String getName() {
+        return mName;
+    }
+
+    public void increment() {
+        mCount.incrementAndGet();
+    }
+
+    public void add(long delta) {
+        mCount.addAndGet(delta);
+    }
+
+    public long getCount() {
+        return mCount.get();
+    }
+
+    void reset() {
+        mCount.set(0);
+    }
+}
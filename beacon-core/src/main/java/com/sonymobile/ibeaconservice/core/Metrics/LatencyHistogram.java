@@ -0,0 +1,107 @@
+package com.sonymobile.ibeaconservice.core.Metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Latency histogram with fixed power of two buckets. Bucket i holds samples in
+ * [2^(i-1), 2^i) nanoseconds, bucket 0 holds everything below 1 ns and the last bucket
+ * everything from 2^(BUCKET_COUNT-2) ns (about 73 minutes) up. Picking the bucket is a
+ * leading zero count, so {@link #record(long)} is constant time, lock free and allocation
+ * free; percentiles are therefore only accurate to a factor of two.
+ */
+public final class LatencyHistogram {
+    public static final int BUCKET_COUNT = 44;
+
+    private final String mName;
+    private final AtomicLongArray mBuckets = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong mCount = new AtomicLong();
+    private final AtomicLong mSum = new AtomicLong();
+    private final AtomicLong mMax = new AtomicLong();
+
+    LatencyHistogram(String name) {
+        mName = name;
+    }
+
+    public String getName() {
+        return mName;
+    }
+
+    /**
+     * @param nanos sample, negative samples count as zero
+     */
+    public void record(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        mBuckets.incrementAndGet(bucketOf(nanos));
+        mCount.incrementAndGet();
+        mSum.addAndGet(nanos);
+        long max = mMax.get();
+
+        while (nanos > max && !mMax.compareAndSet(max, nanos)) {
+            max = mMax.get();
+        }
+    }
+
+    static int bucketOf(long nanos) {
+        return Math.min(64 - Long.numberOfLeadingZeros(nanos), BUCKET_COUNT - 1);
+    }
+
+    /**
+     * @return exclusive upper bound of the bucket, Long.MAX_VALUE for the last one
+     */
+    public static long getBucketUpperBoundNanos(int bucket) {
+        return bucket >= BUCKET_COUNT - 1 ? Long.MAX_VALUE : 1L << bucket;
+    }
+
+    public long getBucketCount(int bucket) {
+        return mBuckets.get(bucket);
+    }
+
+    public long getCount() {
+        return mCount.get();
+    }
+
+    public long getMeanNanos() {
+        long count = mCount.get();
+
+        return count == 0 ? 0 : mSum.get() / count;
+    }
+
+    public long getMaxNanos() {
+        return mMax.get();
+    }
+
+    /**
+     * @param percentile 0..100
+     * @return upper bound of the bucket the percentile falls in, capped at the largest sample,
+     * 0 without samples
+     */
+    public long getPercentileNanos(double percentile) {
+        long count = mCount.get();
+
+        if (count == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(count * percentile / 100.0));
+        long seen = 0;
+
+        for (int bucket = 0; bucket < BUCKET_COUNT; bucket++) {
+            seen += mBuckets.get(bucket);
+            if (seen >= rank) {
+                return Math.min(getBucketUpperBoundNanos(bucket), mMax.get());
+            }
+        }
+        return mMax.get();
+    }
+
+    void reset() {
+        for (int bucket = 0; bucket < BUCKET_COUNT; bucket++) {
+            mBuckets.set(bucket, 0);
+        }
+        mCount.set(0);
+        mSum.set(0);
+        mMax.set(0);
+    }
+}
@@ -0,0 +1,125 @@
+package com.sonymobile.ibeaconservice.core.Metrics;
+
+import com.sonymobile.ibeaconservice.core.Utils.Clock;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Named counters, latency histograms and active timers. Registering allocates and belongs in
+ * setup code; callers keep the returned instrument and record through it, which never locks
+ * or allocates. Registering the same name twice hands back the same instrument.
+ */
+public class MetricsRegistry {
+    private final Clock mClock;
+    private final Map<String, Object> mByName = new HashMap<>();
+    private final List<Counter> mCounters = new ArrayList<>();
+    private final List<LatencyHistogram> mHistograms = new ArrayList<>();
+    private final List<ActiveTimer> mTimers = new ArrayList<>();
+
+    public MetricsRegistry(Clock clock) {
+        mClock = clock;
+    }
+
+    public Clock getClock() {
+        return mClock;
+    }
+
+    public synchronized Counter counter(String name) {
+        Counter counter = lookup(name, Counter.class);
+
+        if (counter == null) {
+            counter = new Counter(name);
+            mByName.put(name, counter);
+            mCounters.add(counter);
+        }
+        return counter;
+    }
+
+    public synchronized LatencyHistogram histogram(String name) {
+        LatencyHistogram histogram = lookup(name, LatencyHistogram.class);
+
+        if (histogram == null) {
+            histogram = new LatencyHistogram(name);
+            mByName.put(name, histogram);
+            mHistograms.add(histogram);
+        }
+        return histogram;
+    }
+
+    public synchronized ActiveTimer timer(String name) {
+        ActiveTimer timer = lookup(name, ActiveTimer.class);
+
+        if (timer == null) {
+            timer = new ActiveTimer(name, mClock);
+            mByName.put(name, timer);
+            mTimers.add(timer);
+        }
+        return timer;
+    }
+
+    private <T> T lookup(String name, Class<T> type) {
+        Object metric = mByName.get(name);
+
+        if (metric != null && !type.isInstance(metric)) {
+            throw new IllegalArgumentException(name + " is already registered as a "
+                    + metric.getClass().getSimpleName());
+        }
+        return type.cast(metric);
+    }
+
+    /**
+     * @return the counter's value, 0 if there is no counter by that name
+     */
+    public synchronized long getCount(String name) {
+        Object metric = mByName.get(name);
+
+        return metric instanceof Counter ? ((Counter) metric).getCount() : 0;
+    }
+
+    /**
+     * Zero everything. Timers that are active keep running from now.
+     */
+    public synchronized void reset() {
+        for (Counter counter : mCounters) {
+            counter.reset();
+        }
+        for (LatencyHistogram histogram : mHistograms) {
+            histogram.reset();
+        }
+        for (ActiveTimer timer : mTimers) {
+            timer.reset();
+        }
+    }
+
+    /**
+     * Human readable dump in registration order, in the spirit of dumpsys output.
+     */
+    public synchronized void dump(PrintWriter writer) {
+        for (Counter counter : mCounters) {
+            writer.println(counter.getName() + ": " + counter.getCount());
+        }
+        for (ActiveTimer timer : mTimers) {
+            writer.println(timer.getName() + ": " + millis(timer.getTotalNanos()) + " ms total over "
+                    + timer.getActivations() + " activations"
+                    + (timer.isActive() ? ", active for " + millis(timer.getCurrentNanos()) + " ms" : ""));
+        }
+        for (LatencyHistogram histogram : mHistograms) {
+            writer.println(histogram.getName() + ": count=" + histogram.getCount()
+                    + " mean=" + millis(histogram.getMeanNanos()) + "ms"
+                    + " p50<=" + millis(histogram.getPercentileNanos(50)) + "ms"
+                    + " p90<=" + millis(histogram.getPercentileNanos(90)) + "ms"
+                    + " p99<=" + millis(histogram.getPercentileNanos(99)) + "ms"
+                    + " max=" + millis(histogram.getMaxNanos()) + "ms");
+        }
+        writer.flush();
+    }
+
+    private static String millis(long nanos) {
+        return String.valueOf(nanos / (double) TimeUnit.MILLISECONDS.toNanos(1));
+    }
+}
@@ -0,0 +1,194 @@
+package com.sonymobile.ibeaconservice.core.Model;
+
+import com.sonymobile.ibeaconservice.core.Utils.HexCodec;
+import com.sonymobile.ibeaconservice.core.Utils.IBeaconFrames;
+
+import static com.sonymobile.ibeaconservice.core.Utils.IBeaconFrames.BATTERY_VOLTAGE_DATA_LENGTH;
+import static com.sonymobile.ibeaconservice.core.Utils.IBeaconFrames.BATTERY_VOLTAGE_INDEX;
+import static com.sonymobile.ibeaconservice.core.Utils.IBeaconFrames.MAJOR_BYTES_LENGTH;
+import static com.sonymobile.ibeaconservice.core.Utils.IBeaconFrames.MAJOR_BYTE_INDEX;
+import static com.sonymobile.ibeaconservice.core.Utils.IBeaconFrames.MINOR_BYTES_LENGTH;
+import static com.sonymobile.ibeaconservice.core.Utils.IBeaconFrames.MINOR_BYTE_INDEX;
+import static com.sonymobile.ibeaconservice.core.Utils.IBeaconFrames.SIGNAL_POWER_BYTES_INDEX;
+import static com.sonymobile.ibeaconservice.core.Utils.IBeaconFrames.SIGNAL_POWER_BYTES_LENGTH;
+import static com.sonymobile.ibeaconservice.core.Utils.IBeaconFrames.UUID_BYTES_INDEX;
+import static com.sonymobile.ibeaconservice.core.Utils.IBeaconFrames.UUID_DATA_LENGTH;
+
+/**
+ * Platform independent model of the advertising data that we will send.
+ * The data we can actually explicitly set is only 21 bytes long
+ * (ProximityUUID battery, major byte minor byte, signal power)
+ *
+ * Backed by a single 23 byte frame, not one array per field, so building one from bytes is
+ * at most one allocation and none when it wraps a buffer it was unmarshalled from.
+ */
+public class BeaconFrame {
+    private final byte[] mFrame;
+    private final int mOffset;
+
+    public BeaconFrame() {
+        this(new byte[IBeaconFrames.FRAME_LENGTH], 0, false);
+    }
+
+    /**
+     * expect 23 bytes of data here. We want to throw away the first 2 bytes (iBeaconId and
+     * data length) as they are always the same
+     *
+     * @param adData 23 bytes of ad data.
+     */
+    public BeaconFrame(byte[] adData) {
+        this(adData, 0);
+    }
+
+    /**
+     * @param adData buffer holding a 23 byte frame, copied
+     * @param offset index of the frame's product id byte
+     */
+    public BeaconFrame(byte[] adData, int offset) {
+        this(adData, offset, true);
+    }
+
+    /**
+     * @param copy false to use the caller's buffer as is, e.g. a blob just unmarshalled that
+     * nothing else holds; setters then write through to it
+     */
+    protected BeaconFrame(byte[] adData, int offset, boolean copy) {
+        if (copy) {
+            mFrame = new byte[IBeaconFrames.FRAME_LENGTH];
+            mOffset = 0;
+            System.arraycopy(adData, offset, mFrame, 0, IBeaconFrames.FRAME_LENGTH);
+        } else {
+            mFrame = adData;
+            mOffset = offset;
+        }
+    }
+
+    /**
+     * Build a frame from already split fields, e.g. when unmarshalling the old five array
+     * format. Short or missing fields are left as zero.
+     */
+    protected BeaconFrame(byte[] uuidBytes, byte[] batteryVoltage, byte[] majorBytes,
+                          byte[] minorBytes, byte[] signalPowerBytes) {
+        this();
+        copyField(uuidBytes, UUID_BYTES_INDEX, UUID_DATA_LENGTH);
+        copyField(batteryVoltage, BATTERY_VOLTAGE_INDEX, BATTERY_VOLTAGE_DATA_LENGTH);
+        copyField(majorBytes, MAJOR_BYTE_INDEX, MAJOR_BYTES_LENGTH);
+        copyField(minorBytes, MINOR_BYTE_INDEX, MINOR_BYTES_LENGTH);
+        copyField(signalPowerBytes, SIGNAL_POWER_BYTES_INDEX, SIGNAL_POWER_BYTES_LENGTH);
+    }
+
+    public String getUUIDString() {
+        return toHex(UUID_BYTES_INDEX, UUID_DATA_LENGTH);
+    }
+
+    public String getBatteryVoltage() {
+        return toHex(BATTERY_VOLTAGE_INDEX, BATTERY_VOLTAGE_DATA_LENGTH);
+    }
+
+    public String getMajorBytesString() {
+        return toHex(MAJOR_BYTE_INDEX, MAJOR_BYTES_LENGTH);
+    }
+
+    public String getMinorBytesString() {
+        return toHex(MINOR_BYTE_INDEX, MINOR_BYTES_LENGTH);
+    }
+
+    public String getSignalPowerBytesString() {
+        return toHex(SIGNAL_POWER_BYTES_INDEX, SIGNAL_POWER_BYTES_LENGTH);
+    }
+
+    public void setUUIDBytes(String proximityString) {
+        copyField(HexCodec.convertStringToBytes(proximityString), UUID_BYTES_INDEX, UUID_DATA_LENGTH);
+    }
+
+    public void setBatteryVoltageBytes(String batteryVoltage) {
+        copyField(HexCodec.convertStringToBytes(batteryVoltage), BATTERY_VOLTAGE_INDEX, BATTERY_VOLTAGE_DATA_LENGTH);
+    }
+
+    public void setMajorBytes(String majorBytes) {
+        copyField(HexCodec.convertStringToBytes(majorBytes), MAJOR_BYTE_INDEX, MAJOR_BYTES_LENGTH);
+    }
+
+    public void setMinorBytes(String minorBytes) {
+        copyField(HexCodec.convertStringToBytes(minorBytes), MINOR_BYTE_INDEX, MINOR_BYTES_LENGTH);
+    }
+
+    public void setSignalPowerBytes(String signalPowerBytes) {
+        copyField(HexCodec.convertStringToBytes(signalPowerBytes), SIGNAL_POWER_BYTES_INDEX,
+                SIGNAL_POWER_BYTES_LENGTH);
+    }
+
+    protected byte[] getUUIDBytes() {
+        return copyOfField(UUID_BYTES_INDEX, UUID_DATA_LENGTH);
+    }
+
+    protected byte[] getBatteryVoltageBytes() {
+        return copyOfField(BATTERY_VOLTAGE_INDEX, BATTERY_VOLTAGE_DATA_LENGTH);
+    }
+
+    protected byte[] getMajorBytes() {
+        return copyOfField(MAJOR_BYTE_INDEX, MAJOR_BYTES_LENGTH);
+    }
+
+    protected byte[] getMinorBytes() {
+        return copyOfField(MINOR_BYTE_INDEX, MINOR_BYTES_LENGTH);
+    }
+
+    protected byte[] getSignalPowerBytes() {
+        return copyOfField(SIGNAL_POWER_BYTES_INDEX, SIGNAL_POWER_BYTES_LENGTH);
+    }
+
+    /**
+     * Write header and fields straight into a caller supplied buffer.
+     *
+     * @param dst buffer with room for {@link IBeaconFrames#FRAME_LENGTH} bytes from dstOffset
+     * @param dstOffset index to write the product id byte to
+     */
+    public void writeTo(byte[] dst, int dstOffset) {
+        System.arraycopy(mFrame, mOffset, dst, dstOffset, IBeaconFrames.FRAME_LENGTH);
+        dst[dstOffset + IBeaconFrames.PRODUCT_ID_INDEX] = IBeaconFrames.PRODUCT_ID;
+        dst[dstOffset + IBeaconFrames.DATA_LENGTH_INDEX] = IBeaconFrames.DATA_LENGTH;
+    }
+
+    /**
+     * get the editable advertising bytes, add the header
+     * with Manufacturer data and length and the TX power footer
+     *
+     * @return 23 bytes (Header + Ad bytes + footer)
+     */
+    public byte[] getManufacturerDataBytes() {
+        byte[] frame = new byte[IBeaconFrames.FRAME_LENGTH];
+
+        writeTo(frame, 0);
+        return frame;
+    }
+
+    private String toHex(int index, int length) {
+        char[] chars = new char[length * 2];
+
+        HexCodec.encode(mFrame, mOffset + index, length, chars, 0);
+        return new String(chars);
+    }
+
+    private byte[] copyOfField(int index, int length) {
+        byte[] field = new byte[length];
+
+        System.arraycopy(mFrame, mOffset + index, field, 0, length);
+        return field;
+    }
+
+    /**
+     * Fields set from user input may be short or not set at all; whatever is missing is left
+     * as zero so the frame always keeps its fixed layout.
+     */
+    private void copyField(byte[] field, int index, int length) {
+        int copied = field == null ? 0 : Math.min(field.length, length);
+
+        if (copied > 0) {
+            System.arraycopy(field, 0, mFrame, mOffset + index, copied);
+        }
+        for (int i = copied; i < length; i++) {
+            mFrame[mOffset + index + i] = 0;
+        }
+    }
+}
@@ -0,0 +1,189 @@
+package com.sonymobile.ibeaconservice.core.Model;
+
+import com.sonymobile.ibeaconservice.core.Utils.IBeaconFrames;
+
+import static com.sonymobile.ibeaconservice.core.Utils.IBeaconFrames.BATTERY_VOLTAGE_INDEX;
+import static com.sonymobile.ibeaconservice.core.Utils.IBeaconFrames.DATA_LENGTH;
+import static com.sonymobile.ibeaconservice.core.Utils.IBeaconFrames.DATA_LENGTH_INDEX;
+import static com.sonymobile.ibeaconservice.core.Utils.IBeaconFrames.FRAME_LENGTH;
+import static com.sonymobile.ibeaconservice.core.Utils.IBeaconFrames.MAJOR_BYTE_INDEX;
+import static com.sonymobile.ibeaconservice.core.Utils.IBeaconFrames.MINOR_BYTE_INDEX;
+import static com.sonymobile.ibeaconservice.core.Utils.IBeaconFrames.PRODUCT_ID;
+import static com.sonymobile.ibeaconservice.core.Utils.IBeaconFrames.PRODUCT_ID_INDEX;
+import static com.sonymobile.ibeaconservice.core.Utils.IBeaconFrames.SIGNAL_POWER_BYTES_INDEX;
+import static com.sonymobile.ibeaconservice.core.Utils.IBeaconFrames.UUID_BYTES_INDEX;
+import static com.sonymobile.ibeaconservice.core.Utils.IBeaconFrames.UUID_DATA_LENGTH;
+
+/**
+ * Flyweight over a 23 byte frame living inside a caller owned buffer.
+ * Unlike {@link BeaconFrame} nothing is copied: every getter and setter reads or writes
+ * the backing array in place at the fixed offsets of {@link IBeaconFrames}. Re-point the
+ * view with {@link #wrap(byte[], int)} to walk a buffer holding many frames back to back
+ * without allocating.
+ *
+ * Multi byte fields are big endian, as they go over the air. Not thread safe.
+ */
+public final class BeaconFrameView {
+    private byte[] mBuffer;
+    private int mOffset;
+
+    public BeaconFrameView() {
+
+    }
+
+    public BeaconFrameView(byte[] buffer, int offset) {
+        wrap(buffer, offset);
+    }
+
+    /**
+     * Point this view at a frame.
+     *
+     * @param buffer backing storage, must hold {@link IBeaconFrames#FRAME_LENGTH} bytes from offset
+     * @param offset index of the product id byte of the frame
+     * @return this view, for chaining
+     */
+    public BeaconFrameView wrap(byte[] buffer, int offset) {
+        if (offset < 0 || buffer.length - offset < FRAME_LENGTH) {
+            throw new IndexOutOfBoundsException("No room for a frame at offset " + offset
+                    + " in buffer of " + buffer.length + " bytes");
+        }
+        mBuffer = buffer;
+        mOffset = offset;
+        return this;
+    }
+
+    /**
+     * Point this view at the index'th frame of a buffer of frames packed back to back.
+     */
+    public BeaconFrameView wrapFrame(byte[] buffer, int index) {
+        return wrap(buffer, index * FRAME_LENGTH);
+    }
+
+    public byte[] buffer() {
+        return mBuffer;
+    }
+
+    public int offset() {
+        return mOffset;
+    }
+
+    /**
+     * @return true if the wrapped bytes start with the iBeacon product id and length
+     */
+    public boolean hasValidHeader() {
+        return mBuffer[mOffset + PRODUCT_ID_INDEX] == PRODUCT_ID
+                && mBuffer[mOffset + DATA_LENGTH_INDEX] == DATA_LENGTH;
+    }
+
+    public BeaconFrameView writeHeader() {
+        mBuffer[mOffset + PRODUCT_ID_INDEX] = PRODUCT_ID;
+        mBuffer[mOffset + DATA_LENGTH_INDEX] = DATA_LENGTH;
+        return this;
+    }
+
+    /**
+     * Copy the 14 proximity UUID bytes out of the frame.
+     */
+    public void getUUID(byte[] dst, int dstOffset) {
+        System.arraycopy(mBuffer, mOffset + UUID_BYTES_INDEX, dst, dstOffset, UUID_DATA_LENGTH);
+    }
+
+    public BeaconFrameView setUUID(byte[] src, int srcOffset) {
+        System.arraycopy(src, srcOffset, mBuffer, mOffset + UUID_BYTES_INDEX, UUID_DATA_LENGTH);
+        return this;
+    }
+
+    /**
+     * The standard iBeacon proximity UUID is 16 bytes: this frame's 14 UUID bytes followed by
+     * the 2 battery voltage bytes. These two return it as a pair of longs, the way
+     * java.util.UUID holds it, for keying tables without building an object.
+     *
+     * @return UUID bytes 0-7, big endian
+     */
+    public long getProximityUuidMostSignificantBits() {
+        return readLong(UUID_BYTES_INDEX);
+    }
+
+    /**
+     * @return UUID bytes 8-15, big endian
+     */
+    public long getProximityUuidLeastSignificantBits() {
+        return readLong(UUID_BYTES_INDEX + 8);
+    }
+
+    /**
+     * @return major in the upper and minor in the lower 16 bits
+     */
+    public int getMajorMinor() {
+        return (readUnsignedShort(MAJOR_BYTE_INDEX) << 16) | readUnsignedShort(MINOR_BYTE_INDEX);
+    }
+
+    public int getBatteryVoltage() {
+        return readUnsignedShort(BATTERY_VOLTAGE_INDEX);
+    }
+
+    public BeaconFrameView setBatteryVoltage(int batteryVoltage) {
+        writeShort(BATTERY_VOLTAGE_INDEX, batteryVoltage);
+        return this;
+    }
+
+    public int getMajor() {
+        return readUnsignedShort(MAJOR_BYTE_INDEX);
+    }
+
+    public BeaconFrameView setMajor(int major) {
+        writeShort(MAJOR_BYTE_INDEX, major);
+        return this;
+    }
+
+    public int getMinor() {
+        return readUnsignedShort(MINOR_BYTE_INDEX);
+    }
+
+    public BeaconFrameView setMinor(int minor) {
+        writeShort(MINOR_BYTE_INDEX, minor);
+        return this;
+    }
+
+    /**
+     * @return calibrated TX power at 1m in dBm (signed)
+     */
+    public int getTxPower() {
+        return mBuffer[mOffset + SIGNAL_POWER_BYTES_INDEX];
+    }
+
+    public BeaconFrameView setTxPower(int txPower) {
+        mBuffer[mOffset + SIGNAL_POWER_BYTES_INDEX] = (byte)txPower;
+        return this;
+    }
+
+    /**
+     * Copy the whole wrapped frame, header included.
+     */
+    public void copyTo(byte[] dst, int dstOffset) {
+        System.arraycopy(mBuffer, mOffset, dst, dstOffset, FRAME_LENGTH);
+    }
+
+    public BeaconFrameView copyFrom(byte[] src, int srcOffset) {
+        System.arraycopy(src, srcOffset, mBuffer, mOffset, FRAME_LENGTH);
+        return this;
+    }
+
+    private int readUnsignedShort(int index) {
+        return ((mBuffer[mOffset + index] & 0xff) << 8) | (mBuffer[mOffset + index + 1] & 0xff);
+    }
+
+    private long readLong(int index) {
+        long value = 0;
+
+        for (int i = 0; i < 8; i++) {
+            value = (value << 8) | (mBuffer[mOffset + index + i] & 0xff);
+        }
+        return value;
+    }
+
+    private void writeShort(int index, int value) {
+        mBuffer[mOffset + index] = (byte)(value >>> 8);
+        mBuffer[mOffset + index + 1] = (byte)value;
+    }
+}
@@ -0,0 +1,213 @@
+package com.sonymobile.ibeaconservice.core.Model;
+
+import com.sonymobile.ibeaconservice.core.Utils.IBeaconFrames;
+
+import java.util.UUID;
+
+/**
+ * Identity of one iBeacon: the 16 byte proximity UUID as two longs and major/minor packed in
+ * an int, major in the upper half. The UUID is the standard one, i.e. this app's 14 UUID bytes
+ * followed by the 2 bytes it calls battery voltage.
+ *
+ * Immutable, with the hash computed up front. Equality, ordering and masking are plain long
+ * arithmetic; the static variants work on the primitives directly for tables that never
+ * build an instance.
+ */
+public final class BeaconId implements Comparable<BeaconId> {
+    /**
+     * Mask selecting every bit, i.e. an exact match.
+     */
+    public static final BeaconId ALL = new BeaconId(-1L, -1L, -1);
+    /**
+     * Mask selecting the UUID only, any major and minor.
+     */
+    public static final BeaconId UUID_ONLY = new BeaconId(-1L, -1L, 0);
+    /**
+     * Mask selecting UUID and major, any minor.
+     */
+    public static final BeaconId UUID_AND_MAJOR = new BeaconId(-1L, -1L, 0xffff0000);
+
+    private final long mUuidHi;
+    private final long mUuidLo;
+    private final int mMajorMinor;
+    private final int mHash;
+
+    public BeaconId(long uuidHi, long uuidLo, int majorMinor) {
+        mUuidHi = uuidHi;
+        mUuidLo = uuidLo;
+        mMajorMinor = majorMinor;
+        mHash = hash(uuidHi, uuidLo, majorMinor);
+    }
+
+    public BeaconId(long uuidHi, long uuidLo, int major, int minor) {
+        this(uuidHi, uuidLo, packMajorMinor(major, minor));
+    }
+
+    public static BeaconId of(UUID uuid, int major, int minor) {
+        return new BeaconId(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits(), major, minor);
+    }
+
+    /**
+     * @param frame buffer holding a 23 byte frame
+     * @param offset index of the frame's product id byte
+     */
+    public static BeaconId fromFrame(byte[] frame, int offset) {
+        BeaconFrameView view = new BeaconFrameView(frame, offset);
+
+        return new BeaconId(view.getProximityUuidMostSignificantBits(),
+                view.getProximityUuidLeastSignificantBits(), view.getMajorMinor());
+    }
+
+    public static BeaconId fromFrame(BeaconFrame frame) {
+        return fromFrame(frame.getManufacturerDataBytes(), 0);
+    }
+
+    /**
+     * @throws IllegalArgumentException if major or minor do not fit 16 bits
+     */
+    public static int packMajorMinor(int major, int minor) {
+        if ((major & ~0xffff) != 0 || (minor & ~0xffff) != 0) {
+            throw new IllegalArgumentException("major " + major + ", minor " + minor);
+        }
+        return (major << 16) | minor;
+    }
+
+    /**
+     * Fleets often share a UUID and number major/minor sequentially, so the bits are mixed
+     * (MurmurHash3 finalizer) to be usable with a power of two mask.
+     */
+    public static int hash(long uuidHi, long uuidLo, int majorMinor) {
+        return (int)hash64(uuidHi, uuidLo, majorMinor);
+    }
+
+    /**
+     * The full 64 bits of {@link #hash(long, long, int)}, for sketches that take their
+     * register index and their rank from different bits.
+     */
+    public static long hash64(long uuidHi, long uuidLo, int majorMinor) {
+        long h = uuidHi * 0x9e3779b97f4a7c15L ^ uuidLo * 0xc2b2ae3d27d4eb4fL ^ majorMinor;
+
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    /**
+     * Orders by UUID then major then minor, all unsigned, as the bytes would sort.
+     */
+    public static int compare(long uuidHi, long uuidLo, int majorMinor,
+                              long otherUuidHi, long otherUuidLo, int otherMajorMinor) {
+        int result = Long.compareUnsigned(uuidHi, otherUuidHi);
+
+        if (result == 0) {
+            result = Long.compareUnsigned(uuidLo, otherUuidLo);
+        }
+        if (result == 0) {
+            result = Integer.compareUnsigned(majorMinor, otherMajorMinor);
+        }
+        return result;
+    }
+
+    /**
+     * @return true if the id equals this one on every bit set in mask
+     */
+    public boolean matches(long uuidHi, long uuidLo, int majorMinor, BeaconId mask) {
+        return ((uuidHi ^ mUuidHi) & mask.mUuidHi) == 0
+                && ((uuidLo ^ mUuidLo) & mask.mUuidLo) == 0
+                && ((majorMinor ^ mMajorMinor) & mask.mMajorMinor) == 0;
+    }
+
+    public boolean matches(BeaconId id, BeaconId mask) {
+        return matches(id.mUuidHi, id.mUuidLo, id.mMajorMinor, mask);
+    }
+
+    /**
+     * @return this id with every bit not set in mask cleared
+     */
+    public BeaconId and(BeaconId mask) {
+        return new BeaconId(mUuidHi & mask.mUuidHi, mUuidLo & mask.mUuidLo, mMajorMinor & mask.mMajorMinor);
+    }
+
+    public long getUuidMostSignificantBits() {
+        return mUuidHi;
+    }
+
+    public long getUuidLeastSignificantBits() {
+        return mUuidLo;
+    }
+
+    public int getMajorMinor() {
+        return mMajorMinor;
+    }
+
+    public int getMajor() {
+        return mMajorMinor >>> 16;
+    }
+
+    public int getMinor() {
+        return mMajorMinor & 0xffff;
+    }
+
+    public UUID toUUID() {
+        return new UUID(mUuidHi, mUuidLo);
+    }
+
+    /**
+     * Write header, UUID, major and minor into a frame; the TX power byte is left alone.
+     *
+     * @param dst buffer with room for {@link IBeaconFrames#FRAME_LENGTH} bytes from offset
+     * @param offset index to write the product id byte to
+     */
+    public void writeTo(byte[] dst, int offset) {
+        BeaconFrameView view = new BeaconFrameView(dst, offset).writeHeader();
+
+        for (int i = 0; i < 8; i++) {
+            dst[offset + IBeaconFrames.UUID_BYTES_INDEX + i] = (byte)(mUuidHi >>> (56 - 8 * i));
+            dst[offset + IBeaconFrames.UUID_BYTES_INDEX + 8 + i] = (byte)(mUuidLo >>> (56 - 8 * i));
+        }
+        view.setMajor(getMajor()).setMinor(getMinor());
+    }
+
+    /**
+     * @return a new 23 byte frame for this id
+     */
+    public byte[] toFrame(int txPower) {
+        byte[] frame = new byte[IBeaconFrames.FRAME_LENGTH];
+
+        writeTo(frame, 0);
+        new BeaconFrameView(frame, 0).setTxPower(txPower);
+        return frame;
+    }
+
+    @Override
+    public int compareTo(BeaconId other) {
+        return compare(mUuidHi, mUuidLo, mMajorMinor, other.mUuidHi, other.mUuidLo, other.mMajorMinor);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof BeaconId)) {
+            return false;
+        }
+        BeaconId other = (BeaconId)o;
+
+        return mHash == other.mHash && mUuidHi == other.mUuidHi && mUuidLo == other.mUuidLo
+                && mMajorMinor == other.mMajorMinor;
+    }
+
+    @Override
+    public int hashCode() {
+        return mHash;
+    }
+
+    @Override
+    public String toString() {
+        return toUUID() + " " + getMajor() + "/" + getMinor();
+    }
+}
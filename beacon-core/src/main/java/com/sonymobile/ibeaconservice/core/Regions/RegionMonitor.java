@@ -0,0 +1,417 @@
+package com.sonymobile.ibeaconservice.core.Regions;
+
+import com.sonymobile.ibeaconservice.core.Model.BeaconFrameView;
+import com.sonymobile.ibeaconservice.core.Model.BeaconId;
+import com.sonymobile.ibeaconservice.core.Scanning.SightingPipeline;
+import com.sonymobile.ibeaconservice.core.Utils.Clock;
+
+/**
+ * Tells when the device enters and leaves regions: a UUID, a UUID and major, or a UUID,
+ * major and minor.
+ *
+ * Regions are indexed by their masked key in one open addressing table, so a sighting costs
+ * at most one probe per region kind in use, whatever the number of regions. A region is
+ * entered on its first sighting and left once it has not been seen for its exit timeout.
+ * Timeouts run on a hashed timer wheel: a region sits in at most one wheel slot and a sighting
+ * only updates its last seen time, the wheel re-files it when the old deadline comes up.
+ *
+ * Like the advertising schedulers this has no thread of its own: {@link #tick()} expires
+ * regions and returns when it wants to run next. Sighting timestamps must use the clock's
+ * time base. Not thread safe.
+ */
+public class RegionMonitor implements SightingPipeline.Stage {
+    public static final int ANY = -1;
+
+    /** Returned when no region is entered and no tick is needed */
+    public static final long NO_DEADLINE = Long.MAX_VALUE;
+
+    public static final int WHEEL_SIZE = 512;
+
+    private static final byte KIND_UUID = 0;
+    private static final byte KIND_MAJOR = 1;
+    private static final byte KIND_MINOR = 2;
+    private static final int KIND_COUNT = 3;
+    private static final int[] KIND_MASKS = {0, 0xffff0000, 0xffffffff};
+
+    private static final int NIL = -1;
+
+    public interface Listener {
+        void onEnter(int regionId, long timestampNanos);
+
+        /**
+         * @param timestampNanos last sighting plus the exit timeout
+         */
+        void onExit(int regionId, long timestampNanos);
+    }
+
+    /**
+     * Told when the next tick deadline moved outside of {@link #tick()}: a region was entered
+     * while none was. The driver re-arms its timer.
+     */
+    public interface ScheduleListener {
+        void onScheduleChanged(long nextDeadlineNanos);
+    }
+
+    private final Clock mClock;
+    private final long mTickNanos;
+    private Listener mListener;
+    private ScheduleListener mScheduleListener;
+
+    //index: masked key -> region id
+    private final int mIndexMask;
+    private final boolean[] mIndexUsed;
+    private final long[] mIndexUuidHi;
+    private final long[] mIndexUuidLo;
+    private final int[] mIndexMajorMinor;
+    private final byte[] mIndexKind;
+    private final int[] mIndexRegion;
+    private final int[] mKindCounts = new int[KIND_COUNT];
+
+    //regions, indexed by region id
+    private final int mMaxRegions;
+    private final boolean[] mRegionUsed;
+    private final long[] mUuidHi;
+    private final long[] mUuidLo;
+    private final int[] mMajorMinor;
+    private final byte[] mKind;
+    private final long[] mExitTimeout;
+    private final long[] mLastSeen;
+    private final boolean[] mInside;
+    private final int[] mFreeIds;
+    private int mFreeCount;
+    private int mRegionCount;
+    private int mInsideCount;
+
+    //timer wheel, intrusive doubly linked lists through the region ids
+    private final int[] mWheel = new int[WHEEL_SIZE];
+    private final int[] mNext;
+    private final int[] mPrev;
+    private final long[] mDeadlineTick;
+    private long mCurrentTick;
+    private int mScheduled;
+
+    private final BeaconFrameView mView = new BeaconFrameView();
+
+    /**
+     * @param maxRegions regions that can be registered at once
+     * @param tickNanos timer wheel resolution; exits fire up to one tick late
+     */
+    public RegionMonitor(Clock clock, int maxRegions, long tickNanos) {
+        if (maxRegions < 1 || maxRegions > (1 << 28)) {
+            throw new IllegalArgumentException("maxRegions " + maxRegions);
+        }
+        if (tickNanos <= 0) {
+            throw new IllegalArgumentException("tickNanos " + tickNanos);
+        }
+        int capacity = Integer.highestOneBit(maxRegions * 2 - 1) << 1;
+
+        mClock = clock;
+        mTickNanos = tickNanos;
+        mIndexMask = capacity - 1;
+        mIndexUsed = new boolean[capacity];
+        mIndexUuidHi = new long[capacity];
+        mIndexUuidLo = new long[capacity];
+        mIndexMajorMinor = new int[capacity];
+        mIndexKind = new byte[capacity];
+        mIndexRegion = new int[capacity];
+
+        mMaxRegions = maxRegions;
+        mRegionUsed = new boolean[maxRegions];
+        mUuidHi = new long[maxRegions];
+        mUuidLo = new long[maxRegions];
+        mMajorMinor = new int[maxRegions];
+        mKind = new byte[maxRegions];
+        mExitTimeout = new long[maxRegions];
+        mLastSeen = new long[maxRegions];
+        mInside = new boolean[maxRegions];
+        mFreeIds = new int[maxRegions];
+        for (int i = 0; i < maxRegions; i++) {
+            mFreeIds[i] = maxRegions - 1 - i;
+        }
+        mFreeCount = maxRegions;
+
+        mNext = new int[maxRegions];
+        mPrev = new int[maxRegions];
+        mDeadlineTick = new long[maxRegions];
+        for (int i = 0; i < WHEEL_SIZE; i++) {
+            mWheel[i] = NIL;
+        }
+        mCurrentTick = clock.nanoTime() / tickNanos;
+    }
+
+    public void setListener(Listener listener) {
+        mListener = listener;
+    }
+
+    public void setScheduleListener(ScheduleListener scheduleListener) {
+        mScheduleListener = scheduleListener;
+    }
+
+    /**
+     * @param major 0-0xffff, or {@link #ANY}
+     * @param minor 0-0xffff, or {@link #ANY}; must be ANY when major is
+     * @param exitTimeoutNanos how long the region may go unseen before it is left
+     * @return the region id, stable until the region is removed
+     * @throws IllegalArgumentException for a bad definition, a duplicate or a full monitor
+     */
+    public int addRegion(long uuidHi, long uuidLo, int major, int minor, long exitTimeoutNanos) {
+        byte kind;
+        int majorMinor;
+
+        if (major == ANY) {
+            if (minor != ANY) {
+                throw new IllegalArgumentException("minor without major");
+            }
+            kind = KIND_UUID;
+            majorMinor = 0;
+        } else if (minor == ANY) {
+            kind = KIND_MAJOR;
+            majorMinor = BeaconId.packMajorMinor(major, 0);
+        } else {
+            kind = KIND_MINOR;
+            majorMinor = BeaconId.packMajorMinor(major, minor);
+        }
+        if (exitTimeoutNanos <= 0) {
+            throw new IllegalArgumentException("exitTimeoutNanos " + exitTimeoutNanos);
+        }
+        int slot = probe(uuidHi, uuidLo, majorMinor, kind);
+
+        if (mIndexUsed[slot]) {
+            throw new IllegalArgumentException("region already registered as " + mIndexRegion[slot]);
+        }
+        if (mFreeCount == 0) {
+            throw new IllegalArgumentException("more than " + mMaxRegions + " regions");
+        }
+        int id = mFreeIds[--mFreeCount];
+
+        mIndexUsed[slot] = true;
+        mIndexUuidHi[slot] = uuidHi;
+        mIndexUuidLo[slot] = uuidLo;
+        mIndexMajorMinor[slot] = majorMinor;
+        mIndexKind[slot] = kind;
+        mIndexRegion[slot] = id;
+        mKindCounts[kind]++;
+
+        mRegionUsed[id] = true;
+        mUuidHi[id] = uuidHi;
+        mUuidLo[id] = uuidLo;
+        mMajorMinor[id] = majorMinor;
+        mKind[id] = kind;
+        mExitTimeout[id] = exitTimeoutNanos;
+        mInside[id] = false;
+        mRegionCount++;
+        return id;
+    }
+
+    /**
+     * Forget a region. No exit is reported for it, even if it was entered.
+     */
+    public void removeRegion(int regionId) {
+        checkRegion(regionId);
+        if (mInside[regionId]) {
+            mInside[regionId] = false;
+            mInsideCount--;
+            unschedule(regionId);
+        }
+        deleteIndex(probe(mUuidHi[regionId], mUuidLo[regionId], mMajorMinor[regionId], mKind[regionId]));
+        mKindCounts[mKind[regionId]]--;
+        mRegionUsed[regionId] = false;
+        mFreeIds[mFreeCount++] = regionId;
+        mRegionCount--;
+    }
+
+    @Override
+    public void onSighting(byte[] record, int frameOffset, int rssi, long timestampNanos) {
+        mView.wrap(record, frameOffset);
+        onSighting(mView.getProximityUuidMostSignificantBits(), mView.getProximityUuidLeastSignificantBits(),
+                mView.getMajorMinor(), timestampNanos);
+    }
+
+    /**
+     * @return number of regions the beacon is in
+     */
+    public int onSighting(long uuidHi, long uuidLo, int majorMinor, long timestampNanos) {
+        int matches = 0;
+
+        for (int kind = 0; kind < KIND_COUNT; kind++) {
+            if (mKindCounts[kind] == 0) {
+                continue;
+            }
+            int slot = probe(uuidHi, uuidLo, majorMinor & KIND_MASKS[kind], (byte)kind);
+
+            if (mIndexUsed[slot]) {
+                seen(mIndexRegion[slot], timestampNanos);
+                matches++;
+            }
+        }
+        return matches;
+    }
+
+    /**
+     * Report exits that are due.
+     *
+     * @return clock time of the next tick, or {@link #NO_DEADLINE}
+     */
+    public long tick() {
+        long now = mClock.nanoTime();
+        long nowTick = now / mTickNanos;
+        long lastTick = mCurrentTick;
+        long steps = Math.min(nowTick - lastTick, WHEEL_SIZE);
+
+        if (steps <= 0) {
+            return nextDeadline();
+        }
+        //moved first, so regions filed again land after now
+        mCurrentTick = nowTick;
+        //after a long sleep every slot is visited once; all that is due fires
+        for (long step = 1; step <= steps; step++) {
+            expireSlot((int)((lastTick + step) & (WHEEL_SIZE - 1)), nowTick, now);
+        }
+        return nextDeadline();
+    }
+
+    public boolean isInside(int regionId) {
+        checkRegion(regionId);
+        return mInside[regionId];
+    }
+
+    public long getLastSeenNanos(int regionId) {
+        checkRegion(regionId);
+        return mLastSeen[regionId];
+    }
+
+    public int getRegionCount() {
+        return mRegionCount;
+    }
+
+    public int getInsideCount() {
+        return mInsideCount;
+    }
+
+    private void seen(int region, long timestampNanos) {
+        if (timestampNanos - mLastSeen[region] > 0 || !mInside[region]) {
+            mLastSeen[region] = timestampNanos;
+        }
+        if (mInside[region]) {
+            return;
+        }
+        mInside[region] = true;
+        mInsideCount++;
+        schedule(region, timestampNanos + mExitTimeout[region]);
+        if (mListener != null) {
+            mListener.onEnter(region, timestampNanos);
+        }
+        if (mScheduled == 1 && mScheduleListener != null) {
+            mScheduleListener.onScheduleChanged(nextDeadline());
+        }
+    }
+
+    private void expireSlot(int wheelSlot, long nowTick, long now) {
+        int region = mWheel[wheelSlot];
+
+        while (region != NIL) {
+            int next = mNext[region];
+
+            if (mDeadlineTick[region] <= nowTick) {
+                long exitAt = mLastSeen[region] + mExitTimeout[region];
+
+                unschedule(region);
+                if (exitAt - now <= 0) {
+                    mInside[region] = false;
+                    mInsideCount--;
+                    if (mListener != null) {
+                        mListener.onExit(region, exitAt);
+                    }
+                } else {
+                    //seen since it was filed, file it again under the new deadline
+                    schedule(region, exitAt);
+                }
+            }
+            region = next;
+        }
+    }
+
+    private long nextDeadline() {
+        return mScheduled == 0 ? NO_DEADLINE : (mCurrentTick + 1) * mTickNanos;
+    }
+
+    private void schedule(int region, long deadlineNanos) {
+        long deadlineTick = (deadlineNanos + mTickNanos - 1) / mTickNanos;
+
+        if (deadlineTick <= mCurrentTick) {
+            deadlineTick = mCurrentTick + 1;
+        }
+        int wheelSlot = (int)(deadlineTick & (WHEEL_SIZE - 1));
+        int head = mWheel[wheelSlot];
+
+        mDeadlineTick[region] = deadlineTick;
+        mPrev[region] = NIL;
+        mNext[region] = head;
+        if (head != NIL) {
+            mPrev[head] = region;
+        }
+        mWheel[wheelSlot] = region;
+        mScheduled++;
+    }
+
+    private void unschedule(int region) {
+        int prev = mPrev[region];
+        int next = mNext[region];
+
+        if (prev != NIL) {
+            mNext[prev] = next;
+        } else {
+            mWheel[(int)(mDeadlineTick[region] & (WHEEL_SIZE - 1))] = next;
+        }
+        if (next != NIL) {
+            mPrev[next] = prev;
+        }
+        mScheduled--;
+    }
+
+    private int probe(long uuidHi, long uuidLo, int majorMinor, byte kind) {
+        int slot = (BeaconId.hash(uuidHi, uuidLo, majorMinor) + kind) & mIndexMask;
+
+        while (mIndexUsed[slot]) {
+            if (mIndexUuidHi[slot] == uuidHi && mIndexUuidLo[slot] == uuidLo
+                    && mIndexMajorMinor[slot] == majorMinor && mIndexKind[slot] == kind) {
+                break;
+            }
+            slot = (slot + 1) & mIndexMask;
+        }
+        return slot;
+    }
+
+    /**
+     * Backward shift deletion, as in BeaconStateTable.
+     */
+    private void deleteIndex(int slot) {
+        int hole = slot;
+        int next = slot;
+
+        while (true) {
+            next = (next + 1) & mIndexMask;
+            if (!mIndexUsed[next]) {
+                break;
+            }
+            int home = (BeaconId.hash(mIndexUuidHi[next], mIndexUuidLo[next], mIndexMajorMinor[next])
+                    + mIndexKind[next]) & mIndexMask;
+
+            if (((next - home) & mIndexMask) >= ((next - hole) & mIndexMask)) {
+                mIndexUuidHi[hole] = mIndexUuidHi[next];
+                mIndexUuidLo[hole] = mIndexUuidLo[next];
+                mIndexMajorMinor[hole] = mIndexMajorMinor[next];
+                mIndexKind[hole] = mIndexKind[next];
+                mIndexRegion[hole] = mIndexRegion[next];
+                hole = next;
+            }
+        }
+        mIndexUsed[hole] = false;
+    }
+
+    private void checkRegion(int regionId) {
+        if (regionId < 0 || regionId >= mMaxRegions || !mRegionUsed[regionId]) {
+            throw new IllegalArgumentException("no region " + regionId);
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package com.sonymobile.ibeaconservice.core.Scanning;
+
+import com.sonymobile.ibeaconservice.core.Utils.IBeaconFrames;
+
+/**
+ * Finds iBeacon frames in raw BLE scan records (advertising data followed by scan response,
+ * as ScanRecord.getBytes() returns them) without copying anything: the result is the offset
+ * of the frame inside the record, ready for a {@link com.sonymobile.ibeaconservice.core.Model.BeaconFrameView}.
+ *
+ * A record is a sequence of AD structures, [length][type][length - 1 bytes of data], ended by
+ * the end of the buffer or a zero length. An iBeacon is a manufacturer specific structure
+ * (type 0xFF) of Apple's company id 0x004C, little endian, followed by the 23 byte frame
+ * described in {@link IBeaconFrames}.
+ */
+public final class ScanRecords {
+    public static final int AD_TYPE_FLAGS = 0x01;
+    public static final int AD_TYPE_MANUFACTURER_SPECIFIC = 0xff;
+    public static final int AD_TYPE_SERVICE_DATA_16 = 0x16;
+
+    /** LE general discoverable, BR/EDR not supported */
+    public static final byte FLAGS_LE_GENERAL = 0x06;
+
+    private static final int COMPANY_ID_LENGTH = 2;
+    //type + company id + frame
+    private static final int IBEACON_AD_LENGTH = 1 + COMPANY_ID_LENGTH + IBeaconFrames.FRAME_LENGTH;
+
+    /** flags structure plus the manufacturer structure */
+    public static final int IBEACON_RECORD_LENGTH = 3 + 1 + IBEACON_AD_LENGTH;
+
+    public static final int NOT_FOUND = -1;
+
+    private ScanRecords() {
+    }
+
+    /**
+     * @param record raw scan record
+     * @param offset where the record starts in the buffer
+     * @param length record length, trailing zero padding allowed
+     * @return index of the frame's product id byte in record, {@link #NOT_FOUND} if the record
+     * holds no well formed iBeacon structure
+     */
+    public static int findIBeaconFrame(byte[] record, int offset, int length) {
+        int end = Math.min(record.length, offset + length);
+        int at = offset;
+
+        while (at < end) {
+            int adLength = record[at] & 0xff;
+
+            if (adLength == 0) {
+                break;
+            }
+            int next = at + 1 + adLength;
+
+            if (next > end) {
+                //truncated structure, nothing after it can be trusted
+                break;
+            }
+            if (adLength == IBEACON_AD_LENGTH
+                    && (record[at + 1] & 0xff) == AD_TYPE_MANUFACTURER_SPECIFIC
+                    && (record[at + 2] & 0xff) == (IBeaconFrames.MANUFACTURER_ID & 0xff)
+                    && (record[at + 3] & 0xff) == (IBeaconFrames.MANUFACTURER_ID >>> 8)
+                    && IBeaconFrames.isIBeaconFrame(record, at + 4)) {
+                return at + 4;
+            }
+            at = next;
+        }
+        return NOT_FOUND;
+    }
+
+    /**
+     * Write the advertising data a transmitting iBeacon puts on air, the inverse of
+     * {@link #findIBeaconFrame(byte[], int, int)}. For tests, benchmarks and synthetic traffic.
+     *
+     * @param dst room for {@link #IBEACON_RECORD_LENGTH} bytes from dstOffset
+     * @param frame buffer holding the 23 byte frame at frameOffset
+     * @return bytes written
+     */
+    public static int writeIBeaconRecord(byte[] dst, int dstOffset, byte[] frame, int frameOffset) {
+        int at = dstOffset;
+
+        dst[at++] = 2;
+        dst[at++] = AD_TYPE_FLAGS;
+        dst[at++] = FLAGS_LE_GENERAL;
+        dst[at++] = (byte) IBEACON_AD_LENGTH;
+        dst[at++] = (byte) AD_TYPE_MANUFACTURER_SPECIFIC;
+        dst[at++] = (byte) IBeaconFrames.MANUFACTURER_ID;
+        dst[at++] = (byte) (IBeaconFrames.MANUFACTURER_ID >>> 8);
+        System.arraycopy(frame, frameOffset, dst, at, IBeaconFrames.FRAME_LENGTH);
+        return IBEACON_RECORD_LENGTH;
+    }
+}
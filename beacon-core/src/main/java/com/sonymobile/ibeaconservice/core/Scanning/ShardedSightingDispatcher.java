@@ -0,0 +1,212 @@
+package com.sonymobile.ibeaconservice.core.Scanning;
+
+import com.sonymobile.ibeaconservice.core.Model.BeaconFrameView;
+import com.sonymobile.ibeaconservice.core.Model.BeaconId;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Moves sightings off the scan callback thread onto a pool of worker threads.
+ *
+ * Added as a pipeline stage, it only copies each sighting into a {@link SightingRing}: one
+ * ring and one worker per shard, the shard picked from the beacon's key. A beacon therefore
+ * always lands on the same worker, and the stage each worker runs can keep per beacon state
+ * without locks. The scan thread is the only producer, so each ring is single producer,
+ * single consumer. When a worker falls behind its ring fills and sightings are dropped and
+ * counted rather than blocking the scan thread.
+ *
+ * Idle workers park and are woken by the producer. A worker announces it is parking and then
+ * looks at its ring again; the producer publishes a sighting and then looks at the
+ * announcement. Both are volatile, so at least one of them sees the other and no wake up is
+ * lost.
+ */
+public class ShardedSightingDispatcher implements SightingPipeline.Stage {
+    /**
+     * Creates the stage a worker runs. Called once per shard, before the workers start.
+     */
+    public interface StageFactory {
+        SightingPipeline.Stage createStage(int shard);
+    }
+
+    private static final int DRAIN_LIMIT = 256;
+
+    private final SightingRing[] mRings;
+    private final SightingPipeline.Stage[] mStages;
+    private final Worker[] mWorkers;
+    private final AtomicLong[] mDrops;
+    private final AtomicLong[] mProcessed;
+    private final int mShardMask;
+    private final BeaconFrameView mView = new BeaconFrameView();
+
+    private volatile boolean mRunning;
+
+    /**
+     * @param shards number of workers, a power of two
+     * @param ringCapacity sightings each worker may fall behind by
+     */
+    public ShardedSightingDispatcher(int shards, int ringCapacity, StageFactory factory) {
+        if (shards < 1 || Integer.bitCount(shards) != 1) {
+            throw new IllegalArgumentException("shards " + shards);
+        }
+        mShardMask = shards - 1;
+        mRings = new SightingRing[shards];
+        mStages = new SightingPipeline.Stage[shards];
+        mWorkers = new Worker[shards];
+        mDrops = new AtomicLong[shards];
+        mProcessed = new AtomicLong[shards];
+        for (int i = 0; i < shards; i++) {
+            mRings[i] = new SightingRing(ringCapacity);
+            mStages[i] = factory.createStage(i);
+            mDrops[i] = new AtomicLong();
+            mProcessed[i] = new AtomicLong();
+        }
+    }
+
+    public synchronized void start() {
+        if (mRunning) {
+            return;
+        }
+        mRunning = true;
+        for (int i = 0; i < mWorkers.length; i++) {
+            mWorkers[i] = new Worker(i);
+            mWorkers[i].start();
+        }
+    }
+
+    /**
+     * Stop the workers after they have drained their rings.
+     */
+    public synchronized void stop() throws InterruptedException {
+        if (!mRunning) {
+            return;
+        }
+        mRunning = false;
+        for (Worker worker : mWorkers) {
+            LockSupport.unpark(worker);
+        }
+        for (Worker worker : mWorkers) {
+            worker.join();
+        }
+    }
+
+    public boolean isRunning() {
+        return mRunning;
+    }
+
+    @Override
+    public void onSighting(byte[] record, int frameOffset, int rssi, long timestampNanos) {
+        mView.wrap(record, frameOffset);
+        int shard = shardOf(mView.getProximityUuidMostSignificantBits(),
+                mView.getProximityUuidLeastSignificantBits(), mView.getMajorMinor());
+
+        if (!mRings[shard].offer(record, frameOffset, rssi, timestampNanos)) {
+            mDrops[shard].incrementAndGet();
+            return;
+        }
+        Worker worker = mWorkers[shard];
+
+        if (worker != null && worker.mParked) {
+            LockSupport.unpark(worker);
+        }
+    }
+
+    /**
+     * @return the shard, and so the worker, every sighting of this beacon goes to
+     */
+    public int shardOf(long uuidHi, long uuidLo, int majorMinor) {
+        //the table hashes use the low bits, the shard takes the high ones
+        return (BeaconId.hash(uuidHi, uuidLo, majorMinor) >>> 16) & mShardMask;
+    }
+
+    public int getShardCount() {
+        return mRings.length;
+    }
+
+    /**
+     * Only touch a worker's stage from elsewhere once the dispatcher is stopped, or for
+     * reading statistics that tolerate being stale.
+     */
+    public SightingPipeline.Stage getStage(int shard) {
+        return mStages[shard];
+    }
+
+    /**
+     * @return sightings waiting in all rings
+     */
+    public int getDepth() {
+        int depth = 0;
+
+        for (SightingRing ring : mRings) {
+            depth += ring.size();
+        }
+        return depth;
+    }
+
+    public int getDepth(int shard) {
+        return mRings[shard].size();
+    }
+
+    /**
+     * @return sightings dropped because a worker's ring was full
+     */
+    public long getDrops() {
+        long drops = 0;
+
+        for (AtomicLong shardDrops : mDrops) {
+            drops += shardDrops.get();
+        }
+        return drops;
+    }
+
+    public long getDrops(int shard) {
+        return mDrops[shard].get();
+    }
+
+    public long getProcessed() {
+        long processed = 0;
+
+        for (AtomicLong shardProcessed : mProcessed) {
+            processed += shardProcessed.get();
+        }
+        return processed;
+    }
+
+    private final class Worker extends Thread {
+        private final int mShard;
+        volatile boolean mParked;
+
+        Worker(int shard) {
+            super("sighting-worker-" + shard);
+            mShard = shard;
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            SightingRing ring = mRings[mShard];
+            SightingPipeline.Stage stage = mStages[mShard];
+
+            while (true) {
+                int drained = ring.drain(stage, DRAIN_LIMIT);
+
+                if (drained > 0) {
+                    mProcessed[mShard].addAndGet(drained);
+                    if (ring.isEmpty() && stage instanceof SightingPipeline.BatchStage) {
+                        ((SightingPipeline.BatchStage)stage).onBatchEnd();
+                    }
+                    continue;
+                }
+                if (!mRunning) {
+                    return;
+                }
+                mParked = true;
+                //re-check after announcing, the producer may have offered in between
+                if (ring.isEmpty() && mRunning) {
+                    LockSupport.park(this);
+                }
+                mParked = false;
+            }
+        }
+    }
+}
@@ -0,0 +1,212 @@
+package com.sonymobile.ibeaconservice.core.Scanning;
+
+import com.sonymobile.ibeaconservice.core.Formats.FrameFormat;
+import com.sonymobile.ibeaconservice.core.Formats.FrameFormatRegistry;
+
+import java.util.Arrays;
+
+/**
+ * Entry point of the receive side: raw scan records go in, iBeacon sightings come out to a
+ * chain of stages. The format of each record is detected in place by a
+ * {@link FrameFormatRegistry} and stages are handed the record itself plus the offset of the
+ * frame, so there is no object per sighting. Frames of the other registered formats are
+ * counted and passed to the {@link FrameListener}, if any.
+ *
+ * Records and sightings are counted whether or not any stage is attached. Feed it from one
+ * thread, typically the scan callback's.
+ */
+public class SightingPipeline {
+    /**
+     * One processing step. The record is only valid during the call; read the frame with a
+     * {@link com.sonymobile.ibeaconservice.core.Model.BeaconFrameView} or copy what is needed.
+     */
+    public interface Stage {
+        void onSighting(byte[] record, int frameOffset, int rssi, long timestampNanos);
+    }
+
+    /**
+     * A stage that buffers sightings and works on them a batch at a time. It is told when the
+     * scanner has delivered everything it had, so nothing waits for the next scan callback.
+     */
+    public interface BatchStage extends Stage {
+        void onBatchEnd();
+    }
+
+    /**
+     * Receives frames of registered formats other than iBeacon.
+     */
+    public interface FrameListener {
+        /**
+         * @param record only valid during the call
+         * @param dataOffset index of the frame data, after the company id or service UUID
+         */
+        void onFrame(FrameFormat format, byte[] record, int dataOffset, int dataLength, int rssi,
+                     long timestampNanos);
+    }
+
+    private final FrameFormatRegistry mFormats;
+    private final long[] mFrames = new long[FrameFormatRegistry.MAX_FORMATS];
+    private Stage[] mStages = new Stage[0];
+    private FrameListener mFrameListener;
+
+    private long mRecords;
+    private long mSightings;
+    private long mBatches;
+    private int mLastBatchSize;
+    private int mMaxBatchSize;
+
+    public SightingPipeline() {
+        this(FrameFormatRegistry.createDefault());
+    }
+
+    public SightingPipeline(FrameFormatRegistry formats) {
+        mFormats = formats;
+    }
+
+    public FrameFormatRegistry getFormats() {
+        return mFormats;
+    }
+
+    public void setFrameListener(FrameListener listener) {
+        mFrameListener = listener;
+    }
+
+    /**
+     * Stages run in the order they were added.
+     */
+    public void addStage(Stage stage) {
+        mStages = Arrays.copyOf(mStages, mStages.length + 1);
+        mStages[mStages.length - 1] = stage;
+    }
+
+    public void removeStage(Stage stage) {
+        for (int i = 0; i < mStages.length; i++) {
+            if (mStages[i] == stage) {
+                Stage[] stages = new Stage[mStages.length - 1];
+
+                System.arraycopy(mStages, 0, stages, 0, i);
+                System.arraycopy(mStages, i + 1, stages, i, stages.length - i);
+                mStages = stages;
+                return;
+            }
+        }
+    }
+
+    /**
+     * @param rssi received signal strength in dBm
+     * @param timestampNanos when the record was received, elapsed realtime on the device
+     * @return true if the record held an iBeacon and was passed on
+     */
+    public boolean onScanRecord(byte[] record, int offset, int length, int rssi, long timestampNanos) {
+        mRecords++;
+        int match = mFormats.find(record, offset, length);
+
+        if (match == FrameFormatRegistry.NOT_FOUND) {
+            return false;
+        }
+        int formatId = FrameFormatRegistry.getFormatId(match);
+        //an iBeacon's frame data is the 23 byte frame itself
+        int frameOffset = FrameFormatRegistry.getDataOffset(match);
+
+        mFrames[formatId]++;
+        if (formatId != FrameFormat.IBEACON) {
+            FrameListener listener = mFrameListener;
+
+            if (listener != null) {
+                listener.onFrame(mFormats.get(formatId), record, frameOffset,
+                        FrameFormatRegistry.getDataLength(record, match), rssi, timestampNanos);
+            }
+            return false;
+        }
+        mSightings++;
+        Stage[] stages = mStages;
+
+        for (Stage stage : stages) {
+            stage.onSighting(record, frameOffset, rssi, timestampNanos);
+        }
+        return true;
+    }
+
+    /**
+     * Feed a whole delivery of scan records in one pass and end the batch. Parallel arrays,
+     * reused by the caller from one delivery to the next.
+     *
+     * @param records whole scan records
+     * @return number of records that held an iBeacon
+     */
+    public int onScanRecords(byte[][] records, int[] rssi, long[] timestampNanos, int count) {
+        int sightings = 0;
+
+        for (int i = 0; i < count; i++) {
+            byte[] record = records[i];
+
+            if (record != null && onScanRecord(record, 0, record.length, rssi[i], timestampNanos[i])) {
+                sightings++;
+            }
+        }
+        mBatches++;
+        mLastBatchSize = count;
+        mMaxBatchSize = Math.max(mMaxBatchSize, count);
+        endBatch();
+        return sightings;
+    }
+
+    /**
+     * Call after each scan callback's records have been fed in.
+     */
+    public void endBatch() {
+        Stage[] stages = mStages;
+
+        for (Stage stage : stages) {
+            if (stage instanceof BatchStage) {
+                ((BatchStage)stage).onBatchEnd();
+            }
+        }
+    }
+
+    public long getRecords() {
+        return mRecords;
+    }
+
+    public long getSightings() {
+        return mSightings;
+    }
+
+    /**
+     * @return records that held no iBeacon, other beacon formats and malformed data alike
+     */
+    public long getIgnored() {
+        return mRecords - mSightings;
+    }
+
+    /**
+     * @return frames of the format seen, iBeacon sightings included
+     */
+    public long getFrames(int formatId) {
+        return mFrames[formatId];
+    }
+
+    /**
+     * @return deliveries fed through {@link #onScanRecords}
+     */
+    public long getBatches() {
+        return mBatches;
+    }
+
+    public int getLastBatchSize() {
+        return mLastBatchSize;
+    }
+
+    public int getMaxBatchSize() {
+        return mMaxBatchSize;
+    }
+
+    public void resetStats() {
+        mRecords = 0;
+        mSightings = 0;
+        mBatches = 0;
+        mLastBatchSize = 0;
+        mMaxBatchSize = 0;
+        Arrays.fill(mFrames, 0);
+    }
+}
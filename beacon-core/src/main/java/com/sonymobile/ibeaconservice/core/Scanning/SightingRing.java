@@ -0,0 +1,114 @@
+package com.sonymobile.ibeaconservice.core.Scanning;
+
+import com.sonymobile.ibeaconservice.core.Utils.IBeaconFrames;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded single producer, single consumer queue of sightings. Every slot is preallocated:
+ * the 23 byte frame is copied into a shared slab and RSSI and timestamp go to primitive
+ * arrays, so neither side allocates or holds on to the scan record.
+ *
+ * Lock free: each side owns one sequence and keeps a cached copy of the other side's, only
+ * re-reading it when the cache says full or empty. The consumer publishes its sequence with
+ * an ordered write. The producer uses a volatile write, so a consumer that announces it is
+ * going to sleep and then finds the ring empty cannot miss the producer's wake up.
+ */
+public class SightingRing {
+    private final int mMask;
+    private final byte[] mFrames;
+    private final int[] mRssi;
+    private final long[] mTimestamps;
+
+    //next sequence to read, written by the consumer only
+    private final AtomicLong mHead = new AtomicLong();
+    //next sequence to write, written by the producer only
+    private final AtomicLong mTail = new AtomicLong();
+    private long mCachedHead;
+    private long mCachedTail;
+
+    /**
+     * @param capacity rounded up to a power of two
+     */
+    public SightingRing(int capacity) {
+        if (capacity < 1 || capacity > (1 << 24)) {
+            throw new IllegalArgumentException("capacity " + capacity);
+        }
+        int size = capacity == 1 ? 1 : Integer.highestOneBit(capacity - 1) << 1;
+
+        mMask = size - 1;
+        mFrames = new byte[size * IBeaconFrames.FRAME_LENGTH];
+        mRssi = new int[size];
+        mTimestamps = new long[size];
+    }
+
+    /**
+     * Producer side.
+     *
+     * @param frameOffset index of the frame's product id byte
+     * @return false if the ring is full
+     */
+    public boolean offer(byte[] frame, int frameOffset, int rssi, long timestampNanos) {
+        long tail = mTail.get();
+
+        if (tail - mCachedHead > mMask) {
+            mCachedHead = mHead.get();
+            if (tail - mCachedHead > mMask) {
+                return false;
+            }
+        }
+        int slot = (int)tail & mMask;
+
+        System.arraycopy(frame, frameOffset, mFrames, slot * IBeaconFrames.FRAME_LENGTH, IBeaconFrames.FRAME_LENGTH);
+        mRssi[slot] = rssi;
+        mTimestamps[slot] = timestampNanos;
+        //full fence: orders this before the producer reads whether the consumer sleeps
+        mTail.set(tail + 1);
+        return true;
+    }
+
+    /**
+     * Consumer side: hand up to limit sightings to the stage, oldest first. The frame passed
+     * on lives in the ring and is only valid during the call.
+     *
+     * @return number of sightings handed over
+     */
+    public int drain(SightingPipeline.Stage stage, int limit) {
+        long head = mHead.get();
+        long available = mCachedTail - head;
+
+        if (available <= 0) {
+            mCachedTail = mTail.get();
+            available = mCachedTail - head;
+            if (available <= 0) {
+                return 0;
+            }
+        }
+        int count = (int)Math.min(available, limit);
+
+        for (int i = 0; i < count; i++) {
+            int slot = (int)(head + i) & mMask;
+
+            stage.onSighting(mFrames, slot * IBeaconFrames.FRAME_LENGTH, mRssi[slot], mTimestamps[slot]);
+        }
+        mHead.lazySet(head + count);
+        return count;
+    }
+
+    /**
+     * @return sightings waiting, approximate while both sides run
+     */
+    public int size() {
+        long head = mHead.get();
+
+        return (int)Math.max(0, mTail.get() - head);
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    public int capacity() {
+        return mMask + 1;
+    }
+}
@@ -0,0 +1,378 @@
+package com.sonymobile.ibeaconservice.core.Scanning;
+
+import com.sonymobile.ibeaconservice.core.Model.BeaconFrameView;
+import com.sonymobile.ibeaconservice.core.Model.BeaconId;
+import com.sonymobile.ibeaconservice.core.Utils.IBeaconFrames;
+
+/**
+ * Seedable source of synthetic scan traffic for load tests and benchmarks: a fleet of
+ * simulated beacons, each advertising once per interval, heard as raw scan records in the
+ * layout {@link ScanRecords#writeIBeaconRecord} writes around the default frame. The same
+ * seed and the same calls always give the same records, RSSI values and timestamps.
+ *
+ * Beacon i keeps the default frame's UUID and gets major i / minorsPerMajor + 1 and minor
+ * i % minorsPerMajor. Its distance to the scanner is a random walk between a minimum and a
+ * maximum, and its RSSI is the log-distance path loss at that distance plus gaussian noise.
+ * Packets are lost independently, in bursts following a two state (Gilbert-Elliott) model,
+ * or both; lost packets still take their time slot.
+ *
+ * Every beacon's record is built once, so producing a record is a copy plus a few random
+ * numbers. Not thread safe, give each producing thread its own generator.
+ */
+public class TrafficGenerator {
+    public static final long DEFAULT_ADVERTISING_INTERVAL_NANOS = 100_000_000L;
+    public static final int DEFAULT_MINORS_PER_MAJOR = 100;
+    public static final int MAX_FLEET_SIZE = 1 << 20;
+    public static final int MIN_RSSI = -127;
+    public static final int MAX_RSSI = 20;
+
+    private static final int GAUSSIAN_TABLE_SIZE = 4096;
+    //chance per advertisement that a beacon changes speed and direction
+    private static final double TURN_PROBABILITY = 0.01;
+
+    private final int mFleetSize;
+    private final byte[] mRecords;
+    private final int[] mMajorMinor;
+    private final double[] mDistance;
+    private final double[] mSpeed;
+    private final long[] mLastMoved;
+    private final int[] mOrder;
+    private final double[] mGaussian = new double[GAUSSIAN_TABLE_SIZE];
+    private long mState;
+
+    private long mIntervalNanos = DEFAULT_ADVERTISING_INTERVAL_NANOS;
+    private int mTxPower;
+    private double mPathLossExponent = 2.0;
+    private double mNoiseDb = 4.0;
+    private double mMinDistance = 0.5;
+    private double mMaxDistance = 20.0;
+    private double mMaxSpeed = 1.4;
+    private double mLoss;
+    private double mEnterBurst;
+    private double mExitBurst = 1.0;
+    private double mBurstLoss;
+    private boolean mInBurst;
+
+    private long mRoundStart;
+    private int mPosition;
+    private int mLastBeacon;
+    private int mLastRssi;
+    private long mLastTimestamp;
+    private long mGenerated;
+    private long mLost;
+
+    public TrafficGenerator(long seed, int fleetSize) {
+        this(seed, fleetSize, DEFAULT_MINORS_PER_MAJOR);
+    }
+
+    /**
+     * @param minorsPerMajor beacons that share a major
+     */
+    public TrafficGenerator(long seed, int fleetSize, int minorsPerMajor) {
+        if (fleetSize < 1 || fleetSize > MAX_FLEET_SIZE) {
+            throw new IllegalArgumentException("fleetSize " + fleetSize);
+        }
+        if (minorsPerMajor < 1 || minorsPerMajor > 0x10000 || (fleetSize - 1) / minorsPerMajor + 1 > 0xffff) {
+            throw new IllegalArgumentException("minorsPerMajor " + minorsPerMajor);
+        }
+        byte[] frame = IBeaconFrames.createDefaultFrame();
+        BeaconFrameView view = new BeaconFrameView(frame, 0);
+
+        mFleetSize = fleetSize;
+        mState = seed;
+        mRecords = new byte[fleetSize * ScanRecords.IBEACON_RECORD_LENGTH];
+        mMajorMinor = new int[fleetSize];
+        mDistance = new double[fleetSize];
+        mSpeed = new double[fleetSize];
+        mLastMoved = new long[fleetSize];
+        mOrder = new int[fleetSize];
+        mTxPower = view.getTxPower();
+        for (int i = 0; i < fleetSize; i++) {
+            view.setMajor(i / minorsPerMajor + 1).setMinor(i % minorsPerMajor);
+            ScanRecords.writeIBeaconRecord(mRecords, i * ScanRecords.IBEACON_RECORD_LENGTH, frame, 0);
+            mMajorMinor[i] = view.getMajorMinor();
+            mOrder[i] = i;
+        }
+        for (int i = 0; i < GAUSSIAN_TABLE_SIZE; i += 2) {
+            //Box-Muller, two normal values per pair of uniforms
+            double radius = Math.sqrt(-2 * Math.log(1 - nextDouble()));
+            double angle = 2 * Math.PI * nextDouble();
+
+            mGaussian[i] = radius * Math.cos(angle);
+            mGaussian[i + 1] = radius * Math.sin(angle);
+        }
+        placeBeacons();
+        shuffle();
+    }
+
+    /**
+     * Spread the fleet between min and max distance, moving at up to maxSpeed.
+     */
+    public void setMovement(double minMeters, double maxMeters, double maxMetersPerSecond) {
+        if (minMeters <= 0 || maxMeters < minMeters || maxMetersPerSecond < 0) {
+            throw new IllegalArgumentException("distance " + minMeters + ".." + maxMeters
+                    + ", speed " + maxMetersPerSecond);
+        }
+        mMinDistance = minMeters;
+        mMaxDistance = maxMeters;
+        mMaxSpeed = maxMetersPerSecond;
+        placeBeacons();
+    }
+
+    /**
+     * @param txPower RSSI at one meter, also written to the frames
+     * @param pathLossExponent 2 in free space, 2.5 to 4 indoors
+     * @param noiseDb standard deviation of the noise added to each RSSI
+     */
+    public void setRssiModel(int txPower, double pathLossExponent, double noiseDb) {
+        if (txPower < -127 || txPower > 20 || pathLossExponent <= 0 || noiseDb < 0) {
+            throw new IllegalArgumentException("txPower " + txPower + ", n " + pathLossExponent
+                    + ", noise " + noiseDb);
+        }
+        BeaconFrameView view = new BeaconFrameView();
+
+        for (int i = 0; i < mFleetSize; i++) {
+            view.wrap(mRecords, i * ScanRecords.IBEACON_RECORD_LENGTH
+                    + ScanRecords.IBEACON_RECORD_LENGTH - IBeaconFrames.FRAME_LENGTH).setTxPower(txPower);
+        }
+        mTxPower = txPower;
+        mPathLossExponent = pathLossExponent;
+        mNoiseDb = noiseDb;
+    }
+
+    /**
+     * @param probability that any one packet is lost, below 1 since generating keeps drawing
+     * packets until one gets through
+     */
+    public void setPacketLoss(double probability) {
+        checkProbability(probability);
+        if (probability == 1) {
+            throw new IllegalArgumentException("probability " + probability);
+        }
+        mLoss = probability;
+    }
+
+    /**
+     * Loss bursts: every packet may start a burst with enterProbability and, once in one, ends
+     * it with exitProbability, so bursts last 1 / exitProbability packets on average. Packets
+     * inside a burst are lost with lossProbability.
+     */
+    public void setBurstLoss(double enterProbability, double exitProbability, double lossProbability) {
+        checkProbability(enterProbability);
+        checkProbability(lossProbability);
+        if (exitProbability <= 0 || exitProbability > 1) {
+            throw new IllegalArgumentException("exitProbability " + exitProbability);
+        }
+        mEnterBurst = enterProbability;
+        mExitBurst = exitProbability;
+        mBurstLoss = lossProbability;
+    }
+
+    /**
+     * @param intervalNanos time between two advertisements of a beacon
+     */
+    public void setAdvertisingInterval(long intervalNanos) {
+        if (intervalNanos < 1) {
+            throw new IllegalArgumentException("interval " + intervalNanos);
+        }
+        mIntervalNanos = intervalNanos;
+    }
+
+    /**
+     * @param timestampNanos time of the next round of advertisements
+     */
+    public void setStartTime(long timestampNanos) {
+        mRoundStart = timestampNanos;
+        for (int i = 0; i < mFleetSize; i++) {
+            mLastMoved[i] = timestampNanos;
+        }
+    }
+
+    /**
+     * Write the next record that is heard, skipping lost packets.
+     *
+     * @param dst room for {@link ScanRecords#IBEACON_RECORD_LENGTH} bytes from offset
+     * @return the beacon heard; its RSSI and timestamp are {@link #getLastRssi()} and
+     * {@link #getLastTimestampNanos()}
+     */
+    public int next(byte[] dst, int offset) {
+        while (true) {
+            int beacon = mOrder[mPosition];
+            long timestamp = mRoundStart + mIntervalNanos * mPosition / mFleetSize;
+
+            if (++mPosition == mFleetSize) {
+                mPosition = 0;
+                mRoundStart += mIntervalNanos;
+                shuffle();
+            }
+            if (isLost()) {
+                mLost++;
+                continue;
+            }
+            System.arraycopy(mRecords, beacon * ScanRecords.IBEACON_RECORD_LENGTH, dst, offset,
+                    ScanRecords.IBEACON_RECORD_LENGTH);
+            mLastBeacon = beacon;
+            mLastRssi = rssiOf(beacon, timestamp);
+            mLastTimestamp = timestamp;
+            mGenerated++;
+            return beacon;
+        }
+    }
+
+    /**
+     * Fill a delivery in the shape {@link SightingPipeline#onScanRecords} takes.
+     *
+     * @param records each at least {@link ScanRecords#IBEACON_RECORD_LENGTH} long
+     */
+    public void fill(byte[][] records, int[] rssi, long[] timestampNanos, int count) {
+        for (int i = 0; i < count; i++) {
+            next(records[i], 0);
+            rssi[i] = mLastRssi;
+            timestampNanos[i] = mLastTimestamp;
+        }
+    }
+
+    /**
+     * Push records through a pipeline in deliveries of batchSize, as a batching scanner would.
+     *
+     * @return sightings the pipeline reported
+     */
+    public long drive(SightingPipeline pipeline, long records, int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("batchSize " + batchSize);
+        }
+        byte[][] batch = new byte[batchSize][ScanRecords.IBEACON_RECORD_LENGTH];
+        int[] rssi = new int[batchSize];
+        long[] timestamps = new long[batchSize];
+        long sightings = 0;
+
+        for (long done = 0; done < records; done += batchSize) {
+            int count = (int)Math.min(batchSize, records - done);
+
+            fill(batch, rssi, timestamps, count);
+            sightings += pipeline.onScanRecords(batch, rssi, timestamps, count);
+        }
+        return sightings;
+    }
+
+    private boolean isLost() {
+        if (mInBurst) {
+            if (nextDouble() < mExitBurst) {
+                mInBurst = false;
+            }
+        } else if (mEnterBurst > 0 && nextDouble() < mEnterBurst) {
+            mInBurst = true;
+        }
+        if (mInBurst && mBurstLoss > 0 && nextDouble() < mBurstLoss) {
+            return true;
+        }
+        return mLoss > 0 && nextDouble() < mLoss;
+    }
+
+    private int rssiOf(int beacon, long timestamp) {
+        double distance = mDistance[beacon] + mSpeed[beacon] * ((timestamp - mLastMoved[beacon]) / 1e9);
+
+        //bounce off the ends of the range
+        if (distance < mMinDistance || distance > mMaxDistance) {
+            distance = Math.max(mMinDistance, Math.min(mMaxDistance, distance));
+            mSpeed[beacon] = -mSpeed[beacon];
+        }
+        if (nextDouble() < TURN_PROBABILITY) {
+            mSpeed[beacon] = (2 * nextDouble() - 1) * mMaxSpeed;
+        }
+        mDistance[beacon] = distance;
+        mLastMoved[beacon] = timestamp;
+        double rssi = mTxPower - 10 * mPathLossExponent * Math.log10(distance)
+                + mNoiseDb * mGaussian[(int)(nextLong() >>> 52)];
+
+        return (int)Math.max(MIN_RSSI, Math.min(MAX_RSSI, Math.round(rssi)));
+    }
+
+    private void placeBeacons() {
+        for (int i = 0; i < mFleetSize; i++) {
+            mDistance[i] = mMinDistance + nextDouble() * (mMaxDistance - mMinDistance);
+            mSpeed[i] = (2 * nextDouble() - 1) * mMaxSpeed;
+        }
+    }
+
+    private void shuffle() {
+        //Fisher-Yates, the order beacons are heard in changes every round
+        for (int i = mFleetSize - 1; i > 0; i--) {
+            int j = nextInt(i + 1);
+            int swap = mOrder[i];
+
+            mOrder[i] = mOrder[j];
+            mOrder[j] = swap;
+        }
+    }
+
+    private static void checkProbability(double probability) {
+        if (!(probability >= 0 && probability <= 1)) {
+            throw new IllegalArgumentException("probability " + probability);
+        }
+    }
+
+    //SplitMix64, fast and fully determined by the seed
+    private long nextLong() {
+        long z = (mState += 0x9e3779b97f4a7c15L);
+
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+
+    private double nextDouble() {
+        return (nextLong() >>> 11) * 0x1.0p-53;
+    }
+
+    private int nextInt(int bound) {
+        return (int)(((nextLong() >>> 33) * bound) >>> 31);
+    }
+
+    public int getFleetSize() {
+        return mFleetSize;
+    }
+
+    public BeaconId getBeaconId(int beacon) {
+        int offset = (beacon + 1) * ScanRecords.IBEACON_RECORD_LENGTH - IBeaconFrames.FRAME_LENGTH;
+
+        return BeaconId.fromFrame(mRecords, offset);
+    }
+
+    public int getMajorMinor(int beacon) {
+        return mMajorMinor[beacon];
+    }
+
+    /**
+     * @return the beacon's true distance when it was last heard, for checking estimates
+     */
+    public double getDistance(int beacon) {
+        return mDistance[beacon];
+    }
+
+    public int getLastBeacon() {
+        return mLastBeacon;
+    }
+
+    public int getLastRssi() {
+        return mLastRssi;
+    }
+
+    public long getLastTimestampNanos() {
+        return mLastTimestamp;
+    }
+
+    /**
+     * @return records produced
+     */
+    public long getGenerated() {
+        return mGenerated;
+    }
+
+    /**
+     * @return packets lost before they became records
+     */
+    public long getLost() {
+        return mLost;
+    }
+}
@@ -0,0 +1,535 @@
+package com.sonymobile.ibeaconservice.core.Storage;
+
+import com.sonymobile.ibeaconservice.core.Utils.IBeaconFrames;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Named beacon profiles in a memory-mapped file of fixed-size records. A profile's id is its
+ * record index, so reading one is an offset computation with no parsing and no index to load.
+ * Opening reads the two headers and nothing else; a record's checksum is checked when the
+ * record is read. Bulk imports add nameless profiles ({@link #appendAll}), which are reached
+ * by id only.
+ *
+ * Names live in the records. A small index file next to the store lists the ids of the named
+ * profiles, so the name lookup built on first use reads those records only, however many
+ * nameless ones there are.
+ *
+ * header, 64 bytes
+ *   int magic 'IBPS', int version, int record size, int record count, int active profile id
+ * records, 64 bytes each
+ *   byte flags, byte name length, 2 bytes reserved, int CRC32 of the rest of the record,
+ *   23 byte frame, 1 byte reserved, 32 bytes UTF-8 name
+ *
+ * name index, {@link #NAMES_SUFFIX}, header 16 bytes
+ *   int magic 'IBPN', int version, int records covered, int entry count
+ * entries, int id of a named profile each, in id order
+ *
+ * Appends are crash safe: the record is written past the committed count first and only
+ * then the count in the header is bumped, a single int write. A crash in between leaves
+ * the record invisible and the next append overwrites it. The name index is brought up to
+ * date after that commit and records how many records it covers; on open, records past that
+ * are scanned for names, which after a crash is the few written since. A missing or foreign
+ * index is rebuilt from all records, once. Updates and deletes rewrite a record in place; a
+ * crash in the middle of one is caught by the CRC and the profile reads as damaged instead
+ * of as a torn frame.
+ *
+ * Writes survive a process crash as soon as they hit the mapping. With durable writes (the
+ * default) every change is also forced to disk, so they survive power loss too; bulk
+ * importers can turn that off and {@link #sync()} once at the end.
+ */
+public class ProfileStore implements Closeable {
+    public static final int NO_PROFILE = -1;
+    public static final int MAX_NAME_BYTES = 32;
+    public static final String NAMES_SUFFIX = ".names";
+
+    static final int MAGIC = 0x49425053;
+    static final int VERSION = 1;
+
+    static final int HEADER_LENGTH = 64;
+    static final int RECORD_LENGTH = 64;
+
+    static final int MAGIC_INDEX = 0;
+    static final int VERSION_INDEX = 4;
+    static final int RECORD_LENGTH_INDEX = 8;
+    static final int RECORD_COUNT_INDEX = 12;
+    static final int ACTIVE_ID_INDEX = 16;
+
+    static final int FLAGS_INDEX = 0;
+    static final int NAME_LENGTH_INDEX = 1;
+    static final int CRC_INDEX = 4;
+    static final int FRAME_INDEX = 8;
+    static final int NAME_INDEX = 32;
+
+    static final byte FLAG_DELETED = 0x01;
+
+    static final int NAMES_MAGIC = 0x4942504e;
+    static final int NAMES_VERSION = 1;
+    static final int NAMES_HEADER_LENGTH = 16;
+    static final int NAMES_COVERED_INDEX = 8;
+    static final int NAMES_COUNT_INDEX = 12;
+
+    private static final int INITIAL_RECORDS = 64;
+    private static final int INITIAL_NAMES = 64;
+
+    private final RandomAccessFile mFile;
+    private final FileChannel mChannel;
+    private MappedByteBuffer mMap;
+    private int mCount;
+    private boolean mDurable = true;
+
+    private final RandomAccessFile mNamesFile;
+    private final FileChannel mNamesChannel;
+    private MappedByteBuffer mNames;
+    private int mNameCount;
+    //built from the name index on first use
+    private Map<String, Integer> mIdsByName;
+    private final BitSet mDamaged = new BitSet();
+    private final byte[] mRecord = new byte[RECORD_LENGTH];
+    private final CRC32 mCrc = new CRC32();
+
+    /**
+     * Open the store, creating the file if it does not exist.
+     *
+     * @throws IOException if the file cannot be mapped or is not a profile store
+     */
+    public static ProfileStore open(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        RandomAccessFile names = null;
+
+        try {
+            names = new RandomAccessFile(new File(file.getPath() + NAMES_SUFFIX), "rw");
+            return new ProfileStore(raf, names);
+        } catch (IOException | RuntimeException e) {
+            raf.close();
+            if (names != null) {
+                names.close();
+            }
+            throw e;
+        }
+    }
+
+    private ProfileStore(RandomAccessFile file, RandomAccessFile namesFile) throws IOException {
+        mFile = file;
+        mChannel = file.getChannel();
+        mNamesFile = namesFile;
+        mNamesChannel = namesFile.getChannel();
+
+        long size = mChannel.size();
+
+        if (size == 0) {
+            map(HEADER_LENGTH + INITIAL_RECORDS * RECORD_LENGTH);
+            mMap.putInt(MAGIC_INDEX, MAGIC);
+            mMap.putInt(VERSION_INDEX, VERSION);
+            mMap.putInt(RECORD_LENGTH_INDEX, RECORD_LENGTH);
+            mMap.putInt(RECORD_COUNT_INDEX, 0);
+            mMap.putInt(ACTIVE_ID_INDEX, NO_PROFILE);
+            mMap.force();
+        } else {
+            if (size < HEADER_LENGTH || size > Integer.MAX_VALUE) {
+                throw new IOException("Not a profile store, size " + size);
+            }
+            map((int) size);
+            if (mMap.getInt(MAGIC_INDEX) != MAGIC
+                    || mMap.getInt(VERSION_INDEX) != VERSION
+                    || mMap.getInt(RECORD_LENGTH_INDEX) != RECORD_LENGTH) {
+                throw new IOException("Not a profile store or unsupported version");
+            }
+            //a count past the end can only come from a truncated copy, keep what is there
+            mCount = Math.max(0, Math.min(mMap.getInt(RECORD_COUNT_INDEX),
+                    (int) ((size - HEADER_LENGTH) / RECORD_LENGTH)));
+        }
+        openNames();
+    }
+
+    private void map(int size) throws IOException {
+        mMap = mChannel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        mMap.order(ByteOrder.BIG_ENDIAN);
+    }
+
+    private void mapNames(int size) throws IOException {
+        mNames = mNamesChannel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        mNames.order(ByteOrder.BIG_ENDIAN);
+    }
+
+    /**
+     * Map the name index and bring it up to the committed records, rebuilding it if it is
+     * missing, foreign or belongs to a longer store.
+     */
+    private void openNames() throws IOException {
+        long size = mNamesChannel.size();
+        int covered = 0;
+
+        if (size >= NAMES_HEADER_LENGTH && size <= Integer.MAX_VALUE) {
+            mapNames((int) size);
+            covered = mNames.getInt(NAMES_COVERED_INDEX);
+            mNameCount = mNames.getInt(NAMES_COUNT_INDEX);
+            if (mNames.getInt(MAGIC_INDEX) != NAMES_MAGIC || mNames.getInt(VERSION_INDEX) != NAMES_VERSION
+                    || covered < 0 || covered > mCount || mNameCount < 0
+                    || mNameCount > (size - NAMES_HEADER_LENGTH) / 4) {
+                covered = 0;
+                mNameCount = 0;
+            }
+        } else {
+            mapNames(NAMES_HEADER_LENGTH + INITIAL_NAMES * 4);
+        }
+        if (covered == 0) {
+            mNames.putInt(MAGIC_INDEX, NAMES_MAGIC);
+            mNames.putInt(VERSION_INDEX, NAMES_VERSION);
+            mNames.putInt(NAMES_COUNT_INDEX, 0);
+            mNameCount = 0;
+        }
+        //a crash after a commit to the store but before the index caught up, and entries
+        //of the crash already in the index are not added twice
+        int last = mNameCount == 0 ? -1 : nameEntry(mNameCount - 1);
+
+        for (int id = Math.max(covered, last + 1); id < mCount; id++) {
+            if (mMap.get(recordOffset(id) + NAME_LENGTH_INDEX) != 0) {
+                addNameEntry(id);
+            }
+        }
+        commitNames();
+    }
+
+    private int nameEntry(int index) {
+        return mNames.getInt(NAMES_HEADER_LENGTH + index * 4);
+    }
+
+    private void addNameEntry(int id) throws IOException {
+        int needed = NAMES_HEADER_LENGTH + (mNameCount + 1) * 4;
+
+        if (needed > mNames.capacity()) {
+            mapNames(Math.max(needed, NAMES_HEADER_LENGTH + 2 * (mNames.capacity() - NAMES_HEADER_LENGTH)));
+        }
+        mNames.putInt(NAMES_HEADER_LENGTH + mNameCount * 4, id);
+        mNameCount++;
+        mNames.putInt(NAMES_COUNT_INDEX, mNameCount);
+    }
+
+    /**
+     * Mark the index as covering every committed record.
+     */
+    private void commitNames() {
+        commitNames(mDurable);
+    }
+
+    private void commitNames(boolean durable) {
+        mNames.putInt(NAMES_COVERED_INDEX, mCount);
+        if (durable) {
+            mNames.force();
+        }
+    }
+
+    /**
+     * @return name to id of every live named profile, read from the records on first use
+     */
+    private Map<String, Integer> idsByName() {
+        if (mIdsByName == null) {
+            mIdsByName = new HashMap<>();
+            for (int i = 0; i < mNameCount; i++) {
+                int id = nameEntry(i);
+
+                if (isLive(id)) {
+                    mIdsByName.put(nameOf(mRecord), id);
+                }
+            }
+        }
+        return mIdsByName;
+    }
+
+    /**
+     * @param durable force every change to disk before returning
+     */
+    public synchronized void setDurable(boolean durable) {
+        mDurable = durable;
+    }
+
+    public synchronized void sync() {
+        mMap.force();
+        mNames.force();
+    }
+
+    /**
+     * @return number of profile ids handed out, deleted and damaged ones included
+     */
+    public synchronized int size() {
+        return mCount;
+    }
+
+    /**
+     * @return profiles whose record failed its checksum when read since the store was opened
+     */
+    public synchronized int getDamagedCount() {
+        return mDamaged.cardinality();
+    }
+
+    /**
+     * Add a profile.
+     *
+     * @param frame buffer holding a 23 byte frame at offset
+     * @return the new profile's id
+     * @throws IllegalArgumentException if the name is empty, taken or too long
+     */
+    public synchronized int append(String name, byte[] frame, int offset) throws IOException {
+        if (name.isEmpty()) {
+            throw new IllegalArgumentException("Profile name is empty");
+        }
+        if (idsByName().containsKey(name)) {
+            throw new IllegalArgumentException("Profile " + name + " already exists");
+        }
+        int id = mCount;
+
+        ensureCapacity(id + 1);
+        fillRecord(name, frame, offset);
+        writeRecord(id);
+        if (mDurable) {
+            mMap.force();
+        }
+        //commit point
+        mCount = id + 1;
+        mMap.putInt(RECORD_COUNT_INDEX, mCount);
+        if (mDurable) {
+            mMap.force();
+        }
+        addNameEntry(id);
+        commitNames();
+        mIdsByName.put(name, id);
+        return id;
+    }
+
+    /**
+     * Add nameless profiles, committed together: after a crash either all of them are there
+     * or none.
+     *
+     * @param frames count 23 byte frames back to back
+     * @return id of the first, the others follow it
+     */
+    public synchronized int appendAll(byte[] frames, int count) throws IOException {
+        return appendAll(frames, count, mDurable);
+    }
+
+    /**
+     * Like {@link #appendAll(byte[], int)}, for imports that add many batches and
+     * {@link #sync} once at the end. Other writes keep the store's durability.
+     *
+     * @param durable force the batch to disk before returning
+     */
+    public synchronized int appendAll(byte[] frames, int count, boolean durable) throws IOException {
+        int first = mCount;
+
+        ensureCapacity(first + count);
+        for (int i = 0; i < count; i++) {
+            fillRecord("", frames, i * IBeaconFrames.FRAME_LENGTH);
+            writeRecord(first + i);
+        }
+        if (durable) {
+            mMap.force();
+        }
+        //commit point
+        mCount = first + count;
+        mMap.putInt(RECORD_COUNT_INDEX, mCount);
+        if (durable) {
+            mMap.force();
+        }
+        commitNames(durable);
+        return first;
+    }
+
+    /**
+     * Replace the frame of an existing profile, keeping its id and name.
+     *
+     * @throws IllegalArgumentException if there is no such profile
+     */
+    public synchronized void update(int id, byte[] frame, int offset) {
+        String name = getName(id);
+
+        if (name == null) {
+            throw new IllegalArgumentException("No profile " + id);
+        }
+        fillRecord(name, frame, offset);
+        writeRecord(id);
+        if (mDurable) {
+            mMap.force();
+        }
+    }
+
+    public synchronized void delete(int id) {
+        String name = getName(id);
+
+        if (name == null) {
+            return;
+        }
+        readRecord(id);
+        mRecord[FLAGS_INDEX] |= FLAG_DELETED;
+        writeRecord(id);
+        if (!name.isEmpty()) {
+            idsByName().remove(name);
+        }
+        if (getActiveId() == id) {
+            setActiveId(NO_PROFILE);
+        }
+        if (mDurable) {
+            mMap.force();
+        }
+    }
+
+    /**
+     * Copy a profile's frame out after checking its record. Constant time, no allocation.
+     *
+     * @return false if the id is unknown, deleted or damaged; dst is left alone then
+     */
+    public synchronized boolean get(int id, byte[] dst, int dstOffset) {
+        if (!isLive(id)) {
+            return false;
+        }
+        System.arraycopy(mRecord, FRAME_INDEX, dst, dstOffset, IBeaconFrames.FRAME_LENGTH);
+        return true;
+    }
+
+    /**
+     * @return the profile's name, empty for imported ones, null if the id is unknown, deleted
+     * or damaged
+     */
+    public synchronized String getName(int id) {
+        if (!isLive(id)) {
+            return null;
+        }
+        return nameOf(mRecord);
+    }
+
+    /**
+     * @return id of the profile with that name, {@link #NO_PROFILE} if there is none
+     */
+    public synchronized int findByName(String name) {
+        Integer id = idsByName().get(name);
+
+        return id == null ? NO_PROFILE : id;
+    }
+
+    /**
+     * @return the profile the app advertises by default, {@link #NO_PROFILE} if none is set
+     */
+    public synchronized int getActiveId() {
+        int id = mMap.getInt(ACTIVE_ID_INDEX);
+
+        return isLive(id) ? id : NO_PROFILE;
+    }
+
+    public synchronized void setActiveId(int id) {
+        if (id != NO_PROFILE && !isLive(id)) {
+            throw new IllegalArgumentException("No profile " + id);
+        }
+        mMap.putInt(ACTIVE_ID_INDEX, id);
+        if (mDurable) {
+            mMap.force();
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        mMap.force();
+        mNames.force();
+        mChannel.close();
+        mFile.close();
+        mNamesChannel.close();
+        mNamesFile.close();
+    }
+
+    /**
+     * Read the record into mRecord and check it.
+     *
+     * @return false if the id is unknown, deleted or damaged
+     */
+    private boolean isLive(int id) {
+        if (id < 0 || id >= mCount) {
+            return false;
+        }
+        readRecord(id);
+        if (!checksumMatches()) {
+            mDamaged.set(id);
+            return false;
+        }
+        return (mRecord[FLAGS_INDEX] & FLAG_DELETED) == 0;
+    }
+
+    private static int recordOffset(int id) {
+        return HEADER_LENGTH + id * RECORD_LENGTH;
+    }
+
+    private void ensureCapacity(int records) throws IOException {
+        int needed = recordOffset(records);
+
+        if (needed > mMap.capacity()) {
+            //mapping past the end grows the file
+            map(Math.max(needed, HEADER_LENGTH + 2 * (mMap.capacity() - HEADER_LENGTH)));
+        }
+    }
+
+    private void fillRecord(String name, byte[] frame, int offset) {
+        byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+
+        if (nameBytes.length > MAX_NAME_BYTES) {
+            throw new IllegalArgumentException("Profile name longer than " + MAX_NAME_BYTES + " bytes: " + name);
+        }
+        Arrays.fill(mRecord, (byte) 0);
+        mRecord[NAME_LENGTH_INDEX] = (byte) nameBytes.length;
+        System.arraycopy(frame, offset, mRecord, FRAME_INDEX, IBeaconFrames.FRAME_LENGTH);
+        System.arraycopy(nameBytes, 0, mRecord, NAME_INDEX, nameBytes.length);
+    }
+
+    private void readRecord(int id) {
+        int at = recordOffset(id);
+
+        for (int i = 0; i < RECORD_LENGTH; i++) {
+            mRecord[i] = mMap.get(at + i);
+        }
+    }
+
+    /**
+     * Write mRecord with a fresh checksum; the checksum goes last so a torn write never
+     * matches it.
+     */
+    private void writeRecord(int id) {
+        int at = recordOffset(id);
+        int crc = checksum();
+
+        for (int i = 0; i < RECORD_LENGTH; i++) {
+            if (i < CRC_INDEX || i >= FRAME_INDEX) {
+                mMap.put(at + i, mRecord[i]);
+            }
+        }
+        mMap.putInt(at + CRC_INDEX, crc);
+    }
+
+    private int checksum() {
+        mCrc.reset();
+        mCrc.update(mRecord, 0, CRC_INDEX);
+        mCrc.update(mRecord, FRAME_INDEX, RECORD_LENGTH - FRAME_INDEX);
+        return (int) mCrc.getValue();
+    }
+
+    private boolean checksumMatches() {
+        int stored = ((mRecord[CRC_INDEX] & 0xff) << 24) | ((mRecord[CRC_INDEX + 1] & 0xff) << 16)
+                | ((mRecord[CRC_INDEX + 2] & 0xff) << 8) | (mRecord[CRC_INDEX + 3] & 0xff);
+
+        return stored == checksum();
+    }
+
+    private static String nameOf(byte[] record) {
+        int length = Math.min(record[NAME_LENGTH_INDEX] & 0xff, MAX_NAME_BYTES);
+
+        return new String(record, NAME_INDEX, length, StandardCharsets.UTF_8);
+    }
+}
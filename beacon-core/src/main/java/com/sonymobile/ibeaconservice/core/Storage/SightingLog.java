@@ -0,0 +1,482 @@
+package com.sonymobile.ibeaconservice.core.Storage;
+
+import com.sonymobile.ibeaconservice.core.Model.BeaconFrameView;
+import com.sonymobile.ibeaconservice.core.Model.BeaconId;
+import com.sonymobile.ibeaconservice.core.Scanning.SightingPipeline;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Append only log of every sighting, kept in a directory of memory-mapped segment files of
+ * fixed-width records. When a segment is full the log rolls over to a new one; the oldest
+ * segments are deleted past a segment count, or explicitly by time.
+ *
+ * segment header, 64 bytes
+ *   int magic 'IBSL', int version, int record size, int record capacity, int record count,
+ *   int records per index block, long min timestamp, long max timestamp
+ * time index, 16 bytes per block of records
+ *   long min timestamp, long max timestamp
+ * records, 32 bytes each, little endian like the CPUs that read them
+ *   long UUID bits 0-63, long UUID bits 64-127, long timestamp, int major/minor,
+ *   byte RSSI, byte TX power, 2 bytes reserved
+ *
+ * The time index is sparse, one min/max pair per block, so a time range query skips whole
+ * segments on their header and whole blocks on their index entry and only reads the records
+ * of blocks that overlap. Timestamps need not be strictly ordered for this to be correct,
+ * only roughly ordered for it to be fast.
+ *
+ * Timestamps are wall clock nanoseconds since the epoch, so they stay comparable across
+ * reboots; a monotonic clock restarts near 0 on every boot and would mix the segments of
+ * several boots into one range. Pipeline sightings carry elapsed realtime instead, which
+ * {@link #onSighting} converts once per append with the offset given to
+ * {@link #setTimeBaseOffsetNanos(long)}.
+ *
+ * Appends are crash safe the way {@link ProfileStore}'s are: record and index first, then the
+ * count in the header. They are not forced to disk one by one; {@link #sync()} does that and
+ * rollover and close do it for the segment they finish. A segment that does not validate on
+ * open, say one whose creation was cut short by a crash, is deleted and counted rather than
+ * keeping the rest of the log from opening.
+ */
+public class SightingLog implements SightingPipeline.Stage, Closeable {
+    public static final int DEFAULT_RECORDS_PER_SEGMENT = 1 << 20;
+    public static final int INDEX_BLOCK_RECORDS = 1024;
+
+    /**
+     * Receives query results. The record is only described by primitives, nothing is built.
+     */
+    public interface Visitor {
+        void onRecord(long uuidHi, long uuidLo, int majorMinor, int rssi, int txPower, long timestampNanos);
+    }
+
+    static final int MAGIC = 0x4942534c;
+    static final int VERSION = 1;
+
+    static final int HEADER_LENGTH = 64;
+    static final int RECORD_LENGTH = 32;
+    static final int INDEX_ENTRY_LENGTH = 16;
+
+    static final int MAGIC_INDEX = 0;
+    static final int VERSION_INDEX = 4;
+    static final int RECORD_LENGTH_INDEX = 8;
+    static final int CAPACITY_INDEX = 12;
+    static final int COUNT_INDEX = 16;
+    static final int BLOCK_RECORDS_INDEX = 20;
+    static final int MIN_TIMESTAMP_INDEX = 24;
+    static final int MAX_TIMESTAMP_INDEX = 32;
+
+    static final int UUID_HI_INDEX = 0;
+    static final int UUID_LO_INDEX = 8;
+    static final int TIMESTAMP_INDEX = 16;
+    static final int MAJOR_MINOR_INDEX = 24;
+    static final int RSSI_INDEX = 28;
+    static final int TX_POWER_INDEX = 29;
+
+    private static final String SEGMENT_PREFIX = "sightings-";
+    private static final String SEGMENT_SUFFIX = ".log";
+
+    private final File mDirectory;
+    private final int mRecordsPerSegment;
+    private final int mMaxSegments;
+    private final List<Segment> mSegments = new ArrayList<>();
+    private final BeaconFrameView mView = new BeaconFrameView();
+
+    private long mNextSegmentNumber;
+    private long mWriteErrors;
+    private int mDiscardedSegments;
+    private int mLastQueryBlocks;
+    private boolean mClosed;
+    private volatile long mTimeBaseOffsetNanos;
+
+    /**
+     * Open the log in a directory, creating it if needed, and pick up the segments in it.
+     *
+     * @param maxSegments segments to keep, the oldest go on rollover
+     * @throws IOException if the directory cannot be opened
+     */
+    public static SightingLog open(File directory, int recordsPerSegment, int maxSegments) throws IOException {
+        if (recordsPerSegment < INDEX_BLOCK_RECORDS || recordsPerSegment % INDEX_BLOCK_RECORDS != 0
+                || (long) recordsPerSegment * RECORD_LENGTH > Integer.MAX_VALUE / 2) {
+            throw new IllegalArgumentException("recordsPerSegment " + recordsPerSegment);
+        }
+        if (maxSegments < 1) {
+            throw new IllegalArgumentException("maxSegments " + maxSegments);
+        }
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create " + directory);
+        }
+        SightingLog log = new SightingLog(directory, recordsPerSegment, maxSegments);
+
+        try {
+            log.load();
+        } catch (IOException | RuntimeException e) {
+            log.close();
+            throw e;
+        }
+        return log;
+    }
+
+    private SightingLog(File directory, int recordsPerSegment, int maxSegments) {
+        mDirectory = directory;
+        mRecordsPerSegment = recordsPerSegment;
+        mMaxSegments = maxSegments;
+    }
+
+    private void load() throws IOException {
+        String[] names = mDirectory.list();
+
+        if (names != null) {
+            //zero padded numbers, so name order is creation order
+            Arrays.sort(names);
+            for (String name : names) {
+                if (name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX)) {
+                    File file = new File(mDirectory, name);
+                    long number;
+
+                    try {
+                        number = Long.parseLong(name.substring(SEGMENT_PREFIX.length(),
+                                name.length() - SEGMENT_SUFFIX.length()));
+                    } catch (NumberFormatException e) {
+                        //not one of ours
+                        continue;
+                    }
+                    //numbers stay increasing even past a discarded segment
+                    mNextSegmentNumber = number + 1;
+                    try {
+                        mSegments.add(Segment.open(file));
+                    } catch (IOException e) {
+                        mDiscardedSegments++;
+                        if (!file.delete()) {
+                            throw new IOException("Cannot delete damaged segment " + file);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @param offsetNanos added to pipeline timestamps to turn them into wall clock time, on
+     * the device {@code currentTimeMillis() - elapsedRealtime()} in nanoseconds. Set it again
+     * when the wall clock is changed.
+     */
+    public void setTimeBaseOffsetNanos(long offsetNanos) {
+        mTimeBaseOffsetNanos = offsetNanos;
+    }
+
+    public long getTimeBaseOffsetNanos() {
+        return mTimeBaseOffsetNanos;
+    }
+
+    /**
+     * @param timestampNanos elapsed realtime, logged as wall clock time
+     */
+    @Override
+    public void onSighting(byte[] record, int frameOffset, int rssi, long timestampNanos) {
+        mView.wrap(record, frameOffset);
+        try {
+            append(mView.getProximityUuidMostSignificantBits(), mView.getProximityUuidLeastSignificantBits(),
+                    mView.getMajorMinor(), rssi, mView.getTxPower(), timestampNanos + mTimeBaseOffsetNanos);
+        } catch (IOException e) {
+            synchronized (this) {
+                mWriteErrors++;
+            }
+        }
+    }
+
+    /**
+     * @param timestampNanos wall clock nanoseconds since the epoch
+     * @throws IOException if the log is closed, or a new segment was needed and could not be created
+     */
+    public synchronized void append(long uuidHi, long uuidLo, int majorMinor, int rssi, int txPower,
+                                    long timestampNanos) throws IOException {
+        if (mClosed) {
+            throw new IOException("Sighting log closed");
+        }
+        Segment segment = mSegments.isEmpty() ? null : mSegments.get(mSegments.size() - 1);
+
+        if (segment == null || segment.mCount == segment.mCapacity) {
+            segment = rollOver(segment);
+        }
+        segment.append(uuidHi, uuidLo, majorMinor, rssi, txPower, timestampNanos);
+    }
+
+    /**
+     * Visit every record in [fromNanos, toNanos], wall clock, whose key matches id on the bits set in mask,
+     * e.g. {@code new BeaconId(0, 0, major << 16)} under mask {@code new BeaconId(0, 0, 0xffff0000)}
+     * for all sightings of one major.
+     *
+     * @return number of records visited
+     */
+    public synchronized long query(long fromNanos, long toNanos, BeaconId id, BeaconId mask, Visitor visitor) {
+        long visited = 0;
+
+        mLastQueryBlocks = 0;
+        for (Segment segment : mSegments) {
+            if (segment.mCount > 0 && segment.mMaxTimestamp >= fromNanos && segment.mMinTimestamp <= toNanos) {
+                visited += queryBlocks(segment, fromNanos, toNanos, id, mask, visitor);
+            }
+        }
+        return visited;
+    }
+
+    private long queryBlocks(Segment segment, long fromNanos, long toNanos, BeaconId id, BeaconId mask,
+                             Visitor visitor) {
+        MappedByteBuffer map = segment.mMap;
+        int count = segment.mCount;
+        int blocks = (count + INDEX_BLOCK_RECORDS - 1) / INDEX_BLOCK_RECORDS;
+        long visited = 0;
+
+        for (int block = 0; block < blocks; block++) {
+            int entry = HEADER_LENGTH + block * INDEX_ENTRY_LENGTH;
+
+            if (map.getLong(entry + 8) < fromNanos || map.getLong(entry) > toNanos) {
+                continue;
+            }
+            mLastQueryBlocks++;
+            int end = Math.min(count, (block + 1) * INDEX_BLOCK_RECORDS);
+
+            for (int record = block * INDEX_BLOCK_RECORDS; record < end; record++) {
+                int offset = segment.mRecordsOffset + record * RECORD_LENGTH;
+                long timestamp = map.getLong(offset + TIMESTAMP_INDEX);
+
+                if (timestamp < fromNanos || timestamp > toNanos) {
+                    continue;
+                }
+                long uuidHi = map.getLong(offset + UUID_HI_INDEX);
+                long uuidLo = map.getLong(offset + UUID_LO_INDEX);
+                int majorMinor = map.getInt(offset + MAJOR_MINOR_INDEX);
+
+                if (id.matches(uuidHi, uuidLo, majorMinor, mask)) {
+                    visitor.onRecord(uuidHi, uuidLo, majorMinor, map.get(offset + RSSI_INDEX),
+                            map.get(offset + TX_POWER_INDEX), timestamp);
+                    visited++;
+                }
+            }
+        }
+        return visited;
+    }
+
+    /**
+     * Retention by time: drop every finished segment holding nothing newer than timestampNanos.
+     *
+     * @return number of segments deleted
+     */
+    public synchronized int deleteBefore(long timestampNanos) throws IOException {
+        int deleted = 0;
+
+        //the segment being written is never deleted
+        while (mSegments.size() > 1 && mSegments.get(0).mMaxTimestamp < timestampNanos) {
+            mSegments.remove(0).delete();
+            deleted++;
+        }
+        return deleted;
+    }
+
+    /**
+     * Force the segment being written to disk.
+     */
+    public synchronized void sync() {
+        if (!mSegments.isEmpty()) {
+            mSegments.get(mSegments.size() - 1).mMap.force();
+        }
+    }
+
+    public synchronized long size() {
+        long size = 0;
+
+        for (Segment segment : mSegments) {
+            size += segment.mCount;
+        }
+        return size;
+    }
+
+    public synchronized int getSegmentCount() {
+        return mSegments.size();
+    }
+
+    /**
+     * @return index blocks the last query had to read records of
+     */
+    public synchronized int getLastQueryBlocks() {
+        return mLastQueryBlocks;
+    }
+
+    /**
+     * @return segments deleted on open because they did not validate
+     */
+    public synchronized int getDiscardedSegments() {
+        return mDiscardedSegments;
+    }
+
+    /**
+     * @return sightings lost because a segment could not be created
+     */
+    public synchronized long getWriteErrors() {
+        return mWriteErrors;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        mClosed = true;
+        for (Segment segment : mSegments) {
+            segment.close();
+        }
+        mSegments.clear();
+    }
+
+    private Segment rollOver(Segment full) throws IOException {
+        if (full != null) {
+            full.mMap.force();
+        }
+        String name = String.format(Locale.US, "%s%019d%s", SEGMENT_PREFIX, mNextSegmentNumber, SEGMENT_SUFFIX);
+        Segment segment = Segment.create(new File(mDirectory, name), mRecordsPerSegment);
+
+        mNextSegmentNumber++;
+        mSegments.add(segment);
+        while (mSegments.size() > mMaxSegments) {
+            mSegments.remove(0).delete();
+        }
+        return segment;
+    }
+
+    private static final class Segment {
+        private final File mFile;
+        private final RandomAccessFile mRaf;
+        private final MappedByteBuffer mMap;
+        private final int mCapacity;
+        private final int mRecordsOffset;
+        private int mCount;
+        private long mMinTimestamp;
+        private long mMaxTimestamp;
+
+        static Segment create(File file, int capacity) throws IOException {
+            RandomAccessFile raf = new RandomAccessFile(file, "rw");
+
+            try {
+                Segment segment = new Segment(file, raf, capacity);
+                MappedByteBuffer map = segment.mMap;
+
+                map.putInt(MAGIC_INDEX, MAGIC);
+                map.putInt(VERSION_INDEX, VERSION);
+                map.putInt(RECORD_LENGTH_INDEX, RECORD_LENGTH);
+                map.putInt(CAPACITY_INDEX, capacity);
+                map.putInt(COUNT_INDEX, 0);
+                map.putInt(BLOCK_RECORDS_INDEX, INDEX_BLOCK_RECORDS);
+                map.putLong(MIN_TIMESTAMP_INDEX, Long.MAX_VALUE);
+                map.putLong(MAX_TIMESTAMP_INDEX, Long.MIN_VALUE);
+                map.force();
+                segment.mMinTimestamp = Long.MAX_VALUE;
+                segment.mMaxTimestamp = Long.MIN_VALUE;
+                return segment;
+            } catch (IOException | RuntimeException e) {
+                raf.close();
+                throw e;
+            }
+        }
+
+        static Segment open(File file) throws IOException {
+            RandomAccessFile raf = new RandomAccessFile(file, "rw");
+
+            try {
+                if (raf.length() < HEADER_LENGTH) {
+                    throw new IOException("Not a sighting log segment: " + file);
+                }
+                raf.seek(CAPACITY_INDEX);
+                //the header is little endian, RandomAccessFile reads big endian
+                int capacity = Integer.reverseBytes(raf.readInt());
+
+                if (capacity <= 0 || capacity % INDEX_BLOCK_RECORDS != 0
+                        || raf.length() != lengthFor(capacity)) {
+                    throw new IOException("Not a sighting log segment: " + file);
+                }
+                Segment segment = new Segment(file, raf, capacity);
+                MappedByteBuffer map = segment.mMap;
+
+                if (map.getInt(MAGIC_INDEX) != MAGIC || map.getInt(VERSION_INDEX) != VERSION
+                        || map.getInt(RECORD_LENGTH_INDEX) != RECORD_LENGTH
+                        || map.getInt(BLOCK_RECORDS_INDEX) != INDEX_BLOCK_RECORDS) {
+                    throw new IOException("Not a sighting log segment or unsupported version: " + file);
+                }
+                segment.mCount = Math.max(0, Math.min(map.getInt(COUNT_INDEX), capacity));
+                segment.mMinTimestamp = map.getLong(MIN_TIMESTAMP_INDEX);
+                segment.mMaxTimestamp = map.getLong(MAX_TIMESTAMP_INDEX);
+                return segment;
+            } catch (IOException | RuntimeException e) {
+                raf.close();
+                throw e;
+            }
+        }
+
+        private static long lengthFor(int capacity) {
+            return indexLength(capacity) + (long) capacity * RECORD_LENGTH;
+        }
+
+        private static int indexLength(int capacity) {
+            return HEADER_LENGTH + capacity / INDEX_BLOCK_RECORDS * INDEX_ENTRY_LENGTH;
+        }
+
+        private Segment(File file, RandomAccessFile raf, int capacity) throws IOException {
+            mFile = file;
+            mRaf = raf;
+            mCapacity = capacity;
+            mRecordsOffset = indexLength(capacity);
+            mMap = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, lengthFor(capacity));
+            mMap.order(ByteOrder.LITTLE_ENDIAN);
+        }
+
+        void append(long uuidHi, long uuidLo, int majorMinor, int rssi, int txPower, long timestampNanos) {
+            int record = mCount;
+            int offset = mRecordsOffset + record * RECORD_LENGTH;
+            int entry = HEADER_LENGTH + record / INDEX_BLOCK_RECORDS * INDEX_ENTRY_LENGTH;
+
+            mMap.putLong(offset + UUID_HI_INDEX, uuidHi);
+            mMap.putLong(offset + UUID_LO_INDEX, uuidLo);
+            mMap.putLong(offset + TIMESTAMP_INDEX, timestampNanos);
+            mMap.putInt(offset + MAJOR_MINOR_INDEX, majorMinor);
+            mMap.put(offset + RSSI_INDEX, (byte) rssi);
+            mMap.put(offset + TX_POWER_INDEX, (byte) txPower);
+
+            if (record % INDEX_BLOCK_RECORDS == 0) {
+                mMap.putLong(entry, timestampNanos);
+                mMap.putLong(entry + 8, timestampNanos);
+            } else if (timestampNanos < mMap.getLong(entry)) {
+                mMap.putLong(entry, timestampNanos);
+            } else if (timestampNanos > mMap.getLong(entry + 8)) {
+                mMap.putLong(entry + 8, timestampNanos);
+            }
+            if (timestampNanos < mMinTimestamp) {
+                mMinTimestamp = timestampNanos;
+                mMap.putLong(MIN_TIMESTAMP_INDEX, timestampNanos);
+            }
+            if (timestampNanos > mMaxTimestamp) {
+                mMaxTimestamp = timestampNanos;
+                mMap.putLong(MAX_TIMESTAMP_INDEX, timestampNanos);
+            }
+            //commit
+            mCount = record + 1;
+            mMap.putInt(COUNT_INDEX, mCount);
+        }
+
+        void close() throws IOException {
+            mMap.force();
+            mRaf.close();
+        }
+
+        void delete() throws IOException {
+            mRaf.close();
+            if (!mFile.delete()) {
+                throw new IOException("Cannot delete " + mFile);
+            }
+        }
+    }
+}
@@ -0,0 +1,338 @@
+package com.sonymobile.ibeaconservice.core.Tracking;
+
+import com.sonymobile.ibeaconservice.core.Model.BeaconFrameView;
+import com.sonymobile.ibeaconservice.core.Model.BeaconId;
+import com.sonymobile.ibeaconservice.core.Scanning.SightingPipeline;
+
+/**
+ * Live state of every beacon currently heard, keyed on proximity UUID plus major/minor.
+ *
+ * The key is held as two longs and an int and every value in its own primitive array, found
+ * by linear probing, so a sighting is a hash, a few array reads and writes and no allocation.
+ * Entries are addressed by slot; a slot is only stable until the next insert or eviction.
+ *
+ * Entries not seen for the max age are evicted when the table fills up, or explicitly with
+ * {@link #evictStale(long)}. If the table is still full after that the least recently seen
+ * entry makes room, which is a full scan: size the table for the venue.
+ *
+ * Not thread safe, feed it from the pipeline's thread.
+ */
+public class BeaconStateTable implements SightingPipeline.Stage {
+    /**
+     * For keeping extra per beacon arrays parallel to the table's.
+     */
+    public interface SlotListener {
+        /**
+         * An entry changed slot; from is free afterwards.
+         */
+        void onSlotMoved(int from, int to);
+    }
+
+    public static final int NOT_FOUND = -1;
+    public static final float DEFAULT_SMOOTHING = 0.25f;
+
+    private static final float MAX_LOAD = 0.75f;
+
+    private final int mMask;
+    private final int mMaxSize;
+    private final float mSmoothing;
+    private final long mMaxAgeNanos;
+
+    private final boolean[] mUsed;
+    private final long[] mUuidHi;
+    private final long[] mUuidLo;
+    private final int[] mMajorMinor;
+    private final int[] mLastRssi;
+    private final float[] mSmoothedRssi;
+    private final long[] mLastSeen;
+    private final int[] mCount;
+
+    private final BeaconFrameView mView = new BeaconFrameView();
+
+    private SlotListener mSlotListener;
+    private int mSize;
+    private long mEvictions;
+
+    /**
+     * @param maxSize beacons to track at most
+     * @param maxAgeNanos how long an unseen beacon is kept
+     */
+    public BeaconStateTable(int maxSize, long maxAgeNanos) {
+        this(maxSize, maxAgeNanos, DEFAULT_SMOOTHING);
+    }
+
+    /**
+     * @param smoothing weight of a new reading in the smoothed RSSI, in (0, 1]
+     */
+    public BeaconStateTable(int maxSize, long maxAgeNanos, float smoothing) {
+        if (maxSize < 1 || maxSize > (1 << 29)) {
+            throw new IllegalArgumentException("maxSize " + maxSize);
+        }
+        if (maxAgeNanos <= 0) {
+            throw new IllegalArgumentException("maxAgeNanos " + maxAgeNanos);
+        }
+        if (!(smoothing > 0 && smoothing <= 1)) {
+            throw new IllegalArgumentException("smoothing " + smoothing);
+        }
+        int capacity = Integer.highestOneBit((int)Math.ceil(maxSize / MAX_LOAD) - 1) << 1;
+
+        mMask = capacity - 1;
+        mMaxSize = maxSize;
+        mSmoothing = smoothing;
+        mMaxAgeNanos = maxAgeNanos;
+        mUsed = new boolean[capacity];
+        mUuidHi = new long[capacity];
+        mUuidLo = new long[capacity];
+        mMajorMinor = new int[capacity];
+        mLastRssi = new int[capacity];
+        mSmoothedRssi = new float[capacity];
+        mLastSeen = new long[capacity];
+        mCount = new int[capacity];
+    }
+
+    public void setSlotListener(SlotListener listener) {
+        mSlotListener = listener;
+    }
+
+    @Override
+    public void onSighting(byte[] record, int frameOffset, int rssi, long timestampNanos) {
+        mView.wrap(record, frameOffset);
+        update(mView.getProximityUuidMostSignificantBits(), mView.getProximityUuidLeastSignificantBits(),
+                mView.getMajorMinor(), rssi, timestampNanos);
+    }
+
+    /**
+     * Record one sighting, adding the beacon if it is new.
+     *
+     * @return the beacon's slot
+     */
+    public int update(long uuidHi, long uuidLo, int majorMinor, int rssi, long timestampNanos) {
+        int slot = probe(uuidHi, uuidLo, majorMinor);
+
+        if (!mUsed[slot]) {
+            if (mSize == mMaxSize) {
+                makeRoom(timestampNanos);
+                slot = probe(uuidHi, uuidLo, majorMinor);
+            }
+            mUsed[slot] = true;
+            mUuidHi[slot] = uuidHi;
+            mUuidLo[slot] = uuidLo;
+            mMajorMinor[slot] = majorMinor;
+            mSmoothedRssi[slot] = rssi;
+            mCount[slot] = 0;
+            mSize++;
+        } else {
+            mSmoothedRssi[slot] += mSmoothing * (rssi - mSmoothedRssi[slot]);
+        }
+        mLastRssi[slot] = rssi;
+        mLastSeen[slot] = timestampNanos;
+        if (mCount[slot] != Integer.MAX_VALUE) {
+            mCount[slot]++;
+        }
+        return slot;
+    }
+
+    /**
+     * @return the beacon's slot or {@link #NOT_FOUND}
+     */
+    public int find(long uuidHi, long uuidLo, int majorMinor) {
+        int slot = probe(uuidHi, uuidLo, majorMinor);
+
+        return mUsed[slot] ? slot : NOT_FOUND;
+    }
+
+    public int find(BeaconId id) {
+        return find(id.getUuidMostSignificantBits(), id.getUuidLeastSignificantBits(), id.getMajorMinor());
+    }
+
+    /**
+     * Walk the table with {@code for (int s = nextSlot(0); s != NOT_FOUND; s = nextSlot(s + 1))}.
+     *
+     * @return the first occupied slot at or after from, or {@link #NOT_FOUND}
+     */
+    public int nextSlot(int from) {
+        for (int slot = from; slot <= mMask; slot++) {
+            if (mUsed[slot]) {
+                return slot;
+            }
+        }
+        return NOT_FOUND;
+    }
+
+    /**
+     * @return number of beacons removed for not being seen within the max age
+     */
+    public int evictStale(long nowNanos) {
+        int evicted = 0;
+        int slot = 0;
+
+        //deleting shifts later entries back, so the same slot is checked again
+        while (slot <= mMask) {
+            if (mUsed[slot] && nowNanos - mLastSeen[slot] > mMaxAgeNanos) {
+                delete(slot);
+                evicted++;
+            } else {
+                slot++;
+            }
+        }
+        mEvictions += evicted;
+        return evicted;
+    }
+
+    public void remove(int slot) {
+        checkSlot(slot);
+        delete(slot);
+    }
+
+    public void clear() {
+        for (int slot = 0; slot <= mMask; slot++) {
+            mUsed[slot] = false;
+        }
+        mSize = 0;
+    }
+
+    public long getUuidMostSignificantBits(int slot) {
+        checkSlot(slot);
+        return mUuidHi[slot];
+    }
+
+    public long getUuidLeastSignificantBits(int slot) {
+        checkSlot(slot);
+        return mUuidLo[slot];
+    }
+
+    public int getMajorMinor(int slot) {
+        checkSlot(slot);
+        return mMajorMinor[slot];
+    }
+
+    /**
+     * Allocates; for reporting, not for the per sighting path.
+     */
+    public BeaconId getBeaconId(int slot) {
+        checkSlot(slot);
+        return new BeaconId(mUuidHi[slot], mUuidLo[slot], mMajorMinor[slot]);
+    }
+
+    public int getLastRssi(int slot) {
+        checkSlot(slot);
+        return mLastRssi[slot];
+    }
+
+    /**
+     * @return exponentially weighted moving average of the RSSI in dBm
+     */
+    public float getSmoothedRssi(int slot) {
+        checkSlot(slot);
+        return mSmoothedRssi[slot];
+    }
+
+    public long getLastSeenNanos(int slot) {
+        checkSlot(slot);
+        return mLastSeen[slot];
+    }
+
+    /**
+     * @return sightings since the beacon was added, saturating at Integer.MAX_VALUE
+     */
+    public int getCount(int slot) {
+        checkSlot(slot);
+        return mCount[slot];
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    /**
+     * @return number of slots, the length per beacon arrays kept alongside need
+     */
+    public int getCapacity() {
+        return mMask + 1;
+    }
+
+    public int getMaxSize() {
+        return mMaxSize;
+    }
+
+    /**
+     * @return beacons dropped to make room or for being stale, since creation
+     */
+    public long getEvictions() {
+        return mEvictions;
+    }
+
+    private void makeRoom(long nowNanos) {
+        if (evictStale(nowNanos) > 0) {
+            return;
+        }
+        int oldest = NOT_FOUND;
+
+        for (int slot = 0; slot <= mMask; slot++) {
+            if (mUsed[slot] && (oldest == NOT_FOUND || mLastSeen[slot] - mLastSeen[oldest] < 0)) {
+                oldest = slot;
+            }
+        }
+        delete(oldest);
+        mEvictions++;
+    }
+
+    /**
+     * @return the slot holding the key, or the empty slot ending its probe sequence
+     */
+    private int probe(long uuidHi, long uuidLo, int majorMinor) {
+        int slot = BeaconId.hash(uuidHi, uuidLo, majorMinor) & mMask;
+
+        while (mUsed[slot]) {
+            if (mUuidHi[slot] == uuidHi && mUuidLo[slot] == uuidLo && mMajorMinor[slot] == majorMinor) {
+                break;
+            }
+            slot = (slot + 1) & mMask;
+        }
+        return slot;
+    }
+
+    /**
+     * Backward shift deletion: entries further along the cluster that may live in the hole
+     * move into it, so lookups never need tombstones.
+     */
+    private void delete(int slot) {
+        int hole = slot;
+        int next = slot;
+
+        while (true) {
+            next = (next + 1) & mMask;
+            if (!mUsed[next]) {
+                break;
+            }
+            int home = BeaconId.hash(mUuidHi[next], mUuidLo[next], mMajorMinor[next]) & mMask;
+
+            if (((next - home) & mMask) >= ((next - hole) & mMask)) {
+                move(next, hole);
+                hole = next;
+            }
+        }
+        mUsed[hole] = false;
+        mSize--;
+    }
+
+    private void move(int from, int to) {
+        mUsed[to] = true;
+        mUuidHi[to] = mUuidHi[from];
+        mUuidLo[to] = mUuidLo[from];
+        mMajorMinor[to] = mMajorMinor[from];
+        mLastRssi[to] = mLastRssi[from];
+        mSmoothedRssi[to] = mSmoothedRssi[from];
+        mLastSeen[to] = mLastSeen[from];
+        mCount[to] = mCount[from];
+        if (mSlotListener != null) {
+            mSlotListener.onSlotMoved(from, to);
+        }
+    }
+
+    void checkSlot(int slot) {
+        if (slot < 0 || slot > mMask || !mUsed[slot]) {
+            throw new IllegalArgumentException("no beacon in slot " + slot);
+        }
+    }
+}
@@ -0,0 +1,275 @@
+package com.sonymobile.ibeaconservice.core.Tracking;
+
+import com.sonymobile.ibeaconservice.core.Scanning.SightingPipeline;
+
+/**
+ * Turns noisy RSSI readings into a distance estimate and a stable proximity class per beacon.
+ *
+ * Each beacon's RSSI runs through a one dimensional Kalman filter, the estimate goes through
+ * the log-distance path loss model against the TX power byte of its frame (the RSSI at 1m),
+ * and the distance is classified with hysteresis so a beacon sitting on a boundary does not
+ * flap between classes.
+ *
+ * Sightings are processed a {@link SightingBatch} at a time: one pass resolves every sighting
+ * to its slot in a {@link BeaconStateTable}, a second runs the filter over the batch arrays
+ * and the per slot state arrays. Nothing is allocated per sighting.
+ *
+ * As a pipeline stage it buffers sightings and processes them when the buffer fills or the
+ * scanner's callback ends. Not thread safe.
+ */
+public class ProximityEngine implements SightingPipeline.BatchStage {
+    public static final int PROXIMITY_UNKNOWN = 0;
+    public static final int PROXIMITY_IMMEDIATE = 1;
+    public static final int PROXIMITY_NEAR = 2;
+    public static final int PROXIMITY_FAR = 3;
+
+    public static final float IMMEDIATE_LIMIT_METERS = 0.5f;
+    public static final float NEAR_LIMIT_METERS = 3.0f;
+
+    public static final float DEFAULT_PROCESS_NOISE = 0.5f;
+    public static final float DEFAULT_MEASUREMENT_NOISE = 16f;
+    public static final float DEFAULT_PATH_LOSS_EXPONENT = 2f;
+    public static final float DEFAULT_HYSTERESIS = 0.15f;
+    public static final int DEFAULT_BATCH_SIZE = 256;
+
+    private static final int NEW = 1;
+
+    private final BeaconStateTable mTable;
+    private final SightingBatch mPending;
+
+    private final float[] mEstimate;
+    private final float[] mVariance;
+    private final float[] mDistance;
+    private final byte[] mProximity;
+
+    private int[] mSlots;
+    private byte[] mFlags;
+
+    private float mProcessNoise = DEFAULT_PROCESS_NOISE;
+    private float mMeasurementNoise = DEFAULT_MEASUREMENT_NOISE;
+    private float mHysteresis = DEFAULT_HYSTERESIS;
+    private double mDistanceScale;
+
+    private long mSightings;
+    private long mProximityChanges;
+
+    /**
+     * @param maxBeacons beacons to track at most
+     * @param maxAgeNanos how long an unseen beacon keeps its state
+     */
+    public ProximityEngine(int maxBeacons, long maxAgeNanos) {
+        this(maxBeacons, maxAgeNanos, DEFAULT_BATCH_SIZE);
+    }
+
+    /**
+     * @param batchSize sightings buffered when used as a pipeline stage
+     */
+    public ProximityEngine(int maxBeacons, long maxAgeNanos, int batchSize) {
+        mTable = new BeaconStateTable(maxBeacons, maxAgeNanos);
+        mPending = new SightingBatch(batchSize);
+
+        int capacity = mTable.getCapacity();
+
+        mEstimate = new float[capacity];
+        mVariance = new float[capacity];
+        mDistance = new float[capacity];
+        mProximity = new byte[capacity];
+        mSlots = new int[batchSize];
+        mFlags = new byte[batchSize];
+        setPathLossExponent(DEFAULT_PATH_LOSS_EXPONENT);
+
+        mTable.setSlotListener(new BeaconStateTable.SlotListener() {
+            @Override
+            public void onSlotMoved(int from, int to) {
+                mEstimate[to] = mEstimate[from];
+                mVariance[to] = mVariance[from];
+                mDistance[to] = mDistance[from];
+                mProximity[to] = mProximity[from];
+            }
+        });
+    }
+
+    /**
+     * @param processNoise how much the true RSSI may drift between sightings, dBm squared
+     * @param measurementNoise variance of a single reading, dBm squared
+     */
+    public void setFilter(float processNoise, float measurementNoise) {
+        if (!(processNoise > 0) || !(measurementNoise > 0)) {
+            throw new IllegalArgumentException("noise " + processNoise + ", " + measurementNoise);
+        }
+        mProcessNoise = processNoise;
+        mMeasurementNoise = measurementNoise;
+    }
+
+    /**
+     * @param exponent 2 in free space, typically 2 to 4 indoors
+     */
+    public void setPathLossExponent(float exponent) {
+        if (!(exponent > 0)) {
+            throw new IllegalArgumentException("exponent " + exponent);
+        }
+        //10^((tx - rssi) / (10n)) as a single exp per sighting
+        mDistanceScale = Math.log(10) / (10 * exponent);
+    }
+
+    /**
+     * @param hysteresis fraction of a class boundary a distance must cross it by, in [0, 1)
+     */
+    public void setHysteresis(float hysteresis) {
+        if (!(hysteresis >= 0 && hysteresis < 1)) {
+            throw new IllegalArgumentException("hysteresis " + hysteresis);
+        }
+        mHysteresis = hysteresis;
+    }
+
+    @Override
+    public void onSighting(byte[] record, int frameOffset, int rssi, long timestampNanos) {
+        mPending.add(record, frameOffset, rssi, timestampNanos);
+        if (mPending.isFull()) {
+            onBatchEnd();
+        }
+    }
+
+    @Override
+    public void onBatchEnd() {
+        if (mPending.size() > 0) {
+            process(mPending);
+            mPending.clear();
+        }
+    }
+
+    /**
+     * Update every sighting's beacon and fill in the batch's distance and proximity columns.
+     *
+     * @return number of beacons whose proximity class changed
+     */
+    public int process(SightingBatch batch) {
+        int size = batch.size();
+
+        if (mSlots.length < size) {
+            mSlots = new int[batch.capacity()];
+            mFlags = new byte[batch.capacity()];
+        }
+        int[] slots = mSlots;
+        byte[] flags = mFlags;
+
+        long evictions = mTable.getEvictions();
+
+        for (int i = 0; i < size; i++) {
+            int slot = mTable.update(batch.mUuidHi[i], batch.mUuidLo[i], batch.mMajorMinor[i],
+                    batch.mRssi[i], batch.mTimestamp[i]);
+
+            slots[i] = slot;
+            flags[i] = mTable.getCount(slot) == 1 ? (byte)NEW : 0;
+        }
+        if (mTable.getEvictions() != evictions) {
+            //a full table made room mid batch, earlier slots may be reused or shifted
+            for (int i = 0; i < size; i++) {
+                slots[i] = mTable.find(batch.mUuidHi[i], batch.mUuidLo[i], batch.mMajorMinor[i]);
+            }
+        }
+
+        float q = mProcessNoise;
+        float r = mMeasurementNoise;
+        int changes = 0;
+
+        for (int i = 0; i < size; i++) {
+            int slot = slots[i];
+
+            if (slot == BeaconStateTable.NOT_FOUND) {
+                batch.mDistance[i] = -1;
+                batch.mProximity[i] = PROXIMITY_UNKNOWN;
+                continue;
+            }
+            float z = batch.mRssi[i];
+            float x;
+            float p;
+
+            if (flags[i] == NEW) {
+                x = z;
+                p = r;
+                mProximity[slot] = PROXIMITY_UNKNOWN;
+            } else {
+                p = mVariance[slot] + q;
+                float k = p / (p + r);
+
+                x = mEstimate[slot] + k * (z - mEstimate[slot]);
+                p = (1 - k) * p;
+            }
+            int txPower = batch.mTxPower[i];
+            float distance = txPower == 0 ? -1 : (float)Math.exp((txPower - x) * mDistanceScale);
+            int proximity = nextProximity(mProximity[slot], distance);
+
+            if (proximity != mProximity[slot]) {
+                changes++;
+            }
+            mEstimate[slot] = x;
+            mVariance[slot] = p;
+            mDistance[slot] = distance;
+            mProximity[slot] = (byte)proximity;
+            batch.mDistance[i] = distance;
+            batch.mProximity[i] = (byte)proximity;
+        }
+        mSightings += size;
+        mProximityChanges += changes;
+        return changes;
+    }
+
+    /**
+     * The table holding identity, raw RSSI and last seen; slots index the getters below.
+     */
+    public BeaconStateTable getStates() {
+        return mTable;
+    }
+
+    /**
+     * @return filtered RSSI in dBm
+     */
+    public float getEstimatedRssi(int slot) {
+        mTable.checkSlot(slot);
+        return mEstimate[slot];
+    }
+
+    /**
+     * @return distance in meters, negative if the frame carries no TX power
+     */
+    public float getDistance(int slot) {
+        mTable.checkSlot(slot);
+        return mDistance[slot];
+    }
+
+    public int getProximity(int slot) {
+        mTable.checkSlot(slot);
+        return mProximity[slot];
+    }
+
+    public long getSightings() {
+        return mSightings;
+    }
+
+    public long getProximityChanges() {
+        return mProximityChanges;
+    }
+
+    private int nextProximity(int current, float distance) {
+        if (distance < 0) {
+            return PROXIMITY_UNKNOWN;
+        }
+        int proximity = classify(distance);
+
+        if (current == PROXIMITY_UNKNOWN || proximity == current) {
+            return proximity;
+        }
+        if (proximity > current) {
+            return Math.max(current, classify(distance / (1 + mHysteresis)));
+        }
+        return Math.min(current, classify(distance / (1 - mHysteresis)));
+    }
+
+    private static int classify(float distance) {
+        if (distance < IMMEDIATE_LIMIT_METERS) {
+            return PROXIMITY_IMMEDIATE;
+        }
+        return distance < NEAR_LIMIT_METERS ? PROXIMITY_NEAR : PROXIMITY_FAR;
+    }
+}
@@ -0,0 +1,114 @@
+package com.sonymobile.ibeaconservice.core.Tracking;
+
+import com.sonymobile.ibeaconservice.core.Model.BeaconFrameView;
+
+/**
+ * A fixed size batch of sightings in structure of arrays form: one primitive array per field,
+ * so processing a batch is a run of tight loops over contiguous memory rather than a walk over
+ * objects. Output columns are filled in by {@link ProximityEngine#process(SightingBatch)}.
+ *
+ * Reused across batches; {@link #clear()} only resets the size.
+ */
+public class SightingBatch {
+    final long[] mUuidHi;
+    final long[] mUuidLo;
+    final int[] mMajorMinor;
+    final int[] mRssi;
+    final int[] mTxPower;
+    final long[] mTimestamp;
+    final float[] mDistance;
+    final byte[] mProximity;
+
+    private final BeaconFrameView mView = new BeaconFrameView();
+    private int mSize;
+
+    public SightingBatch(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity " + capacity);
+        }
+        mUuidHi = new long[capacity];
+        mUuidLo = new long[capacity];
+        mMajorMinor = new int[capacity];
+        mRssi = new int[capacity];
+        mTxPower = new int[capacity];
+        mTimestamp = new long[capacity];
+        mDistance = new float[capacity];
+        mProximity = new byte[capacity];
+    }
+
+    /**
+     * @param txPower calibrated RSSI at 1m in dBm, as the frame carries it
+     * @return false if the batch is full
+     */
+    public boolean add(long uuidHi, long uuidLo, int majorMinor, int rssi, int txPower, long timestampNanos) {
+        if (mSize == mRssi.length) {
+            return false;
+        }
+        mUuidHi[mSize] = uuidHi;
+        mUuidLo[mSize] = uuidLo;
+        mMajorMinor[mSize] = majorMinor;
+        mRssi[mSize] = rssi;
+        mTxPower[mSize] = txPower;
+        mTimestamp[mSize] = timestampNanos;
+        mSize++;
+        return true;
+    }
+
+    /**
+     * @param frameOffset index of the frame's product id byte
+     * @return false if the batch is full
+     */
+    public boolean add(byte[] frame, int frameOffset, int rssi, long timestampNanos) {
+        mView.wrap(frame, frameOffset);
+        return add(mView.getProximityUuidMostSignificantBits(), mView.getProximityUuidLeastSignificantBits(),
+                mView.getMajorMinor(), rssi, mView.getTxPower(), timestampNanos);
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    public int capacity() {
+        return mRssi.length;
+    }
+
+    public boolean isFull() {
+        return mSize == mRssi.length;
+    }
+
+    public void clear() {
+        mSize = 0;
+    }
+
+    public int getMajorMinor(int index) {
+        checkIndex(index);
+        return mMajorMinor[index];
+    }
+
+    public int getRssi(int index) {
+        checkIndex(index);
+        return mRssi[index];
+    }
+
+    /**
+     * @return estimated distance in meters after this sighting, negative if unknown
+     */
+    public float getDistance(int index) {
+        checkIndex(index);
+        return mDistance[index];
+    }
+
+    /**
+     * @return one of the ProximityEngine.PROXIMITY_* classes after this sighting
+     */
+    public int getProximity(int index) {
+        checkIndex(index);
+        return mProximity[index];
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= mSize) {
+            throw new IndexOutOfBoundsException("index " + index + ", size " + mSize);
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package com.sonymobile.ibeaconservice.core.Utils;
+
+/**
+ * Monotonic time source. Lets the schedulers in beacon-core run against
+ * SystemClock on the device and against a hand driven clock in tests.
+ */
+public interface Clock {
+    Clock SYSTEM = new Clock() {
+        @Override
+        public long nanoTime() {
+            return System.nanoTime();
+        }
+    };
+
+    /**
+     * @return monotonic time in nanoseconds, arbitrary origin
+     */
+    long nanoTime();
+}
@@ -0,0 +1,69 @@
+package com.sonymobile.ibeaconservice.core.Utils;
+
+/**
+ * Validation of the hex strings a user (or an import) supplies for each editable frame field.
+ * Results are returned as flags, one bit per field, so callers can report every missing field at once.
+ */
+public final class FrameValidator {
+    public static final byte UUID_VALID = 1;
+    public static final byte BATTERY_VOLTAGE_VALID = 1 << 1;
+    public static final byte MAJOR_VALID = 1 << 2;
+    public static final byte MINOR_VALID = 1 << 3;
+    public static final byte SIGNAL_POWER_VALID = 1 << 4;
+
+    public static final byte ALL_VALID = UUID_VALID | BATTERY_VOLTAGE_VALID | MAJOR_VALID | MINOR_VALID
+            | SIGNAL_POWER_VALID;
+
+    private FrameValidator() {
+    }
+
+    /**
+     * Check there is enough data for each field, and that it is all hex digits.
+     *
+     * @return flags showing which parameters are valid
+     */
+    public static byte checkDataValidity(CharSequence uuid, CharSequence batteryVoltage,
+                                         CharSequence major, CharSequence minor,
+                                         CharSequence signalPower) {
+        byte result = (byte)0x00;
+
+        if (hasLength(uuid, IBeaconFrames.UUID_DATA_LENGTH)) {
+            result |= UUID_VALID;
+        }
+        if (hasLength(batteryVoltage, IBeaconFrames.BATTERY_VOLTAGE_DATA_LENGTH)) {
+            result |= BATTERY_VOLTAGE_VALID;
+        }
+        if (hasLength(major, IBeaconFrames.MAJOR_BYTES_LENGTH)) {
+            result |= MAJOR_VALID;
+        }
+        if (hasLength(minor, IBeaconFrames.MINOR_BYTES_LENGTH)) {
+            result |= MINOR_VALID;
+        }
+        if (hasLength(signalPower, IBeaconFrames.SIGNAL_POWER_BYTES_LENGTH)) {
+            result |= SIGNAL_POWER_VALID;
+        }
+        return result;
+    }
+
+    /**
+     * Same rule for a field sitting in a character buffer, so streaming parsers can validate
+     * without building a String per field.
+     *
+     * @param byteLength size of the field in the frame, see {@link IBeaconFrames}
+     */
+    public static boolean isValidField(char[] src, int offset, int length, int byteLength) {
+        if (length != byteLength * 2) {
+            return false;
+        }
+        for (int i = offset; i < offset + length; i++) {
+            if (!HexCodec.isHexDigit(src[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean hasLength(CharSequence hex, int byteLength) {
+        return hex != null && hex.length() == byteLength * 2 && HexCodec.isHex(hex);
+    }
+}
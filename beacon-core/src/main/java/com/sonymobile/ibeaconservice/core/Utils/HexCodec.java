@@ -0,0 +1,185 @@
+package com.sonymobile.ibeaconservice.core.Utils;
+
+/**
+ * Conversion between raw frame bytes and the lower case hex strings shown in the settings form
+ * and used by provisioning imports.
+ *
+ * Both directions are table driven. The buffer based methods write into caller supplied
+ * arrays and do not allocate; decoding validates the whole input before writing anything,
+ * so a bad string never leaves a half written frame behind.
+ */
+public final class HexCodec {
+    private static final char[] DIGITS = "0123456789abcdef".toCharArray();
+
+    /** byte value -> its two hex digits, high digit at 2 * value, low digit at 2 * value + 1 */
+    private static final char[] ENCODE_TABLE = new char[256 * 2];
+
+    /** ASCII char -> nibble value, -1 for anything that is not a hex digit */
+    private static final byte[] DECODE_TABLE = new byte[128];
+
+    static {
+        for (int i = 0; i < 256; i++) {
+            ENCODE_TABLE[2 * i] = DIGITS[i >>> 4];
+            ENCODE_TABLE[2 * i + 1] = DIGITS[i & 0x0f];
+        }
+        for (int i = 0; i < DECODE_TABLE.length; i++) {
+            DECODE_TABLE[i] = -1;
+        }
+        for (int i = 0; i < 10; i++) {
+            DECODE_TABLE['0' + i] = (byte)i;
+        }
+        for (int i = 0; i < 6; i++) {
+            DECODE_TABLE['a' + i] = (byte)(10 + i);
+            DECODE_TABLE['A' + i] = (byte)(10 + i);
+        }
+    }
+
+    private HexCodec() {
+    }
+
+    public static String convertValuesToHexString(byte[] bytes) {
+        char[] chars = new char[bytes.length * 2];
+
+        encode(bytes, 0, bytes.length, chars, 0);
+        return new String(chars);
+    }
+
+    /**
+     * @throws IllegalArgumentException if the string has an odd length or a non hex character
+     */
+    public static byte[] convertStringToBytes(String string) {
+        byte[] data = new byte[string.length() / 2];
+
+        decode(string, 0, string.length(), data, 0);
+        return data;
+    }
+
+    /**
+     * Encode length bytes as 2 * length lower case hex digits.
+     *
+     * @return number of chars written
+     */
+    public static int encode(byte[] src, int srcOffset, int length, char[] dst, int dstOffset) {
+        for (int i = 0; i < length; i++) {
+            int index = (src[srcOffset + i] & 0xff) << 1;
+
+            dst[dstOffset++] = ENCODE_TABLE[index];
+            dst[dstOffset++] = ENCODE_TABLE[index + 1];
+        }
+        return length * 2;
+    }
+
+    /**
+     * Decode charLength hex digits (either case) into charLength / 2 bytes.
+     *
+     * @return number of bytes written
+     * @throws IllegalArgumentException if charLength is odd or a character is not a hex digit,
+     * in which case dst is left untouched
+     */
+    public static int decode(CharSequence src, int srcOffset, int charLength, byte[] dst, int dstOffset) {
+        checkDecodable(src, srcOffset, charLength);
+
+        int end = srcOffset + charLength;
+        for (int i = srcOffset; i < end; i += 2) {
+            dst[dstOffset++] = (byte)((DECODE_TABLE[src.charAt(i)] << 4) | DECODE_TABLE[src.charAt(i + 1)]);
+        }
+        return charLength / 2;
+    }
+
+    /**
+     * char[] flavour of {@link #decode(CharSequence, int, int, byte[], int)} for parsers that
+     * keep their input in a reusable buffer.
+     */
+    public static int decode(char[] src, int srcOffset, int charLength, byte[] dst, int dstOffset) {
+        checkDecodable(src, srcOffset, charLength);
+
+        int end = srcOffset + charLength;
+        for (int i = srcOffset; i < end; i += 2) {
+            dst[dstOffset++] = (byte)((DECODE_TABLE[src[i]] << 4) | DECODE_TABLE[src[i + 1]]);
+        }
+        return charLength / 2;
+    }
+
+    /**
+     * Encode a batch of frames into one char buffer, each frame's digits following the last.
+     *
+     * @return number of chars written
+     */
+    public static int encodeAll(byte[][] frames, char[] dst, int dstOffset) {
+        int start = dstOffset;
+
+        for (byte[] frame : frames) {
+            dstOffset += encode(frame, 0, frame.length, dst, dstOffset);
+        }
+        return dstOffset - start;
+    }
+
+    /**
+     * Decode a batch of hex frames into one packed byte buffer. Every string is validated
+     * before the first byte is written.
+     *
+     * @return number of bytes written
+     * @throws IllegalArgumentException naming the index of the first invalid frame
+     */
+    public static int decodeAll(CharSequence[] hexFrames, byte[] dst, int dstOffset) {
+        int total = 0;
+
+        for (int i = 0; i < hexFrames.length; i++) {
+            if (!isHex(hexFrames[i])) {
+                throw new IllegalArgumentException("Invalid hex frame at index " + i);
+            }
+            total += hexFrames[i].length() / 2;
+        }
+        if (dst.length - dstOffset < total) {
+            throw new IndexOutOfBoundsException("Need " + total + " bytes, have " + (dst.length - dstOffset));
+        }
+        for (CharSequence hexFrame : hexFrames) {
+            int end = hexFrame.length();
+            for (int i = 0; i < end; i += 2) {
+                dst[dstOffset++] = (byte)((DECODE_TABLE[hexFrame.charAt(i)] << 4) | DECODE_TABLE[hexFrame.charAt(i + 1)]);
+            }
+        }
+        return total;
+    }
+
+    /**
+     * @return true if the sequence is non null, of even length and only holds hex digits
+     */
+    public static boolean isHex(CharSequence hex) {
+        if (hex == null || (hex.length() & 1) != 0) {
+            return false;
+        }
+        for (int i = 0; i < hex.length(); i++) {
+            if (!isHexDigit(hex.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public static boolean isHexDigit(char c) {
+        return c < DECODE_TABLE.length && DECODE_TABLE[c] >= 0;
+    }
+
+    private static void checkDecodable(CharSequence src, int srcOffset, int charLength) {
+        if ((charLength & 1) != 0) {
+            throw new IllegalArgumentException("Odd number of hex digits: " + charLength);
+        }
+        for (int i = srcOffset; i < srcOffset + charLength; i++) {
+            if (!isHexDigit(src.charAt(i))) {
+                throw new IllegalArgumentException("Not a hex digit at " + i + ": '" + src.charAt(i) + "'");
+            }
+        }
+    }
+
+    private static void checkDecodable(char[] src, int srcOffset, int charLength) {
+        if ((charLength & 1) != 0) {
+            throw new IllegalArgumentException("Odd number of hex digits: " + charLength);
+        }
+        for (int i = srcOffset; i < srcOffset + charLength; i++) {
+            if (!isHexDigit(src[i])) {
+                throw new IllegalArgumentException("Not a hex digit at " + i + ": '" + src[i] + "'");
+            }
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package com.sonymobile.ibeaconservice.core.Utils;
+
+/**
+ * Layout of the 23 bytes of iBeacon manufacturer data that we advertise.
+ *
+ * byte[0] 0x02 iBeacon product id
+ * byte[1] 0x15 data length. 20 bytes of manufacturer data + TX power
+ * byte[2]-[15] proximity UUID
+ * byte[16]-[17] battery voltage (last two bytes of the standard 16 byte UUID)
+ * byte[18]-[19] major
+ * byte[20]-[21] minor
+ * byte[22] TX Power
+ */
+public final class IBeaconFrames {
+    public static final int MANUFACTURER_ID = 0x004c;
+
+    public static final byte PRODUCT_ID = (byte)0x02;
+    public static final byte DATA_LENGTH = (byte)0x15;
+
+    public static final int FRAME_LENGTH = 23;
+
+    public static final int PRODUCT_ID_INDEX = 0;
+    public static final int DATA_LENGTH_INDEX = 1;
+    public static final int UUID_BYTES_INDEX = 2;
+    public static final int BATTERY_VOLTAGE_INDEX = 16;
+    public static final int MAJOR_BYTE_INDEX = 18;
+    public static final int MINOR_BYTE_INDEX = 20;
+    public static final int SIGNAL_POWER_BYTES_INDEX = 22;
+
+    public static final int UUID_DATA_LENGTH = 14;
+    public static final int BATTERY_VOLTAGE_DATA_LENGTH = 2;
+    public static final int MAJOR_BYTES_LENGTH = 2;
+    public static final int MINOR_BYTES_LENGTH = 2;
+    public static final int SIGNAL_POWER_BYTES_LENGTH = 1;
+
+    private static final byte[] DEFAULT_FRAME = {
+            PRODUCT_ID,//iBeacon product ID
+            DATA_LENGTH,//0x15 data length (21)
+            (byte)0xd3,//start proximity UUID
+            (byte)0xcb,
+            (byte)0xd6,
+            (byte)0xaa,
+            (byte)0xaa,
+            (byte)0xaa,
+            (byte)0xaa,
+            (byte)0xaa,
+            (byte)0xaa,
+            (byte)0xaa,
+            (byte)0xaa,
+            (byte)0xaa,
+            (byte)0xaa,
+            (byte)0x1f,//end proximity UUID
+            (byte)0xee,//Batt voltage 1
+            (byte)0xee,//Batt voltage 2
+            (byte)0xfe,// major 1
+            (byte)0xef,// major 2
+            (byte)0xaf,//minor 1
+            (byte)0xfa,//minor 2
+            (byte)0xc5 //signal power (-58? in two's complement)
+    };
+
+    private IBeaconFrames() {
+    }
+
+    /**
+     * @return a fresh copy of the default 23 byte frame
+     */
+    public static byte[] createDefaultFrame() {
+        return DEFAULT_FRAME.clone();
+    }
+
+    /**
+     * Check that the buffer holds an iBeacon frame header at the given offset.
+     *
+     * @param frame buffer holding the frame
+     * @param offset index of the product id byte
+     * @return true if there is room for a whole frame and the header matches
+     */
+    public static boolean isIBeaconFrame(byte[] frame, int offset) {
+        return frame != null
+                && offset >= 0
+                && frame.length - offset >= FRAME_LENGTH
+                && frame[offset + PRODUCT_ID_INDEX] == PRODUCT_ID
+                && frame[offset + DATA_LENGTH_INDEX] == DATA_LENGTH;
+    }
+}
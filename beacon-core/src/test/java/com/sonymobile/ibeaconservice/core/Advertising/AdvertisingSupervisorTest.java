@@ -0,0 +1,167 @@
+package com.sonymobile.ibeaconservice.core.Advertising;
+
+import com.sonymobile.ibeaconservice.core.Formats.FrameFormat;
+import com.sonymobile.ibeaconservice.core.Utils.FakeClock;
+import com.sonymobile.ibeaconservice.core.Utils.IBeaconFrames;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class AdvertisingSupervisorTest {
+    private static final long BACKOFF = 1_000L;
+
+    private final FakeClock mClock = new FakeClock(0);
+    private final List<String> mEvents = new ArrayList<>();
+    private final byte[] mFrames = new byte[3 * IBeaconFrames.FRAME_LENGTH];
+    private InMemoryBeaconTransmitter mTransmitter;
+    private AdvertisingSupervisor mSupervisor;
+
+    private final BeaconTransmitter.Callback mCallback = new BeaconTransmitter.Callback() {
+        @Override
+        public void onStarted(int setId) {
+            mEvents.add("started " + setId);
+        }
+
+        @Override
+        public void onStartFailed(int setId, int errorCode) {
+            mEvents.add("failed " + setId + " " + errorCode);
+        }
+
+        @Override
+        public void onStopped(int setId) {
+            mEvents.add("stopped " + setId);
+        }
+
+        @Override
+        public void onUpdated(int setId, long latencyNanos) {
+            mEvents.add("updated " + setId + " " + latencyNanos);
+        }
+    };
+
+    @Before
+    public void setUp() {
+        mTransmitter = new InMemoryBeaconTransmitter(mClock, 2, 2);
+        mSupervisor = new AdvertisingSupervisor(mClock, mTransmitter, new Random(1));
+        mSupervisor.setBackoff(BACKOFF, 8 * BACKOFF);
+    }
+
+    @Test
+    public void retriesTransientFailuresWithBackoff() {
+        mTransmitter.failNextStarts(3, BeaconTransmitter.ADVERTISE_FAILED_INTERNAL_ERROR);
+        mSupervisor.start(0, FrameFormat.IBEACON, mFrames, 1, mCallback);
+
+        long previousDelay = 0;
+        for (int attempt = 0; attempt < 3; attempt++) {
+            long deadline = mSupervisor.tick();
+            long delay = deadline - mClock.nanoTime();
+            long ceiling = BACKOFF << attempt;
+
+            assertTrue(delay >= ceiling / 2 && delay <= ceiling);
+            assertTrue(delay > previousDelay / 2);
+            previousDelay = delay;
+            mClock.set(deadline);
+            mSupervisor.tick();
+        }
+
+        assertEquals("[started 0]", mEvents.toString());
+        assertTrue(mSupervisor.isUp(0));
+        assertEquals(1, mTransmitter.getCurrentFrameIndex(0));
+        assertEquals(3, mSupervisor.getFailureCount(BeaconTransmitter.ADVERTISE_FAILED_INTERNAL_ERROR));
+        assertEquals(3, mSupervisor.getRetries());
+        assertEquals(1, mSupervisor.getRecoveries());
+        assertEquals(mClock.nanoTime(), mSupervisor.getLastRecoveryNanos());
+    }
+
+    @Test
+    public void backoffIsCapped() {
+        mTransmitter.failNextStarts(10, BeaconTransmitter.ADVERTISE_FAILED_INTERNAL_ERROR);
+        mSupervisor.start(0, FrameFormat.IBEACON, mFrames, 0, mCallback);
+
+        for (int attempt = 0; attempt < 9; attempt++) {
+            long deadline = mSupervisor.tick();
+            assertTrue(deadline - mClock.nanoTime() <= 8 * BACKOFF);
+            mClock.set(deadline);
+            mSupervisor.tick();
+        }
+    }
+
+    @Test
+    public void restartsDroppedSetWithLatestFrame() {
+        mSupervisor.start(0, FrameFormat.IBEACON, mFrames, 0, mCallback);
+        mTransmitter.simulateStackReset();
+        assertTrue(mSupervisor.update(0, FrameFormat.IBEACON, mFrames, 2));
+
+        mClock.set(mSupervisor.tick());
+        mSupervisor.tick();
+
+        assertEquals("[started 0, started 0]", mEvents.toString());
+        assertEquals(2, mTransmitter.getCurrentFrameIndex(0));
+        assertEquals(1, mSupervisor.getDrops());
+        assertEquals(1, mSupervisor.getRecoveries());
+    }
+
+    @Test
+    public void passesTooManyAdvertisersThrough() {
+        mSupervisor.start(0, FrameFormat.IBEACON, mFrames, 0, mCallback);
+        mSupervisor.start(1, FrameFormat.IBEACON, mFrames, 1, mCallback);
+        mSupervisor.start(2, FrameFormat.IBEACON, mFrames, 2, mCallback);
+
+        assertEquals("[started 0, started 1, failed 2 "
+                + BeaconTransmitter.ADVERTISE_FAILED_TOO_MANY_ADVERTISERS + "]", mEvents.toString());
+        assertEquals(AdvertisingSupervisor.NO_DEADLINE, mSupervisor.tick());
+    }
+
+    @Test
+    public void waitsForAdapterAndRestartsEverything() {
+        mSupervisor.start(0, FrameFormat.IBEACON, mFrames, 0, mCallback);
+        mSupervisor.start(1, FrameFormat.IBEACON, mFrames, 1, mCallback);
+        mEvents.clear();
+
+        mSupervisor.setAdapterEnabled(false);
+        assertEquals(0, mTransmitter.getRunningCount());
+        assertEquals(AdvertisingSupervisor.NO_DEADLINE, mSupervisor.tick());
+
+        mClock.advance(5 * BACKOFF);
+        mSupervisor.setAdapterEnabled(true);
+        mSupervisor.tick();
+
+        assertEquals("[started 0, started 1]", mEvents.toString());
+        assertEquals(2, mTransmitter.getRunningCount());
+        assertEquals(2, mSupervisor.getDrops());
+        assertEquals(5 * BACKOFF, mSupervisor.getMaxRecoveryNanos());
+    }
+
+    @Test
+    public void stopCancelsRetries() {
+        mTransmitter.failNextStarts(1, BeaconTransmitter.ADVERTISE_FAILED_INTERNAL_ERROR);
+        mSupervisor.start(0, FrameFormat.IBEACON, mFrames, 0, mCallback);
+        mSupervisor.stop(0);
+
+        assertEquals(AdvertisingSupervisor.NO_DEADLINE, mSupervisor.tick());
+        assertFalse(mSupervisor.update(0, FrameFormat.IBEACON, mFrames, 0));
+        assertEquals("[stopped 0]", mEvents.toString());
+    }
+
+    @Test
+    public void worksUnderMultiSetAdvertiser() {
+        MultiSetAdvertiser advertiser = new MultiSetAdvertiser(mClock, mSupervisor);
+
+        advertiser.start(mFrames, 3, 100 * BACKOFF);
+        mTransmitter.simulateStackReset();
+        //first retry of each set lands within the initial backoff
+        mClock.advance(BACKOFF);
+        mSupervisor.tick();
+
+        assertEquals(2, mTransmitter.getRunningCount());
+        assertEquals(MultiSetAdvertiser.STATE_RUNNING, advertiser.getSetState(0));
+        assertEquals(MultiSetAdvertiser.STATE_RUNNING, advertiser.getSetState(1));
+    }
+}
@@ -0,0 +1,188 @@
+package com.sonymobile.ibeaconservice.core.Advertising;
+
+import com.sonymobile.ibeaconservice.core.Formats.AltBeaconFormat;
+import com.sonymobile.ibeaconservice.core.Formats.BeaconFields;
+import com.sonymobile.ibeaconservice.core.Formats.EddystoneUidFormat;
+import com.sonymobile.ibeaconservice.core.Formats.FrameFormat;
+import com.sonymobile.ibeaconservice.core.Model.BeaconFrameView;
+import com.sonymobile.ibeaconservice.core.Utils.FakeClock;
+import com.sonymobile.ibeaconservice.core.Utils.IBeaconFrames;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class InMemoryBeaconTransmitterTest {
+    private final FakeClock mClock = new FakeClock(0);
+    private final List<String> mEvents = new ArrayList<>();
+    private final byte[] mFrames = new byte[4 * IBeaconFrames.FRAME_LENGTH];
+    private InMemoryBeaconTransmitter mTransmitter;
+
+    private final BeaconTransmitter.Callback mCallback = new BeaconTransmitter.Callback() {
+        @Override
+        public void onStarted(int setId) {
+            mEvents.add("started " + setId);
+        }
+
+        @Override
+        public void onStartFailed(int setId, int errorCode) {
+            mEvents.add("failed " + setId + " " + errorCode);
+        }
+
+        @Override
+        public void onStopped(int setId) {
+            mEvents.add("stopped " + setId);
+        }
+
+        @Override
+        public void onUpdated(int setId, long latencyNanos) {
+            mEvents.add("updated " + setId + " " + latencyNanos);
+        }
+    };
+
+    @Before
+    public void setUp() {
+        mTransmitter = new InMemoryBeaconTransmitter(mClock, 4, 2);
+    }
+
+    @Test
+    public void synchronousByDefault() {
+        mTransmitter.start(0, FrameFormat.IBEACON, mFrames, 3, mCallback);
+
+        assertEquals("[started 0]", mEvents.toString());
+        assertTrue(mTransmitter.isRunning(0));
+        assertEquals(3, mTransmitter.getCurrentFrameIndex(0));
+        assertTrue(mTransmitter.update(0, FrameFormat.IBEACON, mFrames, 1));
+        assertEquals(1, mTransmitter.getCurrentFrameIndex(0));
+        assertFalse(mTransmitter.update(1, FrameFormat.IBEACON, mFrames, 1));
+    }
+
+    @Test
+    public void advertisesFramesInTheirFormat() {
+        byte[] uuid = new byte[16];
+        for (int i = 0; i < uuid.length; i++) {
+            uuid[i] = (byte) (0xa0 + i);
+        }
+        //the last two UUID bytes are the battery voltage in the view
+        new BeaconFrameView().wrapFrame(mFrames, 2).writeHeader().setUUID(uuid, 0).setBatteryVoltage(0xaeaf)
+                .setMajor(0x1234).setMinor(0x5678).setTxPower(-59);
+        BeaconFields fields = new BeaconFields().setUuid(0xa0a1a2a3a4a5a6a7L, 0xa8a9aaabacadaeafL)
+                .setMajor(0x1234).setMinor(0x5678).setTxPower(-59);
+        FrameFormat eddystone = new EddystoneUidFormat();
+        FrameFormat altBeacon = new AltBeaconFormat();
+        byte[] expected = new byte[altBeacon.getMaxDataLength()];
+
+        mTransmitter.start(0, FrameFormat.EDDYSTONE_UID, mFrames, 2, mCallback);
+        assertEquals(FrameFormat.EDDYSTONE_UID, mTransmitter.getCurrentFormatId(0));
+        assertArrayEquals(Arrays.copyOf(expected, eddystone.encode(fields, expected, 0)),
+                mTransmitter.getCurrentData(0));
+
+        assertTrue(mTransmitter.update(0, FrameFormat.ALTBEACON, mFrames, 2));
+        assertEquals(FrameFormat.ALTBEACON, mTransmitter.getCurrentFormatId(0));
+        assertArrayEquals(Arrays.copyOf(expected, altBeacon.encode(fields, expected, 0)),
+                mTransmitter.getCurrentData(0));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsFormatsThatCannotCarryTheFrame() {
+        //an identity frame has no URL to put in an Eddystone-URL frame
+        mTransmitter.start(0, FrameFormat.EDDYSTONE_URL, mFrames, 0, mCallback);
+    }
+
+    @Test
+    public void deliversAfterLatency() {
+        mTransmitter.setStartLatencyNanos(1_000L);
+        mTransmitter.start(0, FrameFormat.IBEACON, mFrames, 0, mCallback);
+
+        assertEquals(0, mTransmitter.deliverDue());
+        assertFalse(mTransmitter.isRunning(0));
+        assertEquals(1_000L, mTransmitter.getNextEventDue());
+
+        mClock.advance(1_000L);
+        assertEquals(1, mTransmitter.deliverDue());
+        assertEquals("[started 0]", mEvents.toString());
+        assertTrue(mTransmitter.isRunning(0));
+    }
+
+    @Test
+    public void reportsUpdatesAfterLatency() {
+        mTransmitter.setStartLatencyNanos(1_000L);
+        mTransmitter.start(0, FrameFormat.IBEACON, mFrames, 0, mCallback);
+        mClock.advance(1_000L);
+        mTransmitter.deliverDue();
+
+        assertTrue(mTransmitter.update(0, FrameFormat.IBEACON, mFrames, 1));
+        mTransmitter.setParameters(BeaconTransmitter.INTERVAL_LOW, BeaconTransmitter.TX_POWER_HIGH);
+        mClock.advance(1_000L);
+        assertEquals(2, mTransmitter.deliverDue());
+        assertEquals("[started 0, updated 0 1000, updated 0 1000]", mEvents.toString());
+
+        //an update still in flight when the set goes away is not reported
+        mEvents.clear();
+        mTransmitter.update(0, FrameFormat.IBEACON, mFrames, 2);
+        mTransmitter.stop(0);
+        mClock.advance(1_000L);
+        mTransmitter.deliverDue();
+        assertEquals("[stopped 0]", mEvents.toString());
+    }
+
+    @Test
+    public void refusesSetsBeyondHardware() {
+        mTransmitter.start(0, FrameFormat.IBEACON, mFrames, 0, mCallback);
+        mTransmitter.start(1, FrameFormat.IBEACON, mFrames, 1, mCallback);
+        mTransmitter.start(2, FrameFormat.IBEACON, mFrames, 2, mCallback);
+
+        assertEquals("[started 0, started 1, failed 2 "
+                + BeaconTransmitter.ADVERTISE_FAILED_TOO_MANY_ADVERTISERS + "]", mEvents.toString());
+        assertEquals(1, mTransmitter.getFailures());
+    }
+
+    @Test
+    public void injectsFailures() {
+        mTransmitter.failNextStarts(1, BeaconTransmitter.ADVERTISE_FAILED_INTERNAL_ERROR);
+        mTransmitter.start(0, FrameFormat.IBEACON, mFrames, 0, mCallback);
+        mTransmitter.start(0, FrameFormat.IBEACON, mFrames, 0, mCallback);
+        mTransmitter.start(0, FrameFormat.IBEACON, mFrames, 0, mCallback);
+
+        assertEquals("[failed 0 " + BeaconTransmitter.ADVERTISE_FAILED_INTERNAL_ERROR + ", started 0, failed 0 "
+                + BeaconTransmitter.ADVERTISE_FAILED_ALREADY_STARTED + "]", mEvents.toString());
+    }
+
+    @Test
+    public void randomFailuresAreReproducible() {
+        mTransmitter.setHardwareSets(4);
+        mTransmitter.setStartFailureRate(0.5, BeaconTransmitter.ADVERTISE_FAILED_INTERNAL_ERROR, 42L);
+        for (int set = 0; set < 4; set++) {
+            mTransmitter.start(set, FrameFormat.IBEACON, mFrames, set, mCallback);
+        }
+        String firstRun = mEvents.toString();
+
+        mEvents.clear();
+        InMemoryBeaconTransmitter again = new InMemoryBeaconTransmitter(mClock, 4, 4);
+        again.setStartFailureRate(0.5, BeaconTransmitter.ADVERTISE_FAILED_INTERNAL_ERROR, 42L);
+        for (int set = 0; set < 4; set++) {
+            again.start(set, FrameFormat.IBEACON, mFrames, set, mCallback);
+        }
+        assertEquals(firstRun, mEvents.toString());
+    }
+
+    @Test
+    public void stackResetDropsRunningSets() {
+        mTransmitter.start(0, FrameFormat.IBEACON, mFrames, 0, mCallback);
+        mTransmitter.start(1, FrameFormat.IBEACON, mFrames, 1, mCallback);
+        mEvents.clear();
+
+        mTransmitter.simulateStackReset();
+
+        assertEquals("[stopped 0, stopped 1]", mEvents.toString());
+        assertEquals(0, mTransmitter.getRunningCount());
+    }
+}
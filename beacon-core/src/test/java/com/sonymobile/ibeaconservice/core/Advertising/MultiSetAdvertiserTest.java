@@ -0,0 +1,109 @@
+package com.sonymobile.ibeaconservice.core.Advertising;
+
+import com.sonymobile.ibeaconservice.core.Model.BeaconFrameView;
+import com.sonymobile.ibeaconservice.core.Utils.FakeClock;
+import com.sonymobile.ibeaconservice.core.Utils.IBeaconFrames;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class MultiSetAdvertiserTest {
+    private static final long SLICE = 50_000_000L;
+
+    private final FakeClock mClock = new FakeClock(0);
+
+    private static byte[] createFleet(int count) {
+        byte[] frames = new byte[count * IBeaconFrames.FRAME_LENGTH];
+        BeaconFrameView view = new BeaconFrameView();
+
+        for (int i = 0; i < count; i++) {
+            view.wrapFrame(frames, i).writeHeader().setMinor(i);
+        }
+        return frames;
+    }
+
+    @Test
+    public void oneSetPerIdentityWhenCapacityAllows() {
+        InMemoryBeaconTransmitter transmitter = new InMemoryBeaconTransmitter(mClock, 4, 4);
+        MultiSetAdvertiser advertiser = new MultiSetAdvertiser(mClock, transmitter);
+
+        long deadline = advertiser.start(createFleet(3), 3, SLICE);
+
+        assertEquals(MultiSetAdvertiser.NO_DEADLINE, deadline);
+        assertFalse(advertiser.isMultiplexing());
+        assertEquals(3, transmitter.getRunningCount());
+        for (int set = 0; set < 3; set++) {
+            assertEquals(MultiSetAdvertiser.STATE_RUNNING, advertiser.getSetState(set));
+            assertEquals(set, transmitter.getCurrentFrameIndex(set));
+            assertNull(advertiser.getScheduler(set));
+        }
+    }
+
+    @Test
+    public void timeMultiplexesWhenFleetExceedsCapacity() {
+        InMemoryBeaconTransmitter transmitter = new InMemoryBeaconTransmitter(mClock, 2, 2);
+        MultiSetAdvertiser advertiser = new MultiSetAdvertiser(mClock, transmitter);
+
+        long deadline = advertiser.start(createFleet(5), 5, SLICE);
+
+        assertTrue(advertiser.isMultiplexing());
+        assertEquals(SLICE, deadline);
+        //set 0 carries identities 0, 2, 4 and set 1 carries 1, 3
+        assertEquals(0, transmitter.getCurrentFrameIndex(0));
+        assertEquals(1, transmitter.getCurrentFrameIndex(1));
+
+        mClock.set(deadline);
+        deadline = advertiser.tick();
+        assertEquals(2, transmitter.getCurrentFrameIndex(0));
+        assertEquals(3, transmitter.getCurrentFrameIndex(1));
+
+        mClock.set(deadline);
+        deadline = advertiser.tick();
+        assertEquals(4, transmitter.getCurrentFrameIndex(0));
+        assertEquals(1, transmitter.getCurrentFrameIndex(1));
+
+        mClock.set(deadline);
+        advertiser.tick();
+        assertEquals(0, transmitter.getCurrentFrameIndex(0));
+        assertEquals(6, transmitter.getUpdates());
+    }
+
+    @Test
+    public void discoversRealCapacityAndReplans() {
+        InMemoryBeaconTransmitter transmitter = new InMemoryBeaconTransmitter(mClock, 4, 2);
+        MultiSetAdvertiser advertiser = new MultiSetAdvertiser(mClock, transmitter);
+        final long[] scheduled = {-1};
+
+        advertiser.setScheduleListener(new MultiSetAdvertiser.ScheduleListener() {
+            @Override
+            public void onScheduleChanged(long nextDeadlineNanos) {
+                scheduled[0] = nextDeadlineNanos;
+            }
+        });
+        long deadline = advertiser.start(createFleet(4), 4, SLICE);
+
+        assertEquals(2, advertiser.getCapacity());
+        assertEquals(SLICE, scheduled[0]);
+        assertEquals(SLICE, deadline);
+        assertEquals(2, advertiser.getSetCount());
+        assertEquals(2, transmitter.getRunningCount());
+        assertTrue(advertiser.isMultiplexing());
+    }
+
+    @Test
+    public void stopReleasesAllSets() {
+        InMemoryBeaconTransmitter transmitter = new InMemoryBeaconTransmitter(mClock, 3, 3);
+        MultiSetAdvertiser advertiser = new MultiSetAdvertiser(mClock, transmitter);
+
+        advertiser.start(createFleet(7), 7, SLICE);
+        advertiser.stop();
+
+        assertEquals(0, transmitter.getRunningCount());
+        assertEquals(0, advertiser.getSetCount());
+        assertEquals(MultiSetAdvertiser.NO_DEADLINE, advertiser.tick());
+    }
+}
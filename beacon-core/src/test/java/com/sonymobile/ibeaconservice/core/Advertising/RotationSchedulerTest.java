@@ -0,0 +1,97 @@
+package com.sonymobile.ibeaconservice.core.Advertising;
+
+import com.sonymobile.ibeaconservice.core.Model.BeaconFrameView;
+import com.sonymobile.ibeaconservice.core.Utils.FakeClock;
+import com.sonymobile.ibeaconservice.core.Utils.IBeaconFrames;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class RotationSchedulerTest {
+    private static final long SLICE = 100_000_000L;
+
+    private FakeClock mClock;
+    private final List<Integer> mMinors = new ArrayList<>();
+    private RotationScheduler mScheduler;
+
+    @Before
+    public void setUp() {
+        mClock = new FakeClock(1_000L);
+        mScheduler = new RotationScheduler(mClock, new RotationScheduler.SlotAdvertiser() {
+            private final BeaconFrameView mView = new BeaconFrameView();
+
+            @Override
+            public void advertiseSlot(int slot, byte[] ring, int offset) {
+                mMinors.add(mView.wrap(ring, offset).getMinor());
+            }
+        }, 50);
+
+        byte[] frames = new byte[3 * IBeaconFrames.FRAME_LENGTH];
+        BeaconFrameView view = new BeaconFrameView();
+        for (int i = 0; i < 3; i++) {
+            view.wrapFrame(frames, i).writeHeader().setMinor(i);
+        }
+        mScheduler.setFrames(frames, 3);
+        mScheduler.setTimeSliceNanos(SLICE);
+    }
+
+    @Test
+    public void cyclesThroughRingOnSchedule() {
+        long deadline = mScheduler.start();
+
+        for (int i = 0; i < 4; i++) {
+            mClock.set(deadline);
+            deadline = mScheduler.tick();
+        }
+
+        assertEquals(1_000L + 5 * SLICE, deadline);
+        assertEquals("[0, 1, 2, 0, 1]", mMinors.toString());
+        assertEquals(0, mScheduler.getMaxJitterNanos());
+    }
+
+    @Test
+    public void lateTicksDoNotDrift() {
+        long deadline = mScheduler.start();
+
+        mClock.set(deadline + 5_000L);
+        long next = mScheduler.tick();
+
+        assertEquals(deadline + SLICE, next);
+        assertEquals(5_000L, mScheduler.getMaxJitterNanos());
+        assertEquals(5_000L, mScheduler.getMeanJitterNanos());
+    }
+
+    @Test
+    public void veryLateTickSkipsMissedSlots() {
+        long deadline = mScheduler.start();
+
+        mClock.set(deadline + SLICE + 10L);
+        long next = mScheduler.tick();
+
+        assertEquals(deadline + 2 * SLICE, next);
+        assertEquals(1, mScheduler.getMissedSlots());
+        assertEquals(10L, mScheduler.getMaxJitterNanos());
+        assertEquals("[0, 2]", mMinors.toString());
+    }
+
+    @Test
+    public void earlyTickIsIgnored() {
+        long deadline = mScheduler.start();
+
+        mClock.set(deadline - 1);
+        assertEquals(deadline, mScheduler.tick());
+        assertEquals(0, mScheduler.getTicks());
+        assertEquals(1, mMinors.size());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void framesCannotChangeWhileRunning() {
+        mScheduler.start();
+        mScheduler.addFrame(IBeaconFrames.createDefaultFrame(), 0);
+    }
+}
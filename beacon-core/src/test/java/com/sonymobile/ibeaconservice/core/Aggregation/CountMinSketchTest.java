@@ -0,0 +1,54 @@
+package com.sonymobile.ibeaconservice.core.Aggregation;
+
+import com.sonymobile.ibeaconservice.core.Model.BeaconId;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class CountMinSketchTest {
+
+    @Test
+    public void neverUndercountsAndStaysNearTheTruth() {
+        CountMinSketch sketch = new CountMinSketch(4, 1024);
+
+        //beacon i is seen i % 10 + 1 times
+        for (int beacon = 0; beacon < 2000; beacon++) {
+            for (int i = 0; i <= beacon % 10; i++) {
+                sketch.add(BeaconId.hash64(1, 2, beacon));
+            }
+        }
+        long bound = (long) Math.ceil(Math.E / 1024 * sketch.getTotal());
+        int over = 0;
+
+        for (int beacon = 0; beacon < 2000; beacon++) {
+            int estimate = sketch.estimate(BeaconId.hash64(1, 2, beacon));
+
+            assertTrue(estimate >= beacon % 10 + 1);
+            if (estimate - (beacon % 10 + 1) > bound) {
+                over++;
+            }
+        }
+        //the bound is allowed to fail with probability e^-depth
+        assertTrue(over < 2000 * Math.exp(-4) * 2);
+    }
+
+    @Test
+    public void mergeAddsCounts() {
+        CountMinSketch first = new CountMinSketch(2, 64);
+        CountMinSketch second = new CountMinSketch(2, 64);
+
+        first.add(42);
+        second.add(42);
+        second.add(42);
+        first.merge(second);
+        assertEquals(3, first.estimate(42));
+        assertEquals(3, first.getTotal());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsWidthNotPowerOfTwo() {
+        new CountMinSketch(4, 1000);
+    }
+}
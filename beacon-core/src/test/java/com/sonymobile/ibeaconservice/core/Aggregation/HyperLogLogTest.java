@@ -0,0 +1,56 @@
+package com.sonymobile.ibeaconservice.core.Aggregation;
+
+import com.sonymobile.ibeaconservice.core.Model.BeaconId;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class HyperLogLogTest {
+
+    private static long hash(int beacon) {
+        return BeaconId.hash64(0x1234L, 0x5678L, beacon);
+    }
+
+    @Test
+    public void estimatesWithinThreeStandardErrors() {
+        HyperLogLog sketch = new HyperLogLog(HyperLogLog.DEFAULT_PRECISION);
+
+        for (int count : new int[] {10, 1000, 100000, 1000000}) {
+            sketch.clear();
+            //every beacon seen several times, duplicates must not count
+            for (int repeat = 0; repeat < 3; repeat++) {
+                for (int beacon = 0; beacon < count; beacon++) {
+                    sketch.add(hash(beacon));
+                }
+            }
+            double error = Math.abs(sketch.estimate() - count) / (double) count;
+
+            assertTrue(count + " estimated as " + sketch.estimate(), error < 3 * sketch.getStandardError());
+        }
+    }
+
+    @Test
+    public void mergeCountsTheUnion() {
+        HyperLogLog first = new HyperLogLog(HyperLogLog.DEFAULT_PRECISION);
+        HyperLogLog second = new HyperLogLog(HyperLogLog.DEFAULT_PRECISION);
+
+        for (int beacon = 0; beacon < 6000; beacon++) {
+            first.add(hash(beacon));
+            second.add(hash(beacon + 4000));
+        }
+        first.merge(second);
+        assertEquals(10000, first.estimate(), 10000 * 3 * first.getStandardError());
+    }
+
+    @Test
+    public void emptySketchEstimatesZero() {
+        assertEquals(0, new HyperLogLog(HyperLogLog.MIN_PRECISION).estimate());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsMergeOfOtherPrecision() {
+        new HyperLogLog(10).merge(new HyperLogLog(11));
+    }
+}
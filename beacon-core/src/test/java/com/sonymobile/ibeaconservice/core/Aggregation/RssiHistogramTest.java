@@ -0,0 +1,38 @@
+package com.sonymobile.ibeaconservice.core.Aggregation;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class RssiHistogramTest {
+
+    @Test
+    public void percentilesAreExact() {
+        RssiHistogram histogram = new RssiHistogram();
+
+        for (int rssi = -100; rssi < 0; rssi++) {
+            histogram.record(rssi);
+        }
+        assertEquals(100, histogram.getCount());
+        assertEquals(-100, histogram.getPercentile(0));
+        assertEquals(-51, histogram.getPercentile(50));
+        assertEquals(-11, histogram.getPercentile(90));
+        assertEquals(-1, histogram.getPercentile(100));
+    }
+
+    @Test
+    public void mergeAddsAndClampsOutOfRange() {
+        RssiHistogram first = new RssiHistogram();
+        RssiHistogram second = new RssiHistogram();
+
+        first.record(-200);
+        second.record(500);
+        first.merge(second);
+        assertEquals(2, first.getCount());
+        assertEquals(RssiHistogram.MIN_RSSI, first.getPercentile(50));
+        assertEquals(RssiHistogram.MAX_RSSI, first.getPercentile(100));
+
+        first.clear();
+        assertEquals(RssiHistogram.MIN_RSSI, first.getPercentile(50));
+    }
+}
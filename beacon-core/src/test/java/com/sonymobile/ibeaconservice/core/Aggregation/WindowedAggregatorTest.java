@@ -0,0 +1,171 @@
+package com.sonymobile.ibeaconservice.core.Aggregation;
+
+import com.sonymobile.ibeaconservice.core.Model.BeaconId;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class WindowedAggregatorTest {
+    private static final long SECOND = 1_000_000_000L;
+    private static final long UUID_HI = 0xd3cbd6aaaaaaaaaaL;
+    private static final long UUID_LO = 0xaaaaaaaaaa1feeeeL;
+
+    private static class Recorder implements WindowedAggregator.Listener {
+        final List<long[]> mWindows = new ArrayList<>();
+        final List<String> mGroups = new ArrayList<>();
+
+        @Override
+        public void onWindow(WindowedAggregator.Window window) {
+            mWindows.add(new long[] {window.getStartNanos(), window.getEndNanos(), window.getSightings(),
+                    window.getDistinctBeacons(), window.getOtherSightings()});
+            for (int i = 0; i < window.getGroupCount(); i++) {
+                mGroups.add(window.getGroupKey(i).getMajor() + ":" + window.getGroupSightings(i) + ":"
+                        + window.getGroupRssiPercentile(i, 50));
+            }
+        }
+    }
+
+    private static int key(int major, int minor) {
+        return BeaconId.packMajorMinor(major, minor);
+    }
+
+    @Test
+    public void tumblingWindowsCountPerWindow() {
+        WindowedAggregator aggregator = WindowedAggregator.tumbling(60 * SECOND, BeaconId.UUID_AND_MAJOR);
+        Recorder recorder = new Recorder();
+
+        aggregator.setListener(recorder);
+        for (int i = 0; i < 300; i++) {
+            aggregator.onSighting(UUID_HI, UUID_LO, key(i % 2, i % 30), -50 - i % 2 * 20, 10 * SECOND + i);
+        }
+        aggregator.onSighting(UUID_HI, UUID_LO, key(0, 0), -60, 61 * SECOND);
+
+        assertEquals(1, recorder.mWindows.size());
+        long[] window = recorder.mWindows.get(0);
+        assertEquals(0, window[0]);
+        assertEquals(60 * SECOND, window[1]);
+        assertEquals(300, window[2]);
+        assertEquals(30, window[3]);
+        assertEquals(2, recorder.mGroups.size());
+        assertTrue(recorder.mGroups.contains("0:150:-50"));
+        assertTrue(recorder.mGroups.contains("1:150:-70"));
+    }
+
+    @Test
+    public void slidingWindowsOverlap() {
+        WindowedAggregator aggregator = WindowedAggregator.sliding(3 * SECOND, SECOND, BeaconId.UUID_AND_MAJOR);
+        Recorder recorder = new Recorder();
+
+        aggregator.setListener(recorder);
+        for (int second = 0; second < 5; second++) {
+            aggregator.onSighting(UUID_HI, UUID_LO, key(0, second), -60, second * SECOND);
+        }
+        aggregator.advanceTo(5 * SECOND);
+
+        //windows ending at 1..5 seconds, the first ones still filling up
+        assertEquals(5, recorder.mWindows.size());
+        long[] sightings = new long[5];
+        for (int i = 0; i < 5; i++) {
+            sightings[i] = recorder.mWindows.get(i)[2];
+        }
+        assertEquals("[1, 2, 3, 3, 3]", Arrays.toString(sightings));
+        assertEquals(2 * SECOND, recorder.mWindows.get(4)[0]);
+        assertEquals(5 * SECOND, recorder.mWindows.get(4)[1]);
+        assertEquals(3, recorder.mWindows.get(4)[3]);
+    }
+
+    @Test
+    public void perBeaconCountsAndLateSightings() {
+        WindowedAggregator aggregator = WindowedAggregator.tumbling(SECOND, BeaconId.UUID_AND_MAJOR);
+        final int[] counts = new int[2];
+
+        aggregator.setListener(new WindowedAggregator.Listener() {
+            @Override
+            public void onWindow(WindowedAggregator.Window window) {
+                counts[0] = window.getSightings(UUID_HI, UUID_LO, key(1, 1));
+                counts[1] = window.getSightings(UUID_HI, UUID_LO, key(1, 2));
+            }
+        });
+        for (int i = 0; i < 7; i++) {
+            aggregator.onSighting(UUID_HI, UUID_LO, key(1, 1), -60, i);
+        }
+        aggregator.onSighting(UUID_HI, UUID_LO, key(1, 2), -60, 8);
+        aggregator.onSighting(UUID_HI, UUID_LO, key(1, 2), -60, SECOND);
+        aggregator.onSighting(UUID_HI, UUID_LO, key(1, 2), -60, SECOND - 1);
+
+        assertEquals(7, counts[0]);
+        assertEquals(1, counts[1]);
+        assertEquals(1, aggregator.getLateSightings());
+    }
+
+    @Test
+    public void batchDelayedPastTheBoundaryIsCountedWithinLateness() {
+        WindowedAggregator aggregator = WindowedAggregator.tumbling(60 * SECOND, 2 * SECOND,
+                BeaconId.UUID_AND_MAJOR);
+        Recorder recorder = new Recorder();
+
+        aggregator.setListener(recorder);
+        aggregator.onSighting(UUID_HI, UUID_LO, key(0, 0), -60, 30 * SECOND);
+        //the boundary tick, then the batch scanned in the window's last second and the next one's first
+        assertEquals(62 * SECOND, aggregator.advanceTo(60 * SECOND + 500_000_000L));
+        for (int i = 0; i < 10; i++) {
+            aggregator.onSighting(UUID_HI, UUID_LO, key(0, i), -60, 59 * SECOND + i * 100_000_000L);
+        }
+        aggregator.onSighting(UUID_HI, UUID_LO, key(0, 0), -60, 60 * SECOND + 100_000_000L);
+        assertEquals(0, recorder.mWindows.size());
+
+        assertEquals(122 * SECOND, aggregator.advanceTo(62 * SECOND));
+        assertEquals(1, recorder.mWindows.size());
+        assertEquals(11, recorder.mWindows.get(0)[2]);
+        assertEquals(0, aggregator.getLateSightings());
+
+        //past the lateness it is dropped
+        aggregator.onSighting(UUID_HI, UUID_LO, key(0, 0), -60, 59 * SECOND);
+        assertEquals(1, aggregator.getLateSightings());
+        aggregator.advanceTo(122 * SECOND);
+        assertEquals(1, recorder.mWindows.get(1)[2]);
+    }
+
+    @Test
+    public void groupsOverflowIntoOtherAndAreReused() {
+        WindowedAggregator aggregator = new WindowedAggregator(SECOND, SECOND, 2, BeaconId.UUID_AND_MAJOR);
+        Recorder recorder = new Recorder();
+
+        aggregator.setListener(recorder);
+        for (int major = 0; major < 5; major++) {
+            aggregator.onSighting(UUID_HI, UUID_LO, key(major, 0), -60, 0);
+        }
+        assertEquals(2, aggregator.getGroupCount());
+        aggregator.onSighting(UUID_HI, UUID_LO, key(7, 0), -60, SECOND);
+
+        assertEquals(3, recorder.mWindows.get(0)[4]);
+        //the first window's groups are gone with their pane, so the new one got a slot
+        assertEquals(1, aggregator.getGroupCount());
+        aggregator.advanceTo(2 * SECOND);
+        assertEquals("7:1:-60", recorder.mGroups.get(recorder.mGroups.size() - 1));
+        assertEquals(0, recorder.mWindows.get(1)[4]);
+    }
+
+    @Test
+    public void quietGapsEmitAtMostAWindowOfPanes() {
+        WindowedAggregator aggregator = WindowedAggregator.sliding(4 * SECOND, SECOND, BeaconId.UUID_ONLY);
+        Recorder recorder = new Recorder();
+
+        aggregator.setListener(recorder);
+        aggregator.onSighting(UUID_HI, UUID_LO, key(0, 0), -60, 0);
+        assertEquals(1001 * SECOND, aggregator.advanceTo(1000 * SECOND));
+        assertEquals(4, recorder.mWindows.size());
+        assertEquals(0, aggregator.getGroupCount());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsWindowNotMultipleOfSlide() {
+        WindowedAggregator.sliding(10 * SECOND, 3 * SECOND, BeaconId.UUID_ONLY);
+    }
+}
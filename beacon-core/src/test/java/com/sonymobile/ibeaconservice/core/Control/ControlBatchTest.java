@@ -0,0 +1,189 @@
+package com.sonymobile.ibeaconservice.core.Control;
+
+import com.sonymobile.ibeaconservice.core.Advertising.BeaconTransmitter;
+import com.sonymobile.ibeaconservice.core.Formats.FrameFormat;
+import com.sonymobile.ibeaconservice.core.Formats.FrameFormatRegistry;
+import com.sonymobile.ibeaconservice.core.Model.BeaconFrameView;
+import com.sonymobile.ibeaconservice.core.Utils.IBeaconFrames;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ControlBatchTest {
+    private final BeaconFrameView mView = new BeaconFrameView();
+
+    private static byte[] frames(int count) {
+        byte[] frames = new byte[count * IBeaconFrames.FRAME_LENGTH];
+        BeaconFrameView view = new BeaconFrameView();
+
+        for (int i = 0; i < count; i++) {
+            view.wrapFrame(frames, i).writeHeader().setMinor(i);
+        }
+        return frames;
+    }
+
+    private class RecordingHandler implements ControlBatch.Handler {
+        final List<String> mRecords = new ArrayList<>();
+
+        @Override
+        public void onAdvertise(ByteBuffer batch, int formatId, int frameOffset) {
+            mRecords.add("advertise " + formatId + " " + minorAt(batch, frameOffset));
+        }
+
+        @Override
+        public void onRotate(ByteBuffer batch, int formatId, int framesOffset, int frameCount, long sliceMillis) {
+            mRecords.add("rotate " + formatId + " " + frameCount + " " + sliceMillis + " last "
+                    + minorAt(batch, framesOffset + (frameCount - 1) * IBeaconFrames.FRAME_LENGTH));
+        }
+
+        @Override
+        public void onParameters(int interval, int txPowerLevel) {
+            mRecords.add("parameters " + interval + " " + txPowerLevel);
+        }
+
+        @Override
+        public void onStop() {
+            mRecords.add("stop");
+        }
+
+        private int minorAt(ByteBuffer batch, int offset) {
+            byte[] frame = new byte[IBeaconFrames.FRAME_LENGTH];
+
+            for (int i = 0; i < frame.length; i++) {
+                frame[i] = batch.get(offset + i);
+            }
+            return mView.wrap(frame, 0).getMinor();
+        }
+    }
+
+    @Test
+    public void roundTripsEveryRecordInOrder() {
+        byte[] fleet = frames(1000);
+        ByteBuffer buffer = ByteBuffer.allocateDirect(ControlBatch.HEADER_LENGTH
+                + ControlBatch.sizeOfParameters() + ControlBatch.sizeOfRotate(1000)
+                + ControlBatch.sizeOfAdvertise() + ControlBatch.sizeOfStop());
+
+        int length = new ControlBatchWriter(buffer)
+                .parameters(BeaconTransmitter.INTERVAL_LOW, BeaconTransmitter.TX_POWER_HIGH)
+                .rotate(FrameFormat.EDDYSTONE_UID, fleet, 1000, 250)
+                .advertise(fleet, 7 * IBeaconFrames.FRAME_LENGTH)
+                .stop()
+                .finish();
+        assertEquals(buffer.capacity(), length);
+
+        buffer.flip();
+        RecordingHandler handler = new RecordingHandler();
+        assertEquals(4, ControlBatch.apply(buffer, handler));
+        assertEquals(0, buffer.position());
+        assertEquals("[parameters 160 1, rotate 2 1000 250 last 999, advertise 0 7, stop]",
+                handler.mRecords.toString());
+    }
+
+    @Test
+    public void skipsUnknownRecords() {
+        ByteBuffer buffer = ByteBuffer.allocate(128);
+        ControlBatchWriter writer = new ControlBatchWriter(buffer).stop();
+
+        //a record type from a newer writer
+        buffer.put((byte) 99).put((byte) 0).putShort((short) 0).putInt(3).put(new byte[3]);
+        writer.stop();
+        int length = writer.finish();
+        //the writer only counted its own records
+        buffer.putInt(ControlBatch.RECORD_COUNT_INDEX, 3);
+        buffer.flip();
+
+        RecordingHandler handler = new RecordingHandler();
+        assertEquals(ControlBatch.HEADER_LENGTH + 2 * ControlBatch.sizeOfStop()
+                + ControlBatch.RECORD_HEADER_LENGTH + 3, length);
+        assertEquals(3, ControlBatch.apply(buffer, handler));
+        assertEquals("[stop, stop]", handler.mRecords.toString());
+    }
+
+    @Test
+    public void malformedBatchAppliesNothing() {
+        byte[] fleet = frames(2);
+        ByteBuffer buffer = ByteBuffer.allocate(256);
+
+        new ControlBatchWriter(buffer).stop().rotate(fleet, 2, 100).finish();
+        buffer.flip();
+        //break the header of the last frame
+        buffer.put(buffer.limit() - IBeaconFrames.FRAME_LENGTH, (byte) 0x03);
+
+        RecordingHandler handler = new RecordingHandler();
+        try {
+            ControlBatch.apply(buffer, handler);
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("frame 1"));
+        }
+        assertTrue(handler.mRecords.isEmpty());
+    }
+
+    @Test
+    public void rejectsTruncatedAndForeignBatches() {
+        ByteBuffer buffer = ByteBuffer.allocate(256);
+
+        new ControlBatchWriter(buffer).rotate(frames(3), 3, 100).finish();
+        buffer.flip();
+        assertEquals(1, ControlBatch.validate(buffer));
+
+        expectRejected((ByteBuffer) buffer.duplicate().limit(buffer.limit() - 1));
+        expectRejected((ByteBuffer) buffer.duplicate().limit(ControlBatch.HEADER_LENGTH - 1));
+        ByteBuffer foreign = ByteBuffer.allocate(64);
+        foreign.putInt(0, 0xcafebabe);
+        expectRejected(foreign);
+    }
+
+    @Test
+    public void rejectsParametersOutOfRange() {
+        int[][] parameters = {
+                {BeaconTransmitter.INTERVAL_MIN - 1, BeaconTransmitter.TX_POWER_MEDIUM},
+                {BeaconTransmitter.INTERVAL_MAX + 1, BeaconTransmitter.TX_POWER_MEDIUM},
+                {BeaconTransmitter.INTERVAL_HIGH, BeaconTransmitter.TX_POWER_MIN - 1},
+                {BeaconTransmitter.INTERVAL_HIGH, BeaconTransmitter.TX_POWER_MAX + 1},
+        };
+
+        for (int[] record : parameters) {
+            ByteBuffer buffer = ByteBuffer.allocate(64);
+
+            new ControlBatchWriter(buffer).parameters(record[0], record[1]).finish();
+            buffer.flip();
+            expectRejected(buffer);
+        }
+        ByteBuffer bounds = ByteBuffer.allocate(64);
+
+        new ControlBatchWriter(bounds).parameters(BeaconTransmitter.INTERVAL_MAX, BeaconTransmitter.TX_POWER_MIN)
+                .finish();
+        bounds.flip();
+        assertEquals(1, ControlBatch.validate(bounds));
+    }
+
+    private static void expectRejected(ByteBuffer batch) {
+        try {
+            ControlBatch.validate(batch);
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    @Test
+    public void rejectsFormatsThatCannotCarryTheFrames() {
+        ByteBuffer unknown = ByteBuffer.allocate(64);
+        new ControlBatchWriter(unknown).advertise(FrameFormatRegistry.MAX_FORMATS, frames(1), 0).finish();
+        unknown.flip();
+        expectRejected(unknown);
+
+        //identity frames carry no URL
+        ByteBuffer url = ByteBuffer.allocate(256);
+        new ControlBatchWriter(url).rotate(FrameFormat.EDDYSTONE_URL, frames(2), 2, 100).finish();
+        url.flip();
+        expectRejected(url);
+    }
+}
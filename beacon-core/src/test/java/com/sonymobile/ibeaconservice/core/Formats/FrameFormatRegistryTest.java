@@ -0,0 +1,176 @@
+package com.sonymobile.ibeaconservice.core.Formats;
+
+import com.sonymobile.ibeaconservice.core.Model.BeaconFrameView;
+import com.sonymobile.ibeaconservice.core.Model.BeaconId;
+import com.sonymobile.ibeaconservice.core.Scanning.ScanRecords;
+import com.sonymobile.ibeaconservice.core.Utils.IBeaconFrames;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class FrameFormatRegistryTest {
+    private static final long UUID_HI = 0xd3cbd6aaaaaaaaaaL;
+    private static final long UUID_LO = 0xaaaaaaaaaa1feeeeL;
+
+    private final FrameFormatRegistry mRegistry = FrameFormatRegistry.createDefault();
+
+    private static BeaconFields createFields() {
+        return new BeaconFields().setUuid(UUID_HI, UUID_LO).setMajor(0xfeef).setMinor(0xaffa).setTxPower(-59)
+                .setUrl("https://www.sony.com/beacons").setBatteryMillivolts(3000).setTemperature(21.5)
+                .setAdvertisingCount(123456).setUptimeTenths(7890);
+    }
+
+    /**
+     * @return a scan record of the flags structure followed by one frame of the format
+     */
+    private static byte[] createRecord(FrameFormat format, BeaconFields fields) {
+        byte[] record = new byte[62];
+
+        record[0] = 2;
+        record[1] = ScanRecords.AD_TYPE_FLAGS;
+        record[2] = ScanRecords.FLAGS_LE_GENERAL;
+        format.writeStructure(fields, record, 3);
+        return record;
+    }
+
+    @Test
+    public void iBeaconTemplateMatchesTheDefaultFrame() {
+        byte[] expected = IBeaconFrames.createDefaultFrame();
+        byte[] encoded = new byte[IBeaconFrames.FRAME_LENGTH];
+        BeaconFrameView view = new BeaconFrameView(expected, 0);
+        BeaconFields fields = new BeaconFields().setBeaconId(BeaconId.fromFrame(expected, 0))
+                .setTxPower(view.getTxPower());
+
+        assertEquals(IBeaconFrames.FRAME_LENGTH, mRegistry.get(FrameFormat.IBEACON).encode(fields, encoded, 0));
+        assertArrayEquals(expected, encoded);
+
+        //and the scan side finds it where it always did
+        byte[] record = new byte[ScanRecords.IBEACON_RECORD_LENGTH];
+        ScanRecords.writeIBeaconRecord(record, 0, expected, 0);
+        int match = mRegistry.find(record, 0, record.length);
+        assertEquals(FrameFormat.IBEACON, FrameFormatRegistry.getFormatId(match));
+        assertEquals(ScanRecords.findIBeaconFrame(record, 0, record.length), FrameFormatRegistry.getDataOffset(match));
+        assertEquals(IBeaconFrames.FRAME_LENGTH, FrameFormatRegistry.getDataLength(record, match));
+    }
+
+    @Test
+    public void everyFormatIsDetectedAndRoundTrips() {
+        BeaconFields fields = createFields();
+
+        for (int id = FrameFormat.IBEACON; id <= FrameFormat.EDDYSTONE_TLM; id++) {
+            FrameFormat format = mRegistry.get(id);
+            byte[] record = createRecord(format, fields);
+            int match = mRegistry.find(record, 0, record.length);
+            BeaconFields decoded = new BeaconFields();
+
+            assertEquals(format.getName(), id, FrameFormatRegistry.getFormatId(match));
+            assertSame(format, mRegistry.detect(record, 3));
+            //what a hardware filter matches must be what the frame starts with
+            byte[] prefix = format.getFilterPrefix();
+            int dataOffset = FrameFormatRegistry.getDataOffset(match);
+            assertArrayEquals(format.getName(), prefix,
+                    Arrays.copyOfRange(record, dataOffset, dataOffset + prefix.length));
+            format.decode(record, FrameFormatRegistry.getDataOffset(match),
+                    FrameFormatRegistry.getDataLength(record, match), decoded);
+            if (id == FrameFormat.EDDYSTONE_TLM) {
+                assertEquals(3000, decoded.getBatteryMillivolts());
+                assertEquals(21.5, decoded.getTemperature(), 0);
+                assertEquals(123456, decoded.getAdvertisingCount());
+                assertEquals(7890, decoded.getUptimeTenths());
+                continue;
+            }
+            assertEquals(format.getName(), -59, decoded.getTxPower());
+            if (id == FrameFormat.EDDYSTONE_URL) {
+                assertEquals("https://www.sony.com/beacons", decoded.getUrl());
+                continue;
+            }
+            assertEquals(UUID_HI, decoded.getUuidMostSignificantBits());
+            assertEquals(UUID_LO, decoded.getUuidLeastSignificantBits());
+            if (id != FrameFormat.EDDYSTONE_UID) {
+                assertEquals(fields.getBeaconId(), decoded.getBeaconId());
+            }
+        }
+    }
+
+    @Test
+    public void patchesOnlyTheVariableFields() {
+        FrameFormat altBeacon = mRegistry.get(FrameFormat.ALTBEACON);
+        byte[] first = new byte[AltBeaconFormat.DATA_LENGTH];
+        byte[] second = new byte[AltBeaconFormat.DATA_LENGTH];
+        BeaconFields fields = createFields();
+
+        altBeacon.encode(fields, first, 0);
+        altBeacon.encode(fields.setMinor(1), second, 0);
+        assertEquals(0xbe, first[0] & 0xff);
+        assertEquals(0xac, first[1] & 0xff);
+        assertArrayEquals(Arrays.copyOf(first, 20), Arrays.copyOf(second, 20));
+        assertEquals(1, second[21]);
+    }
+
+    @Test
+    public void rejectsLookalikes() {
+        BeaconFields fields = createFields();
+        byte[] record = createRecord(mRegistry.get(FrameFormat.IBEACON), fields);
+
+        //iBeacon layout under another company
+        record[5] = 0x59;
+        assertEquals(FrameFormatRegistry.NOT_FOUND, mRegistry.find(record, 0, record.length));
+
+        //encrypted TLM, version 1
+        record = createRecord(mRegistry.get(FrameFormat.EDDYSTONE_TLM), fields);
+        record[8] = 1;
+        assertNull(mRegistry.detect(record, 3));
+
+        //Eddystone frame type nobody registered
+        record = createRecord(mRegistry.get(FrameFormat.EDDYSTONE_UID), fields);
+        record[7] = 0x30;
+        assertNull(mRegistry.detect(record, 3));
+    }
+
+    @Test
+    public void encodesUrlsWithExpansions() {
+        byte[] encoded = new byte[EddystoneUrlFormat.MAX_URL_BYTES];
+
+        assertEquals(8, EddystoneUrlFormat.encodeUrl("http://www.google.com/", encoded, 0));
+        assertEquals(0, encoded[0]);
+        assertEquals(0, encoded[7]);
+        assertEquals("https://goo.gl/S6zT6P", EddystoneUrlFormat.decodeUrl(encoded, 0,
+                EddystoneUrlFormat.encodeUrl("https://goo.gl/S6zT6P", encoded, 0)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsUrlsTooLong() {
+        new BeaconFields().setUrl("https://example.invalid/a/very/long/path");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsClashingFormats() {
+        mRegistry.register(new FrameFormat(7, "iBeacon again", ScanRecords.AD_TYPE_MANUFACTURER_SPECIFIC, 0,
+                0x0215, new byte[IBeaconFrames.FRAME_LENGTH], IBeaconFrames.FRAME_LENGTH) {
+            @Override
+            public int getAssignedNumber(BeaconFields fields) {
+                return 0;
+            }
+
+            @Override
+            protected int patch(BeaconFields fields, byte[] dst, int offset) {
+                return IBeaconFrames.FRAME_LENGTH;
+            }
+
+            @Override
+            public boolean accepts(int assignedNumber, byte[] data, int offset, int length) {
+                return true;
+            }
+
+            @Override
+            public void decode(byte[] data, int offset, int length, BeaconFields fields) {
+            }
+        });
+    }
+}
@@ -0,0 +1,208 @@
+package com.sonymobile.ibeaconservice.core.Import;
+
+import com.sonymobile.ibeaconservice.core.Model.BeaconFrameView;
+import com.sonymobile.ibeaconservice.core.Utils.FakeClock;
+import com.sonymobile.ibeaconservice.core.Utils.FrameValidator;
+import com.sonymobile.ibeaconservice.core.Utils.IBeaconFrames;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class FleetImporterTest {
+    private static final String UUID = "d3cbd6aaaaaaaaaaaaaaaaaaaa1f";
+
+    private final BeaconFrameView mView = new BeaconFrameView();
+    private final List<Integer> mMinors = new ArrayList<>();
+    private final List<String> mRejected = new ArrayList<>();
+    private int mBatches;
+    private byte[] mLastFrame;
+
+    private final FleetImporter.FrameSink mSink = new FleetImporter.FrameSink() {
+        @Override
+        public void onFrames(byte[] frames, int count) {
+            mBatches++;
+            for (int i = 0; i < count; i++) {
+                mMinors.add(mView.wrapFrame(frames, i).getMinor());
+            }
+            mLastFrame = new byte[IBeaconFrames.FRAME_LENGTH];
+            System.arraycopy(frames, (count - 1) * IBeaconFrames.FRAME_LENGTH, mLastFrame, 0, IBeaconFrames.FRAME_LENGTH);
+        }
+
+        @Override
+        public void onRejected(long line, byte validity) {
+            mRejected.add(line + ":" + validity);
+        }
+    };
+
+    private FakeClock mClock;
+
+    @Before
+    public void setUp() {
+        mClock = new FakeClock(0);
+    }
+
+    @Test
+    public void importsCsvIntoFrames() throws IOException {
+        FleetImporter importer = new FleetImporter(mClock, 2);
+        String csv = "uuid,battery,major,minor,txPower\r\n"
+                + UUID + ",eeee,feef,0001,c5\r\n"
+                + "\n"
+                + " " + UUID + " , eeee , feef , 0002 , c5 \n"
+                + UUID + ",eeee,feef,0003,c5";
+
+        assertEquals(3, importer.importFrom(new StringReader(csv), FleetImporter.FORMAT_CSV, mSink));
+
+        assertEquals("[1, 2, 3]", mMinors.toString());
+        assertEquals(2, mBatches);
+        byte[] expected = IBeaconFrames.createDefaultFrame();
+        mView.wrap(expected, 0).setMinor(3);
+        assertArrayEquals(expected, mLastFrame);
+        assertEquals(5, importer.getLines());
+        assertEquals(0, importer.getRejected());
+    }
+
+    @Test
+    public void skipsAByteOrderMarkAndBlankLinesBeforeTheHeader() throws IOException {
+        FleetImporter importer = new FleetImporter(mClock);
+        String csv = "\uFEFF\r\n"
+                + "  \n"
+                + "uuid,battery,major,minor,txPower\n"
+                + UUID + ",eeee,feef,0001,c5\n"
+                + "uuid,battery,major,minor,txPower\n";
+
+        assertEquals(1, importer.importFrom(new StringReader(csv), FleetImporter.FORMAT_CSV, mSink));
+
+        assertEquals("[1]", mMinors.toString());
+        //only the first non-blank line can be the header
+        assertEquals("[5:0]", mRejected.toString());
+    }
+
+    @Test
+    public void reportsWhichFieldsAreInvalid() throws IOException {
+        FleetImporter importer = new FleetImporter(mClock);
+        String csv = UUID + ",eeee,feef,0001,c5\n"
+                + UUID + ",eeee,fe,0002,c\n"
+                + UUID + ",eeee,feef\n"
+                + UUID + ",eeee,feef,00g1,c5,extra\n";
+
+        assertEquals(1, importer.importFrom(new StringReader(csv), FleetImporter.FORMAT_CSV, mSink));
+
+        byte badMajorAndPower = FrameValidator.ALL_VALID & ~FrameValidator.MAJOR_VALID & ~FrameValidator.SIGNAL_POWER_VALID;
+        assertEquals("[2:" + badMajorAndPower + ", 3:0, 4:0]", mRejected.toString());
+        assertEquals(3, importer.getRejected());
+    }
+
+    @Test
+    public void importsJsonLines() throws IOException {
+        FleetImporter importer = new FleetImporter(mClock);
+        String jsonLines = "{\"uuid\":\"" + UUID + "\",\"battery\":\"eeee\",\"major\":\"feef\",\"minor\":\"0001\",\"txPower\":\"c5\"}\n"
+                + "{ \"name\": \"lobby\", \"floor\": 3, \"minor\" : \"0002\", \"major\":\"feef\", \"battery\":\"eeee\","
+                + " \"txPower\":\"c5\", \"uuid\":\"" + UUID + "\", \"active\": true }\n"
+                + "{\"uuid\":\"" + UUID + "\",\"battery\":\"eeee\",\"major\":\"feef\",\"minor\":\"0003\"}\n"
+                + "{\"uuid\":\"" + UUID + "\",\"tags\":[\"a\"]}\n"
+                + "not json\n";
+
+        assertEquals(2, importer.importFrom(new StringReader(jsonLines), FleetImporter.FORMAT_JSON_LINES, mSink));
+
+        assertEquals("[1, 2]", mMinors.toString());
+        byte noPower = FrameValidator.ALL_VALID & ~FrameValidator.SIGNAL_POWER_VALID;
+        assertEquals("[3:" + noPower + ", 4:0, 5:0]", mRejected.toString());
+    }
+
+    @Test
+    public void detectsTheFormatFromTheContent() throws IOException {
+        String jsonLines = "\uFEFF\n  {\"uuid\":\"" + UUID + "\",\"battery\":\"eeee\",\"major\":\"feef\","
+                + "\"minor\":\"0001\",\"txPower\":\"c5\"}\n";
+        BufferedReader reader = new BufferedReader(new StringReader(jsonLines));
+        FleetImporter importer = new FleetImporter(mClock);
+
+        assertEquals(FleetImporter.FORMAT_JSON_LINES, FleetImporter.detectFormat(reader));
+        //nothing was consumed
+        assertEquals(1, importer.importFrom(reader, FleetImporter.FORMAT_JSON_LINES, mSink));
+        assertEquals(0, importer.getRejected());
+        assertEquals(FleetImporter.FORMAT_CSV, FleetImporter.detectFormat(
+                new BufferedReader(new StringReader("uuid,battery,major,minor,txPower\n"))));
+        assertEquals(FleetImporter.FORMAT_CSV, FleetImporter.detectFormat(new BufferedReader(new StringReader(""))));
+    }
+
+    @Test
+    public void overlongLinesAreRejected() throws IOException {
+        FleetImporter importer = new FleetImporter(mClock);
+        StringBuilder csv = new StringBuilder();
+
+        for (int i = 0; i < FleetImporter.MAX_LINE_LENGTH + 10; i++) {
+            csv.append('a');
+        }
+        csv.append('\n').append(UUID).append(",eeee,feef,0001,c5\n");
+
+        assertEquals(1, importer.importFrom(new StringReader(csv.toString()), FleetImporter.FORMAT_CSV, mSink));
+        assertEquals("[1:0]", mRejected.toString());
+    }
+
+    /**
+     * A million rows generated on the fly: nothing is kept per row, so this runs in the test
+     * heap without the input ever being held in memory.
+     */
+    @Test
+    public void streamsAMillionRows() throws IOException {
+        final int rows = 1_000_000;
+        FleetImporter importer = new FleetImporter(mClock);
+        final long[] frames = new long[1];
+
+        long accepted = importer.importFrom(new GeneratingReader(rows), FleetImporter.FORMAT_CSV,
+                new FleetImporter.FrameSink() {
+                    @Override
+                    public void onFrames(byte[] batch, int count) {
+                        frames[0] += count;
+                    }
+
+                    @Override
+                    public void onRejected(long line, byte validity) {
+                    }
+                });
+        assertEquals(rows, accepted);
+        assertEquals(rows, frames[0]);
+    }
+
+    private static class GeneratingReader extends Reader {
+        private final int mRows;
+        private int mRow;
+        private final char[] mLine = (UUID + ",eeee,feef,0000,c5\n").toCharArray();
+        private int mPosition = mLine.length;
+
+        GeneratingReader(int rows) {
+            mRows = rows;
+        }
+
+        @Override
+        public int read(char[] buffer, int offset, int length) {
+            int written = 0;
+
+            while (written < length) {
+                if (mPosition == mLine.length) {
+                    if (mRow == mRows) {
+                        break;
+                    }
+                    mRow++;
+                    mPosition = 0;
+                }
+                buffer[offset + written++] = mLine[mPosition++];
+            }
+            return written == 0 ? -1 : written;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package com.sonymobile.ibeaconservice.core.Metrics;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void bucketsArePowersOfTwo() {
+        assertEquals(0, LatencyHistogram.bucketOf(0));
+        assertEquals(1, LatencyHistogram.bucketOf(1));
+        assertEquals(2, LatencyHistogram.bucketOf(2));
+        assertEquals(2, LatencyHistogram.bucketOf(3));
+        assertEquals(11, LatencyHistogram.bucketOf(1024));
+        assertEquals(LatencyHistogram.BUCKET_COUNT - 1, LatencyHistogram.bucketOf(Long.MAX_VALUE));
+        assertEquals(2048, LatencyHistogram.getBucketUpperBoundNanos(11));
+    }
+
+    @Test
+    public void tracksCountMeanMaxAndPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram("latency");
+
+        assertEquals(0, histogram.getPercentileNanos(50));
+        for (int i = 0; i < 90; i++) {
+            histogram.record(1_000);
+        }
+        for (int i = 0; i < 10; i++) {
+            histogram.record(1_000_000);
+        }
+        histogram.record(-5);
+
+        assertEquals(101, histogram.getCount());
+        assertEquals((90 * 1_000L + 10 * 1_000_000L) / 101, histogram.getMeanNanos());
+        assertEquals(1_000_000, histogram.getMaxNanos());
+        assertEquals(1, histogram.getBucketCount(0));
+        assertEquals(1024, histogram.getPercentileNanos(50));
+        assertEquals(1024, histogram.getPercentileNanos(90));
+        //the top bucket reaches 2^20, capped at the largest sample
+        assertEquals(1_000_000, histogram.getPercentileNanos(99));
+
+        histogram.reset();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMaxNanos());
+    }
+
+    @Test
+    public void concurrentRecordsAreNotLost() throws InterruptedException {
+        final LatencyHistogram histogram = new LatencyHistogram("latency");
+        Thread[] threads = new Thread[4];
+
+        for (int t = 0; t < threads.length; t++) {
+            final int seed = t;
+            threads[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 10_000; i++) {
+                        histogram.record(seed * 1_000 + i);
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(40_000, histogram.getCount());
+        assertEquals(3 * 1_000 + 9_999, histogram.getMaxNanos());
+    }
+}
@@ -0,0 +1,85 @@
+package com.sonymobile.ibeaconservice.core.Metrics;
+
+import com.sonymobile.ibeaconservice.core.Utils.FakeClock;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class MetricsRegistryTest {
+    private FakeClock mClock;
+    private MetricsRegistry mRegistry;
+
+    @Before
+    public void setUp() {
+        mClock = new FakeClock(0);
+        mRegistry = new MetricsRegistry(mClock);
+    }
+
+    @Test
+    public void sameNameSameInstrument() {
+        Counter counter = mRegistry.counter("starts");
+
+        assertSame(counter, mRegistry.counter("starts"));
+        counter.increment();
+        counter.add(2);
+        assertEquals(3, mRegistry.getCount("starts"));
+        assertEquals(0, mRegistry.getCount("missing"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void nameClashAcrossTypesIsRejected() {
+        mRegistry.counter("starts");
+        mRegistry.histogram("starts");
+    }
+
+    @Test
+    public void timerAccumulatesActiveStretches() {
+        ActiveTimer timer = mRegistry.timer("on_air");
+
+        timer.stop();
+        timer.start();
+        mClock.advance(100);
+        timer.start();
+        mClock.advance(50);
+        timer.stop();
+        mClock.advance(1_000);
+        timer.start();
+        mClock.advance(30);
+
+        assertTrue(timer.isActive());
+        assertEquals(2, timer.getActivations());
+        assertEquals(30, timer.getCurrentNanos());
+        assertEquals(180, timer.getTotalNanos());
+
+        mRegistry.reset();
+        mClock.advance(5);
+        assertTrue(timer.isActive());
+        assertEquals(5, timer.getTotalNanos());
+        timer.stop();
+        assertFalse(timer.isActive());
+        assertEquals(5, timer.getTotalNanos());
+    }
+
+    @Test
+    public void dumpListsEveryInstrument() {
+        mRegistry.counter("advertise.starts").increment();
+        mRegistry.histogram("advertise.start_latency").record(2_000_000);
+        mRegistry.timer("advertise.on_air").start();
+        StringWriter out = new StringWriter();
+
+        mRegistry.dump(new PrintWriter(out));
+
+        String dump = out.toString();
+        assertTrue(dump, dump.contains("advertise.starts: 1"));
+        assertTrue(dump, dump.contains("advertise.start_latency: count=1"));
+        assertTrue(dump, dump.contains("advertise.on_air: 0.0 ms total over 1 activations, active for"));
+    }
+}
@@ -0,0 +1,96 @@
+package com.sonymobile.ibeaconservice.core.Model;
+
+import com.sonymobile.ibeaconservice.core.Utils.IBeaconFrames;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class BeaconFrameTest {
+
+    @Test
+    public void decodesDefaultFrameFields() {
+        BeaconFrame frame = new BeaconFrame(IBeaconFrames.createDefaultFrame());
+
+        assertEquals("d3cbd6aaaaaaaaaaaaaaaaaaaa1f", frame.getUUIDString());
+        assertEquals("eeee", frame.getBatteryVoltage());
+        assertEquals("feef", frame.getMajorBytesString());
+        assertEquals("affa", frame.getMinorBytesString());
+        assertEquals("c5", frame.getSignalPowerBytesString());
+    }
+
+    @Test
+    public void roundTripsManufacturerData() {
+        byte[] defaultFrame = IBeaconFrames.createDefaultFrame();
+
+        assertArrayEquals(defaultFrame, new BeaconFrame(defaultFrame).getManufacturerDataBytes());
+    }
+
+    @Test
+    public void settersEncodeIntoFrame() {
+        BeaconFrame frame = new BeaconFrame();
+
+        frame.setUUIDBytes("0102030405060708090a0b0c0d0e");
+        frame.setBatteryVoltageBytes("0f10");
+        frame.setMajorBytes("0001");
+        frame.setMinorBytes("ffff");
+        frame.setSignalPowerBytes("c5");
+
+        byte[] bytes = frame.getManufacturerDataBytes();
+
+        assertEquals(IBeaconFrames.FRAME_LENGTH, bytes.length);
+        assertEquals(IBeaconFrames.PRODUCT_ID, bytes[0]);
+        assertEquals(IBeaconFrames.DATA_LENGTH, bytes[1]);
+        assertEquals(0x01, bytes[IBeaconFrames.UUID_BYTES_INDEX]);
+        assertEquals(0x10, bytes[IBeaconFrames.BATTERY_VOLTAGE_INDEX + 1]);
+        assertEquals(0x01, bytes[IBeaconFrames.MAJOR_BYTE_INDEX + 1]);
+        assertEquals((byte)0xff, bytes[IBeaconFrames.MINOR_BYTE_INDEX]);
+        assertEquals((byte)0xc5, bytes[IBeaconFrames.SIGNAL_POWER_BYTES_INDEX]);
+    }
+
+    @Test
+    public void shortFieldsKeepFixedLayout() {
+        BeaconFrame frame = new BeaconFrame(IBeaconFrames.createDefaultFrame());
+
+        frame.setSignalPowerBytes("");
+        frame.setMajorBytes("01");
+
+        byte[] bytes = frame.getManufacturerDataBytes();
+        assertEquals(IBeaconFrames.FRAME_LENGTH, bytes.length);
+        assertEquals(0x01, bytes[IBeaconFrames.MAJOR_BYTE_INDEX]);
+        assertEquals(0x00, bytes[IBeaconFrames.MAJOR_BYTE_INDEX + 1]);
+        assertEquals(0x00, bytes[IBeaconFrames.SIGNAL_POWER_BYTES_INDEX]);
+    }
+
+    @Test
+    public void readsFrameAtOffsetAndZeroesUnsetFields() {
+        byte[] buffer = new byte[1 + IBeaconFrames.FRAME_LENGTH];
+
+        System.arraycopy(IBeaconFrames.createDefaultFrame(), 0, buffer, 1, IBeaconFrames.FRAME_LENGTH);
+        assertEquals("feef", new BeaconFrame(buffer, 1).getMajorBytesString());
+
+        BeaconFrame unset = new BeaconFrame();
+        unset.setMinorBytes("0102");
+        byte[] bytes = unset.getManufacturerDataBytes();
+        assertEquals(0x00, bytes[IBeaconFrames.UUID_BYTES_INDEX]);
+        assertEquals(0x02, bytes[IBeaconFrames.MINOR_BYTE_INDEX + 1]);
+    }
+
+    @Test
+    public void wrapsOrCopiesTheBuffer() {
+        byte[] buffer = new byte[1 + 2 * IBeaconFrames.FRAME_LENGTH];
+
+        System.arraycopy(IBeaconFrames.createDefaultFrame(), 0, buffer, 1 + IBeaconFrames.FRAME_LENGTH,
+                IBeaconFrames.FRAME_LENGTH);
+        BeaconFrame wrapped = new BeaconFrame(buffer, 1 + IBeaconFrames.FRAME_LENGTH, false);
+        BeaconFrame copied = new BeaconFrame(buffer, 1 + IBeaconFrames.FRAME_LENGTH);
+
+        wrapped.setMinorBytes("0102");
+        assertEquals(0x02, buffer[1 + IBeaconFrames.FRAME_LENGTH + IBeaconFrames.MINOR_BYTE_INDEX + 1]);
+        assertEquals("affa", copied.getMinorBytesString());
+        //the frame before it is left alone
+        assertEquals(0, buffer[1 + IBeaconFrames.FRAME_LENGTH - 1]);
+        assertArrayEquals(new byte[] {1, 2}, wrapped.getMinorBytes());
+    }
+}
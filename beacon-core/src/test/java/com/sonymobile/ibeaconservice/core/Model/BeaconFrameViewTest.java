@@ -0,0 +1,89 @@
+package com.sonymobile.ibeaconservice.core.Model;
+
+import com.sonymobile.ibeaconservice.core.Utils.IBeaconFrames;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class BeaconFrameViewTest {
+
+    @Test
+    public void readsDefaultFrameInPlace() {
+        BeaconFrameView view = new BeaconFrameView(IBeaconFrames.createDefaultFrame(), 0);
+
+        assertTrue(view.hasValidHeader());
+        assertEquals(0xeeee, view.getBatteryVoltage());
+        assertEquals(0xfeef, view.getMajor());
+        assertEquals(0xaffa, view.getMinor());
+        assertEquals(-59, view.getTxPower());
+    }
+
+    @Test
+    public void writesAreVisibleToBeaconFrame() {
+        byte[] buffer = IBeaconFrames.createDefaultFrame();
+
+        new BeaconFrameView(buffer, 0).setMajor(1).setMinor(0xffff).setTxPower(-70).setBatteryVoltage(0x0102);
+
+        BeaconFrame frame = new BeaconFrame(buffer);
+        assertEquals("0001", frame.getMajorBytesString());
+        assertEquals("ffff", frame.getMinorBytesString());
+        assertEquals("ba", frame.getSignalPowerBytesString());
+        assertEquals("0102", frame.getBatteryVoltage());
+    }
+
+    @Test
+    public void walksPackedFramesWithOneInstance() {
+        int count = 5;
+        byte[] buffer = new byte[count * IBeaconFrames.FRAME_LENGTH];
+        BeaconFrameView view = new BeaconFrameView();
+
+        for (int i = 0; i < count; i++) {
+            view.wrapFrame(buffer, i).writeHeader().setMajor(i).setMinor(i * 10);
+        }
+        for (int i = 0; i < count; i++) {
+            view.wrapFrame(buffer, i);
+            assertTrue(view.hasValidHeader());
+            assertEquals(i, view.getMajor());
+            assertEquals(i * 10, view.getMinor());
+        }
+    }
+
+    @Test
+    public void uuidRoundTrip() {
+        byte[] uuid = {1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14};
+        byte[] read = new byte[IBeaconFrames.UUID_DATA_LENGTH + 1];
+        BeaconFrameView view = new BeaconFrameView(new byte[30], 7).setUUID(uuid, 0);
+
+        view.getUUID(read, 1);
+        assertEquals(uuid[0], read[1]);
+        assertEquals(uuid[13], read[14]);
+        assertFalse(view.hasValidHeader());
+    }
+
+    @Test
+    public void copyMatchesManufacturerData() {
+        byte[] frame = IBeaconFrames.createDefaultFrame();
+        byte[] copy = new byte[IBeaconFrames.FRAME_LENGTH];
+
+        new BeaconFrameView(frame, 0).copyTo(copy, 0);
+        assertArrayEquals(new BeaconFrame(frame).getManufacturerDataBytes(), copy);
+    }
+
+    @Test
+    public void packsProximityUuidAndMajorMinor() {
+        BeaconFrameView view = new BeaconFrameView(IBeaconFrames.createDefaultFrame(), 0);
+
+        assertEquals(0xd3cbd6aaaaaaaaaaL, view.getProximityUuidMostSignificantBits());
+        assertEquals(0xaaaaaaaaaa1feeeeL, view.getProximityUuidLeastSignificantBits());
+        assertEquals(0xfeefaffa, view.getMajorMinor());
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void rejectsTruncatedBuffer() {
+        new BeaconFrameView(new byte[IBeaconFrames.FRAME_LENGTH], 1);
+    }
+}
@@ -0,0 +1,67 @@
+package com.sonymobile.ibeaconservice.core.Model;
+
+import com.sonymobile.ibeaconservice.core.Utils.IBeaconFrames;
+
+import org.junit.Test;
+
+import java.util.UUID;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+public class BeaconIdTest {
+    private static final UUID UUID_A = UUID.fromString("d3cbd6aa-aaaa-aaaa-aaaa-aaaaaa1feeee");
+
+    @Test
+    public void roundTripsDefaultFrame() {
+        byte[] frame = IBeaconFrames.createDefaultFrame();
+        BeaconId id = BeaconId.fromFrame(frame, 0);
+
+        assertEquals(UUID_A, id.toUUID());
+        assertEquals(0xfeef, id.getMajor());
+        assertEquals(0xaffa, id.getMinor());
+        assertArrayEquals(frame, id.toFrame(frame[IBeaconFrames.SIGNAL_POWER_BYTES_INDEX]));
+        assertEquals(id, BeaconId.fromFrame(new BeaconFrame(frame)));
+    }
+
+    @Test
+    public void equalityAndHashFollowAllFields() {
+        BeaconId id = BeaconId.of(UUID_A, 1, 2);
+
+        assertEquals(id, BeaconId.of(UUID_A, 1, 2));
+        assertEquals(id.hashCode(), BeaconId.of(UUID_A, 1, 2).hashCode());
+        assertNotEquals(id, BeaconId.of(UUID_A, 1, 3));
+        assertNotEquals(id, BeaconId.of(UUID_A, 2, 2));
+        assertNotEquals(id, new BeaconId(UUID_A.getMostSignificantBits(), ~UUID_A.getLeastSignificantBits(), 1, 2));
+    }
+
+    @Test
+    public void ordersUnsignedAsTheBytesWould() {
+        BeaconId low = new BeaconId(0x7fffffffffffffffL, 0, 0);
+        BeaconId high = new BeaconId(0x8000000000000000L, 0, 0);
+
+        assertTrue(low.compareTo(high) < 0);
+        assertTrue(BeaconId.of(UUID_A, 1, 0xffff).compareTo(BeaconId.of(UUID_A, 2, 0)) < 0);
+        assertTrue(BeaconId.of(UUID_A, 0x8000, 0).compareTo(BeaconId.of(UUID_A, 1, 0)) > 0);
+        assertEquals(0, BeaconId.of(UUID_A, 3, 4).compareTo(BeaconId.of(UUID_A, 3, 4)));
+    }
+
+    @Test
+    public void matchesUnderMask() {
+        BeaconId region = BeaconId.of(UUID_A, 7, 0);
+
+        assertTrue(region.matches(BeaconId.of(UUID_A, 7, 99), BeaconId.UUID_AND_MAJOR));
+        assertFalse(region.matches(BeaconId.of(UUID_A, 8, 99), BeaconId.UUID_AND_MAJOR));
+        assertTrue(region.matches(BeaconId.of(UUID_A, 8, 99), BeaconId.UUID_ONLY));
+        assertFalse(region.matches(BeaconId.of(UUID_A, 7, 99), BeaconId.ALL));
+        assertEquals(region, BeaconId.of(UUID_A, 7, 99).and(BeaconId.UUID_AND_MAJOR));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsOversizedMajor() {
+        BeaconId.of(UUID_A, 0x10000, 0);
+    }
+}
@@ -0,0 +1,145 @@
+package com.sonymobile.ibeaconservice.core.Regions;
+
+import com.sonymobile.ibeaconservice.core.Utils.FakeClock;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RegionMonitorTest {
+    private static final long UUID_HI = 0xd3cbd6aaaaaaaaaaL;
+    private static final long UUID_LO = 0xaaaaaaaaaa1feeeeL;
+    private static final long SECOND = 1000000000L;
+    private static final long TICK = SECOND / 10;
+
+    private final List<String> mEvents = new ArrayList<>();
+    private FakeClock mClock;
+    private RegionMonitor mMonitor;
+
+    @Before
+    public void setUp() {
+        mClock = new FakeClock(100 * SECOND);
+        mMonitor = new RegionMonitor(mClock, 100, TICK);
+        mMonitor.setListener(new RegionMonitor.Listener() {
+            @Override
+            public void onEnter(int regionId, long timestampNanos) {
+                mEvents.add("enter " + regionId);
+            }
+
+            @Override
+            public void onExit(int regionId, long timestampNanos) {
+                mEvents.add("exit " + regionId + " " + timestampNanos);
+            }
+        });
+    }
+
+    @Test
+    public void matchesEveryRegionKindContainingTheBeacon() {
+        int uuid = mMonitor.addRegion(UUID_HI, UUID_LO, RegionMonitor.ANY, RegionMonitor.ANY, SECOND);
+        int major = mMonitor.addRegion(UUID_HI, UUID_LO, 7, RegionMonitor.ANY, SECOND);
+        int exact = mMonitor.addRegion(UUID_HI, UUID_LO, 7, 1, SECOND);
+        int other = mMonitor.addRegion(UUID_HI, UUID_LO, 8, RegionMonitor.ANY, SECOND);
+
+        assertEquals(3, mMonitor.onSighting(UUID_HI, UUID_LO, (7 << 16) | 1, mClock.nanoTime()));
+        assertEquals(2, mMonitor.onSighting(UUID_HI, UUID_LO, (7 << 16) | 2, mClock.nanoTime()));
+        assertEquals(0, mMonitor.onSighting(UUID_HI + 1, UUID_LO, (7 << 16) | 1, mClock.nanoTime()));
+
+        assertTrue(mMonitor.isInside(uuid));
+        assertTrue(mMonitor.isInside(major));
+        assertTrue(mMonitor.isInside(exact));
+        assertFalse(mMonitor.isInside(other));
+        assertEquals(3, mEvents.size());
+    }
+
+    @Test
+    public void exitsAfterTimeoutUnlessSeenAgain() {
+        int region = mMonitor.addRegion(UUID_HI, UUID_LO, 7, RegionMonitor.ANY, SECOND);
+        long start = mClock.nanoTime();
+
+        mMonitor.onSighting(UUID_HI, UUID_LO, 7 << 16, start);
+        assertEquals(start + TICK, mMonitor.tick());
+
+        //seen again half way, the first deadline only re-files it
+        mClock.advance(SECOND / 2);
+        mMonitor.onSighting(UUID_HI, UUID_LO, 7 << 16, mClock.nanoTime());
+        mClock.advance(SECOND / 2 + TICK);
+        mMonitor.tick();
+        assertTrue(mMonitor.isInside(region));
+
+        mClock.advance(SECOND);
+        assertEquals(RegionMonitor.NO_DEADLINE, mMonitor.tick());
+        assertFalse(mMonitor.isInside(region));
+        assertEquals("exit " + region + " " + (start + SECOND / 2 + SECOND), mEvents.get(1));
+
+        mMonitor.onSighting(UUID_HI, UUID_LO, 7 << 16, mClock.nanoTime());
+        assertEquals("enter " + region, mEvents.get(2));
+    }
+
+    @Test
+    public void longSleepExpiresEverythingDue() {
+        for (int i = 0; i < 50; i++) {
+            mMonitor.addRegion(UUID_HI, UUID_LO, 1, i, (i + 1) * SECOND);
+            mMonitor.onSighting(UUID_HI, UUID_LO, (1 << 16) | i, mClock.nanoTime());
+        }
+        mClock.advance(25 * SECOND + TICK);
+        mMonitor.tick();
+        assertEquals(25, mMonitor.getInsideCount());
+
+        //far beyond a wheel revolution
+        mClock.advance(RegionMonitor.WHEEL_SIZE * 10 * TICK);
+        mMonitor.tick();
+        assertEquals(0, mMonitor.getInsideCount());
+        assertEquals(100, mEvents.size());
+    }
+
+    @Test
+    public void notifiesScheduleOnFirstEnter() {
+        final long[] deadline = {0};
+
+        mMonitor.setScheduleListener(new RegionMonitor.ScheduleListener() {
+            @Override
+            public void onScheduleChanged(long nextDeadlineNanos) {
+                deadline[0] = nextDeadlineNanos;
+            }
+        });
+        mMonitor.addRegion(UUID_HI, UUID_LO, RegionMonitor.ANY, RegionMonitor.ANY, SECOND);
+        mMonitor.onSighting(UUID_HI, UUID_LO, 0, mClock.nanoTime());
+
+        assertEquals(mClock.nanoTime() + TICK, deadline[0]);
+    }
+
+    @Test
+    public void removedRegionsFreeTheirIdAndKey() {
+        int[] ids = new int[100];
+
+        for (int i = 0; i < 100; i++) {
+            ids[i] = mMonitor.addRegion(UUID_HI, UUID_LO, i, RegionMonitor.ANY, SECOND);
+        }
+        mMonitor.onSighting(UUID_HI, UUID_LO, 3 << 16, mClock.nanoTime());
+        for (int i = 0; i < 100; i += 2) {
+            mMonitor.removeRegion(ids[i]);
+        }
+        assertEquals(50, mMonitor.getRegionCount());
+        for (int i = 0; i < 100; i++) {
+            assertEquals(i % 2, mMonitor.onSighting(UUID_HI, UUID_LO, i << 16, mClock.nanoTime()));
+        }
+        mMonitor.addRegion(UUID_HI, UUID_LO, 0, RegionMonitor.ANY, SECOND);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsDuplicateRegion() {
+        mMonitor.addRegion(UUID_HI, UUID_LO, 1, 2, SECOND);
+        mMonitor.addRegion(UUID_HI, UUID_LO, 1, 2, SECOND);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsMinorWithoutMajor() {
+        mMonitor.addRegion(UUID_HI, UUID_LO, RegionMonitor.ANY, 2, SECOND);
+    }
+}
@@ -0,0 +1,99 @@
+package com.sonymobile.ibeaconservice.core.Scanning;
+
+import com.sonymobile.ibeaconservice.core.Model.BeaconFrameView;
+import com.sonymobile.ibeaconservice.core.Utils.IBeaconFrames;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class ScanRecordsTest {
+    //what Android hands over: advertising data and scan response, zero padded
+    private static final int RAW_RECORD_LENGTH = 62;
+
+    private static byte[] iBeaconRecord(int minor) {
+        byte[] frame = IBeaconFrames.createDefaultFrame();
+        byte[] record = new byte[RAW_RECORD_LENGTH];
+
+        new BeaconFrameView().wrap(frame, 0).setMinor(minor);
+        ScanRecords.writeIBeaconRecord(record, 0, frame, 0);
+        return record;
+    }
+
+    @Test
+    public void findsFrameInPaddedRecord() {
+        byte[] record = iBeaconRecord(42);
+        int frameOffset = ScanRecords.findIBeaconFrame(record, 0, record.length);
+
+        assertEquals(7, frameOffset);
+        BeaconFrameView view = new BeaconFrameView().wrap(record, frameOffset);
+        assertEquals(42, view.getMinor());
+        assertEquals(0xfeef, view.getMajor());
+        assertEquals((byte) 0xc5, view.getTxPower());
+    }
+
+    @Test
+    public void findsFrameAfterOtherStructures() {
+        byte[] record = new byte[RAW_RECORD_LENGTH];
+        byte[] frame = IBeaconFrames.createDefaultFrame();
+        int at = 0;
+
+        //complete local name "b1", then the iBeacon without a flags structure
+        record[at++] = 3;
+        record[at++] = 0x09;
+        record[at++] = 'b';
+        record[at++] = '1';
+        record[at++] = 26;
+        record[at++] = (byte) 0xff;
+        record[at++] = 0x4c;
+        record[at++] = 0x00;
+        System.arraycopy(frame, 0, record, at, frame.length);
+
+        assertEquals(at, ScanRecords.findIBeaconFrame(record, 0, record.length));
+    }
+
+    @Test
+    public void ignoresOtherManufacturersAndBeaconFormats() {
+        byte[] record = iBeaconRecord(1);
+        byte[] otherCompany = record.clone();
+        byte[] altBeacon = record.clone();
+        byte[] otherProduct = record.clone();
+
+        otherCompany[5] = 0x75;
+        //AltBeacon: same shape, 0xbeac in place of 0x02 0x15
+        altBeacon[7] = (byte) 0xbe;
+        altBeacon[8] = (byte) 0xac;
+        otherProduct[7] = 0x03;
+
+        assertEquals(ScanRecords.NOT_FOUND, ScanRecords.findIBeaconFrame(otherCompany, 0, otherCompany.length));
+        assertEquals(ScanRecords.NOT_FOUND, ScanRecords.findIBeaconFrame(altBeacon, 0, altBeacon.length));
+        assertEquals(ScanRecords.NOT_FOUND, ScanRecords.findIBeaconFrame(otherProduct, 0, otherProduct.length));
+    }
+
+    @Test
+    public void stopsAtTruncatedOrTerminatedData() {
+        byte[] record = iBeaconRecord(1);
+
+        assertEquals(ScanRecords.NOT_FOUND,
+                ScanRecords.findIBeaconFrame(record, 0, ScanRecords.IBEACON_RECORD_LENGTH - 1));
+        //a structure length running past the end
+        byte[] bogus = record.clone();
+        bogus[0] = (byte) 0xf0;
+        assertEquals(ScanRecords.NOT_FOUND, ScanRecords.findIBeaconFrame(bogus, 0, bogus.length));
+        //zero length ends the significant part
+        byte[] terminated = record.clone();
+        terminated[3] = 0;
+        assertEquals(ScanRecords.NOT_FOUND, ScanRecords.findIBeaconFrame(terminated, 0, terminated.length));
+        assertEquals(ScanRecords.NOT_FOUND, ScanRecords.findIBeaconFrame(new byte[0], 0, 0));
+    }
+
+    @Test
+    public void honoursOffsetIntoLargerBuffer() {
+        byte[] buffer = new byte[100];
+        byte[] frame = IBeaconFrames.createDefaultFrame();
+
+        ScanRecords.writeIBeaconRecord(buffer, 40, frame, 0);
+        assertEquals(47, ScanRecords.findIBeaconFrame(buffer, 40, ScanRecords.IBEACON_RECORD_LENGTH));
+        assertEquals(ScanRecords.NOT_FOUND, ScanRecords.findIBeaconFrame(buffer, 0, 40));
+    }
+}
@@ -0,0 +1,130 @@
+package com.sonymobile.ibeaconservice.core.Scanning;
+
+import com.sonymobile.ibeaconservice.core.Model.BeaconFrameView;
+import com.sonymobile.ibeaconservice.core.Utils.IBeaconFrames;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class ShardedSightingDispatcherTest {
+    private static final int BEACONS = 64;
+
+    /**
+     * Remembers which beacons it saw and how often; only its own worker touches it.
+     */
+    private static class RecordingStage implements SightingPipeline.Stage {
+        final Map<Integer, Integer> mCounts = new HashMap<>();
+        private final BeaconFrameView mView = new BeaconFrameView();
+
+        @Override
+        public void onSighting(byte[] record, int frameOffset, int rssi, long timestampNanos) {
+            int minor = mView.wrap(record, frameOffset).getMinor();
+            Integer count = mCounts.get(minor);
+
+            mCounts.put(minor, count == null ? 1 : count + 1);
+        }
+    }
+
+    @Test
+    public void everyBeaconStaysOnOneWorker() throws InterruptedException {
+        ShardedSightingDispatcher dispatcher = new ShardedSightingDispatcher(4, 1024,
+                new ShardedSightingDispatcher.StageFactory() {
+                    @Override
+                    public SightingPipeline.Stage createStage(int shard) {
+                        return new RecordingStage();
+                    }
+                });
+        byte[] frame = IBeaconFrames.createDefaultFrame();
+        BeaconFrameView view = new BeaconFrameView(frame, 0);
+
+        dispatcher.start();
+        for (int round = 0; round < 100; round++) {
+            for (int beacon = 0; beacon < BEACONS; beacon++) {
+                view.setMinor(beacon);
+                dispatcher.onSighting(frame, 0, -60, round);
+                while (dispatcher.getDepth() > 512) {
+                    Thread.yield();
+                }
+            }
+        }
+        dispatcher.stop();
+
+        assertEquals(0, dispatcher.getDrops());
+        assertEquals(100 * BEACONS, dispatcher.getProcessed());
+        assertEquals(0, dispatcher.getDepth());
+        for (int beacon = 0; beacon < BEACONS; beacon++) {
+            view.setMinor(beacon);
+            int shard = dispatcher.shardOf(view.getProximityUuidMostSignificantBits(),
+                    view.getProximityUuidLeastSignificantBits(), view.getMajorMinor());
+
+            for (int i = 0; i < dispatcher.getShardCount(); i++) {
+                Integer count = ((RecordingStage)dispatcher.getStage(i)).mCounts.get(beacon);
+
+                if (i == shard) {
+                    assertEquals(Integer.valueOf(100), count);
+                } else {
+                    assertNull(count);
+                }
+            }
+        }
+    }
+
+    /**
+     * One sighting at a time, each waited for, so the worker parks before every one: a lost
+     * wake up hangs until the timeout. Runs twice, the scanner stops and starts it too.
+     */
+    @Test(timeout = 20000)
+    public void parkedWorkersWakeForEverySighting() throws InterruptedException {
+        ShardedSightingDispatcher dispatcher = new ShardedSightingDispatcher(1, 8,
+                new ShardedSightingDispatcher.StageFactory() {
+                    @Override
+                    public SightingPipeline.Stage createStage(int shard) {
+                        return new RecordingStage();
+                    }
+                });
+        byte[] frame = IBeaconFrames.createDefaultFrame();
+
+        for (int run = 1; run <= 2; run++) {
+            dispatcher.start();
+            for (int i = 0; i < 10000; i++) {
+                dispatcher.onSighting(frame, 0, -60, i);
+                while (dispatcher.getProcessed() < (run - 1) * 10000L + i + 1) {
+                    Thread.yield();
+                }
+            }
+            dispatcher.stop();
+        }
+        assertEquals(20000, dispatcher.getProcessed());
+        assertEquals(0, dispatcher.getDrops());
+    }
+
+    @Test
+    public void countsDropsWhenWorkersFallBehind() {
+        ShardedSightingDispatcher dispatcher = new ShardedSightingDispatcher(1, 8,
+                new ShardedSightingDispatcher.StageFactory() {
+                    @Override
+                    public SightingPipeline.Stage createStage(int shard) {
+                        return new RecordingStage();
+                    }
+                });
+        byte[] frame = IBeaconFrames.createDefaultFrame();
+
+        //not started, nothing drains
+        for (int i = 0; i < 10; i++) {
+            dispatcher.onSighting(frame, 0, -60, i);
+        }
+        assertEquals(8, dispatcher.getDepth());
+        assertEquals(2, dispatcher.getDrops());
+        assertEquals(2, dispatcher.getDrops(0));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsShardCountNotPowerOfTwo() {
+        new ShardedSightingDispatcher(3, 8, null);
+    }
+}
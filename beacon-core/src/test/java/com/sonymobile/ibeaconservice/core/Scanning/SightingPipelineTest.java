@@ -0,0 +1,109 @@
+package com.sonymobile.ibeaconservice.core.Scanning;
+
+import com.sonymobile.ibeaconservice.core.Formats.BeaconFields;
+import com.sonymobile.ibeaconservice.core.Formats.FrameFormat;
+import com.sonymobile.ibeaconservice.core.Formats.FrameFormatRegistry;
+import com.sonymobile.ibeaconservice.core.Model.BeaconFrameView;
+import com.sonymobile.ibeaconservice.core.Utils.IBeaconFrames;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SightingPipelineTest {
+
+    @Test
+    public void passesSightingsThroughStagesInOrder() {
+        final List<String> seen = new ArrayList<>();
+        final BeaconFrameView view = new BeaconFrameView();
+        SightingPipeline pipeline = new SightingPipeline();
+        SightingPipeline.Stage first = new SightingPipeline.Stage() {
+            @Override
+            public void onSighting(byte[] record, int frameOffset, int rssi, long timestampNanos) {
+                seen.add("first " + view.wrap(record, frameOffset).getMinor() + " " + rssi + " " + timestampNanos);
+            }
+        };
+        SightingPipeline.Stage second = new SightingPipeline.Stage() {
+            @Override
+            public void onSighting(byte[] record, int frameOffset, int rssi, long timestampNanos) {
+                seen.add("second");
+            }
+        };
+        pipeline.addStage(first);
+        pipeline.addStage(second);
+
+        byte[] frame = IBeaconFrames.createDefaultFrame();
+        byte[] record = new byte[62];
+        view.wrap(frame, 0).setMinor(9);
+        ScanRecords.writeIBeaconRecord(record, 0, frame, 0);
+
+        assertTrue(pipeline.onScanRecord(record, 0, record.length, -60, 1234));
+        assertFalse(pipeline.onScanRecord(new byte[62], 0, 62, -70, 1235));
+        pipeline.removeStage(first);
+        assertTrue(pipeline.onScanRecord(record, 0, record.length, -61, 1236));
+
+        assertEquals("[first 9 -60 1234, second, second]", seen.toString());
+        assertEquals(3, pipeline.getRecords());
+        assertEquals(2, pipeline.getSightings());
+        assertEquals(1, pipeline.getIgnored());
+    }
+
+    @Test
+    public void feedsWholeBatchAndEndsItOnce() {
+        final List<String> seen = new ArrayList<>();
+        SightingPipeline pipeline = new SightingPipeline();
+        byte[] record = new byte[ScanRecords.IBEACON_RECORD_LENGTH];
+
+        ScanRecords.writeIBeaconRecord(record, 0, IBeaconFrames.createDefaultFrame(), 0);
+        pipeline.addStage(new SightingPipeline.BatchStage() {
+            @Override
+            public void onSighting(byte[] record, int frameOffset, int rssi, long timestampNanos) {
+                seen.add(rssi + "");
+            }
+
+            @Override
+            public void onBatchEnd() {
+                seen.add("end");
+            }
+        });
+
+        byte[][] records = {record, new byte[8], null, record, record};
+        int[] rssi = {-60, -61, -62, -63, -64};
+        long[] timestamps = new long[5];
+
+        assertEquals(2, pipeline.onScanRecords(records, rssi, timestamps, 4));
+        assertEquals("[-60, -63, end]", seen.toString());
+        assertEquals(1, pipeline.getBatches());
+        assertEquals(4, pipeline.getLastBatchSize());
+        assertEquals(4, pipeline.getMaxBatchSize());
+    }
+
+    @Test
+    public void handsOtherFormatsToTheFrameListener() {
+        final List<String> seen = new ArrayList<>();
+        SightingPipeline pipeline = new SightingPipeline();
+        FrameFormatRegistry formats = FrameFormatRegistry.createDefault();
+        byte[] record = new byte[31];
+
+        pipeline.setFrameListener(new SightingPipeline.FrameListener() {
+            @Override
+            public void onFrame(FrameFormat format, byte[] record, int dataOffset, int dataLength, int rssi,
+                                long timestampNanos) {
+                seen.add(format.getName() + " " + dataLength + " " + rssi);
+            }
+        });
+        formats.get(FrameFormat.EDDYSTONE_URL).writeStructure(new BeaconFields().setUrl("https://sony.com"),
+                record, 0);
+
+        assertFalse(pipeline.onScanRecord(record, 0, record.length, -70, 1));
+        assertEquals("[Eddystone-URL 8 -70]", seen.toString());
+        assertEquals(1, pipeline.getFrames(FrameFormat.EDDYSTONE_URL));
+        assertEquals(0, pipeline.getSightings());
+        assertEquals(1, pipeline.getIgnored());
+    }
+}
@@ -0,0 +1,107 @@
+package com.sonymobile.ibeaconservice.core.Scanning;
+
+import com.sonymobile.ibeaconservice.core.Model.BeaconFrameView;
+import com.sonymobile.ibeaconservice.core.Utils.IBeaconFrames;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SightingRingTest {
+
+    @Test
+    public void copiesFramesAndWrapsAround() {
+        SightingRing ring = new SightingRing(4);
+        byte[] frame = IBeaconFrames.createDefaultFrame();
+        BeaconFrameView view = new BeaconFrameView(frame, 0);
+        final List<String> seen = new ArrayList<>();
+        SightingPipeline.Stage stage = new SightingPipeline.Stage() {
+            private final BeaconFrameView mView = new BeaconFrameView();
+
+            @Override
+            public void onSighting(byte[] record, int frameOffset, int rssi, long timestampNanos) {
+                seen.add(mView.wrap(record, frameOffset).getMinor() + " " + rssi + " " + timestampNanos);
+            }
+        };
+
+        for (int round = 0; round < 3; round++) {
+            for (int i = 0; i < 4; i++) {
+                view.setMinor(round * 4 + i);
+                assertTrue(ring.offer(frame, 0, -i, i));
+            }
+            //the ring holds a copy, not the caller's buffer
+            view.setMinor(99);
+            assertFalse(ring.offer(frame, 0, 0, 0));
+            assertEquals(4, ring.size());
+            assertEquals(4, ring.drain(stage, 10));
+            assertTrue(ring.isEmpty());
+        }
+        assertEquals(12, seen.size());
+        assertEquals("0 0 0", seen.get(0));
+        assertEquals("11 -3 3", seen.get(11));
+    }
+
+    @Test
+    public void drainRespectsLimit() {
+        SightingRing ring = new SightingRing(5);
+        byte[] frame = IBeaconFrames.createDefaultFrame();
+        SightingPipeline.Stage ignore = new SightingPipeline.Stage() {
+            @Override
+            public void onSighting(byte[] record, int frameOffset, int rssi, long timestampNanos) {
+            }
+        };
+
+        assertEquals(8, ring.capacity());
+        for (int i = 0; i < 8; i++) {
+            ring.offer(frame, 0, 0, i);
+        }
+        assertEquals(3, ring.drain(ignore, 3));
+        assertEquals(5, ring.size());
+        assertEquals(0, new SightingRing(1).drain(ignore, 3));
+    }
+
+    @Test
+    public void handsOverInOrderAcrossThreads() throws InterruptedException {
+        final SightingRing ring = new SightingRing(64);
+        final int count = 200000;
+        final long[] expected = {0};
+        final boolean[] inOrder = {true};
+        Thread consumer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                SightingPipeline.Stage check = new SightingPipeline.Stage() {
+                    @Override
+                    public void onSighting(byte[] record, int frameOffset, int rssi, long timestampNanos) {
+                        if (timestampNanos != expected[0]
+                                || record[frameOffset + IBeaconFrames.MINOR_BYTE_INDEX + 1] != (byte)timestampNanos) {
+                            inOrder[0] = false;
+                        }
+                        expected[0]++;
+                    }
+                };
+                while (expected[0] < count) {
+                    if (ring.drain(check, 16) == 0) {
+                        Thread.yield();
+                    }
+                }
+            }
+        });
+        byte[] frame = IBeaconFrames.createDefaultFrame();
+
+        consumer.start();
+        for (int i = 0; i < count; i++) {
+            frame[IBeaconFrames.MINOR_BYTE_INDEX + 1] = (byte)i;
+            while (!ring.offer(frame, 0, 0, i)) {
+                Thread.yield();
+            }
+        }
+        consumer.join();
+        assertTrue(inOrder[0]);
+        assertEquals(count, expected[0]);
+    }
+}
@@ -0,0 +1,141 @@
+package com.sonymobile.ibeaconservice.core.Scanning;
+
+import com.sonymobile.ibeaconservice.core.Model.BeaconFrameView;
+import com.sonymobile.ibeaconservice.core.Utils.IBeaconFrames;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TrafficGeneratorTest {
+    private static final int FLEET = 5000;
+
+    @Test
+    public void sameSeedGivesSameTraffic() {
+        TrafficGenerator first = new TrafficGenerator(42, FLEET);
+        TrafficGenerator second = new TrafficGenerator(42, FLEET);
+        TrafficGenerator other = new TrafficGenerator(43, FLEET);
+        byte[] firstRecord = new byte[ScanRecords.IBEACON_RECORD_LENGTH];
+        byte[] secondRecord = new byte[ScanRecords.IBEACON_RECORD_LENGTH];
+        boolean differs = false;
+
+        for (TrafficGenerator generator : new TrafficGenerator[] {first, second, other}) {
+            generator.setPacketLoss(0.1);
+        }
+        for (int i = 0; i < 3 * FLEET; i++) {
+            int beacon = first.next(firstRecord, 0);
+
+            assertEquals(beacon, second.next(secondRecord, 0));
+            assertArrayEquals(firstRecord, secondRecord);
+            assertEquals(first.getLastRssi(), second.getLastRssi());
+            assertEquals(first.getLastTimestampNanos(), second.getLastTimestampNanos());
+            differs |= other.next(secondRecord, 0) != beacon;
+        }
+        assertTrue(differs);
+    }
+
+    @Test
+    public void recordsMatchTheDefaultAdvertisement() {
+        TrafficGenerator generator = new TrafficGenerator(1, FLEET);
+        byte[] record = new byte[ScanRecords.IBEACON_RECORD_LENGTH];
+        byte[] expected = IBeaconFrames.createDefaultFrame();
+        BeaconFrameView view = new BeaconFrameView();
+        Set<Integer> seen = new HashSet<>();
+        long lastTimestamp = -1;
+
+        for (int i = 0; i < FLEET; i++) {
+            int beacon = generator.next(record, 0);
+            int frameOffset = ScanRecords.findIBeaconFrame(record, 0, record.length);
+
+            assertEquals(ScanRecords.IBEACON_RECORD_LENGTH - IBeaconFrames.FRAME_LENGTH, frameOffset);
+            view.wrap(expected, 0).setMajor(beacon / TrafficGenerator.DEFAULT_MINORS_PER_MAJOR + 1)
+                    .setMinor(beacon % TrafficGenerator.DEFAULT_MINORS_PER_MAJOR);
+            assertArrayEquals(expected, Arrays.copyOfRange(record, frameOffset, record.length));
+            assertEquals(generator.getMajorMinor(beacon), generator.getBeaconId(beacon).getMajorMinor());
+            assertTrue(generator.getLastTimestampNanos() >= lastTimestamp);
+            lastTimestamp = generator.getLastTimestampNanos();
+            seen.add(beacon);
+        }
+        //one round, every beacon heard once in it
+        assertEquals(FLEET, seen.size());
+        assertTrue(lastTimestamp < TrafficGenerator.DEFAULT_ADVERTISING_INTERVAL_NANOS);
+    }
+
+    @Test
+    public void rssiFollowsDistance() {
+        TrafficGenerator generator = new TrafficGenerator(7, FLEET);
+        byte[] record = new byte[ScanRecords.IBEACON_RECORD_LENGTH];
+        long nearSum = 0;
+        long farSum = 0;
+        int near = 0;
+        int far = 0;
+
+        generator.setRssiModel(-59, 2.0, 2.0);
+        for (int i = 0; i < 10 * FLEET; i++) {
+            int beacon = generator.next(record, 0);
+            int rssi = generator.getLastRssi();
+
+            assertTrue(rssi >= TrafficGenerator.MIN_RSSI && rssi <= TrafficGenerator.MAX_RSSI);
+            assertEquals(-59, new BeaconFrameView(record, ScanRecords.IBEACON_RECORD_LENGTH
+                    - IBeaconFrames.FRAME_LENGTH).getTxPower());
+            if (generator.getDistance(beacon) < 2) {
+                nearSum += rssi;
+                near++;
+            } else if (generator.getDistance(beacon) > 10) {
+                farSum += rssi;
+                far++;
+            }
+        }
+        //-59 - 20 log10(d): above -65 dBm within 2 m, below -79 dBm past 10 m
+        assertTrue(nearSum / near > -65);
+        assertTrue(farSum / far < -79);
+    }
+
+    @Test
+    public void lossIsRandomOrBursty() {
+        TrafficGenerator random = new TrafficGenerator(3, FLEET);
+        TrafficGenerator bursty = new TrafficGenerator(3, FLEET);
+        byte[] record = new byte[ScanRecords.IBEACON_RECORD_LENGTH];
+
+        random.setPacketLoss(0.2);
+        bursty.setBurstLoss(0.01, 0.1, 1.0);
+        for (int i = 0; i < 100000; i++) {
+            random.next(record, 0);
+            bursty.next(record, 0);
+        }
+        double randomLoss = random.getLost() / (double) (random.getLost() + random.getGenerated());
+        //a burst about every 100 packets, lasting 10: roughly 1 packet in 12 lost
+        double burstyLoss = bursty.getLost() / (double) (bursty.getLost() + bursty.getGenerated());
+
+        assertEquals(0.2, randomLoss, 0.01);
+        assertEquals(0.083, burstyLoss, 0.02);
+        assertEquals(100000, random.getGenerated());
+    }
+
+    @Test
+    public void drivesThePipelineInBatches() {
+        TrafficGenerator generator = new TrafficGenerator(5, FLEET);
+        SightingPipeline pipeline = new SightingPipeline();
+
+        assertEquals(25000, generator.drive(pipeline, 25000, 1000));
+        assertEquals(25000, pipeline.getSightings());
+        assertEquals(25, pipeline.getBatches());
+        assertEquals(0, pipeline.getIgnored());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsFleetsWithoutRoomForMajors() {
+        new TrafficGenerator(1, 100000, 1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsLosingEveryPacket() {
+        new TrafficGenerator(42, FLEET).setPacketLoss(1.0);
+    }
+}
@@ -0,0 +1,226 @@
+package com.sonymobile.ibeaconservice.core.Storage;
+
+import com.sonymobile.ibeaconservice.core.Model.BeaconFrameView;
+import com.sonymobile.ibeaconservice.core.Utils.IBeaconFrames;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ProfileStoreTest {
+    @Rule
+    public final TemporaryFolder mFolder = new TemporaryFolder();
+
+    private final BeaconFrameView mView = new BeaconFrameView();
+
+    private byte[] frame(int minor) {
+        byte[] frame = IBeaconFrames.createDefaultFrame();
+
+        mView.wrap(frame, 0).setMinor(minor);
+        return frame;
+    }
+
+    private int minorOf(ProfileStore store, int id) {
+        byte[] frame = new byte[IBeaconFrames.FRAME_LENGTH];
+
+        assertTrue(store.get(id, frame, 0));
+        return mView.wrap(frame, 0).getMinor();
+    }
+
+    @Test
+    public void profilesSurviveReopenAndGrowth() throws IOException {
+        File file = mFolder.newFile("profiles.db");
+        file.delete();
+
+        try (ProfileStore store = ProfileStore.open(file)) {
+            store.setDurable(false);
+            for (int i = 0; i < 1000; i++) {
+                assertEquals(i, store.append("beacon-" + i, frame(i), 0));
+            }
+            store.setActiveId(500);
+        }
+        try (ProfileStore store = ProfileStore.open(file)) {
+            assertEquals(1000, store.size());
+            assertEquals(0, store.getDamagedCount());
+            assertEquals(999, minorOf(store, 999));
+            assertEquals(742, store.findByName("beacon-742"));
+            assertEquals("beacon-17", store.getName(17));
+            assertEquals(500, store.getActiveId());
+            assertEquals(ProfileStore.NO_PROFILE, store.findByName("missing"));
+            assertFalse(store.get(1000, new byte[IBeaconFrames.FRAME_LENGTH], 0));
+        }
+    }
+
+    @Test
+    public void updateAndDelete() throws IOException {
+        File file = new File(mFolder.getRoot(), "profiles.db");
+
+        try (ProfileStore store = ProfileStore.open(file)) {
+            int home = store.append("home", frame(1), 0);
+            int office = store.append("office", frame(2), 0);
+
+            store.setActiveId(office);
+            store.update(home, frame(10), 0);
+            store.delete(office);
+
+            assertEquals(10, minorOf(store, home));
+            assertNull(store.getName(office));
+            assertEquals(ProfileStore.NO_PROFILE, store.getActiveId());
+            //the name is free again, the id is not reused
+            assertEquals(2, store.append("office", frame(3), 0));
+        }
+        try (ProfileStore store = ProfileStore.open(file)) {
+            assertEquals(10, minorOf(store, 0));
+            assertFalse(store.get(1, new byte[IBeaconFrames.FRAME_LENGTH], 0));
+            assertEquals(2, store.findByName("office"));
+        }
+    }
+
+    @Test
+    public void bulkAppendsAreNamelessAndCommittedTogether() throws IOException {
+        File file = new File(mFolder.getRoot(), "profiles.db");
+        byte[] frames = new byte[3000 * IBeaconFrames.FRAME_LENGTH];
+
+        for (int i = 0; i < 3000; i++) {
+            mView.wrapFrame(frames, i).writeHeader().setMinor(i);
+        }
+        try (ProfileStore store = ProfileStore.open(file)) {
+            store.append("home", frame(1), 0);
+            assertEquals(1, store.appendAll(frames, 3000));
+            assertEquals(3001, store.size());
+            assertEquals(2999, minorOf(store, 3000));
+            assertEquals("", store.getName(1));
+            assertEquals(ProfileStore.NO_PROFILE, store.findByName(""));
+            store.delete(1);
+        }
+        try (ProfileStore store = ProfileStore.open(file)) {
+            assertEquals(3001, store.size());
+            assertEquals(0, store.findByName("home"));
+            assertEquals(ProfileStore.NO_PROFILE, store.findByName(""));
+            assertNull(store.getName(1));
+            assertEquals(1, minorOf(store, 2));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void duplicateNamesAreRejected() throws IOException {
+        try (ProfileStore store = ProfileStore.open(new File(mFolder.getRoot(), "profiles.db"))) {
+            store.append("home", frame(1), 0);
+            store.append("home", frame(2), 0);
+        }
+    }
+
+    @Test
+    public void uncommittedAppendIsInvisibleAndReused() throws IOException {
+        File file = new File(mFolder.getRoot(), "profiles.db");
+
+        try (ProfileStore store = ProfileStore.open(file)) {
+            store.append("home", frame(1), 0);
+        }
+        //crash after the record was written but before the count was bumped
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(ProfileStore.HEADER_LENGTH + ProfileStore.RECORD_LENGTH);
+            raf.write(new byte[]{0, 4, 0, 0, 1, 2, 3, 4, 'j', 'u', 'n', 'k'});
+        }
+        try (ProfileStore store = ProfileStore.open(file)) {
+            assertEquals(1, store.size());
+            assertEquals(1, store.append("office", frame(2), 0));
+            assertEquals(2, minorOf(store, 1));
+        }
+    }
+
+    @Test
+    public void tornRecordReadsAsDamaged() throws IOException {
+        File file = new File(mFolder.getRoot(), "profiles.db");
+
+        try (ProfileStore store = ProfileStore.open(file)) {
+            store.append("home", frame(1), 0);
+            store.append("office", frame(2), 0);
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(ProfileStore.HEADER_LENGTH + ProfileStore.FRAME_INDEX + IBeaconFrames.MINOR_BYTE_INDEX);
+            raf.write(0x7f);
+        }
+        try (ProfileStore store = ProfileStore.open(file)) {
+            //opening reads no records, the damage shows when the record is
+            assertEquals(0, store.getDamagedCount());
+            assertFalse(store.get(0, new byte[IBeaconFrames.FRAME_LENGTH], 0));
+            assertEquals(1, store.getDamagedCount());
+            assertEquals(ProfileStore.NO_PROFILE, store.findByName("home"));
+            assertEquals(2, minorOf(store, 1));
+        }
+    }
+
+    @Test
+    public void nameIndexCatchesUpAfterACrashAndIsRebuiltWhenLost() throws IOException {
+        File file = new File(mFolder.getRoot(), "profiles.db");
+        File names = new File(file.getPath() + ProfileStore.NAMES_SUFFIX);
+        byte[] frames = new byte[100 * IBeaconFrames.FRAME_LENGTH];
+
+        for (int i = 0; i < 100; i++) {
+            mView.wrapFrame(frames, i).writeHeader().setMinor(i);
+        }
+        try (ProfileStore store = ProfileStore.open(file)) {
+            store.append("home", frame(1), 0);
+            store.appendAll(frames, 100);
+            store.append("office", frame(2), 0);
+        }
+        //crash after "office" was committed to the store, before its index entry was
+        rewindNames(names, 1, 1);
+        try (ProfileStore store = ProfileStore.open(file)) {
+            assertEquals(101, store.findByName("office"));
+        }
+        assertEquals(2, nameEntries(names));
+
+        //crash after the entry was counted, before the index covered it: not added twice
+        rewindNames(names, 1, 2);
+        try (ProfileStore store = ProfileStore.open(file)) {
+            assertEquals(0, store.findByName("home"));
+            assertEquals(101, store.findByName("office"));
+            store.delete(101);
+        }
+        assertEquals(2, nameEntries(names));
+
+        assertTrue(names.delete());
+        try (ProfileStore store = ProfileStore.open(file)) {
+            assertEquals(0, store.findByName("home"));
+            assertEquals(ProfileStore.NO_PROFILE, store.findByName("office"));
+            assertEquals(102, store.append("office", frame(3), 0));
+        }
+        assertEquals(3, nameEntries(names));
+    }
+
+    private static void rewindNames(File names, int covered, int entries) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(names, "rw")) {
+            raf.seek(ProfileStore.NAMES_COVERED_INDEX);
+            raf.writeInt(covered);
+            raf.writeInt(entries);
+        }
+    }
+
+    private static int nameEntries(File names) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(names, "r")) {
+            raf.seek(ProfileStore.NAMES_COUNT_INDEX);
+            return raf.readInt();
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void foreignFileIsRejected() throws IOException {
+        File file = mFolder.newFile("notes.txt");
+
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.write(new byte[ProfileStore.HEADER_LENGTH]);
+        }
+        ProfileStore.open(file);
+    }
+}
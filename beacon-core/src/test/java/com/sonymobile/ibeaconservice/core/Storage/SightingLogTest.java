@@ -0,0 +1,195 @@
+package com.sonymobile.ibeaconservice.core.Storage;
+
+import com.sonymobile.ibeaconservice.core.Model.BeaconFrameView;
+import com.sonymobile.ibeaconservice.core.Model.BeaconId;
+import com.sonymobile.ibeaconservice.core.Scanning.ScanRecords;
+import com.sonymobile.ibeaconservice.core.Utils.IBeaconFrames;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SightingLogTest {
+    private static final long UUID_HI = 0xd3cbd6aaaaaaaaaaL;
+    private static final long UUID_LO = 0xaaaaaaaaaa1feeeeL;
+    private static final BeaconId MAJOR_MASK = new BeaconId(0, 0, 0xffff0000);
+    private static final int RECORDS_PER_SEGMENT = 4 * SightingLog.INDEX_BLOCK_RECORDS;
+
+    @Rule
+    public final TemporaryFolder mFolder = new TemporaryFolder();
+
+    private static class Collector implements SightingLog.Visitor {
+        final List<Long> mTimestamps = new ArrayList<>();
+        final List<Integer> mRssi = new ArrayList<>();
+
+        @Override
+        public void onRecord(long uuidHi, long uuidLo, int majorMinor, int rssi, int txPower, long timestampNanos) {
+            mTimestamps.add(timestampNanos);
+            mRssi.add(rssi);
+        }
+    }
+
+    private static BeaconId major(int major) {
+        return new BeaconId(0, 0, major << 16);
+    }
+
+    private static void fill(SightingLog log, int count) throws IOException {
+        for (int i = 0; i < count; i++) {
+            log.append(UUID_HI, UUID_LO, ((i % 4) << 16) | i & 0xffff, -40 - i % 50, -59, i);
+        }
+    }
+
+    @Test
+    public void queriesByTimeAndMaskAcrossSegments() throws IOException {
+        try (SightingLog log = SightingLog.open(mFolder.newFolder(), RECORDS_PER_SEGMENT, 100)) {
+            Collector collector = new Collector();
+
+            fill(log, 3 * RECORDS_PER_SEGMENT);
+            assertEquals(3, log.getSegmentCount());
+            assertEquals(3 * RECORDS_PER_SEGMENT, log.size());
+
+            long from = RECORDS_PER_SEGMENT + 100;
+            long to = RECORDS_PER_SEGMENT + 199;
+            assertEquals(25, log.query(from, to, major(2), MAJOR_MASK, collector));
+            //one block of one segment read, the rest skipped on the index
+            assertEquals(1, log.getLastQueryBlocks());
+            for (long timestamp : collector.mTimestamps) {
+                assertEquals(2, timestamp % 4);
+            }
+            assertEquals(RECORDS_PER_SEGMENT, log.query(0, Long.MAX_VALUE, new BeaconId(UUID_HI, UUID_LO, 0),
+                    BeaconId.UUID_ONLY, new Collector()) / 3);
+        }
+    }
+
+    @Test
+    public void survivesReopenAndIgnoresUncommittedTail() throws IOException {
+        File directory = mFolder.newFolder();
+
+        try (SightingLog log = SightingLog.open(directory, RECORDS_PER_SEGMENT, 100)) {
+            fill(log, 1500);
+        }
+        //a record written past the count, as a crash before the commit would leave it
+        File segment = directory.listFiles()[0];
+        try (RandomAccessFile raf = new RandomAccessFile(segment, "rw")) {
+            long offset = SightingLog.HEADER_LENGTH
+                    + RECORDS_PER_SEGMENT / SightingLog.INDEX_BLOCK_RECORDS * SightingLog.INDEX_ENTRY_LENGTH
+                    + 1500L * SightingLog.RECORD_LENGTH + SightingLog.TIMESTAMP_INDEX;
+            raf.seek(offset);
+            raf.writeLong(Long.reverseBytes(1000));
+        }
+        try (SightingLog log = SightingLog.open(directory, RECORDS_PER_SEGMENT, 100)) {
+            Collector collector = new Collector();
+
+            assertEquals(1500, log.size());
+            assertEquals(1, log.query(1000, 1000, new BeaconId(0, 0, 0), new BeaconId(0, 0, 0), collector));
+            assertEquals(Integer.valueOf(-40 - 1000 % 50), collector.mRssi.get(0));
+
+            fill(log, RECORDS_PER_SEGMENT);
+            assertEquals(2, log.getSegmentCount());
+        }
+    }
+
+    @Test
+    public void discardsSegmentsThatDoNotValidate() throws IOException {
+        File directory = mFolder.newFolder();
+
+        try (SightingLog log = SightingLog.open(directory, RECORDS_PER_SEGMENT, 100)) {
+            fill(log, 2 * RECORDS_PER_SEGMENT + 10);
+        }
+        String[] names = directory.list();
+        Arrays.sort(names);
+        //a header never written, and a segment whose creation was cut short
+        try (RandomAccessFile raf = new RandomAccessFile(new File(directory, names[1]), "rw")) {
+            raf.write(new byte[SightingLog.HEADER_LENGTH]);
+        }
+        File torn = new File(directory, names[2].replace("0002.log", "0003.log"));
+        try (RandomAccessFile raf = new RandomAccessFile(torn, "rw")) {
+            raf.write(new byte[10]);
+        }
+        try (SightingLog log = SightingLog.open(directory, RECORDS_PER_SEGMENT, 100)) {
+            assertEquals(2, log.getDiscardedSegments());
+            assertEquals(2, log.getSegmentCount());
+            assertEquals(RECORDS_PER_SEGMENT + 10, log.size());
+            assertFalse(new File(directory, names[1]).exists());
+            assertFalse(torn.exists());
+
+            fill(log, RECORDS_PER_SEGMENT);
+            assertEquals(3, log.getSegmentCount());
+            //numbered after the discarded one
+            assertTrue(new File(directory, names[2].replace("0002.log", "0004.log")).exists());
+        }
+    }
+
+    @Test
+    public void retentionDropsOldestSegments() throws IOException {
+        File directory = mFolder.newFolder();
+
+        try (SightingLog log = SightingLog.open(directory, RECORDS_PER_SEGMENT, 3)) {
+            fill(log, 5 * RECORDS_PER_SEGMENT);
+            assertEquals(3, log.getSegmentCount());
+            assertEquals(3, directory.list().length);
+            assertEquals(0, log.query(0, 2L * RECORDS_PER_SEGMENT - 1, new BeaconId(0, 0, 0),
+                    new BeaconId(0, 0, 0), new Collector()));
+
+            assertEquals(1, log.deleteBefore(3L * RECORDS_PER_SEGMENT));
+            assertEquals(2, log.getSegmentCount());
+            //the segment being written stays
+            assertEquals(1, log.deleteBefore(Long.MAX_VALUE));
+            assertEquals(1, log.getSegmentCount());
+        }
+    }
+
+    @Test
+    public void logsPipelineSightingsInWallClockTime() throws IOException {
+        try (SightingLog log = SightingLog.open(mFolder.newFolder(), RECORDS_PER_SEGMENT, 2)) {
+            byte[] frame = IBeaconFrames.createDefaultFrame();
+            byte[] record = new byte[ScanRecords.IBEACON_RECORD_LENGTH];
+            final int[] seen = new int[3];
+            //booted a second before this wall clock time
+            long offset = 1_500_000_000_000_000_000L - 1_000_000_000L;
+
+            new BeaconFrameView(frame, 0).setMajor(7).setMinor(8);
+            ScanRecords.writeIBeaconRecord(record, 0, frame, 0);
+            log.setTimeBaseOffsetNanos(offset);
+            log.onSighting(record, ScanRecords.findIBeaconFrame(record, 0, record.length), -70, 42);
+
+            assertEquals(0, log.query(0, 100, BeaconId.fromFrame(frame, 0), BeaconId.ALL, new Collector()));
+            log.query(offset + 42, offset + 42, BeaconId.fromFrame(frame, 0), BeaconId.ALL, new SightingLog.Visitor() {
+                @Override
+                public void onRecord(long uuidHi, long uuidLo, int majorMinor, int rssi, int txPower,
+                                     long timestampNanos) {
+                    seen[0] = majorMinor;
+                    seen[1] = rssi;
+                    seen[2] = txPower;
+                }
+            });
+            assertEquals((7 << 16) | 8, seen[0]);
+            assertEquals(-70, seen[1]);
+            assertEquals(-59, seen[2]);
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsAppendsOnceClosed() throws IOException {
+        SightingLog log = SightingLog.open(mFolder.newFolder(), RECORDS_PER_SEGMENT, 2);
+
+        log.close();
+        log.append(UUID_HI, UUID_LO, 0, -60, -59, 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsSegmentsNotWholeBlocks() throws IOException {
+        SightingLog.open(mFolder.newFolder(), SightingLog.INDEX_BLOCK_RECORDS + 1, 2);
+    }
+}
@@ -0,0 +1,134 @@
+package com.sonymobile.ibeaconservice.core.Tracking;
+
+import com.sonymobile.ibeaconservice.core.Model.BeaconFrameView;
+import com.sonymobile.ibeaconservice.core.Scanning.ScanRecords;
+import com.sonymobile.ibeaconservice.core.Scanning.SightingPipeline;
+import com.sonymobile.ibeaconservice.core.Utils.IBeaconFrames;
+
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+public class BeaconStateTableTest {
+    private static final long UUID_HI = 0xd3cbd6aaaaaaaaaaL;
+    private static final long UUID_LO = 0xaaaaaaaaaa1feeeeL;
+    private static final long SECOND = 1000000000L;
+
+    @Test
+    public void tracksRssiCountAndLastSeen() {
+        BeaconStateTable table = new BeaconStateTable(16, 10 * SECOND, 0.5f);
+
+        table.update(UUID_HI, UUID_LO, 1, -60, 1);
+        int slot = table.update(UUID_HI, UUID_LO, 1, -70, 2);
+
+        assertEquals(slot, table.find(UUID_HI, UUID_LO, 1));
+        assertEquals(-70, table.getLastRssi(slot));
+        assertEquals(-65f, table.getSmoothedRssi(slot), 0f);
+        assertEquals(2, table.getLastSeenNanos(slot));
+        assertEquals(2, table.getCount(slot));
+        assertEquals(1, table.size());
+        assertEquals(BeaconStateTable.NOT_FOUND, table.find(UUID_HI, UUID_LO, 2));
+        assertEquals(BeaconStateTable.NOT_FOUND, table.find(UUID_HI + 1, UUID_LO, 1));
+    }
+
+    @Test
+    public void readsKeyFromPipelineSightings() {
+        BeaconStateTable table = new BeaconStateTable(16, SECOND);
+        SightingPipeline pipeline = new SightingPipeline();
+        byte[] frame = IBeaconFrames.createDefaultFrame();
+        byte[] record = new byte[ScanRecords.IBEACON_RECORD_LENGTH];
+
+        new BeaconFrameView(frame, 0).setMajor(0x0102).setMinor(0x0304);
+        ScanRecords.writeIBeaconRecord(record, 0, frame, 0);
+        pipeline.addStage(table);
+        pipeline.onScanRecord(record, 0, record.length, -59, 5);
+
+        int slot = table.find(UUID_HI, UUID_LO, 0x01020304);
+        assertNotEquals(BeaconStateTable.NOT_FOUND, slot);
+        assertEquals(UUID_HI, table.getUuidMostSignificantBits(slot));
+        assertEquals(UUID_LO, table.getUuidLeastSignificantBits(slot));
+        assertEquals(-59, table.getLastRssi(slot));
+    }
+
+    @Test
+    public void evictsStaleEntries() {
+        BeaconStateTable table = new BeaconStateTable(100, 10 * SECOND);
+
+        for (int i = 0; i < 100; i++) {
+            table.update(UUID_HI, UUID_LO, i, -50, i % 2 == 0 ? 0 : 20 * SECOND);
+        }
+        assertEquals(50, table.evictStale(25 * SECOND));
+        assertEquals(50, table.size());
+        for (int i = 0; i < 100; i++) {
+            assertEquals(i % 2 != 0, table.find(UUID_HI, UUID_LO, i) != BeaconStateTable.NOT_FOUND);
+        }
+        assertEquals(50, table.getEvictions());
+    }
+
+    @Test
+    public void makesRoomByEvictingLeastRecentlySeen() {
+        BeaconStateTable table = new BeaconStateTable(4, 100 * SECOND);
+
+        for (int i = 0; i < 4; i++) {
+            table.update(UUID_HI, UUID_LO, i, -50, 10 + i);
+        }
+        table.update(UUID_HI, UUID_LO, 0, -50, 20);
+        table.update(UUID_HI, UUID_LO, 4, -50, 21);
+
+        assertEquals(4, table.size());
+        assertEquals(BeaconStateTable.NOT_FOUND, table.find(UUID_HI, UUID_LO, 1));
+        assertNotEquals(BeaconStateTable.NOT_FOUND, table.find(UUID_HI, UUID_LO, 0));
+        assertNotEquals(BeaconStateTable.NOT_FOUND, table.find(UUID_HI, UUID_LO, 4));
+        assertEquals(1, table.getEvictions());
+    }
+
+    @Test
+    public void removeKeepsProbeChainsIntact() {
+        BeaconStateTable table = new BeaconStateTable(1000, SECOND);
+
+        for (int i = 0; i < 1000; i++) {
+            table.update(UUID_HI, UUID_LO, i, -i, 0);
+        }
+        for (int i = 0; i < 1000; i += 3) {
+            table.remove(table.find(UUID_HI, UUID_LO, i));
+        }
+        for (int i = 0; i < 1000; i++) {
+            int slot = table.find(UUID_HI, UUID_LO, i);
+
+            if (i % 3 == 0) {
+                assertEquals(BeaconStateTable.NOT_FOUND, slot);
+            } else {
+                assertEquals(-i, table.getLastRssi(slot));
+            }
+        }
+    }
+
+    @Test
+    public void iteratesEveryEntryOnce() {
+        BeaconStateTable table = new BeaconStateTable(64, SECOND);
+        Set<Integer> seen = new HashSet<>();
+
+        for (int i = 0; i < 64; i++) {
+            table.update(i, ~i, i, -50, 0);
+        }
+        for (int slot = table.nextSlot(0); slot != BeaconStateTable.NOT_FOUND; slot = table.nextSlot(slot + 1)) {
+            assertTrue(seen.add(table.getMajorMinor(slot)));
+        }
+        assertEquals(64, seen.size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsEmptySlot() {
+        new BeaconStateTable(4, SECOND).getLastRssi(0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsBadSmoothing() {
+        new BeaconStateTable(4, SECOND, 0f);
+    }
+}
@@ -0,0 +1,142 @@
+package com.sonymobile.ibeaconservice.core.Tracking;
+
+import com.sonymobile.ibeaconservice.core.Model.BeaconFrameView;
+import com.sonymobile.ibeaconservice.core.Scanning.ScanRecords;
+import com.sonymobile.ibeaconservice.core.Scanning.SightingPipeline;
+import com.sonymobile.ibeaconservice.core.Utils.IBeaconFrames;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+public class ProximityEngineTest {
+    private static final long UUID_HI = 0xd3cbd6aaaaaaaaaaL;
+    private static final long UUID_LO = 0xaaaaaaaaaa1feeeeL;
+    private static final long SECOND = 1000000000L;
+    private static final int TX_POWER = -59;
+
+    @Test
+    public void rssiAtTxPowerIsOneMeter() {
+        ProximityEngine engine = new ProximityEngine(16, SECOND);
+        SightingBatch batch = new SightingBatch(8);
+
+        batch.add(UUID_HI, UUID_LO, 1, TX_POWER, TX_POWER, 0);
+        batch.add(UUID_HI, UUID_LO, 2, TX_POWER - 20, TX_POWER, 0);
+        engine.process(batch);
+
+        assertEquals(1f, batch.getDistance(0), 1e-4f);
+        assertEquals(ProximityEngine.PROXIMITY_NEAR, batch.getProximity(0));
+        //20dB more loss at n = 2 is ten times the distance
+        assertEquals(10f, batch.getDistance(1), 1e-3f);
+        assertEquals(ProximityEngine.PROXIMITY_FAR, batch.getProximity(1));
+    }
+
+    @Test
+    public void filterConvergesAndDampsOutliers() {
+        ProximityEngine engine = new ProximityEngine(16, SECOND);
+        SightingBatch batch = new SightingBatch(64);
+
+        for (int i = 0; i < 63; i++) {
+            batch.add(UUID_HI, UUID_LO, 1, -70 + (i % 2 == 0 ? 4 : -4), TX_POWER, i);
+        }
+        batch.add(UUID_HI, UUID_LO, 1, -40, TX_POWER, 63);
+        engine.process(batch);
+
+        int slot = engine.getStates().find(UUID_HI, UUID_LO, 1);
+        float estimate = engine.getEstimatedRssi(slot);
+        assertEquals(-40, engine.getStates().getLastRssi(slot));
+        assertEquals(-70f, estimate, 6f);
+    }
+
+    @Test
+    public void hysteresisHoldsClassNearBoundary() {
+        ProximityEngine engine = new ProximityEngine(16, SECOND);
+        SightingBatch batch = new SightingBatch(1);
+
+        engine.setFilter(1000f, 0.001f);
+        //2.5m: near
+        assertEquals(ProximityEngine.PROXIMITY_NEAR, processOne(engine, batch, distanceToRssi(2.5)));
+        //just past the 3m boundary, within the 15% margin: still near
+        assertEquals(ProximityEngine.PROXIMITY_NEAR, processOne(engine, batch, distanceToRssi(3.3)));
+        assertEquals(ProximityEngine.PROXIMITY_FAR, processOne(engine, batch, distanceToRssi(3.6)));
+        //back just under it: still far
+        assertEquals(ProximityEngine.PROXIMITY_FAR, processOne(engine, batch, distanceToRssi(2.8)));
+        assertEquals(ProximityEngine.PROXIMITY_NEAR, processOne(engine, batch, distanceToRssi(2.4)));
+        assertEquals(3, engine.getProximityChanges());
+    }
+
+    @Test
+    public void missingTxPowerIsUnknown() {
+        ProximityEngine engine = new ProximityEngine(16, SECOND);
+        SightingBatch batch = new SightingBatch(1);
+
+        batch.add(UUID_HI, UUID_LO, 1, -60, 0, 0);
+        engine.process(batch);
+
+        assertEquals(ProximityEngine.PROXIMITY_UNKNOWN, batch.getProximity(0));
+        assertEquals(-1f, batch.getDistance(0), 0f);
+    }
+
+    @Test
+    public void stateFollowsEntriesAcrossEviction() {
+        ProximityEngine engine = new ProximityEngine(64, SECOND);
+        SightingBatch batch = new SightingBatch(64);
+
+        for (int i = 0; i < 64; i++) {
+            batch.add(UUID_HI, UUID_LO, i, -50 - i, TX_POWER, i % 2 == 0 ? 0 : 10 * SECOND);
+        }
+        engine.process(batch);
+        engine.getStates().evictStale(10 * SECOND);
+
+        for (int i = 1; i < 64; i += 2) {
+            int slot = engine.getStates().find(UUID_HI, UUID_LO, i);
+
+            assertEquals(-50 - i, engine.getEstimatedRssi(slot), 0f);
+        }
+    }
+
+    @Test
+    public void fullTableEvictsMidBatch() {
+        ProximityEngine engine = new ProximityEngine(4, 100 * SECOND);
+        SightingBatch batch = new SightingBatch(8);
+
+        for (int i = 0; i < 8; i++) {
+            batch.add(UUID_HI, UUID_LO, i, -60, TX_POWER, i);
+        }
+        engine.process(batch);
+
+        assertEquals(ProximityEngine.PROXIMITY_UNKNOWN, batch.getProximity(0));
+        assertEquals(ProximityEngine.PROXIMITY_NEAR, batch.getProximity(7));
+        assertEquals(4, engine.getStates().size());
+    }
+
+    @Test
+    public void buffersPipelineSightingsUntilBatchEnd() {
+        ProximityEngine engine = new ProximityEngine(16, SECOND, 4);
+        SightingPipeline pipeline = new SightingPipeline();
+        byte[] frame = IBeaconFrames.createDefaultFrame();
+        byte[] record = new byte[ScanRecords.IBEACON_RECORD_LENGTH];
+
+        new BeaconFrameView(frame, 0).setTxPower(TX_POWER);
+        ScanRecords.writeIBeaconRecord(record, 0, frame, 0);
+        pipeline.addStage(engine);
+        pipeline.onScanRecord(record, 0, record.length, TX_POWER, 0);
+        assertEquals(0, engine.getSightings());
+
+        pipeline.endBatch();
+        assertEquals(1, engine.getSightings());
+        assertNotEquals(BeaconStateTable.NOT_FOUND, engine.getStates().find(UUID_HI, UUID_LO, 0xfeefaffa));
+    }
+
+    private static int processOne(ProximityEngine engine, SightingBatch batch, int rssi) {
+        batch.clear();
+        batch.add(UUID_HI, UUID_LO, 1, rssi, TX_POWER, 0);
+        engine.process(batch);
+        return batch.getProximity(0);
+    }
+
+    private static int distanceToRssi(double meters) {
+        return (int)Math.round(TX_POWER - 20 * Math.log10(meters));
+    }
+}
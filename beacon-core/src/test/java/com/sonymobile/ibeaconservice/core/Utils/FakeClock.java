@@ -0,0 +1,25 @@
+package com.sonymobile.ibeaconservice.core.Utils;
+
+/**
+ * Hand driven {@link Clock} for tests.
+ */
+public class FakeClock implements Clock {
+    private long mNow;
+
+    public FakeClock(long start) {
+        mNow = start;
+    }
+
+    @Override
+    public long nanoTime() {
+        return mNow;
+    }
+
+    public void set(long now) {
+        mNow = now;
+    }
+
+    public void advance(long nanos) {
+        mNow += nanos;
+    }
+}
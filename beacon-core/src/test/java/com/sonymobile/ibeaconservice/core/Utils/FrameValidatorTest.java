@@ -0,0 +1,46 @@
+package com.sonymobile.ibeaconservice.core.Utils;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class FrameValidatorTest {
+
+    @Test
+    public void allFieldsPresent() {
+        assertEquals(FrameValidator.ALL_VALID,
+                FrameValidator.checkDataValidity("d3cbd6aaaaaaaaaaaaaaaaaaaa1f", "eeee", "feef", "affa", "c5"));
+    }
+
+    @Test
+    public void flagsEachShortField() {
+        byte validity = FrameValidator.checkDataValidity("d3cb", "eeee", "fe", null, "c");
+
+        assertEquals(0, validity & FrameValidator.UUID_VALID);
+        assertEquals(FrameValidator.BATTERY_VOLTAGE_VALID, validity & FrameValidator.BATTERY_VOLTAGE_VALID);
+        assertEquals(0, validity & FrameValidator.MAJOR_VALID);
+        assertEquals(0, validity & FrameValidator.MINOR_VALID);
+        assertEquals(0, validity & FrameValidator.SIGNAL_POWER_VALID);
+    }
+
+    @Test
+    public void rejectsNonHexCharacters() {
+        byte validity = FrameValidator.checkDataValidity("d3cbd6aaaaaaaaaaaaaaaaaaaa1g", "eeee", "feef", "af-a", "zz");
+
+        assertEquals(0, validity & FrameValidator.UUID_VALID);
+        assertEquals(0, validity & FrameValidator.MINOR_VALID);
+        assertEquals(0, validity & FrameValidator.SIGNAL_POWER_VALID);
+    }
+
+    @Test
+    public void validatesFieldsInCharBuffers() {
+        char[] line = "x,feef,c5,af-a".toCharArray();
+
+        assertTrue(FrameValidator.isValidField(line, 2, 4, IBeaconFrames.MAJOR_BYTES_LENGTH));
+        assertTrue(FrameValidator.isValidField(line, 7, 2, IBeaconFrames.SIGNAL_POWER_BYTES_LENGTH));
+        assertFalse(FrameValidator.isValidField(line, 10, 4, IBeaconFrames.MINOR_BYTES_LENGTH));
+        assertFalse(FrameValidator.isValidField(line, 2, 3, IBeaconFrames.MAJOR_BYTES_LENGTH));
+    }
+}
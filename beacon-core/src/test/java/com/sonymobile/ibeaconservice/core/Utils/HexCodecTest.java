@@ -0,0 +1,94 @@
+package com.sonymobile.ibeaconservice.core.Utils;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class HexCodecTest {
+
+    @Test
+    public void encodesLowerCaseWithLeadingZeros() {
+        assertEquals("000fa0ff", HexCodec.convertValuesToHexString(new byte[]{0x00, 0x0f, (byte)0xa0, (byte)0xff}));
+    }
+
+    @Test
+    public void decodesMixedCase() {
+        assertArrayEquals(new byte[]{0x00, 0x0f, (byte)0xa0, (byte)0xff}, HexCodec.convertStringToBytes("000Fa0FF"));
+    }
+
+    @Test
+    public void emptyInputGivesEmptyOutput() {
+        assertEquals("", HexCodec.convertValuesToHexString(new byte[0]));
+        assertEquals(0, HexCodec.convertStringToBytes("").length);
+    }
+
+    @Test
+    public void encodeWritesIntoCallerBuffer() {
+        char[] dst = new char[6];
+
+        assertEquals(4, HexCodec.encode(new byte[]{0x12, (byte)0xab, 0x00}, 1, 2, dst, 1));
+        assertEquals("\0ab00\0", new String(dst));
+    }
+
+    @Test
+    public void decodeWritesIntoCallerBuffer() {
+        byte[] dst = new byte[4];
+
+        assertEquals(2, HexCodec.decode("xxC5fe", 2, 4, dst, 1));
+        assertArrayEquals(new byte[]{0, (byte)0xc5, (byte)0xfe, 0}, dst);
+        assertEquals(1, HexCodec.decode("0a".toCharArray(), 0, 2, dst, 3));
+        assertEquals(0x0a, dst[3]);
+    }
+
+    @Test
+    public void invalidInputLeavesBufferUntouched() {
+        byte[] dst = new byte[2];
+
+        try {
+            HexCodec.decode("01zz", 0, 4, dst, 0);
+            fail();
+        } catch (IllegalArgumentException expected) {
+            assertArrayEquals(new byte[2], dst);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsOddLength() {
+        HexCodec.convertStringToBytes("abc");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsNonAscii() {
+        HexCodec.convertStringToBytes("\u0661\u0662");
+    }
+
+    @Test
+    public void bulkRoundTrip() {
+        byte[][] frames = {IBeaconFrames.createDefaultFrame(), new byte[]{1, 2}, new byte[0]};
+        char[] chars = new char[50];
+
+        assertEquals(50, HexCodec.encodeAll(frames, chars, 0));
+
+        String all = new String(chars);
+        String[] hexFrames = {all.substring(0, 46), all.substring(46), ""};
+        byte[] packed = new byte[25];
+
+        assertEquals(25, HexCodec.decodeAll(hexFrames, packed, 0));
+        assertEquals(frames[0][22], packed[22]);
+        assertEquals(2, packed[24]);
+    }
+
+    @Test
+    public void bulkDecodeRejectsBatchBeforeWriting() {
+        byte[] packed = new byte[4];
+
+        try {
+            HexCodec.decodeAll(new String[]{"0101", "0g"}, packed, 0);
+            fail();
+        } catch (IllegalArgumentException expected) {
+            assertArrayEquals(new byte[4], packed);
+        }
+    }
+}